@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Asynchronous companion to {@link IPersonAttributeDao}. Queries return immediately with a {@link ListenableFuture}
+ * that completes with the same results the matching {@link IPersonAttributeDao} method would return, callers can
+ * register listeners on it instead of blocking a thread for the duration of the query.
+ * 
+ * @version $Revision$
+ */
+public interface IAsyncPersonAttributeDao {
+    /**
+     * Asynchronous version of {@link IPersonAttributeDao#getPeopleWithMultivaluedAttributes(Map)}. Exceptions the
+     * query fails with are reported through the returned future, not thrown.
+     * 
+     * @param query A {@link Map} of name/value pair attributes to use in searching for {@link IPersonAttributes}s
+     * @return A future for the {@link Set} of {@link IPersonAttributes}s that match the query {@link Map}.
+     *         If no matches are found the future completes with an empty {@link Set}.
+     *         If the query could not be run the future completes with null.
+     * @throws IllegalArgumentException If <code>query</code> is <code>null.</code>
+     */
+    public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(Map<String, List<Object>> query);
+}
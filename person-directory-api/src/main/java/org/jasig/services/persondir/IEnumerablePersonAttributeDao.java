@@ -0,0 +1,42 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir;
+
+/**
+ * Implemented by {@link IPersonAttributeDao}s that can enumerate every person in their data store, for example to
+ * export or synchronize the whole directory. People are passed to an {@link IPersonAttributesCallback} as they are
+ * read so the population is never held in memory at once, unlike a wildcard query through
+ * {@link IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)} which returns all matches in a
+ * single {@link java.util.Set}.
+ * 
+ * @version $Revision$
+ */
+public interface IEnumerablePersonAttributeDao {
+    /**
+     * Passes every person in the data store to the callback, with the attributes the DAO would return for a query
+     * for that person. The enumeration runs on the calling thread and returns once all people have been passed to the
+     * callback, the callback returned false or an exception was thrown. Exceptions thrown by the callback are
+     * propagated to the caller.
+     * 
+     * @param callback The callback to pass each person to
+     * @return The number of people passed to the callback
+     * @throws IllegalArgumentException If <code>callback</code> is <code>null.</code>
+     */
+    public long enumeratePeople(IPersonAttributesCallback callback);
+}
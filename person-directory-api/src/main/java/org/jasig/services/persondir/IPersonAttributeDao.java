@@ -18,6 +18,7 @@
  */
 package org.jasig.services.persondir;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +83,30 @@ public interface IPersonAttributeDao {
      */
     public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(Map<String, List<Object>> query);
 
+    /**
+     * Searches for the {@link IPersonAttributes} of each of the specified uids (userNames), the batch equivalent of
+     * {@link #getPerson(String)}. Implementations may resolve all uids with fewer queries than calling
+     * {@link #getPerson(String)} for each of them.
+     * 
+     * @param uids The userNames of the people to find.
+     * @return A {@link Map} from uid to the populated {@link IPersonAttributes} for that uid, in the iteration order of
+     *         <code>uids</code>. Uids no person could be found for are not included.
+     * @throws IllegalArgumentException If <code>uids</code> is or contains <code>null.</code>
+     */
+    public Map<String, IPersonAttributes> getPersons(Collection<String> uids);
+    
+    /**
+     * Searches for the {@link IPersonAttributes}s that match each of the query {@link Map}s provided, the batch
+     * equivalent of {@link #getPeopleWithMultivaluedAttributes(Map)}. Implementations may run fewer queries than
+     * calling {@link #getPeopleWithMultivaluedAttributes(Map)} for each query.
+     * 
+     * @param queries The query {@link Map}s to search with.
+     * @return A {@link Map} from each distinct query {@link Map} to the result {@link #getPeopleWithMultivaluedAttributes(Map)}
+     *         would return for it, including null for queries that could not be run, in the iteration order of <code>queries</code>.
+     * @throws IllegalArgumentException If <code>queries</code> is or contains <code>null.</code>
+     */
+    public Map<Map<String, List<Object>>, Set<IPersonAttributes>> getPeopleForQueries(Collection<Map<String, List<Object>>> queries);
+
     /**
      * Gets a {@link Set} of attribute names that may be returned for an IPersonAttributes. The names returned represent all
      * possible attributes names for the {@link IPersonAttributes} objects returned by the get methods. If the dao doesn't have a
@@ -0,0 +1,36 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir;
+
+/**
+ * Receives the people enumerated by an {@link IEnumerablePersonAttributeDao}, one at a time as they are read from
+ * the underlying data store.
+ * 
+ * @version $Revision$
+ */
+public interface IPersonAttributesCallback {
+    /**
+     * Called once for each person enumerated. The DAO does not read the next person until this method returns, so a
+     * slow callback slows the enumeration down instead of causing people to be buffered in memory.
+     * 
+     * @param person The attributes of the person
+     * @return true to continue the enumeration, false to stop it without reading any more people
+     */
+    public boolean processPerson(IPersonAttributes person);
+}
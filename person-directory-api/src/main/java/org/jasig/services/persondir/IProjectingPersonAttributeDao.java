@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implemented by {@link IPersonAttributeDao}s that can limit a query to the attributes the caller needs. The DAO
+ * passes the attribute names down to its data store, for example as the attributes an LDAP search returns or the
+ * columns an SQL query selects, so attributes that are not needed are neither transferred nor mapped. A caller that
+ * only checks <code>memberOf</code> does not have to read every attribute of the person.
+ * 
+ * @version $Revision$
+ */
+public interface IProjectingPersonAttributeDao extends IPersonAttributeDao {
+    /**
+     * Searches for {@link IPersonAttributes}s that match the query {@link Map} as
+     * {@link IPersonAttributeDao#getPeopleWithMultivaluedAttributes(Map)} does, returning only the named attributes.
+     * The people found and their names are the same as for the unprojected query, people without any of the named
+     * attributes are returned with an empty attributes Map.
+     * 
+     * @param query A {@link Map} of name/value pair attributes to use in searching for {@link IPersonAttributes}s
+     * @param resultAttributeNames The names of the attributes to return, null to return all attributes
+     * @return A {@link Set} of {@link IPersonAttributes}s that match the query {@link Map}. If no matches are found an empty {@link Set} is returned. If the query could not be run null is returned.
+     * @throws IllegalArgumentException If <code>query</code> is <code>null.</code>
+     */
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(Map<String, List<Object>> query, Set<String> resultAttributeNames);
+}
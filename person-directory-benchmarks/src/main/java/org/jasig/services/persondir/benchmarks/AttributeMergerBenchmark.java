@@ -0,0 +1,119 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.NamedPersonImpl;
+import org.jasig.services.persondir.support.merger.IAttributeMerger;
+import org.jasig.services.persondir.support.merger.MultivaluedAttributeMerger;
+import org.jasig.services.persondir.support.merger.NoncollidingAttributeAdder;
+import org.jasig.services.persondir.support.merger.ReplacingAttributeAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures each {@link IAttributeMerger} merging the attributes of a single person and merging the results of two
+ * queries. Half of the attributes of the two sides collide. Mergers modify their first argument, including its value
+ * lists, so each invocation merges into a copy and the cost of the copy is included in the results.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AttributeMergerBenchmark {
+    @Param({ "MultivaluedAttributeMerger", "NoncollidingAttributeAdder", "ReplacingAttributeAdder" })
+    public String merger;
+
+    @Param({ "20" })
+    public int attributes;
+
+    @Param({ "50" })
+    public int people;
+
+    private IAttributeMerger attributeMerger;
+    private Map<String, List<Object>> toModifyAttributes;
+    private Map<String, List<Object>> toConsiderAttributes;
+    private Set<IPersonAttributes> toModifyResults;
+    private Set<IPersonAttributes> toConsiderResults;
+
+    @Setup
+    public void setup() {
+        switch (this.merger) {
+            case "MultivaluedAttributeMerger":
+                this.attributeMerger = new MultivaluedAttributeMerger();
+                break;
+            case "NoncollidingAttributeAdder":
+                this.attributeMerger = new NoncollidingAttributeAdder();
+                break;
+            case "ReplacingAttributeAdder":
+                this.attributeMerger = new ReplacingAttributeAdder();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown merger: " + this.merger);
+        }
+
+        this.toModifyAttributes = createAttributes(0, "modify");
+        this.toConsiderAttributes = createAttributes(this.attributes / 2, "consider");
+
+        this.toModifyResults = new LinkedHashSet<>();
+        this.toConsiderResults = new LinkedHashSet<>();
+        for (int index = 0; index < this.people; index++) {
+            this.toModifyResults.add(new NamedPersonImpl("user" + index, this.toModifyAttributes));
+            this.toConsiderResults.add(new NamedPersonImpl("user" + index, this.toConsiderAttributes));
+        }
+    }
+
+    private Map<String, List<Object>> createAttributes(final int first, final String value) {
+        final Map<String, List<Object>> attributes = new HashMap<>();
+        for (int index = first; index < first + this.attributes; index++) {
+            attributes.put("attribute" + index, Arrays.<Object>asList(value + index));
+        }
+        return attributes;
+    }
+
+    @Benchmark
+    public Map<String, List<Object>> mergeAttributes() {
+        final Map<String, List<Object>> toModify = new HashMap<>();
+        for (final Map.Entry<String, List<Object>> attribute : this.toModifyAttributes.entrySet()) {
+            toModify.put(attribute.getKey(), new ArrayList<>(attribute.getValue()));
+        }
+        return this.attributeMerger.mergeAttributes(toModify, this.toConsiderAttributes);
+    }
+
+    @Benchmark
+    public Set<IPersonAttributes> mergeResults() {
+        return this.attributeMerger.mergeResults(new LinkedHashSet<>(this.toModifyResults), this.toConsiderResults);
+    }
+}
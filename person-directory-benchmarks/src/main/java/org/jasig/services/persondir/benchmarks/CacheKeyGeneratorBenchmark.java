@@ -0,0 +1,113 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.support.AttributeBasedCacheKeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link AttributeBasedCacheKeyGenerator#generateKey(MethodInvocation)} for a
+ * getPeopleWithMultivaluedAttributes call, using either only the username or all of the query attributes.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyGeneratorBenchmark {
+    @Param({ "false", "true" })
+    public boolean useAllAttributes;
+
+    @Param({ "1", "8" })
+    public int queryAttributes;
+
+    private AttributeBasedCacheKeyGenerator cacheKeyGenerator;
+    private MethodInvocation methodInvocation;
+
+    @Setup
+    public void setup() throws Exception {
+        this.cacheKeyGenerator = new AttributeBasedCacheKeyGenerator();
+        this.cacheKeyGenerator.setUseAllAttributes(this.useAllAttributes);
+
+        final Map<String, List<Object>> query = new HashMap<>();
+        query.put("username", Arrays.<Object>asList("edalquist"));
+        for (int index = 1; index < this.queryAttributes; index++) {
+            query.put("attribute" + index, Arrays.<Object>asList("value" + index));
+        }
+
+        final Method method = IPersonAttributeDao.class.getMethod("getPeopleWithMultivaluedAttributes", Map.class);
+        this.methodInvocation = new QueryMethodInvocation(method, query);
+    }
+
+    @Benchmark
+    public Serializable generateKey() {
+        return this.cacheKeyGenerator.generateKey(this.methodInvocation);
+    }
+
+    /**
+     * Fixed invocation of a single argument method, only the method and arguments are used by the generator.
+     */
+    private static final class QueryMethodInvocation implements MethodInvocation {
+        private final Method method;
+        private final Object[] arguments;
+
+        public QueryMethodInvocation(final Method method, final Object argument) {
+            this.method = method;
+            this.arguments = new Object[] { argument };
+        }
+
+        public Method getMethod() {
+            return this.method;
+        }
+
+        public Object[] getArguments() {
+            return this.arguments;
+        }
+
+        public AccessibleObject getStaticPart() {
+            return this.method;
+        }
+
+        public Object getThis() {
+            return null;
+        }
+
+        public Object proceed() throws Throwable {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
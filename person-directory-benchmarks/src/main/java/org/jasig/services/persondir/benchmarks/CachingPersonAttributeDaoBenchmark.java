@@ -0,0 +1,97 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.CachingPersonAttributeDaoImpl;
+import org.jasig.services.persondir.support.ComplexStubPersonAttributeDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the hit and miss paths of {@link CachingPersonAttributeDaoImpl}. Hits query a user whose results were
+ * cached during setup, misses query a user the wrapped DAO has no results for so every query goes through to it.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CachingPersonAttributeDaoBenchmark {
+    @Param({ "1000" })
+    public int users;
+
+    private CachingPersonAttributeDaoImpl cachingDao;
+    private Map<String, List<Object>> hitQuery;
+    private Map<String, List<Object>> missQuery;
+
+    @Setup
+    public void setup() throws Exception {
+        final Map<String, Map<String, List<Object>>> backingMap = new HashMap<>();
+        for (int index = 0; index < this.users; index++) {
+            final Map<String, List<Object>> attributes = new HashMap<>();
+            attributes.put("username", Arrays.<Object>asList("user" + index));
+            attributes.put("mail", Arrays.<Object>asList("user" + index + "@example.edu"));
+            attributes.put("displayName", Arrays.<Object>asList("User " + index));
+            attributes.put("memberOf", Arrays.<Object>asList("staff", "students", "faculty"));
+            backingMap.put("user" + index, attributes);
+        }
+
+        this.cachingDao = new CachingPersonAttributeDaoImpl();
+        this.cachingDao.setCachedPersonAttributesDao(new ComplexStubPersonAttributeDao(backingMap));
+        this.cachingDao.setCacheNullResults(false);
+        this.cachingDao.afterPropertiesSet();
+
+        this.hitQuery = Collections.singletonMap("username", Arrays.<Object>asList("user0"));
+        this.missQuery = Collections.singletonMap("username", Arrays.<Object>asList("unknown"));
+
+        //Prime the cache for the hit path
+        this.cachingDao.getPeopleWithMultivaluedAttributes(this.hitQuery);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.cachingDao.destroy();
+    }
+
+    @Benchmark
+    public Set<IPersonAttributes> cacheHit() {
+        return this.cachingDao.getPeopleWithMultivaluedAttributes(this.hitQuery);
+    }
+
+    @Benchmark
+    public Set<IPersonAttributes> cacheMiss() {
+        return this.cachingDao.getPeopleWithMultivaluedAttributes(this.missQuery);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.CaseInsensitiveAttributeNamedPersonImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures construction of {@link CaseInsensitiveAttributeNamedPersonImpl}, which copies the attributes into a
+ * case insensitive map.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaseInsensitiveAttributeNamedPersonImplBenchmark {
+    @Param({ "5", "20", "100" })
+    public int attributes;
+
+    private Map<String, List<Object>> personAttributes;
+
+    @Setup
+    public void setup() {
+        this.personAttributes = new LinkedHashMap<>();
+        this.personAttributes.put("UID", Arrays.<Object>asList("edalquist"));
+        for (int index = 1; index < this.attributes; index++) {
+            this.personAttributes.put("Attribute" + index, Arrays.<Object>asList("value" + index));
+        }
+    }
+
+    @Benchmark
+    public IPersonAttributes construct() {
+        return new CaseInsensitiveAttributeNamedPersonImpl("uid", this.personAttributes);
+    }
+}
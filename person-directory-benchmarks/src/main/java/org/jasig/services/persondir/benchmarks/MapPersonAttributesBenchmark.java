@@ -0,0 +1,115 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao;
+import org.jasig.services.persondir.support.AttributeNamedPersonImpl;
+import org.jasig.services.persondir.util.CaseCanonicalizationMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures AbstractQueryPersonAttributeDao.mapPersonAttributes with no result attribute mapping, with every
+ * attribute renamed by the mapping and with renamed attributes that also have their values canonicalized.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MapPersonAttributesBenchmark {
+    @Param({ "none", "mapped", "caseInsensitive" })
+    public String mapping;
+
+    @Param({ "20" })
+    public int attributes;
+
+    private MappingPersonAttributeDao dao;
+    private IPersonAttributes person;
+
+    @Setup
+    public void setup() {
+        final Map<String, List<Object>> personAttributes = new LinkedHashMap<>();
+        personAttributes.put("uid", Arrays.<Object>asList("edalquist"));
+
+        final Map<String, String> resultAttributeMapping = new HashMap<>();
+        resultAttributeMapping.put("uid", "username");
+
+        final Map<String, CaseCanonicalizationMode> caseInsensitiveResultAttributes = new HashMap<>();
+        for (int index = 1; index < this.attributes; index++) {
+            personAttributes.put("attribute" + index, Arrays.<Object>asList("Value" + index, "Other Value" + index));
+            resultAttributeMapping.put("attribute" + index, "mapped" + index);
+            caseInsensitiveResultAttributes.put("mapped" + index, CaseCanonicalizationMode.LOWER);
+        }
+
+        this.dao = new MappingPersonAttributeDao();
+        switch (this.mapping) {
+            case "none":
+                break;
+            case "caseInsensitive":
+                this.dao.setCaseInsensitiveResultAttributes(caseInsensitiveResultAttributes);
+                //fall through, canonicalization is applied to the mapped attributes
+            case "mapped":
+                this.dao.setResultAttributeMapping(resultAttributeMapping);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mapping: " + this.mapping);
+        }
+
+        this.person = new AttributeNamedPersonImpl("uid", personAttributes);
+    }
+
+    @Benchmark
+    public IPersonAttributes mapPersonAttributes() {
+        return this.dao.map(this.person);
+    }
+
+    /**
+     * Exposes mapPersonAttributes, queries are not supported.
+     */
+    private static final class MappingPersonAttributeDao extends AbstractQueryPersonAttributeDao<Object> {
+        public IPersonAttributes map(final IPersonAttributes person) {
+            return this.mapPersonAttributes(person);
+        }
+
+        @Override
+        protected Object appendAttributeToQuery(final Object queryBuilder, final String dataAttribute, final List<Object> queryValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected List<IPersonAttributes> getPeopleForQuery(final Object queryBuilder, final String queryUserName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.hsqldb.jdbcDriver;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.jdbc.MultiRowJdbcPersonAttributeDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * Measures querying and parsing the name/value rows of a {@link MultiRowJdbcPersonAttributeDao} against an
+ * in-memory HSQLDB database, for a query matching a single user and a query matching every user.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiRowJdbcPersonAttributeDaoBenchmark {
+    @Param({ "100" })
+    public int users;
+
+    @Param({ "10" })
+    public int attributes;
+
+    private DataSource dataSource;
+    private MultiRowJdbcPersonAttributeDao dao;
+    private Map<String, List<Object>> userQuery;
+    private Map<String, List<Object>> allUsersQuery;
+
+    @Setup
+    public void setup() throws SQLException {
+        this.dataSource = new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:benchmark", "sa", "");
+
+        try (final Connection con = this.dataSource.getConnection()) {
+            try (final Statement statement = con.createStatement()) {
+                statement.execute("CREATE TABLE user_table (netid VARCHAR, attr_name VARCHAR, attr_val VARCHAR)");
+            }
+
+            try (final PreparedStatement insert = con.prepareStatement("INSERT INTO user_table (netid, attr_name, attr_val) VALUES (?, ?, ?)")) {
+                for (int user = 0; user < this.users; user++) {
+                    for (int attribute = 0; attribute < this.attributes; attribute++) {
+                        insert.setString(1, "user" + user);
+                        insert.setString(2, "attribute" + attribute);
+                        insert.setString(3, "value" + attribute);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+        }
+
+        this.dao = new MultiRowJdbcPersonAttributeDao(this.dataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        this.dao.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        this.dao.setQueryAttributeMapping(Collections.singletonMap("username", "netid"));
+        this.dao.setUnmappedUsernameAttribute("netid");
+
+        this.userQuery = Collections.singletonMap("username", Arrays.<Object>asList("user0"));
+        this.allUsersQuery = Collections.singletonMap("username", Arrays.<Object>asList("user*"));
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (final Connection con = this.dataSource.getConnection();
+                final Statement statement = con.createStatement()) {
+            statement.execute("DROP TABLE user_table");
+        }
+    }
+
+    @Benchmark
+    public Set<IPersonAttributes> singleUser() {
+        return this.dao.getPeopleWithMultivaluedAttributes(this.userQuery);
+    }
+
+    @Benchmark
+    public Set<IPersonAttributes> allUsers() {
+        return this.dao.getPeopleWithMultivaluedAttributes(this.allUsersQuery);
+    }
+}
@@ -19,18 +19,35 @@
 package org.jasig.services.persondir.support;
 
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IAsyncPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.support.merger.IAttributeMerger;
 import org.jasig.services.persondir.support.merger.MultivaluedAttributeMerger;
+import org.jasig.services.persondir.util.LogSummary;
+import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.dao.QueryTimeoutException;
 
 
 /**
@@ -85,12 +102,70 @@ import org.springframework.beans.factory.annotation.Required;
  *         <td valign="top">No</td>
  *         <td valign="top">false</td>
  *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">executorService</td>
+ *         <td>
+ *             The {@link ExecutorService} child DAO queries are run on when a <b>childTimeout</b> or
+ *             <b>queryTimeout</b> is set, this allows a child that misses its deadline to be abandoned.
+ *             Subclasses may also use it to query child DAOs concurrently. Child DAOs that block on I/O are
+ *             best run on an executor from {@link VirtualThreadExecutorFactoryBean}, with each child wrapped in a
+ *             {@link ConcurrencyLimitingPersonAttributeDao} to bound the load on its attribute source.
+ *             <br>
+ *             Nested aggregating DAOs should not share one bounded executor: a parent holds a pool thread while it
+ *             waits for its children, and without a <b>childTimeout</b> or <b>queryTimeout</b> it waits forever if
+ *             the children are queued behind it. Use an unbounded executor, a separate executor per level of nesting
+ *             or a {@link java.util.concurrent.ThreadPoolExecutor} with a
+ *             {@link java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy} and no queue so children run on the
+ *             calling thread when the pool is full.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">childTimeout</td>
+ *         <td>
+ *             The number of milliseconds to wait for a single child DAO. A child that misses its
+ *             deadline is abandoned and treated as if it failed with a {@link QueryTimeoutException},
+ *             see <b>recoverExceptions</b>. Requires an <b>executorService</b>, 0 disables the timeout.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">queryTimeout</td>
+ *         <td>
+ *             The number of milliseconds the whole query may take. Once the budget is spent the
+ *             remaining child DAOs are abandoned and the results gathered so far are returned, see
+ *             <b>recoverExceptions</b>. Without an <b>executorService</b> a running child can not be
+ *             abandoned and the budget is only checked between child DAOs. 0 disables the timeout.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">metricsRegistry</td>
+ *         <td>
+ *             If set {@link PersonAttributeDaoMetrics} are recorded in it for each query of each child DAO, named
+ *             with the bean name of this DAO and the bean name of the child, for example
+ *             <code>mergedPersonAttributeDao[ldapPersonAttributeDao]</code>. The bean name is known for aggregating
+ *             and caching children, other children and inner beans use their index in <b>personAttributeDaos</b>,
+ *             for example <code>mergedPersonAttributeDao[1]</code>. Children that are a
+ *             {@link MetricsPersonAttributeDao} already record their own metrics and are skipped.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
  * </table>
+ * <br>
+ * {@link #getPeopleWithMultivaluedAttributesAsync(Map)} queries each child DAO once the previous one has completed
+ * without waiting on a thread. Children that implement {@link IAsyncPersonAttributeDao} are queried through it, other
+ * children are run on the <b>executorService</b>, or on the thread that completed the previous child if none is set.
+ * The <b>queryTimeout</b> is checked between child DAOs, the <b>childTimeout</b> does not apply to asynchronous queries.
  *
  * @author Eric Dalquist
  * @version $Revision$
  */
-public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao {
+public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements IAsyncPersonAttributeDao, BeanNameAware {
     /**
      * A List of child IPersonAttributeDao instances which we will poll in order.
      */
@@ -109,6 +184,38 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     
     protected boolean stopOnSuccess = false;
     
+    /**
+     * Used to run child DAO queries that have a deadline, may be null.
+     */
+    protected ExecutorService executorService = null;
+    
+    /**
+     * Milliseconds to wait for each child DAO, 0 for no limit.
+     */
+    protected long childTimeout = 0;
+    
+    /**
+     * Milliseconds to wait for all child DAOs, 0 for no limit.
+     */
+    protected long queryTimeout = 0;
+    
+    /**
+     * Number of child DAO queries that have been abandoned due to a timeout.
+     */
+    private final AtomicLong childTimeouts = new AtomicLong();
+    
+    /**
+     * Registry child DAO query metrics are recorded in, may be null.
+     */
+    private PersonAttributeDaoMetricsRegistry metricsRegistry = null;
+    
+    private String beanName = null;
+    
+    /*
+     * Trace name and metrics of each child DAO, built on first use and cleared when the children, registry or name change
+     */
+    private volatile Map<IPersonAttributeDao, ChildDao> childDaos = null;
+    
 
     /**
      * Iterates through the configured {@link java.util.List} of {@link IPersonAttributeDao}
@@ -120,44 +227,65 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
         Validate.notNull(query, "query may not be null.");
         
+        if (this.personAttributeDaos == null) {
+            throw new IllegalStateException("personAttributeDaos must be set");
+        }
+        
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(this.getTraceName(), query);
+        final Set<IPersonAttributes> resultPeople;
+        try {
+            resultPeople = this.queryChildDaos(query);
+        }
+        catch (final RuntimeException | Error e) {
+            QueryLog.endSpan(traceSpan, e);
+            throw e;
+        }
+        
+        QueryLog.endSpan(traceSpan, resultPeople);
+        return resultPeople;
+    }
+    
+    /**
+     * Queries the child DAOs in order, merging the results of each into the results of the previous ones.
+     */
+    private Set<IPersonAttributes> queryChildDaos(final Map<String, List<Object>> query) {
         //Initialize null, so that if none of the sub-DAOs find any people null is returned appropriately
         Set<IPersonAttributes> resultPeople = null;
         
         //Denotes that this is the first time we are running a query and the original seed should be used
         boolean isFirstQuery = true;
         
-        if (this.personAttributeDaos == null) {
-            throw new IllegalStateException("personAttributeDaos must be set");
-        }
+        final long queryStart = System.nanoTime();
         
         //Iterate through the configured IPersonAttributeDaos, querying each.
         for (final IPersonAttributeDao currentlyConsidering : this.personAttributeDaos) {
+            if (this.queryTimeout > 0 && this.getChildWaitTime(queryStart, System.nanoTime()) <= 0) {
+                //The query budget is spent, abandon the remaining child DAOs
+                this.childTimeouts.incrementAndGet();
+                this.handleRuntimeException(currentlyConsidering, new QueryTimeoutException("Query budget of " + this.queryTimeout
+                        + "ms was spent before querying '" + currentlyConsidering + "', skipping the remaining child DAOs"));
+                break;
+            }
+            
             boolean handledException = false;
             Set<IPersonAttributes> currentPeople = null;
+            final QueryTraceSpan childSpan = QueryTrace.startSpan(this.getChildTraceName(currentlyConsidering), query);
             try {
-                currentPeople = this.getAttributesFromDao(query, isFirstQuery, currentlyConsidering, resultPeople);
+                currentPeople = this.queryChildDao(query, isFirstQuery, currentlyConsidering, resultPeople, queryStart);
+                QueryTrace.endSpan(childSpan, currentPeople);
                 isFirstQuery = false;
 
                 if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Retrieved attributes='" + currentPeople + "' for query='"
-                            + query + "', isFirstQuery=" + isFirstQuery + ", currentlyConsidering='"
-                            + currentlyConsidering + "', resultAttributes='" + resultPeople + "'");
+                    this.logger.debug("Retrieved attributes='{}' for query='{}', isFirstQuery={}, currentlyConsidering='{}', resultAttributes='{}'",
+                            LogSummary.of(currentPeople), query, isFirstQuery, currentlyConsidering, LogSummary.of(resultPeople));
                 }
             }
             catch (final RuntimeException rte) {
+                QueryTrace.endSpan(childSpan, rte);
                 handledException |= handleRuntimeException(currentlyConsidering, rte);
             }
 
-            if (currentPeople != null) {
-                if (resultPeople == null) {
-                    //If this is the first valid result set just use it.
-                    resultPeople = new LinkedHashSet<>(currentPeople);
-                }
-                else {
-                    //Merge the Sets of IPersons
-                    resultPeople = this.attrMerger.mergeResults(resultPeople, currentPeople);
-                }
-            }
+            resultPeople = this.mergeChildResults(resultPeople, currentPeople, childSpan);
             
             if (this.stopOnSuccess && !handledException) {
                 if (this.logger.isDebugEnabled()) {
@@ -168,24 +296,526 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
             }
         }
         
+        return this.completeResults(query, resultPeople);
+    }
+
+    /**
+     * Asynchronous version of {@link #getPeopleWithMultivaluedAttributes(Map)}, the child DAOs are queried in order
+     * through {@link #getAttributesFromDaoAsync(Map, boolean, IPersonAttributeDao, Set)}.
+     * 
+     * @see org.jasig.services.persondir.IAsyncPersonAttributeDao#getPeopleWithMultivaluedAttributesAsync(java.util.Map)
+     */
+    public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final Map<String, List<Object>> query) {
+        Validate.notNull(query, "query may not be null.");
+        
+        if (this.personAttributeDaos == null) {
+            throw new IllegalStateException("personAttributeDaos must be set");
+        }
+        
+        final SettableFuture<Set<IPersonAttributes>> result = SettableFuture.create();
+        final QueryTraceSpan traceSpan = this.startTraceSpanAsync(query, result);
+        this.queryChildDaoAsync(query, 0, true, null, null, null, traceSpan, System.nanoTime(), result);
+        return result;
+    }
+    
+    /**
+     * Aggregates the results of child DAO queries that have already been started, used by subclasses that query
+     * the children concurrently. The results are merged in list order following the same rules as
+     * {@link #getPeopleWithMultivaluedAttributesAsync(Map)}, child queries whose results are not needed are cancelled.
+     * 
+     * @param query The query the child DAOs were started with.
+     * @param childResults The pending results of each child DAO, in the same order as the <b>personAttributeDaos</b>.
+     * @param traceSpan The span of this DAO returned by {@link #startTraceSpanAsync(Map, ListenableFuture)}, may be null.
+     * @param childSpans The spans of each child DAO returned by {@link #startChildQueryAsync(IPersonAttributeDao, Map, QueryTraceSpan)}, may be null.
+     * @return The future aggregated results.
+     */
+    protected final ListenableFuture<Set<IPersonAttributes>> aggregateChildResultsAsync(final Map<String, List<Object>> query,
+                                                                                        final List<ListenableFuture<Set<IPersonAttributes>>> childResults,
+                                                                                        final QueryTraceSpan traceSpan,
+                                                                                        final List<QueryTraceSpan> childSpans) {
+        final SettableFuture<Set<IPersonAttributes>> result = SettableFuture.create();
+        result.addListener(new Runnable() {
+            public void run() {
+                //Stop any child queries whose results are no longer needed, this is a no-op for completed queries
+                for (final ListenableFuture<Set<IPersonAttributes>> childResult : childResults) {
+                    childResult.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        
+        if (traceSpan != null) {
+            this.endQuerySpanAsync(traceSpan, result);
+        }
+        this.queryChildDaoAsync(query, 0, true, null, childResults, childSpans, traceSpan, System.nanoTime(), result);
+        return result;
+    }
+    
+    /**
+     * Starts the span of an asynchronous query of this DAO as a child of the span of the current thread, the span is
+     * ended and the query logged to the {@link QueryLog} when the result completes.
+     * 
+     * @param query The query.
+     * @param result The future result of the query, null if it is passed to {@link #aggregateChildResultsAsync(Map, List, QueryTraceSpan, List)}.
+     * @return The span, null if no trace is started and the {@link QueryLog} is not enabled.
+     */
+    protected final QueryTraceSpan startTraceSpanAsync(final Map<String, List<Object>> query, final ListenableFuture<Set<IPersonAttributes>> result) {
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(QueryTrace.current(), this.getTraceName(), query);
+        if (traceSpan != null && result != null) {
+            this.endQuerySpanAsync(traceSpan, result);
+        }
+        return traceSpan;
+    }
+    
+    private void endQuerySpanAsync(final QueryTraceSpan span, final ListenableFuture<Set<IPersonAttributes>> result) {
+        Futures.addCallback(result, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> resultPeople) {
+                QueryLog.endSpan(span, resultPeople);
+            }
+            
+            public void onFailure(final Throwable t) {
+                QueryLog.endSpan(span, t);
+            }
+        });
+    }
+    
+    private void endTraceSpanAsync(final QueryTraceSpan span, final ListenableFuture<Set<IPersonAttributes>> result) {
+        Futures.addCallback(result, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> resultPeople) {
+                QueryTrace.endSpan(span, resultPeople);
+            }
+            
+            public void onFailure(final Throwable t) {
+                QueryTrace.endSpan(span, t);
+            }
+        });
+    }
+    
+    /**
+     * Starts an asynchronous query of a child DAO with {@link #getAttributesFromDaoAsync(Map, boolean, IPersonAttributeDao, Set)}
+     * as the first query, recording its metrics and trace span. Used by subclasses that query the children concurrently.
+     * 
+     * @param currentlyConsidering The child DAO to query.
+     * @param query The query.
+     * @param traceSpan The span of this DAO, may be null.
+     * @return The pending results of the child DAO and its span, which is null if traceSpan is null.
+     */
+    protected final ChildQuery startChildQueryAsync(final IPersonAttributeDao currentlyConsidering, final Map<String, List<Object>> query,
+                                                    final QueryTraceSpan traceSpan) {
+        final QueryTraceSpan childSpan = QueryTrace.startSpan(traceSpan, this.getChildTraceName(currentlyConsidering), query);
+        final long childStart = System.nanoTime();
+        
+        ListenableFuture<Set<IPersonAttributes>> childResult;
+        final QueryTraceSpan previousSpan = QueryTrace.activate(childSpan);
+        try {
+            childResult = this.getAttributesFromDaoAsync(query, true, currentlyConsidering, null);
+        }
+        catch (final RuntimeException rte) {
+            childResult = Futures.immediateFailedFuture(rte);
+        }
+        finally {
+            QueryTrace.restore(previousSpan);
+        }
+        
+        this.recordChildMetrics(currentlyConsidering, childResult, childStart);
+        if (childSpan != null) {
+            this.endTraceSpanAsync(childSpan, childResult);
+        }
+        return new ChildQuery(childResult, childSpan);
+    }
+    
+    /**
+     * Queries the child DAO at daoIndex, or uses its already started result, and once it completes merges its results
+     * and moves on to the next child DAO. The result is completed after the last child DAO.
+     */
+    private void queryChildDaoAsync(final Map<String, List<Object>> query, final int daoIndex, final boolean isFirstQuery,
+                                    final Set<IPersonAttributes> resultPeople, final List<ListenableFuture<Set<IPersonAttributes>>> childResults,
+                                    final List<QueryTraceSpan> childSpans, final QueryTraceSpan traceSpan,
+                                    final long queryStart, final SettableFuture<Set<IPersonAttributes>> result) {
+        if (result.isDone()) {
+            //Cancelled by the caller
+            return;
+        }
+        if (daoIndex >= this.personAttributeDaos.size()) {
+            result.set(this.completeResults(query, resultPeople));
+            return;
+        }
+        
+        final IPersonAttributeDao currentlyConsidering = this.personAttributeDaos.get(daoIndex);
+        if (this.queryTimeout > 0 && this.getChildWaitTime(queryStart, System.nanoTime()) <= 0) {
+            //The query budget is spent, abandon the remaining child DAOs
+            this.childTimeouts.incrementAndGet();
+            this.handleRuntimeException(currentlyConsidering, new QueryTimeoutException("Query budget of " + this.queryTimeout
+                    + "ms was spent before querying '" + currentlyConsidering + "', skipping the remaining child DAOs"));
+            result.set(this.completeResults(query, resultPeople));
+            return;
+        }
+        
+        ListenableFuture<Set<IPersonAttributes>> childResult;
+        final QueryTraceSpan childSpan;
+        if (childResults != null) {
+            childResult = childResults.get(daoIndex);
+            childSpan = childSpans != null ? childSpans.get(daoIndex) : null;
+        }
+        else {
+            childSpan = QueryTrace.startSpan(traceSpan, this.getChildTraceName(currentlyConsidering), query);
+            final long childStart = System.nanoTime();
+            final QueryTraceSpan previousSpan = QueryTrace.activate(childSpan);
+            try {
+                childResult = this.getAttributesFromDaoAsync(query, isFirstQuery, currentlyConsidering, resultPeople);
+            }
+            catch (final RuntimeException rte) {
+                childResult = Futures.immediateFailedFuture(rte);
+            }
+            finally {
+                QueryTrace.restore(previousSpan);
+            }
+            this.recordChildMetrics(currentlyConsidering, childResult, childStart);
+            if (childSpan != null) {
+                this.endTraceSpanAsync(childSpan, childResult);
+            }
+        }
+        
+        Futures.addCallback(childResult, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> currentPeople) {
+                try {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Retrieved attributes='{}' for query='{}', isFirstQuery={}, currentlyConsidering='{}', resultAttributes='{}'",
+                                LogSummary.of(currentPeople), query, isFirstQuery, currentlyConsidering, LogSummary.of(resultPeople));
+                    }
+                    
+                    final Set<IPersonAttributes> mergedPeople = mergeChildResults(resultPeople, currentPeople, childSpan);
+                    
+                    if (stopOnSuccess) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Successfully retrieved attributes from a child DAO and stopOnSuccess is true, stopping iteration of child DAOs");
+                        }
+                        
+                        result.set(completeResults(query, mergedPeople));
+                        return;
+                    }
+                    
+                    queryChildDaoAsync(query, daoIndex + 1, false, mergedPeople, childResults, childSpans, traceSpan, queryStart, result);
+                }
+                catch (final RuntimeException | Error e) {
+                    result.setException(e);
+                }
+            }
+            
+            public void onFailure(final Throwable t) {
+                try {
+                    if (!(t instanceof RuntimeException)) {
+                        result.setException(t);
+                        return;
+                    }
+                    
+                    handleRuntimeException(currentlyConsidering, (RuntimeException) t);
+                    queryChildDaoAsync(query, daoIndex + 1, isFirstQuery, resultPeople, childResults, childSpans, traceSpan, queryStart, result);
+                }
+                catch (final RuntimeException | Error e) {
+                    result.setException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calls {@link #getAttributesFromDao(Map, boolean, IPersonAttributeDao, Set)}, on the <b>executorService</b>
+     * if a timeout applies to the child DAO, and records the child's metrics.
+     */
+    private Set<IPersonAttributes> queryChildDao(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                                 final IPersonAttributeDao currentlyConsidering,
+                                                 final Set<IPersonAttributes> resultPeople, final long queryStart) {
+        final long childStart = System.nanoTime();
+        if (this.executorService == null || (this.childTimeout <= 0 && this.queryTimeout <= 0)) {
+            final PersonAttributeDaoMetrics metrics = this.getChildMetrics(currentlyConsidering);
+            if (metrics == null) {
+                return this.getAttributesFromDao(seed, isFirstQuery, currentlyConsidering, resultPeople);
+            }
+            
+            final Set<IPersonAttributes> currentPeople;
+            try {
+                currentPeople = this.getAttributesFromDao(seed, isFirstQuery, currentlyConsidering, resultPeople);
+            }
+            catch (final RuntimeException | Error e) {
+                metrics.recordException(System.nanoTime() - childStart);
+                throw e;
+            }
+            
+            metrics.recordResults(System.nanoTime() - childStart, currentPeople);
+            return currentPeople;
+        }
+        
+        //An abandoned child keeps running while the results of later children are merged, give it its own copy
+        final Set<IPersonAttributes> childResultPeople = resultPeople == null ? null : Collections.unmodifiableSet(new LinkedHashSet<>(resultPeople));
+        final Future<Set<IPersonAttributes>> childResult = this.executorService.submit(QueryTrace.wrap(new Callable<Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> call() {
+                return getAttributesFromDao(seed, isFirstQuery, currentlyConsidering, childResultPeople);
+            }
+        }));
+        
+        return this.getChildResult(currentlyConsidering, childResult, queryStart, childStart);
+    }
+    
+    /**
+     * Determines how many milliseconds may still be spent waiting for a child DAO based on the
+     * <b>childTimeout</b> and <b>queryTimeout</b>.
+     * 
+     * @param queryStart The {@link System#nanoTime()} the query was started at.
+     * @param childStart The {@link System#nanoTime()} the child DAO query was started at.
+     * @return The remaining milliseconds, may be zero or negative if the deadline has passed. {@link Long#MAX_VALUE} if no timeout is configured.
+     */
+    protected final long getChildWaitTime(final long queryStart, final long childStart) {
+        final long now = System.nanoTime();
+        
+        long waitTime = Long.MAX_VALUE;
+        if (this.childTimeout > 0) {
+            waitTime = this.childTimeout - TimeUnit.NANOSECONDS.toMillis(now - childStart);
+        }
+        if (this.queryTimeout > 0) {
+            waitTime = Math.min(waitTime, this.queryTimeout - TimeUnit.NANOSECONDS.toMillis(now - queryStart));
+        }
+        
+        return waitTime;
+    }
+    
+    /**
+     * Waits for the result of a child DAO query that was submitted to the <b>executorService</b>. Exceptions thrown by
+     * the child DAO are unwrapped and re-thrown. If the child DAO misses its deadline it is cancelled and a
+     * {@link QueryTimeoutException} is thrown. The child's metrics are recorded from childStart until the result
+     * is available or the child is abandoned.
+     * 
+     * @param currentlyConsidering The child DAO the result is for.
+     * @param childResult The pending result of the child DAO.
+     * @param queryStart The {@link System#nanoTime()} the query was started at.
+     * @param childStart The {@link System#nanoTime()} the child DAO query was started at.
+     * @return The results from the child DAO.
+     */
+    protected final Set<IPersonAttributes> getChildResult(final IPersonAttributeDao currentlyConsidering,
+                                                          final Future<Set<IPersonAttributes>> childResult,
+                                                          final long queryStart, final long childStart) {
+        final PersonAttributeDaoMetrics metrics = this.getChildMetrics(currentlyConsidering);
+        try {
+            final Set<IPersonAttributes> currentPeople = this.waitForChildResult(currentlyConsidering, childResult, queryStart, childStart);
+            if (metrics != null) {
+                metrics.recordResults(System.nanoTime() - childStart, currentPeople);
+            }
+            return currentPeople;
+        }
+        catch (final RuntimeException | Error e) {
+            if (metrics != null) {
+                metrics.recordException(System.nanoTime() - childStart);
+            }
+            throw e;
+        }
+    }
+    
+    private Set<IPersonAttributes> waitForChildResult(final IPersonAttributeDao currentlyConsidering,
+                                                      final Future<Set<IPersonAttributes>> childResult,
+                                                      final long queryStart, final long childStart) {
+        final long waitTime = this.getChildWaitTime(queryStart, childStart);
+        try {
+            if (waitTime == Long.MAX_VALUE) {
+                return childResult.get();
+            }
+            
+            return childResult.get(Math.max(waitTime, 0), TimeUnit.MILLISECONDS);
+        }
+        catch (final TimeoutException e) {
+            childResult.cancel(true);
+            this.childTimeouts.incrementAndGet();
+            throw new QueryTimeoutException("Child IPersonAttributeDao '" + currentlyConsidering + "' missed its deadline and was abandoned", e);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for child IPersonAttributeDao '" + currentlyConsidering + "'", e);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            
+            throw new IllegalStateException("Child IPersonAttributeDao '" + currentlyConsidering + "' failed", cause);
+        }
+    }
+
+    /**
+     * Records the child DAO's metrics once its query completes, if a <b>metricsRegistry</b> is set. Used by subclasses
+     * that start child queries for {@link #aggregateChildResultsAsync(Map, List, QueryTraceSpan, List)}.
+     * 
+     * @param currentlyConsidering The child DAO the result is for.
+     * @param childResult The pending result of the child DAO.
+     * @param childStart The {@link System#nanoTime()} the child DAO query was started at.
+     */
+    protected final void recordChildMetrics(final IPersonAttributeDao currentlyConsidering, final ListenableFuture<Set<IPersonAttributes>> childResult,
+                                            final long childStart) {
+        final PersonAttributeDaoMetrics metrics = this.getChildMetrics(currentlyConsidering);
+        if (metrics == null) {
+            return;
+        }
+        
+        Futures.addCallback(childResult, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> currentPeople) {
+                metrics.recordResults(System.nanoTime() - childStart, currentPeople);
+            }
+            
+            public void onFailure(final Throwable t) {
+                metrics.recordException(System.nanoTime() - childStart);
+            }
+        });
+    }
+    
+    /**
+     * @param currentlyConsidering A child DAO
+     * @return The metrics to record for the child DAO, null if no <b>metricsRegistry</b> is set or the child records its own metrics.
+     */
+    private PersonAttributeDaoMetrics getChildMetrics(final IPersonAttributeDao currentlyConsidering) {
+        if (this.metricsRegistry == null) {
+            return null;
+        }
+        
+        final ChildDao childDao = this.getChildDaos().get(currentlyConsidering);
+        return childDao != null ? childDao.metrics : null;
+    }
+    
+    /**
+     * @param currentlyConsidering A child DAO
+     * @return The name of the trace spans of the child DAO, its index and class name.
+     */
+    protected final String getChildTraceName(final IPersonAttributeDao currentlyConsidering) {
+        final ChildDao childDao = this.getChildDaos().get(currentlyConsidering);
+        return childDao != null ? childDao.traceName : currentlyConsidering.getClass().getSimpleName();
+    }
+    
+    private Map<IPersonAttributeDao, ChildDao> getChildDaos() {
+        Map<IPersonAttributeDao, ChildDao> childDaos = this.childDaos;
+        if (childDaos == null) {
+            final PersonAttributeDaoMetricsRegistry metricsRegistry = this.metricsRegistry;
+            final String name = this.getTraceName();
+            
+            childDaos = new IdentityHashMap<>();
+            for (int index = 0; index < this.personAttributeDaos.size(); index++) {
+                final IPersonAttributeDao childDao = this.personAttributeDaos.get(index);
+                if (childDaos.containsKey(childDao)) {
+                    continue;
+                }
+                
+                PersonAttributeDaoMetrics metrics = null;
+                if (metricsRegistry != null && !(childDao instanceof MetricsPersonAttributeDao)) {
+                    final String childName = getChildBeanName(childDao);
+                    metrics = metricsRegistry.getMetrics(name + "[" + (childName != null ? childName : String.valueOf(index)) + "]");
+                }
+                childDaos.put(childDao, new ChildDao("[" + index + "] " + childDao.getClass().getSimpleName(), metrics));
+            }
+            this.childDaos = childDaos;
+        }
+        
+        return childDaos;
+    }
+    
+    /**
+     * @return The bean name of the child DAO, null if it is not known
+     */
+    private static String getChildBeanName(final IPersonAttributeDao childDao) {
+        if (childDao instanceof AbstractAggregatingDefaultQueryPersonAttributeDao) {
+            return ((AbstractAggregatingDefaultQueryPersonAttributeDao) childDao).beanName;
+        }
+        if (childDao instanceof CachingPersonAttributeDaoImpl) {
+            return ((CachingPersonAttributeDaoImpl) childDao).getBeanName();
+        }
+        return null;
+    }
+    
+    /**
+     * @return The name of the trace spans and metrics of this DAO, the bean name if it is known.
+     */
+    @JsonIgnore
+    protected final String getTraceName() {
+        return this.beanName != null ? this.beanName : this.getClass().getSimpleName();
+    }
+
+    /**
+     * Merges the results from a single child DAO into the results aggregated so far.
+     * 
+     * @param resultPeople The results aggregated from all previous child DAOs, may be null.
+     * @param currentPeople The results from the current child DAO, may be null.
+     * @return The aggregated results, null if both arguments were null.
+     */
+    protected final Set<IPersonAttributes> mergeChildResults(final Set<IPersonAttributes> resultPeople, final Set<IPersonAttributes> currentPeople) {
+        return this.mergeChildResults(resultPeople, currentPeople, null);
+    }
+    
+    /**
+     * Merges the results from a single child DAO into the results aggregated so far, recording the number of
+     * attributes they added in the child's trace span.
+     * 
+     * @param resultPeople The results aggregated from all previous child DAOs, may be null.
+     * @param currentPeople The results from the current child DAO, may be null.
+     * @param childSpan The trace span of the current child DAO, may be null.
+     * @return The aggregated results, null if both arguments were null.
+     */
+    protected final Set<IPersonAttributes> mergeChildResults(final Set<IPersonAttributes> resultPeople, final Set<IPersonAttributes> currentPeople,
+                                                             final QueryTraceSpan childSpan) {
+        if (childSpan == null) {
+            return this.mergeResults(resultPeople, currentPeople);
+        }
+        
+        final int attributesBefore = QueryTraceSpan.countAttributes(resultPeople);
+        final Set<IPersonAttributes> mergedPeople = this.mergeResults(resultPeople, currentPeople);
+        QueryTrace.setAttributesAdded(childSpan, attributesBefore, mergedPeople);
+        return mergedPeople;
+    }
+    
+    private Set<IPersonAttributes> mergeResults(final Set<IPersonAttributes> resultPeople, final Set<IPersonAttributes> currentPeople) {
+        if (currentPeople == null) {
+            return resultPeople;
+        }
+        
+        if (resultPeople == null) {
+            //If this is the first valid result set just use it.
+            return new LinkedHashSet<>(currentPeople);
+        }
+        
+        //Merge the Sets of IPersons
+        return this.attrMerger.mergeResults(resultPeople, currentPeople);
+    }
+    
+    /**
+     * Converts the aggregated results into the value returned from {@link #getPeopleWithMultivaluedAttributes(Map)}.
+     * 
+     * @param query The query the results were aggregated for.
+     * @param resultPeople The aggregated results, may be null.
+     * @return An unmodifiable view of the results, null if no child DAO returned results.
+     */
+    protected final Set<IPersonAttributes> completeResults(final Map<String, List<Object>> query, final Set<IPersonAttributes> resultPeople) {
         if (resultPeople == null) {
             return null;
         }
         
         if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Aggregated search results '" + resultPeople + "' for query='" + query + "'");
+            this.logger.debug("Aggregated search results '{}' for query='{}'", LogSummary.of(resultPeople), query);
         }
         
         return Collections.unmodifiableSet(resultPeople);
     }
 
-    private boolean handleRuntimeException(IPersonAttributeDao currentlyConsidering, RuntimeException rte) {
+    /**
+     * Handles an exception thrown by a child DAO according to the <b>recoverExceptions</b> setting.
+     * 
+     * @param currentlyConsidering The child DAO that threw the exception.
+     * @param rte The exception that was thrown.
+     * @return true if the exception was recovered from, if not recovered the exception is re-thrown.
+     */
+    protected final boolean handleRuntimeException(final IPersonAttributeDao currentlyConsidering, final RuntimeException rte) {
         if (this.recoverExceptions) {
-            this.logger.warn("Recovering From Exception thrown by '" + currentlyConsidering + "'", rte);
+            this.logger.warn("Recovering From Exception thrown by '{}'", currentlyConsidering, rte);
             return true;
         }
         else {
-            this.logger.error("Failing From Exception thrown by '" + currentlyConsidering + "'", rte);
+            this.logger.error("Failing From Exception thrown by '{}'", currentlyConsidering, rte);
             throw rte;
         }
     }
@@ -205,6 +835,27 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                                                                    IPersonAttributeDao currentlyConsidering,
                                                                    Set<IPersonAttributes> resultPeople);
     
+    /**
+     * Asynchronous version of {@link #getAttributesFromDao(Map, boolean, IPersonAttributeDao, Set)}. By default runs
+     * it on the <b>executorService</b>, or the calling thread if none is set. Subclasses should override this to
+     * query child DAOs through {@link AsyncPersonAttributeDaoAdapter#getPeopleWithMultivaluedAttributesAsync(IPersonAttributeDao, Map, ExecutorService)}.
+     * 
+     * @param seed The seed for the original query.
+     * @param isFirstQuery If this is the first query, this will stay true until a query completes without an exception.
+     * @param currentlyConsidering The IPersonAttributeDao to execute the query on.
+     * @param resultPeople The Map of results from all previous queries, may be null.
+     * @return The future results from the call to the DAO.
+     */
+    protected ListenableFuture<Set<IPersonAttributes>> getAttributesFromDaoAsync(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                                                                 final IPersonAttributeDao currentlyConsidering,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        return AsyncPersonAttributeDaoAdapter.runQuery(new Callable<Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> call() {
+                return getAttributesFromDao(seed, isFirstQuery, currentlyConsidering, resultPeople);
+            }
+        }, this.executorService);
+    }
+    
     
     /**
      * Merges the results of calling {@link IPersonAttributeDao#getPossibleUserAttributeNames()} on each child dao using
@@ -224,7 +875,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                 currentDaoAttrNames = currentDao.getPossibleUserAttributeNames();
                 
                 if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Retrieved possible attribute names '" + currentDaoAttrNames + "' from '" + currentDao + "'");
+                    this.logger.debug("Retrieved possible attribute names '{}' from '{}'", LogSummary.of(currentDaoAttrNames), currentDao);
                 }
             }
             catch (final RuntimeException rte) {
@@ -249,7 +900,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
         }
         
         if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Aggregated possible attribute names '" + attrNames + "'");
+            this.logger.debug("Aggregated possible attribute names '{}'", LogSummary.of(attrNames));
         }
         
         if (attrNames == null) {
@@ -278,7 +929,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                 currentDaoQueryAttrs = currentDao.getAvailableQueryAttributes();
                 
                 if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Retrieved possible query attributes '" + currentDaoQueryAttrs + "' from '" + currentDao + "'");
+                    this.logger.debug("Retrieved possible query attributes '{}' from '{}'", LogSummary.of(currentDaoQueryAttrs), currentDao);
                 }
             }
             catch (final RuntimeException rte) {
@@ -304,7 +955,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
 
         
         if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Aggregated possible query attributes '" + queryAttrs + "'");
+            this.logger.debug("Aggregated possible query attributes '{}'", LogSummary.of(queryAttrs));
         }
         
         if (queryAttrs == null) {
@@ -352,6 +1003,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public final void setPersonAttributeDaos(final List<IPersonAttributeDao> daos) {
         Validate.notNull(daos, "The IPersonAttributeDao List cannot be null");
         this.personAttributeDaos = Collections.unmodifiableList(daos);
+        this.childDaos = null;
     }
     
     /**
@@ -377,6 +1029,95 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
         this.recoverExceptions = recover;
     }
 
+    /**
+     * @return the executorService
+     */
+    @JsonIgnore
+    public final ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+    /**
+     * The ExecutorService to run child DAO queries on. Required for <b>childTimeout</b> and <b>queryTimeout</b> to
+     * be able to abandon a running child DAO. The lifecycle of the ExecutorService is not managed by this class.
+     * <br>
+     * Sharing one bounded ExecutorService between nested aggregating DAOs can deadlock when no timeout is set, see
+     * the class documentation.
+     * 
+     * @param executorService the executorService to set, may be null
+     */
+    @JsonIgnore
+    public final void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+    
+    /**
+     * @return the childTimeout
+     */
+    public final long getChildTimeout() {
+        return this.childTimeout;
+    }
+    /**
+     * The number of milliseconds to wait for each child DAO before it is abandoned. 0, the default, disables the timeout.
+     * 
+     * @param childTimeout the childTimeout to set
+     */
+    public final void setChildTimeout(final long childTimeout) {
+        Validate.isTrue(childTimeout >= 0, "childTimeout may not be negative");
+        this.childTimeout = childTimeout;
+    }
+    
+    /**
+     * @return the queryTimeout
+     */
+    public final long getQueryTimeout() {
+        return this.queryTimeout;
+    }
+    /**
+     * The number of milliseconds a query may spend on all child DAOs before the remaining children are abandoned
+     * and the results gathered so far are returned. 0, the default, disables the timeout.
+     * 
+     * @param queryTimeout the queryTimeout to set
+     */
+    public final void setQueryTimeout(final long queryTimeout) {
+        Validate.isTrue(queryTimeout >= 0, "queryTimeout may not be negative");
+        this.queryTimeout = queryTimeout;
+    }
+    
+    /**
+     * @return Returns the number of child DAO queries that were abandoned due to a timeout.
+     */
+    @JsonIgnore
+    public final long getChildTimeouts() {
+        return this.childTimeouts.get();
+    }
+    
+    /**
+     * @return the metricsRegistry
+     */
+    @JsonIgnore
+    public final PersonAttributeDaoMetricsRegistry getMetricsRegistry() {
+        return this.metricsRegistry;
+    }
+    /**
+     * The registry to record metrics for each child DAO in, the metrics are named with the bean name of this DAO and
+     * the index of the child. Children that are a {@link MetricsPersonAttributeDao} are skipped.
+     * 
+     * @param metricsRegistry the metricsRegistry to set, null to not record metrics
+     */
+    @JsonIgnore
+    public final void setMetricsRegistry(final PersonAttributeDaoMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        this.childDaos = null;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.BeanNameAware#setBeanName(java.lang.String)
+     */
+    public void setBeanName(final String name) {
+        this.beanName = name;
+        this.childDaos = null;
+    }
+
     public boolean isStopOnSuccess() {
         return stopOnSuccess;
     }
@@ -390,4 +1131,45 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public void setStopOnSuccess(final boolean stopOnSuccess) {
         this.stopOnSuccess = stopOnSuccess;
     }
+    
+    /**
+     * The pending results and trace span of a child DAO query started by
+     * {@link AbstractAggregatingDefaultQueryPersonAttributeDao#startChildQueryAsync(IPersonAttributeDao, Map, QueryTraceSpan)}.
+     */
+    protected static final class ChildQuery {
+        private final ListenableFuture<Set<IPersonAttributes>> result;
+        private final QueryTraceSpan traceSpan;
+        
+        private ChildQuery(final ListenableFuture<Set<IPersonAttributes>> result, final QueryTraceSpan traceSpan) {
+            this.result = result;
+            this.traceSpan = traceSpan;
+        }
+        
+        /**
+         * @return The pending results of the child DAO
+         */
+        public ListenableFuture<Set<IPersonAttributes>> getResult() {
+            return this.result;
+        }
+        
+        /**
+         * @return The trace span of the child DAO, null if the query is not traced
+         */
+        public QueryTraceSpan getTraceSpan() {
+            return this.traceSpan;
+        }
+    }
+    
+    /**
+     * Trace name and metrics of a child DAO.
+     */
+    private static final class ChildDao {
+        private final String traceName;
+        private final PersonAttributeDaoMetrics metrics;
+        
+        public ChildDao(final String traceName, final PersonAttributeDaoMetrics metrics) {
+            this.traceName = traceName;
+            this.metrics = metrics;
+        }
+    }
 }
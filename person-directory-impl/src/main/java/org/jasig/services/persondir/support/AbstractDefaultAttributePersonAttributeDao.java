@@ -79,6 +79,18 @@ public abstract class AbstractDefaultAttributePersonAttributeDao extends Abstrac
         //Run the query using the seed
         final Set<IPersonAttributes> people = this.getPeopleWithMultivaluedAttributes(seed);
         
+        return this.getSinglePerson(uid, people);
+    }
+    
+    /**
+     * Gets the single person found for the uid, named with the uid if the person has no name.
+     * 
+     * @param uid The uid that was searched for
+     * @param people The people found for the uid
+     * @return The person, null if no people were found
+     * @throws org.springframework.dao.IncorrectResultSizeDataAccessException if more than one person was found.
+     */
+    protected final IPersonAttributes getSinglePerson(final String uid, final Set<IPersonAttributes> people) {
         //Ensure a single result is returned
         IPersonAttributes person = DataAccessUtils.singleResult(people);
         if (person == null) {
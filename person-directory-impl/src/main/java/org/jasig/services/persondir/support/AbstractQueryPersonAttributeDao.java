@@ -21,15 +21,20 @@ package org.jasig.services.persondir.support;
 import java.util.*;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.google.common.collect.ImmutableSet;
 import org.apache.commons.lang3.Validate;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
+import org.jasig.services.persondir.IProjectingPersonAttributeDao;
 import org.jasig.services.persondir.util.CaseCanonicalizationMode;
 
 /**
  * Provides common functionality for DAOs using a set of attribute values from the seed to
  * perform a query. Ensures the nessesary attributes to run the query exist on the seed and
  * organizes the values into an argument array.
+ * <br>
+ * Queries through {@link #getPeopleWithMultivaluedAttributes(Map, Set)} only map the requested result attributes
+ * and pass the data attributes they are mapped from to {@link #getPeopleForQuery(Object, String, Set)} so subclasses
+ * can avoid reading the other attributes from the data store.
  * 
  * <br>
  * <br>
@@ -85,7 +90,7 @@ import org.jasig.services.persondir.util.CaseCanonicalizationMode;
  * @author Eric Dalquist 
  * @version $Revision$
  */
-public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaultAttributePersonAttributeDao {
+public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaultAttributePersonAttributeDao implements IProjectingPersonAttributeDao {
     // DEFAULT_CASE_CANONICALIZATION_MODE is default for canonicalizing the values
     public static final CaseCanonicalizationMode DEFAULT_CASE_CANONICALIZATION_MODE = CaseCanonicalizationMode.LOWER;
     public static final CaseCanonicalizationMode DEFAULT_USERNAME_CASE_CANONICALIZATION_MODE = CaseCanonicalizationMode.NONE;
@@ -100,6 +105,7 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
     private boolean requireAllQueryAttributes = false;
     private boolean useAllQueryAttributes = true;
     private String unmappedUsernameAttribute = null;
+    private volatile ResultMappingPlan resultMappingPlan;
     
 
     public AbstractQueryPersonAttributeDao() {
@@ -174,6 +180,7 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
         
         this.resultAttributeMapping = parsedResultAttributeMapping;
         this.possibleUserAttributes = new LinkedHashSet<>(userAttributes);
+        this.resultMappingPlan = null;
     }
     
     /**
@@ -216,25 +223,188 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
     public final Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
         Validate.notNull(query, "query may not be null.");
         
-        //Generate the query to pass to the subclass
+        final PreparedQuery preparedQuery = this.prepareQuery(query);
+        if (preparedQuery == null) {
+            return null;
+        }
+        
+        //Execute the query in the subclass
+        final List<IPersonAttributes> unmappedPeople = this.getPeopleForQuery(preparedQuery.queryBuilder, preparedQuery.username);
+        
+        return this.mapPeople(unmappedPeople);
+    }
+    
+    /**
+     * Generates the query to pass to the subclass and gets the username from the query, if specified.
+     * 
+     * @return The query builder and username, null if no queryBuilder was generated and null should be returned for the query.
+     */
+    private PreparedQuery prepareQuery(final Map<String, List<Object>> query) {
         final QB queryBuilder = this.generateQuery(query);
         if (queryBuilder == null && (this.queryAttributeMapping != null || this.useAllQueryAttributes == true)) {
-            this.logger.debug("No queryBuilder was generated for query " + query + ", null will be returned");
+            this.logger.debug("No queryBuilder was generated for query {}, null will be returned", query);
             
             return null;
         }
         
-        //Get the username from the query, if specified
         final IUsernameAttributeProvider usernameAttributeProvider = this.getUsernameAttributeProvider();
         final String username = usernameAttributeProvider.getUsernameFromQuery(query);
         
+        return new PreparedQuery(queryBuilder, username);
+    }
+    
+    /**
+     * Runs the query with only the data attributes the requested result attributes are mapped from, plus the
+     * unmapped username attribute so the people are named as they are for an unprojected query.
+     * 
+     * @see org.jasig.services.persondir.IProjectingPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map, java.util.Set)
+     */
+    @Override
+    public final Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query, final Set<String> resultAttributeNames) {
+        if (resultAttributeNames == null) {
+            return this.getPeopleWithMultivaluedAttributes(query);
+        }
+        Validate.notNull(query, "query may not be null.");
+        
+        final PreparedQuery preparedQuery = this.prepareQuery(query);
+        if (preparedQuery == null) {
+            return null;
+        }
+        
+        final Map<String, Set<String>> projectedAttributeMapping = this.projectResultAttributeMapping(resultAttributeNames);
+        final Set<String> dataAttributes = new LinkedHashSet<>(projectedAttributeMapping.keySet());
+        dataAttributes.add(this.getConfiguredUserNameAttribute());
+        
         //Execute the query in the subclass
-        final List<IPersonAttributes> unmappedPeople = this.getPeopleForQuery(queryBuilder, username);
+        final List<IPersonAttributes> unmappedPeople = this.getPeopleForQuery(preparedQuery.queryBuilder, preparedQuery.username,
+                Collections.unmodifiableSet(dataAttributes));
+        if (unmappedPeople == null) {
+            return null;
+        }
+        
+        final ResultMappingPlan projectedMappingPlan = this.compileResultMappingPlan(projectedAttributeMapping);
+        final Set<IPersonAttributes> mappedPeople = new LinkedHashSet<>();
+        for (final IPersonAttributes unmappedPerson : unmappedPeople) {
+            mappedPeople.add(this.mapPersonAttributes(unmappedPerson, projectedMappingPlan));
+        }
+        
+        return Collections.unmodifiableSet(mappedPeople);
+    }
+    
+    /**
+     * @return The resultAttributeMapping narrowed to the requested result attributes. Without a resultAttributeMapping
+     * the requested attributes are mapped from the data attributes of the same name.
+     */
+    private Map<String, Set<String>> projectResultAttributeMapping(final Set<String> resultAttributeNames) {
+        final Map<String, Set<String>> projectedAttributeMapping = new LinkedHashMap<>();
+        if (this.resultAttributeMapping == null) {
+            for (final String resultAttributeName : resultAttributeNames) {
+                projectedAttributeMapping.put(resultAttributeName, null);
+            }
+            return projectedAttributeMapping;
+        }
+        
+        for (final Map.Entry<String, Set<String>> resultAttrEntry : this.resultAttributeMapping.entrySet()) {
+            final String dataKey = resultAttrEntry.getKey();
+            final Set<String> resultKeys = resultAttrEntry.getValue();
+            if (resultKeys == null) {
+                if (resultAttributeNames.contains(dataKey)) {
+                    projectedAttributeMapping.put(dataKey, null);
+                }
+            }
+            else {
+                final Set<String> projectedResultKeys = new LinkedHashSet<>(resultKeys);
+                projectedResultKeys.retainAll(resultAttributeNames);
+                if (!projectedResultKeys.isEmpty()) {
+                    projectedAttributeMapping.put(dataKey, projectedResultKeys);
+                }
+            }
+        }
+        return projectedAttributeMapping;
+    }
+    
+    /**
+     * Generates the queries for all query Maps and passes them to {@link #getPeopleForQueries(List, List)} so
+     * subclasses can run them together.
+     * 
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleForQueries(java.util.Collection)
+     */
+    @Override
+    public final Map<Map<String, List<Object>>, Set<IPersonAttributes>> getPeopleForQueries(final Collection<Map<String, List<Object>>> queries) {
+        Validate.notNull(queries, "queries may not be null.");
+        
+        //Results are added in the order of the queries, null until the query is run
+        final Map<Map<String, List<Object>>, Set<IPersonAttributes>> results = new LinkedHashMap<>(queries.size());
+        
+        final List<Map<String, List<Object>>> runQueries = new ArrayList<>(queries.size());
+        final List<QB> queryBuilders = new ArrayList<>(queries.size());
+        final List<String> usernames = new ArrayList<>(queries.size());
+        for (final Map<String, List<Object>> query : queries) {
+            Validate.notNull(query, "queries may not contain null.");
+            if (results.containsKey(query)) {
+                continue;
+            }
+            results.put(query, null);
+            
+            final PreparedQuery preparedQuery = this.prepareQuery(query);
+            if (preparedQuery == null) {
+                continue;
+            }
+            
+            runQueries.add(query);
+            queryBuilders.add(preparedQuery.queryBuilder);
+            usernames.add(preparedQuery.username);
+        }
+        
+        if (!runQueries.isEmpty()) {
+            //Execute the queries in the subclass
+            final List<List<IPersonAttributes>> unmappedResults = this.getPeopleForQueries(queryBuilders, usernames);
+            for (int index = 0; index < runQueries.size(); index++) {
+                results.put(runQueries.get(index), this.mapPeople(unmappedResults.get(index)));
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Looks up all uids with one call to {@link #getPeopleForQueries(Collection)} and names the people found as
+     * {@link #getPerson(String)} does.
+     * 
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPersons(java.util.Collection)
+     */
+    @Override
+    public Map<String, IPersonAttributes> getPersons(final Collection<String> uids) {
+        Validate.notNull(uids, "uids may not be null.");
+        
+        final Map<String, Map<String, List<Object>>> seeds = new LinkedHashMap<>(uids.size());
+        for (final String uid : uids) {
+            Validate.notNull(uid, "uids may not contain null.");
+            seeds.put(uid, this.toSeedMap(uid));
+        }
+        
+        final Map<Map<String, List<Object>>, Set<IPersonAttributes>> results = this.getPeopleForQueries(seeds.values());
+        
+        final Map<String, IPersonAttributes> people = new LinkedHashMap<>(seeds.size());
+        for (final Map.Entry<String, Map<String, List<Object>>> seedEntry : seeds.entrySet()) {
+            final String uid = seedEntry.getKey();
+            final IPersonAttributes person = this.getSinglePerson(uid, results.get(seedEntry.getValue()));
+            if (person != null) {
+                people.put(uid, person);
+            }
+        }
+        
+        return people;
+    }
+    
+    /**
+     * Maps the attributes of the found people according to resultAttributeMapping if it is set.
+     */
+    private Set<IPersonAttributes> mapPeople(final List<IPersonAttributes> unmappedPeople) {
         if (unmappedPeople == null) {
             return null;
         }
 
-        //Map the attributes of the found people according to resultAttributeMapping if it is set
         final Set<IPersonAttributes> mappedPeople = new LinkedHashSet<>();
         for (final IPersonAttributes unmappedPerson : unmappedPeople) {
             final IPersonAttributes mappedPerson = this.mapPersonAttributes(unmappedPerson);
@@ -244,6 +414,50 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
         return Collections.unmodifiableSet(mappedPeople);
     }
     
+    /**
+     * Wraps the callback of an {@link org.jasig.services.persondir.IEnumerablePersonAttributeDao#enumeratePeople(IPersonAttributesCallback)}
+     * call, mapping the attributes of each person with {@link #mapPersonAttributes(IPersonAttributes)} before passing
+     * it on and counting the people passed. Subclasses that enumerate their data store pass the unmapped people to it.
+     */
+    protected final class EnumerationCallback implements IPersonAttributesCallback {
+        private final IPersonAttributesCallback callback;
+        private long count = 0;
+        private boolean stopped = false;
+        
+        public EnumerationCallback(final IPersonAttributesCallback callback) {
+            Validate.notNull(callback, "callback may not be null.");
+            this.callback = callback;
+        }
+        
+        /**
+         * @param person The unmapped person
+         * @return false if the enumeration has been stopped by the callback
+         */
+        public boolean processPerson(final IPersonAttributes person) {
+            if (this.stopped) {
+                return false;
+            }
+            
+            this.count++;
+            this.stopped = !this.callback.processPerson(mapPersonAttributes(person));
+            return !this.stopped;
+        }
+        
+        /**
+         * @return true if the callback returned false
+         */
+        public boolean isStopped() {
+            return this.stopped;
+        }
+        
+        /**
+         * @return The number of people passed to the callback
+         */
+        public long getCount() {
+            return this.count;
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.IPersonAttributeDao#getAvailableQueryAttributes()
      */
@@ -275,6 +489,38 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
      * @return The list of IPersons found by the query. The user attributes should be using the raw names from the data layer.
      */
     protected abstract List<IPersonAttributes> getPeopleForQuery(QB queryBuilder, String queryUserName);
+    
+    /**
+     * Executes the query for a {@link #getPeopleWithMultivaluedAttributes(Map, Set)} call that only needs some of
+     * the data attributes. The default implementation calls {@link #getPeopleForQuery(Object, String)}, subclasses
+     * that can limit the attributes read from the data store should override. Returning other attributes as well is
+     * allowed, they are dropped when the attributes are mapped.
+     * 
+     * @param queryBuilder The query generated by calls to {@link #appendAttributeToQuery(Object, String, List)}
+     * @param queryUserName The username passed in the query map, if no username attribute existed in the query Map null is provided.
+     * @param dataAttributes The data attributes needed for the results, including the unmapped username attribute.
+     * @return The list of IPersons found by the query. The user attributes should be using the raw names from the data layer.
+     */
+    protected List<IPersonAttributes> getPeopleForQuery(final QB queryBuilder, final String queryUserName, final Set<String> dataAttributes) {
+        return this.getPeopleForQuery(queryBuilder, queryUserName);
+    }
+    
+    /**
+     * Executes the queries for the generated queryBuilder objects, the default implementation calls
+     * {@link #getPeopleForQuery(Object, String)} for each of them. Subclasses that can combine queries into fewer
+     * requests to the data layer should override.
+     * 
+     * @param queryBuilders The queries generated by calls to {@link #appendAttributeToQuery(Object, String, List)}
+     * @param queryUserNames The username passed in each query map, null entries for query Maps without a username attribute.
+     * @return The list of IPersons found by each query, in the order of <code>queryBuilders</code>.
+     */
+    protected List<List<IPersonAttributes>> getPeopleForQueries(final List<QB> queryBuilders, final List<String> queryUserNames) {
+        final List<List<IPersonAttributes>> results = new ArrayList<>(queryBuilders.size());
+        for (int index = 0; index < queryBuilders.size(); index++) {
+            results.add(this.getPeopleForQuery(queryBuilders.get(index), queryUserNames.get(index)));
+        }
+        return results;
+    }
 
     /**
      * Append the attribute and its canonicalized value/s to the
@@ -387,11 +633,19 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
      * @return A copy of the IPersonAttributes with mapped attributes, the original IPersonAttributes if resultAttributeMapping is null.
      */
     protected final IPersonAttributes mapPersonAttributes(final IPersonAttributes person) {
+        return this.mapPersonAttributes(person, this.resultAttributeMapping != null ? this.getResultMappingPlan() : null);
+    }
+
+    /**
+     * Maps the attributes of the IPersonAttributes with the compiled result mapping passed in, if null the
+     * attributes are used as-is.
+     */
+    private IPersonAttributes mapPersonAttributes(final IPersonAttributes person, final ResultMappingPlan resultMappingPlan) {
         final Map<String, List<Object>> personAttributes = person.getAttributes();
-        
+
         final Map<String, List<Object>> mappedAttributes;
         //If no mapping just use the attributes as-is
-        if (this.resultAttributeMapping == null) {
+        if (resultMappingPlan == null) {
             if (caseInsensitiveResultAttributes != null && !(caseInsensitiveResultAttributes.isEmpty())) {
                 mappedAttributes = new LinkedHashMap<>();
                 for ( final Map.Entry<String,List<Object>> attribute : personAttributes.entrySet() ) {
@@ -402,39 +656,9 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
                 mappedAttributes = personAttributes;
             }
         }
-        //Map the attribute names via the resultAttributeMapping
+        //Map the attribute names via the compiled resultAttributeMapping
         else {
-            mappedAttributes = new LinkedHashMap<>();
-            
-            for (final Map.Entry<String, Set<String>> resultAttrEntry : this.resultAttributeMapping.entrySet()) {
-                final String dataKey = resultAttrEntry.getKey();
-                
-                // Only map found data attributes.
-                // .  See https://issues.jasig.org/browse/PERSONDIR-89
-                // Currently respects CaseInsensitive*NamedPersonImpl because BasePersonImpl's constructor
-                if (personAttributes.containsKey(dataKey)) {
-                    Set<String> resultKeys = resultAttrEntry.getValue();
-                    
-                    //If dataKey has no mapped resultKeys just use the dataKey
-                    if (resultKeys == null) {
-                        resultKeys = ImmutableSet.of(dataKey);
-                    }
-                    
-                    //Add the value to the mapped attributes for each mapped key,
-                    //possibly canonicalizing casing for each value
-                    List<Object> value = personAttributes.get(dataKey);
-                    for (final String resultKey : resultKeys) {
-                        value = canonicalizeAttribute(resultKey, value, caseInsensitiveResultAttributes);
-                        if (resultKey == null) {
-                            //TODO is this possible?
-                            mappedAttributes.put(dataKey, value);
-                        }
-                        else {
-                            mappedAttributes.put(resultKey, value);
-                        }
-                    }
-                }
-            }
+            mappedAttributes = resultMappingPlan.map(personAttributes);
         }
         
         final IPersonAttributes newPerson;
@@ -452,6 +676,151 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
         return newPerson;
     }
 
+    /**
+     * @return The compiled resultAttributeMapping, compiling it if the configuration changed since it was last used.
+     */
+    private ResultMappingPlan getResultMappingPlan() {
+        ResultMappingPlan resultMappingPlan = this.resultMappingPlan;
+        if (resultMappingPlan == null) {
+            resultMappingPlan = this.compileResultMappingPlan(this.resultAttributeMapping);
+            this.resultMappingPlan = resultMappingPlan;
+        }
+        return resultMappingPlan;
+    }
+
+    /**
+     * Compiles the resultAttributeMapping with the current case canonicalization configuration, resolving the
+     * {@link CaseCanonicalizationMode} of each result attribute up front.
+     */
+    private ResultMappingPlan compileResultMappingPlan(final Map<String, Set<String>> resultAttributeMapping) {
+        final int dataKeyCount = resultAttributeMapping.size();
+        final String[] dataKeys = new String[dataKeyCount];
+        final String[][] resultKeys = new String[dataKeyCount][];
+        final CaseCanonicalizationMode[][] canonicalizationModes = new CaseCanonicalizationMode[dataKeyCount][];
+        int resultKeyCount = 0;
+
+        int dataKeyIndex = 0;
+        for (final Map.Entry<String, Set<String>> resultAttrEntry : resultAttributeMapping.entrySet()) {
+            final String dataKey = resultAttrEntry.getKey();
+
+            //If dataKey has no mapped resultKeys just use the dataKey
+            final Collection<String> mappedKeys = resultAttrEntry.getValue() != null ? resultAttrEntry.getValue() : Collections.singleton(dataKey);
+
+            final String[] dataKeyResultKeys = new String[mappedKeys.size()];
+            final CaseCanonicalizationMode[] dataKeyModes = new CaseCanonicalizationMode[mappedKeys.size()];
+            int resultKeyIndex = 0;
+            for (final String resultKey : mappedKeys) {
+                dataKeyResultKeys[resultKeyIndex] = resultKey != null ? resultKey : dataKey;
+                dataKeyModes[resultKeyIndex] = this.getResultCanonicalizationMode(resultKey);
+                resultKeyIndex++;
+            }
+
+            dataKeys[dataKeyIndex] = dataKey;
+            resultKeys[dataKeyIndex] = dataKeyResultKeys;
+            canonicalizationModes[dataKeyIndex] = dataKeyModes;
+            resultKeyCount += dataKeyResultKeys.length;
+            dataKeyIndex++;
+        }
+
+        return new ResultMappingPlan(dataKeys, resultKeys, canonicalizationModes, resultKeyCount, this.caseCanonicalizationLocale);
+    }
+
+    /**
+     * @return The mode used to canonicalize the values of the result attribute, null if they are not canonicalized.
+     */
+    private CaseCanonicalizationMode getResultCanonicalizationMode(final String resultKey) {
+        if (this.caseInsensitiveResultAttributes == null || !this.caseInsensitiveResultAttributes.containsKey(resultKey)) {
+            return null;
+        }
+
+        final CaseCanonicalizationMode canonicalizationMode = this.caseInsensitiveResultAttributes.get(resultKey);
+        if (canonicalizationMode == null) {
+            return this.defaultCaseCanonicalizationMode;
+        }
+        return canonicalizationMode;
+    }
+
+    /**
+     * A generated query builder and the username of the query it was generated from.
+     */
+    private final class PreparedQuery {
+        private final QB queryBuilder;
+        private final String username;
+
+        PreparedQuery(final QB queryBuilder, final String username) {
+            this.queryBuilder = queryBuilder;
+            this.username = username;
+        }
+    }
+
+    /**
+     * The resultAttributeMapping and the case canonicalization of the result attributes compiled into arrays so
+     * mapping a person only walks the arrays, the result Map is sized up front and attributes that are not
+     * canonicalized are not copied. Immutable, a new plan is compiled when the configuration changes.
+     */
+    private static final class ResultMappingPlan {
+        private final String[] dataKeys;
+        private final String[][] resultKeys;
+        private final CaseCanonicalizationMode[][] canonicalizationModes;
+        private final int resultMapCapacity;
+        private final Locale caseCanonicalizationLocale;
+
+        ResultMappingPlan(final String[] dataKeys, final String[][] resultKeys, final CaseCanonicalizationMode[][] canonicalizationModes,
+                final int resultKeyCount, final Locale caseCanonicalizationLocale) {
+            this.dataKeys = dataKeys;
+            this.resultKeys = resultKeys;
+            this.canonicalizationModes = canonicalizationModes;
+            this.resultMapCapacity = (int) (resultKeyCount / 0.75f) + 1;
+            this.caseCanonicalizationLocale = caseCanonicalizationLocale;
+        }
+
+        Map<String, List<Object>> map(final Map<String, List<Object>> personAttributes) {
+            final Map<String, List<Object>> mappedAttributes = new LinkedHashMap<>(this.resultMapCapacity);
+
+            for (int dataKeyIndex = 0; dataKeyIndex < this.dataKeys.length; dataKeyIndex++) {
+                final String dataKey = this.dataKeys[dataKeyIndex];
+
+                // Only map found data attributes.
+                // .  See https://issues.jasig.org/browse/PERSONDIR-89
+                // Currently respects CaseInsensitive*NamedPersonImpl because BasePersonImpl's constructor
+                List<Object> value = personAttributes.get(dataKey);
+                if (value == null && !personAttributes.containsKey(dataKey)) {
+                    continue;
+                }
+
+                //Add the value to the mapped attributes for each mapped key,
+                //possibly canonicalizing casing for each value
+                final String[] dataKeyResultKeys = this.resultKeys[dataKeyIndex];
+                final CaseCanonicalizationMode[] dataKeyModes = this.canonicalizationModes[dataKeyIndex];
+                for (int resultKeyIndex = 0; resultKeyIndex < dataKeyResultKeys.length; resultKeyIndex++) {
+                    final CaseCanonicalizationMode canonicalizationMode = dataKeyModes[resultKeyIndex];
+                    if (canonicalizationMode != null) {
+                        value = this.canonicalize(value, canonicalizationMode);
+                    }
+                    mappedAttributes.put(dataKeyResultKeys[resultKeyIndex], value);
+                }
+            }
+
+            return mappedAttributes;
+        }
+
+        private List<Object> canonicalize(final List<Object> value, final CaseCanonicalizationMode canonicalizationMode) {
+            if (value == null || value.isEmpty()) {
+                return value;
+            }
+
+            final List<Object> canonicalizedValues = new ArrayList<>(value.size());
+            for (final Object origValue : value) {
+                if (origValue instanceof String) {
+                    canonicalizedValues.add(canonicalizationMode.canonicalize((String) origValue, this.caseCanonicalizationLocale));
+                } else {
+                    canonicalizedValues.add(origValue);
+                }
+            }
+            return canonicalizedValues;
+        }
+    }
+
     /**
      * Canonicalize the attribute values if they are present in the config map.
      * @param key attribute key
@@ -546,10 +915,14 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
      * layer attributes, but respond with attribute values which preserve
      * the original data layer casing.</p>
      *
+     * <p>The modes are compiled together with the resultAttributeMapping when the next person is mapped, changes to
+     * the passed {@link Map} after that are not seen until one of the mapping properties is set again.</p>
+     *
      * @param caseInsensitiveResultAttributes Map of result attribute names and casing canonicalization modes
      */
     public void setCaseInsensitiveResultAttributes(final Map<String, CaseCanonicalizationMode> caseInsensitiveResultAttributes) {
         this.caseInsensitiveResultAttributes = caseInsensitiveResultAttributes;
+        this.resultMappingPlan = null;
     }
 
     /**
@@ -644,6 +1017,7 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
         } else {
             this.caseCanonicalizationLocale = caseCanonicalizationLocale;
         }
+        this.resultMappingPlan = null;
     }
 
     /**
@@ -667,6 +1041,7 @@ public abstract class AbstractQueryPersonAttributeDao<QB> extends AbstractDefaul
         } else {
             this.defaultCaseCanonicalizationMode = defaultCaseCanonicalizationMode;
         }
+        this.resultMappingPlan = null;
     }
 
     /**
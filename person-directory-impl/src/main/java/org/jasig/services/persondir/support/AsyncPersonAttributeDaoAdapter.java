@@ -0,0 +1,173 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IAsyncPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Adapts any {@link IPersonAttributeDao} to {@link IAsyncPersonAttributeDao}. If the wrapped DAO implements
+ * {@link IAsyncPersonAttributeDao} itself, as the aggregating and caching DAOs do, its asynchronous method is called
+ * directly. Queries of other DAOs are run on the <b>executorService</b>.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">personAttributeDao</td>
+ *         <td>
+ *             The {@link IPersonAttributeDao} to query.
+ *         </td>
+ *         <td valign="top">Yes</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">executorService</td>
+ *         <td>
+ *             The {@link ExecutorService} blocking queries are run on. If not set they are run on the calling thread
+ *             and the returned future is already complete.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ * </table>
+ * 
+ * @version $Revision$
+ */
+public class AsyncPersonAttributeDaoAdapter implements IAsyncPersonAttributeDao {
+    private IPersonAttributeDao personAttributeDao = null;
+    private ExecutorService executorService = null;
+    
+    public AsyncPersonAttributeDaoAdapter() {
+    }
+    
+    public AsyncPersonAttributeDaoAdapter(final IPersonAttributeDao personAttributeDao, final ExecutorService executorService) {
+        this.personAttributeDao = personAttributeDao;
+        this.executorService = executorService;
+    }
+    
+    /**
+     * @return the personAttributeDao
+     */
+    public IPersonAttributeDao getPersonAttributeDao() {
+        return this.personAttributeDao;
+    }
+    /**
+     * @param personAttributeDao the personAttributeDao to set
+     */
+    public void setPersonAttributeDao(final IPersonAttributeDao personAttributeDao) {
+        this.personAttributeDao = personAttributeDao;
+    }
+
+    /**
+     * @return the executorService
+     */
+    public ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+    /**
+     * @param executorService the executorService to set
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IAsyncPersonAttributeDao#getPeopleWithMultivaluedAttributesAsync(java.util.Map)
+     */
+    @Override
+    public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final Map<String, List<Object>> query) {
+        Validate.notNull(query, "query may not be null.");
+        
+        if (this.personAttributeDao == null) {
+            throw new IllegalStateException("personAttributeDao must be set");
+        }
+        
+        return getPeopleWithMultivaluedAttributesAsync(this.personAttributeDao, query, this.executorService);
+    }
+    
+    /**
+     * Queries the DAO through {@link IAsyncPersonAttributeDao#getPeopleWithMultivaluedAttributesAsync(Map)} if it
+     * implements it, otherwise {@link IPersonAttributeDao#getPeopleWithMultivaluedAttributes(Map)} is run on the
+     * executorService.
+     * 
+     * @param personAttributeDao The DAO to query
+     * @param query The query
+     * @param executorService The {@link ExecutorService} to run blocking queries on, null to run them on the calling thread
+     * @return The future results of the query, exceptions thrown by the DAO are reported through the future
+     */
+    public static ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final IPersonAttributeDao personAttributeDao,
+            final Map<String, List<Object>> query, final ExecutorService executorService) {
+        
+        if (personAttributeDao instanceof IAsyncPersonAttributeDao) {
+            try {
+                return ((IAsyncPersonAttributeDao) personAttributeDao).getPeopleWithMultivaluedAttributesAsync(query);
+            }
+            catch (final RuntimeException rte) {
+                return Futures.immediateFailedFuture(rte);
+            }
+        }
+        
+        return runQuery(new Callable<Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> call() {
+                return personAttributeDao.getPeopleWithMultivaluedAttributes(query);
+            }
+        }, executorService);
+    }
+    
+    /**
+     * Runs a blocking query on the executorService, or on the calling thread if it is null. The query runs
+     * with the {@link QueryTrace} span of the calling thread.
+     */
+    static ListenableFuture<Set<IPersonAttributes>> runQuery(final Callable<Set<IPersonAttributes>> query, final ExecutorService executorService) {
+        final ListenableFutureTask<Set<IPersonAttributes>> queryTask = ListenableFutureTask.create(QueryTrace.wrap(query));
+        
+        if (executorService == null) {
+            queryTask.run();
+            return queryTask;
+        }
+        
+        try {
+            executorService.execute(queryTask);
+        }
+        catch (final RejectedExecutionException ree) {
+            return Futures.immediateFailedFuture(ree);
+        }
+        
+        return queryTask;
+    }
+}
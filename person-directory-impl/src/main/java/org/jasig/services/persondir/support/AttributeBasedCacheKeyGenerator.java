@@ -271,16 +271,7 @@ public class AttributeBasedCacheKeyGenerator implements CacheKeyGenerator {
      */
     protected Integer getKeyHash(final Map<String, Object> seed) {
         //Determine the attributes to build the cache key with
-        final Set<String> cacheAttributes;
-        if (this.useAllAttributes) {
-            cacheAttributes = seed.keySet();
-        }
-        else if (this.cacheKeyAttributes != null) {
-            cacheAttributes = this.cacheKeyAttributes;
-        }
-        else {
-            cacheAttributes = this.defaultAttributeNameSet;
-        }
+        final Set<String> cacheAttributes = this.getCacheAttributes(seed);
         
         //Build the cache key based on the attribute Set
         final HashMap<String, Object> cacheKey = new HashMap<>(cacheAttributes.size());
@@ -288,20 +279,7 @@ public class AttributeBasedCacheKeyGenerator implements CacheKeyGenerator {
             if (seed.containsKey(attr)) {
                 final Object value = seed.get(attr);
                 
-                if (!this.ignoreEmptyAttributes) {
-                    cacheKey.put(attr, value);
-                }
-                else if (value instanceof Collection) {
-                    if (CollectionUtils.isNotEmpty((Collection<?>) value)) {
-                        cacheKey.put(attr, value);
-                    }
-                }
-                else if (value instanceof String) {
-                    if (StringUtils.isNotEmpty((String)value)) {
-                        cacheKey.put(attr, value);
-                    }
-                }
-                else if (value != null) {
+                if (this.isCacheKeyValue(value)) {
                     cacheKey.put(attr, value);
                 }
             }
@@ -320,6 +298,49 @@ public class AttributeBasedCacheKeyGenerator implements CacheKeyGenerator {
         return cacheKey.hashCode();
     }
     
+    /**
+     * Determines the attributes to build the cache key with. If <code>useAllAttributes</code> is set all attributes in
+     * the seed are used, otherwise the <code>cacheKeyAttributes</code> or if it is <code>null</code> the
+     * <code>defaultAttributeName</code>.
+     *
+     * @param seed Seed
+     * @return The names of the attributes to build the cache key with, some may not be present in the seed
+     */
+    protected Set<String> getCacheAttributes(final Map<String, ?> seed) {
+        if (this.useAllAttributes) {
+            return seed.keySet();
+        }
+        
+        if (this.cacheKeyAttributes != null) {
+            return this.cacheKeyAttributes;
+        }
+        
+        return this.defaultAttributeNameSet;
+    }
+    
+    /**
+     * Determines if a seed value should be part of the cache key, all values are unless
+     * <code>ignoreEmptyAttributes</code> is set in which case null, empty String and empty Collection values are not.
+     *
+     * @param value The seed value
+     * @return true if the value should be part of the cache key
+     */
+    protected boolean isCacheKeyValue(final Object value) {
+        if (!this.ignoreEmptyAttributes) {
+            return true;
+        }
+        
+        if (value instanceof Collection) {
+            return CollectionUtils.isNotEmpty((Collection<?>) value);
+        }
+        
+        if (value instanceof String) {
+            return StringUtils.isNotEmpty((String)value);
+        }
+        
+        return value != null;
+    }
+    
     /**
      * Iterates over the {@link CachableMethod} instances to determine which instance the
      * passed {@link MethodInvocation} applies to.
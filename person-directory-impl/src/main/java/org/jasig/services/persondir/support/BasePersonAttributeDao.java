@@ -18,6 +18,7 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,50 @@ public abstract class BasePersonAttributeDao implements IPersonAttributeDao {
         super();
     }
 
+    /**
+     * Calls {@link #getPerson(String)} for each uid, subclasses that can resolve many uids at once should override.
+     * 
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPersons(java.util.Collection)
+     */
+    public Map<String, IPersonAttributes> getPersons(final Collection<String> uids) {
+        Validate.notNull(uids, "uids may not be null.");
+        
+        final Map<String, IPersonAttributes> people = new LinkedHashMap<>(uids.size());
+        for (final String uid : uids) {
+            Validate.notNull(uid, "uids may not contain null.");
+            if (people.containsKey(uid)) {
+                continue;
+            }
+            
+            final IPersonAttributes person = this.getPerson(uid);
+            if (person != null) {
+                people.put(uid, person);
+            }
+        }
+        
+        return people;
+    }
+    
+    /**
+     * Calls {@link #getPeopleWithMultivaluedAttributes(Map)} for each query, subclasses that can run many queries at
+     * once should override.
+     * 
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleForQueries(java.util.Collection)
+     */
+    public Map<Map<String, List<Object>>, Set<IPersonAttributes>> getPeopleForQueries(final Collection<Map<String, List<Object>>> queries) {
+        Validate.notNull(queries, "queries may not be null.");
+        
+        final Map<Map<String, List<Object>>, Set<IPersonAttributes>> results = new LinkedHashMap<>(queries.size());
+        for (final Map<String, List<Object>> query : queries) {
+            Validate.notNull(query, "queries may not contain null.");
+            if (!results.containsKey(query)) {
+                results.put(query, this.getPeopleWithMultivaluedAttributes(query));
+            }
+        }
+        
+        return results;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.IPersonAttributeDao#getMultivaluedUserAttributes(java.util.Map)
      */
@@ -18,23 +18,52 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Method;
+import java.util.AbstractSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jasig.services.persondir.IAsyncPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.util.LogSummary;
 import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springmodules.cache.key.CacheKeyGenerator;
 
@@ -65,9 +94,59 @@ import org.springmodules.cache.key.CacheKeyGenerator;
  *         <td>
  *             The {@link java.util.Map} to use for result caching. This class does no cache
  *             maintenence. It is assumed the underlying Map implementation will ensure the cache
- *             is in a good state at all times.
+ *             is in a good state at all times. Only get, put and remove are used unless a <b>snapshotFile</b>
+ *             is set, snapshots are written by iterating the entrySet of the Map so it must support
+ *             iteration. If not set a bounded, concurrent cache is created
+ *             by {@link #afterPropertiesSet()} using the <b>maximumCacheSize</b>, <b>maximumCacheWeight</b>,
+ *             <b>cacheTimeToLive</b> and <b>cacheTimeToIdle</b> properties.
  *         </td>
- *         <td valign="top">Yes</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">built-in cache</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">maximumCacheSize</td>
+ *         <td>
+ *             The maximum number of query results the built-in cache holds. The least recently used
+ *             results are evicted first. Ignored if <b>maximumCacheWeight</b> is set.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">10000</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">maximumCacheWeight</td>
+ *         <td>
+ *             The maximum total weight of the query results the built-in cache holds. Each result weighs
+ *             one plus the number of attribute values it contains. 0 uses <b>maximumCacheSize</b> instead.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">cacheTimeToLive</td>
+ *         <td>
+ *             Milliseconds after which a result in the built-in cache expires, 0 to never expire.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">cacheTimeToIdle</td>
+ *         <td>
+ *             Milliseconds after which a result in the built-in cache that has not been read expires, 0 to never expire.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">offHeapCache</td>
+ *         <td>
+ *             An {@link OffHeapPersonAttributesCache} used as a second cache tier. Query results are stored in
+ *             both caches, results missing from the userInfoCache are looked up in the off-heap cache and copied
+ *             back into the userInfoCache when found. Allows keeping many more results cached than fit on the heap.
+ *             Results in the off-heap cache expire by <b>cacheTimeToLive</b> and <b>cacheTimeToIdle</b> as well and
+ *             promoted results keep the time they were loaded, so they do not live longer than the time to live.
+ *         </td>
+ *         <td valign="top">No</td>
  *         <td valign="top">null</td>
  *     </tr>
  *     <tr>
@@ -99,6 +178,79 @@ import org.springmodules.cache.key.CacheKeyGenerator;
  *         <td valign="top">No</td>
  *         <td valign="top">{@link CachingPersonAttributeDaoImpl#NULL_RESULTS_OBJECT}</td>
  *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">coalesceMisses</td>
+ *         <td>
+ *             If concurrent cache misses for the same cache key should share a single query to the
+ *             wrapped IPersonAttributeDao. The first thread to miss runs the query, the other threads
+ *             wait for and return its results.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">true</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">refreshAfter</td>
+ *         <td>
+ *             Milliseconds after which a cached result is refreshed from the wrapped IPersonAttributeDao
+ *             in the background on the next cache hit. The current result keeps being returned until the
+ *             refresh completes. Should be less than the expiration time of the cache. 0 disables refreshing.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">refreshExecutor</td>
+ *         <td>
+ *             The {@link ExecutorService} background refreshes are run on.
+ *         </td>
+ *         <td valign="top">If refreshAfter is set</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">serveStaleOnError</td>
+ *         <td>
+ *             If a result whose background refresh failed should keep being returned until it expires from the
+ *             cache. If false the result is removed from the cache so the next query goes to the wrapped
+ *             IPersonAttributeDao.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">true</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">snapshotFile</td>
+ *         <td>
+ *             File the cached results are written to by {@link #writeSnapshot()}, every <b>snapshotInterval</b>
+ *             and when the DAO is destroyed. After a restart the file is memory mapped on the first cache miss and
+ *             results found in it are copied into the userInfoCache instead of querying the wrapped
+ *             IPersonAttributeDao. Results older than <b>cacheTimeToLive</b> are ignored and loaded results keep the
+ *             time they were loaded so they expire when they would have without the restart. The load time of
+ *             results is only known if <b>refreshAfter</b> or <b>cacheTimeToLive</b> is set, otherwise the time of the
+ *             snapshot is used. The userInfoCache must support iterating its entrySet. Opening the
+ *             snapshot does not read its contents and only the classes expected in results are deserialized from it,
+ *             see {@link PersonAttributesCacheSnapshot}. The file should only be writable by the application.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">snapshotInterval</td>
+ *         <td>
+ *             Milliseconds between snapshots written in the background, 0 to only write a snapshot when the DAO
+ *             is destroyed.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">executorService</td>
+ *         <td>
+ *             The {@link ExecutorService} {@link #getPeopleWithMultivaluedAttributesAsync(Map)} runs cache misses
+ *             on if the wrapped IPersonAttributeDao does not implement {@link IAsyncPersonAttributeDao}. If not
+ *             set such misses are run on the calling thread.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
  * </table>
  * 
  * 
@@ -106,13 +258,13 @@ import org.springmodules.cache.key.CacheKeyGenerator;
  * @author Eric Dalquist
  * @version $Id
  */
-public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean, BeanNameAware {
+public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePersonAttributeDao implements IAsyncPersonAttributeDao, InitializingBean, DisposableBean, BeanNameAware {
     protected static final Set<IPersonAttributes> NULL_RESULTS_OBJECT;
             
     protected Log statsLogger = LogFactory.getLog(this.getClass().getName() + ".statistics");
 
-    private long queries = 0;
-    private long misses = 0;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     static {
         NULL_RESULTS_OBJECT = new HashSet();
@@ -133,6 +285,11 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
      */
     private Map<Serializable, Set<IPersonAttributes>> userInfoCache = null; 
     
+    /*
+     * Optional second cache tier stored outside of the heap
+     */
+    private OffHeapPersonAttributesCache offHeapCache = null;
+    
     /*
      * The set of attributes to use to generate the cache key.
      */
@@ -148,6 +305,46 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
      */
     private Set<IPersonAttributes> nullResultsObject = NULL_RESULTS_OBJECT;
     
+    /*
+     * Configuration of the built-in cache used if no userInfoCache is set
+     */
+    private long maximumCacheSize = 10000;
+    private long maximumCacheWeight = 0;
+    private long cacheTimeToLive = 0;
+    private long cacheTimeToIdle = 0;
+    
+    /*
+     * If concurrent misses for the same key should share a single query
+     */
+    private boolean coalesceMisses = true;
+    
+    /*
+     * Queries to the wrapped IPersonAttributeDao that are in progress, by cache key
+     */
+    private final ConcurrentMap<Serializable, ListenableFuture<Set<IPersonAttributes>>> pendingQueries = new ConcurrentHashMap<>();
+    
+    /*
+     * Refresh-ahead configuration
+     */
+    private long refreshAfter = 0;
+    private ExecutorService refreshExecutor = null;
+    private boolean serveStaleOnError = true;
+    
+    /*
+     * Snapshot configuration, the snapshot read after a restart and the scheduler writing snapshots
+     */
+    private File snapshotFile = null;
+    private long snapshotInterval = 0;
+    private final Lock snapshotLock = new ReentrantLock();
+    private volatile PersonAttributesCacheSnapshot snapshot = null;
+    private volatile boolean snapshotOpened = false;
+    private ScheduledExecutorService snapshotScheduler = null;
+    
+    /*
+     * Runs asynchronous cache misses of a wrapped IPersonAttributeDao that can only be queried synchronously
+     */
+    private ExecutorService executorService = null;
+    
     private String beanName;
     
     /**
@@ -195,7 +392,8 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
     }
     /**
      * The Map to use for caching results. Only get, put and remove are used so the Map may be backed by a real caching
-     * implementation.
+     * implementation, unless a snapshotFile is set. Snapshots are written by iterating the entrySet of the Map, which
+     * must be supported in that case.
      * 
      * @param userInfoCache The userInfoCache to set.
      */
@@ -244,6 +442,22 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         this.nullResultsObject = nullResultsObject;
     }
     
+    /**
+     * @return the offHeapCache
+     */
+    @JsonIgnore
+    public OffHeapPersonAttributesCache getOffHeapCache() {
+        return this.offHeapCache;
+    }
+    /**
+     * Second cache tier to use for results that are not in the userInfoCache, null to disable.
+     * 
+     * @param offHeapCache the offHeapCache to set
+     */
+    public void setOffHeapCache(final OffHeapPersonAttributesCache offHeapCache) {
+        this.offHeapCache = offHeapCache;
+    }
+    
     /**
      * @return the cacheKeyGenerator
      */
@@ -259,17 +473,210 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         this.cacheKeyGenerator = cacheKeyGenerator;
     }
     
+    /**
+     * @return the maximumCacheSize
+     */
+    public long getMaximumCacheSize() {
+        return this.maximumCacheSize;
+    }
+    /**
+     * The maximum number of query results held by the built-in cache. Only used if no userInfoCache is set.
+     * 
+     * @param maximumCacheSize the maximumCacheSize to set
+     */
+    public void setMaximumCacheSize(final long maximumCacheSize) {
+        Validate.isTrue(maximumCacheSize >= 0, "maximumCacheSize may not be negative");
+        this.maximumCacheSize = maximumCacheSize;
+    }
+    
+    /**
+     * @return the maximumCacheWeight
+     */
+    public long getMaximumCacheWeight() {
+        return this.maximumCacheWeight;
+    }
+    /**
+     * The maximum total weight of the query results held by the built-in cache, each result weighs one plus the
+     * number of attribute values it contains. If 0, the default, maximumCacheSize is used instead. Only used if no
+     * userInfoCache is set.
+     * 
+     * @param maximumCacheWeight the maximumCacheWeight to set
+     */
+    public void setMaximumCacheWeight(final long maximumCacheWeight) {
+        Validate.isTrue(maximumCacheWeight >= 0, "maximumCacheWeight may not be negative");
+        this.maximumCacheWeight = maximumCacheWeight;
+    }
+    
+    /**
+     * @return the cacheTimeToLive
+     */
+    public long getCacheTimeToLive() {
+        return this.cacheTimeToLive;
+    }
+    /**
+     * Milliseconds after which a result in the built-in cache expires. If 0, the default, results do not expire. Only
+     * used if no userInfoCache is set.
+     * 
+     * @param cacheTimeToLive the cacheTimeToLive to set
+     */
+    public void setCacheTimeToLive(final long cacheTimeToLive) {
+        Validate.isTrue(cacheTimeToLive >= 0, "cacheTimeToLive may not be negative");
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+    
+    /**
+     * @return the cacheTimeToIdle
+     */
+    public long getCacheTimeToIdle() {
+        return this.cacheTimeToIdle;
+    }
+    /**
+     * Milliseconds after which a result in the built-in cache that has not been read expires. If 0, the default,
+     * results do not expire. Only used if no userInfoCache is set.
+     * 
+     * @param cacheTimeToIdle the cacheTimeToIdle to set
+     */
+    public void setCacheTimeToIdle(final long cacheTimeToIdle) {
+        Validate.isTrue(cacheTimeToIdle >= 0, "cacheTimeToIdle may not be negative");
+        this.cacheTimeToIdle = cacheTimeToIdle;
+    }
+    
+    /**
+     * @return the coalesceMisses
+     */
+    public boolean isCoalesceMisses() {
+        return this.coalesceMisses;
+    }
+    /**
+     * If concurrent cache misses for the same cache key should share a single query to the wrapped IPersonAttributeDao.
+     * This prevents a burst of identical queries against the wrapped DAO when a popular entry expires or the cache is
+     * empty. Defaults to true.
+     * 
+     * @param coalesceMisses the coalesceMisses to set
+     */
+    public void setCoalesceMisses(final boolean coalesceMisses) {
+        this.coalesceMisses = coalesceMisses;
+    }
+    
+    /**
+     * @return the refreshAfter
+     */
+    public long getRefreshAfter() {
+        return this.refreshAfter;
+    }
+    /**
+     * Milliseconds after which a cached result is refreshed in the background on the next cache hit, the current
+     * result is returned while the refresh runs. Set this below the expiration time of the cache so frequently
+     * used results never expire. Requires a refreshExecutor. If 0, the default, results are not refreshed.
+     * 
+     * @param refreshAfter the refreshAfter to set
+     */
+    public void setRefreshAfter(final long refreshAfter) {
+        Validate.isTrue(refreshAfter >= 0, "refreshAfter may not be negative");
+        this.refreshAfter = refreshAfter;
+    }
+    
+    /**
+     * @return the refreshExecutor
+     */
+    @JsonIgnore
+    public ExecutorService getRefreshExecutor() {
+        return this.refreshExecutor;
+    }
+    /**
+     * The ExecutorService to run background refreshes on. The lifecycle of the ExecutorService is not managed by
+     * this class.
+     * 
+     * @param refreshExecutor the refreshExecutor to set
+     */
+    @JsonIgnore
+    public void setRefreshExecutor(final ExecutorService refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+    
+    /**
+     * @return the executorService
+     */
+    @JsonIgnore
+    public ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+    /**
+     * The ExecutorService asynchronous cache misses are run on if the wrapped IPersonAttributeDao does not implement
+     * {@link IAsyncPersonAttributeDao}. The lifecycle of the ExecutorService is not managed by this class.
+     * 
+     * @param executorService the executorService to set
+     */
+    @JsonIgnore
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+    
+    /**
+     * @return the serveStaleOnError
+     */
+    public boolean isServeStaleOnError() {
+        return this.serveStaleOnError;
+    }
+    /**
+     * If a cached result whose background refresh failed should keep being returned until it expires from the cache.
+     * If false the result is removed so the next query goes to the wrapped IPersonAttributeDao. Defaults to true.
+     * 
+     * @param serveStaleOnError the serveStaleOnError to set
+     */
+    public void setServeStaleOnError(final boolean serveStaleOnError) {
+        this.serveStaleOnError = serveStaleOnError;
+    }
+    
+    /**
+     * @return the snapshotFile
+     */
+    public File getSnapshotFile() {
+        return this.snapshotFile;
+    }
+    /**
+     * File to write snapshots of the cached results to and read them from after a restart, null to disable.
+     * 
+     * @param snapshotFile the snapshotFile to set
+     */
+    public void setSnapshotFile(final File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+    
+    /**
+     * @return the snapshotInterval
+     */
+    public long getSnapshotInterval() {
+        return this.snapshotInterval;
+    }
+    /**
+     * Milliseconds between snapshots written in the background, 0 to only write a snapshot when the DAO is destroyed.
+     * 
+     * @param snapshotInterval the snapshotInterval to set
+     */
+    public void setSnapshotInterval(final long snapshotInterval) {
+        Validate.isTrue(snapshotInterval >= 0, "snapshotInterval must be greater than or equal to 0");
+        this.snapshotInterval = snapshotInterval;
+    }
+    
     @Override
     public void setBeanName(final String name) {
         this.beanName = name;
     }
     
+    /**
+     * @return The bean name, used by aggregating DAOs to name the metrics of their children
+     */
+    String getBeanName() {
+        return this.beanName;
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
      */
     public void afterPropertiesSet() throws Exception {
         if (this.cacheKeyGenerator == null) {
-            final AttributeBasedCacheKeyGenerator cacheKeyGenerator = new AttributeBasedCacheKeyGenerator();
+            final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
             cacheKeyGenerator.setCacheKeyAttributes(this.cacheKeyAttributes);
             
             final IUsernameAttributeProvider usernameAttributeProvider = this.getUsernameAttributeProvider();
@@ -277,20 +684,171 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
             cacheKeyGenerator.setDefaultAttributeName(usernameAttribute);
             this.cacheKeyGenerator = cacheKeyGenerator;
         }
+        
+        if (this.userInfoCache == null) {
+            this.userInfoCache = this.createUserInfoCache();
+        }
+        
+        if (this.refreshAfter > 0 && this.refreshExecutor == null) {
+            throw new IllegalStateException("A 'refreshExecutor' must be specified if 'refreshAfter' is set.");
+        }
+        
+        if (this.snapshotInterval > 0) {
+            if (this.snapshotFile == null) {
+                throw new IllegalStateException("A 'snapshotFile' must be specified if 'snapshotInterval' is set.");
+            }
+            
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("CachingPersonAttributeDao-snapshot-" + beanName)
+                    .build());
+            this.snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        writeSnapshot();
+                    }
+                    catch (final IOException | RuntimeException e) {
+                        logger.warn("Failed to write cache snapshot for " + beanName + " to '" + snapshotFile + "'", e);
+                    }
+                }
+            }, this.snapshotInterval, this.snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    public void destroy() throws Exception {
+        if (this.snapshotScheduler != null) {
+            this.snapshotScheduler.shutdownNow();
+            this.snapshotScheduler = null;
+        }
+        
+        if (this.snapshotFile != null) {
+            this.writeSnapshot();
+        }
+    }
+    
+    /**
+     * Writes the contents of the userInfoCache to the snapshotFile, replacing the previous snapshot. The entrySet of
+     * the userInfoCache is iterated so it must support iteration.
+     * 
+     * @return The number of results written
+     * @throws IOException If the snapshot file cannot be written
+     */
+    public int writeSnapshot() throws IOException {
+        if (this.snapshotFile == null) {
+            throw new IllegalStateException("No 'snapshotFile' has been specified.");
+        }
+        
+        this.snapshotLock.lock();
+        try {
+            final long snapshotTime = System.currentTimeMillis();
+            try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+                for (final Map.Entry<Serializable, Set<IPersonAttributes>> entry : this.userInfoCache.entrySet()) {
+                    final Set<IPersonAttributes> cacheResults = entry.getValue();
+                    if (cacheResults instanceof RefreshableResults) {
+                        final RefreshableResults refreshableResults = (RefreshableResults) cacheResults;
+                        writer.write(entry.getKey(), refreshableResults.getResults(), refreshableResults.getLoadedAt());
+                    }
+                    else {
+                        writer.write(entry.getKey(), cacheResults, snapshotTime);
+                    }
+                }
+                writer.commit();
+                
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Wrote " + writer.getCount() + " cached results for " + beanName + " to '" + this.snapshotFile + "'");
+                }
+                return writer.getCount();
+            }
+        }
+        finally {
+            this.snapshotLock.unlock();
+        }
+    }
+    
+    /**
+     * Opens the snapshot file the first time it is needed.
+     * 
+     * @return The snapshot, null if not configured or it could not be opened
+     */
+    private PersonAttributesCacheSnapshot getSnapshot() {
+        if (this.snapshotOpened || this.snapshotFile == null) {
+            return this.snapshot;
+        }
+        
+        this.snapshotLock.lock();
+        try {
+            if (!this.snapshotOpened) {
+                if (this.snapshotFile.isFile()) {
+                    try {
+                        this.snapshot = PersonAttributesCacheSnapshot.open(this.snapshotFile);
+                        logger.info("Opened cache snapshot for " + beanName + " with " + this.snapshot.size() + " results from '" + this.snapshotFile + "'");
+                    }
+                    catch (final IOException | RuntimeException e) {
+                        logger.warn("Failed to open cache snapshot for " + beanName + " from '" + this.snapshotFile + "'", e);
+                    }
+                }
+                this.snapshotOpened = true;
+            }
+            return this.snapshot;
+        }
+        finally {
+            this.snapshotLock.unlock();
+        }
+    }
+    
+    /**
+     * Creates the built-in cache used when no userInfoCache is configured. The cache is safe for concurrent use,
+     * bounded by size or weight and optionally expires results after a time to live and/or time to idle.
+     * 
+     * @return A concurrent {@link Map} view of the cache.
+     */
+    protected Map<Serializable, Set<IPersonAttributes>> createUserInfoCache() {
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors());
+        
+        final Cache<Serializable, Set<IPersonAttributes>> cache;
+        if (this.maximumCacheWeight > 0) {
+            cache = this.configureExpiration(cacheBuilder)
+                    .maximumWeight(this.maximumCacheWeight)
+                    .weigher(new PersonAttributesWeigher())
+                    .build();
+        }
+        else {
+            cache = this.configureExpiration(cacheBuilder)
+                    .maximumSize(this.maximumCacheSize)
+                    .build();
+        }
+        
+        return cache.asMap();
+    }
+    
+    private CacheBuilder<Object, Object> configureExpiration(final CacheBuilder<Object, Object> cacheBuilder) {
+        if (this.cacheTimeToLive > 0) {
+            cacheBuilder.expireAfterWrite(this.cacheTimeToLive, TimeUnit.MILLISECONDS);
+        }
+        if (this.cacheTimeToIdle > 0) {
+            cacheBuilder.expireAfterAccess(this.cacheTimeToIdle, TimeUnit.MILLISECONDS);
+        }
+        return cacheBuilder;
     }
     
     /**
      * @return Returns the number of cache misses.
      */
+    @JsonIgnore
     public long getMisses() {
-        return this.misses;
+        return this.misses.get();
     }
     
     /**
      * @return Returns the number of queries.
      */
+    @JsonIgnore
     public long getQueries() {
-        return this.queries;
+        return this.queries.get();
     }
     
     /**
@@ -300,65 +858,479 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
      * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
      */
     public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> seed) {
-        //Ensure the arguments and state are valid
-        if (seed == null) {
-            throw new IllegalArgumentException("The query seed Map cannot be null.");
+        this.validateQuery(seed);
+        
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(this.getTraceName(), seed);
+        final Set<IPersonAttributes> people;
+        try {
+            people = this.getPeople(seed, traceSpan);
+        }
+        catch (final RuntimeException | Error e) {
+            QueryLog.endSpan(traceSpan, e);
+            throw e;
         }
         
-        if (this.cachedPersonAttributesDao == null) {
-            throw new IllegalStateException("No 'cachedPersonAttributesDao' has been specified.");
+        QueryLog.endSpan(traceSpan, people);
+        return people;
+    }
+    
+    /**
+     * Gets the results from the cache or the wrapped IPersonAttributeDao, recording whether the cache was hit in the
+     * trace span.
+     */
+    private Set<IPersonAttributes> getPeople(final Map<String, List<Object>> seed, final QueryTraceSpan traceSpan) {
+        //Get the cache key
+        final Serializable cacheKey = this.generateCacheKey(seed);
+
+        if (cacheKey == null) {
+            return this.cachedPersonAttributesDao.getPeopleWithMultivaluedAttributes(seed);
         }
-        if (this.userInfoCache == null) {
-            throw new IllegalStateException("No 'userInfoCache' has been specified.");
+        
+        final Set<IPersonAttributes> cacheResults = this.getUserInfoCache(cacheKey);
+        if (cacheResults != null) {
+            QueryTrace.setCacheHit(traceSpan, true);
+            return this.getCachedResults(cacheKey, cacheResults);
+        }
+        
+        if (!this.coalesceMisses) {
+            return this.queryAndCache(cacheKey, seed, traceSpan);
+        }
+        
+        final ListenableFutureTask<Set<IPersonAttributes>> query = ListenableFutureTask.create(new Callable<Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> call() {
+                return queryAndCache(cacheKey, seed, traceSpan);
+            }
+        });
+        
+        final ListenableFuture<Set<IPersonAttributes>> pendingQuery = this.pendingQueries.putIfAbsent(cacheKey, query);
+        if (pendingQuery != null) {
+            //Another thread is already querying for this key, share its results
+            if (logger.isDebugEnabled()) {
+                logger.debug("Waiting for pending query for {}. key='{}'", beanName, cacheKey);
+            }
+            
+            QueryTrace.setCacheHit(traceSpan, false);
+            QueryTrace.setTag(traceSpan, "coalesced", true);
+            this.queries.incrementAndGet();
+            this.logCacheStats();
+            
+            return this.getQueryResults(pendingQuery);
+        }
+        
+        try {
+            query.run();
+        }
+        finally {
+            this.pendingQueries.remove(cacheKey, query);
+        }
+        
+        return this.getQueryResults(query);
+    }
+    
+    /**
+     * Asynchronous version of {@link #getPeopleWithMultivaluedAttributes(Map)}. Cache hits return a completed future,
+     * misses query the wrapped IPersonAttributeDao through its asynchronous method if it has one, otherwise on the
+     * executorService. Concurrent misses for the same key share a single query if coalesceMisses is set.
+     * 
+     * @see org.jasig.services.persondir.IAsyncPersonAttributeDao#getPeopleWithMultivaluedAttributesAsync(java.util.Map)
+     */
+    public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final Map<String, List<Object>> seed) {
+        this.validateQuery(seed);
+        
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(QueryTrace.current(), this.getTraceName(), seed);
+        if (traceSpan == null) {
+            return this.getPeopleAsync(seed, null);
+        }
+        
+        ListenableFuture<Set<IPersonAttributes>> people;
+        final QueryTraceSpan previousSpan = QueryTrace.activate(traceSpan);
+        try {
+            people = this.getPeopleAsync(seed, traceSpan);
+        }
+        catch (final RuntimeException rte) {
+            people = Futures.immediateFailedFuture(rte);
+        }
+        finally {
+            QueryTrace.restore(previousSpan);
         }
         
+        Futures.addCallback(people, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> results) {
+                QueryLog.endSpan(traceSpan, results);
+            }
+            
+            public void onFailure(final Throwable t) {
+                QueryLog.endSpan(traceSpan, t);
+            }
+        });
+        return people;
+    }
+    
+    /**
+     * Asynchronously gets the results from the cache or the wrapped IPersonAttributeDao, recording whether the cache
+     * was hit in the trace span.
+     */
+    private ListenableFuture<Set<IPersonAttributes>> getPeopleAsync(final Map<String, List<Object>> seed, final QueryTraceSpan traceSpan) {
         //Get the cache key
-        final MethodInvocation methodInvocation = new PersonAttributeDaoMethodInvocation(seed);
-        final Serializable cacheKey = this.cacheKeyGenerator.generateKey(methodInvocation);
+        final Serializable cacheKey = this.generateCacheKey(seed);
 
-        if (cacheKey != null) {
-            Set<IPersonAttributes> cacheResults = this.userInfoCache.get(cacheKey);
-            if (cacheResults != null) {
-                //If the returned object is the null results object, set the cache results to null
-                if (this.nullResultsObject.equals(cacheResults)) {
-                    cacheResults = null;
+        if (cacheKey == null) {
+            return AsyncPersonAttributeDaoAdapter.getPeopleWithMultivaluedAttributesAsync(this.cachedPersonAttributesDao, seed, this.executorService);
+        }
+        
+        final Set<IPersonAttributes> cacheResults = this.getUserInfoCache(cacheKey);
+        if (cacheResults != null) {
+            QueryTrace.setCacheHit(traceSpan, true);
+            return Futures.immediateFuture(this.getCachedResults(cacheKey, cacheResults));
+        }
+        
+        final SettableFuture<Set<IPersonAttributes>> query = SettableFuture.create();
+        if (this.coalesceMisses) {
+            final ListenableFuture<Set<IPersonAttributes>> pendingQuery = this.pendingQueries.putIfAbsent(cacheKey, query);
+            if (pendingQuery != null) {
+                //Another caller is already querying for this key, share its results
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Sharing pending query for {}. key='{}'", beanName, cacheKey);
                 }
                 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Retrieved query from cache for " + beanName + ". key='" + cacheKey + "', results='" + cacheResults + "'");
+                QueryTrace.setCacheHit(traceSpan, false);
+                QueryTrace.setTag(traceSpan, "coalesced", true);
+                this.queries.incrementAndGet();
+                this.logCacheStats();
+                
+                //Cancelling the shared results would cancel them for the caller running the query as well
+                return Futures.nonCancellationPropagating(pendingQuery);
+            }
+        }
+        
+        ListenableFuture<Set<IPersonAttributes>> queryResults;
+        try {
+            final Set<IPersonAttributes> storedResults = this.promoteStoredResults(cacheKey, seed);
+            if (storedResults != null) {
+                this.pendingQueries.remove(cacheKey, query);
+                QueryTrace.setCacheHit(traceSpan, true);
+                return Futures.immediateFuture(this.getStoredResults(cacheKey, storedResults));
+            }
+            
+            QueryTrace.setCacheHit(traceSpan, false);
+            queryResults = AsyncPersonAttributeDaoAdapter.getPeopleWithMultivaluedAttributesAsync(this.cachedPersonAttributesDao, seed, this.executorService);
+        }
+        catch (final RuntimeException rte) {
+            queryResults = Futures.immediateFailedFuture(rte);
+        }
+        
+        Futures.addCallback(queryResults, new FutureCallback<Set<IPersonAttributes>>() {
+            public void onSuccess(final Set<IPersonAttributes> results) {
+                try {
+                    cacheQueryResults(cacheKey, seed, results);
+                    recordQueryResults(cacheKey, results);
+                    query.set(results);
                 }
-                    
-                this.queries++;
-                if (statsLogger.isDebugEnabled()) {
-                    statsLogger.debug("Cache Stats " + beanName + ": queries=" + this.queries + ", hits=" + (this.queries - this.misses) + ", misses=" + this.misses);
+                catch (final RuntimeException | Error e) {
+                    query.setException(e);
+                }
+                finally {
+                    pendingQueries.remove(cacheKey, query);
                 }
-                
-                return cacheResults;
             }
+            
+            public void onFailure(final Throwable t) {
+                pendingQueries.remove(cacheKey, query);
+                query.setException(t);
+            }
+        });
+        
+        return query;
+    }
+    
+    /**
+     * @return The name of the trace spans of this DAO, the bean name if it is known.
+     */
+    private String getTraceName() {
+        return this.beanName != null ? this.beanName : this.getClass().getSimpleName();
+    }
+    
+    /**
+     * Ensures the arguments and state are valid for a query
+     */
+    private void validateQuery(final Map<String, List<Object>> seed) {
+        if (seed == null) {
+            throw new IllegalArgumentException("The query seed Map cannot be null.");
+        }
+        
+        if (this.cachedPersonAttributesDao == null) {
+            throw new IllegalStateException("No 'cachedPersonAttributesDao' has been specified.");
+        }
+        if (this.userInfoCache == null) {
+            throw new IllegalStateException("No 'userInfoCache' has been specified.");
+        }
+    }
+    
+    /**
+     * Gets the results cached in the userInfoCache for the key. Results promoted from the off-heap cache or snapshot
+     * keep the time they were loaded, a cache that only expires them by the time they were put in it may still hold
+     * them after cacheTimeToLive has passed, such results are treated as a miss.
+     */
+    private Set<IPersonAttributes> getUserInfoCache(final Serializable cacheKey) {
+        final Set<IPersonAttributes> cacheResults = this.userInfoCache.get(cacheKey);
+        if (this.cacheTimeToLive > 0 && cacheResults instanceof RefreshableResults
+                && ((RefreshableResults) cacheResults).isOlderThan(this.cacheTimeToLive)) {
+            return null;
+        }
+        return cacheResults;
+    }
+    
+    /**
+     * Converts results found in the userInfoCache to the results of the query, starting a background refresh if needed.
+     */
+    private Set<IPersonAttributes> getCachedResults(final Serializable cacheKey, Set<IPersonAttributes> cacheResults) {
+        if (cacheResults instanceof RefreshableResults) {
+            final RefreshableResults refreshableResults = (RefreshableResults) cacheResults;
+            this.refreshIfNeeded(cacheKey, refreshableResults);
+            cacheResults = refreshableResults.getResults();
+        }
+        
+        //If the returned object is the null results object, set the cache results to null
+        if (this.nullResultsObject.equals(cacheResults)) {
+            cacheResults = null;
+        }
+        
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved query from cache for {}. key='{}', results='{}'", beanName, cacheKey, LogSummary.of(cacheResults));
         }
+            
+        this.queries.incrementAndGet();
+        this.logCacheStats();
+        
+        return cacheResults;
+    }
     
+    /**
+     * Gets the results from the off-heap cache or snapshot or if not found there runs the query against the wrapped
+     * IPersonAttributeDao and stores the results in the cache.
+     */
+    private Set<IPersonAttributes> queryAndCache(final Serializable cacheKey, final Map<String, List<Object>> seed, final QueryTraceSpan traceSpan) {
+        final Set<IPersonAttributes> storedResults = this.promoteStoredResults(cacheKey, seed);
+        if (storedResults != null) {
+            QueryTrace.setCacheHit(traceSpan, true);
+            return this.getStoredResults(cacheKey, storedResults);
+        }
+        
+        QueryTrace.setCacheHit(traceSpan, false);
+        final Set<IPersonAttributes> queryResults = this.loadResults(cacheKey, seed);
+        this.recordQueryResults(cacheKey, queryResults);
+        
+        return queryResults;
+    }
+    
+    /**
+     * Converts results found in the off-heap cache or snapshot to the results of the query.
+     */
+    private Set<IPersonAttributes> getStoredResults(final Serializable cacheKey, Set<IPersonAttributes> storedResults) {
+        if (this.nullResultsObject.equals(storedResults)) {
+            storedResults = null;
+        }
+        
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved query from off-heap cache or snapshot for {}. key='{}', results='{}'", beanName, cacheKey, LogSummary.of(storedResults));
+        }
+        
+        this.queries.incrementAndGet();
+        this.logCacheStats();
+        
+        return storedResults;
+    }
+    
+    /**
+     * Records a query that was run against the wrapped IPersonAttributeDao in the cache statistics.
+     */
+    private void recordQueryResults(final Serializable cacheKey, final Set<IPersonAttributes> queryResults) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved query from wrapped IPersonAttributeDao and stored in cache for {}. key='{}', results='{}'", beanName, cacheKey, LogSummary.of(queryResults));
+        }
+        
+        this.misses.incrementAndGet();
+        this.queries.incrementAndGet();
+        this.logCacheStats();
+    }
+    
+    /**
+     * Runs the query against the wrapped IPersonAttributeDao and stores the results in the cache, if refreshing is
+     * enabled the results are stored along with the seed and load time needed to refresh them.
+     */
+    private Set<IPersonAttributes> loadResults(final Serializable cacheKey, final Map<String, List<Object>> seed) {
         final Set<IPersonAttributes> queryResults = this.cachedPersonAttributesDao.getPeopleWithMultivaluedAttributes(seed);
+        return this.cacheQueryResults(cacheKey, seed, queryResults);
+    }
+    
+    /**
+     * Stores the results of a query against the wrapped IPersonAttributeDao in the cache.
+     * 
+     * @return The query results
+     */
+    private Set<IPersonAttributes> cacheQueryResults(final Serializable cacheKey, final Map<String, List<Object>> seed, final Set<IPersonAttributes> queryResults) {
+        final Set<IPersonAttributes> cacheResults;
+        if (queryResults != null) {
+            cacheResults = queryResults;
+        }
+        else if (this.cacheNullResults) {
+            cacheResults = this.nullResultsObject;
+        }
+        else {
+            return null;
+        }
+        
+        final long loadedAt = System.currentTimeMillis();
+        this.putUserInfoCache(cacheKey, cacheResults, seed, loadedAt);
+        if (this.offHeapCache != null) {
+            this.offHeapCache.put(cacheKey, cacheResults, loadedAt);
+        }
+        
+        return queryResults;
+    }
+    
+    /**
+     * Stores the results in the userInfoCache, if refreshing or cacheTimeToLive is enabled along with the time they
+     * were loaded and the seed needed to refresh them.
+     */
+    private void putUserInfoCache(final Serializable cacheKey, final Set<IPersonAttributes> cacheResults, final Map<String, List<Object>> seed, final long loadedAt) {
+        if (this.refreshAfter > 0 || this.cacheTimeToLive > 0) {
+            this.userInfoCache.put(cacheKey, new RefreshableResults(cacheResults, this.refreshAfter > 0 ? seed : null, loadedAt));
+        }
+        else {
+            this.userInfoCache.put(cacheKey, cacheResults);
+        }
+    }
     
-        if (cacheKey != null) {
-            if (queryResults != null) {
-                this.userInfoCache.put(cacheKey, queryResults);
+    /**
+     * Copies the results stored in the off-heap cache or the snapshot for the key, if any, back into the
+     * userInfoCache. Promoted results keep the time they were loaded, so they expire and are refreshed as if they
+     * had never left the userInfoCache, expired results are not promoted.
+     * 
+     * @return The stored results, null if neither the off-heap cache nor the snapshot has results for the key
+     */
+    private Set<IPersonAttributes> promoteStoredResults(final Serializable cacheKey, final Map<String, List<Object>> seed) {
+        if (this.offHeapCache != null) {
+            final StoredResults storedResults = this.offHeapCache.get(cacheKey, this.cacheTimeToLive, this.cacheTimeToIdle);
+            if (storedResults != null) {
+                this.putUserInfoCache(cacheKey, storedResults.getResults(), seed, storedResults.getLoadedAt());
+                return storedResults.getResults();
             }
-            else if (this.cacheNullResults) {
-                this.userInfoCache.put(cacheKey, this.nullResultsObject);
+        }
+        
+        final PersonAttributesCacheSnapshot snapshot = this.getSnapshot();
+        if (snapshot != null) {
+            final StoredResults storedResults = snapshot.take(cacheKey, this.cacheTimeToLive);
+            if (storedResults != null) {
+                this.putUserInfoCache(cacheKey, storedResults.getResults(), seed, storedResults.getLoadedAt());
+                if (this.offHeapCache != null) {
+                    this.offHeapCache.put(cacheKey, storedResults.getResults(), storedResults.getLoadedAt());
+                }
+                return storedResults.getResults();
             }
-            
-            if (logger.isDebugEnabled()) {
-                logger.debug("Retrieved query from wrapped IPersonAttributeDao and stored in cache for " + beanName + ". key='" + cacheKey + "', results='" + queryResults + "'");
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Starts a background refresh of the cached results if they are older than refreshAfter and no query for the
+     * key is already in progress. If the refresh finds no results and null results are not cached the stale results
+     * are removed, otherwise every later hit on them would start another refresh.
+     */
+    private void refreshIfNeeded(final Serializable cacheKey, final RefreshableResults refreshableResults) {
+        if (this.refreshAfter <= 0 || this.refreshExecutor == null || !refreshableResults.isRefreshable()
+                || !refreshableResults.isOlderThan(this.refreshAfter)) {
+            return;
+        }
+        
+        final Map<String, List<Object>> seed = refreshableResults.getSeed();
+        final ListenableFutureTask<Set<IPersonAttributes>> refresh = ListenableFutureTask.create(new Callable<Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> call() {
+                try {
+                    final Set<IPersonAttributes> results = loadResults(cacheKey, seed);
+                    if (results == null && !cacheNullResults) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Refresh found no results for {}, removing stale results. key='{}'", beanName, cacheKey);
+                        }
+                        userInfoCache.remove(cacheKey);
+                        removeStoredResults(cacheKey);
+                    }
+                    return results;
+                }
+                catch (final RuntimeException rte) {
+                    if (serveStaleOnError) {
+                        logger.warn("Failed to refresh cached results for " + beanName + ", serving stale results. key='" + cacheKey + "'", rte);
+                    }
+                    else {
+                        logger.warn("Failed to refresh cached results for " + beanName + ", removing stale results. key='" + cacheKey + "'", rte);
+                        userInfoCache.remove(cacheKey);
+                        removeStoredResults(cacheKey);
+                    }
+                    throw rte;
+                }
             }
-            
-            this.queries++;
-            this.misses++;
-            if (statsLogger.isDebugEnabled()) {
-                statsLogger.debug("Cache Stats " + beanName + ": queries=" + this.queries + ", hits=" + (this.queries - this.misses) + ", misses=" + this.misses);
+        });
+        
+        if (this.pendingQueries.putIfAbsent(cacheKey, refresh) != null) {
+            //Already being refreshed
+            return;
+        }
+        
+        if (logger.isDebugEnabled()) {
+            logger.debug("Refreshing cached results in the background for {}. key='{}'", beanName, cacheKey);
+        }
+        
+        try {
+            this.refreshExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh.run();
+                    }
+                    finally {
+                        pendingQueries.remove(cacheKey, refresh);
+                    }
+                }
+            });
+        }
+        catch (final RejectedExecutionException ree) {
+            this.pendingQueries.remove(cacheKey, refresh);
+            logger.warn("Background refresh rejected for " + beanName + ". key='" + cacheKey + "'", ree);
+        }
+    }
+    
+    /**
+     * Gets the results of a query run by {@link #queryAndCache(Serializable, Map, QueryTraceSpan)}, re-throwing any exception it failed with.
+     * A caller waiting on a query run by another caller stops waiting when interrupted, the query itself is left to
+     * the caller running it.
+     */
+    private Set<IPersonAttributes> getQueryResults(final Future<Set<IPersonAttributes>> query) {
+        try {
+            return query.get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pending query of " + beanName, e);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            
+            throw new IllegalStateException("Query of the wrapped IPersonAttributeDao failed", cause);
+        }
+    }
+    
+    private void logCacheStats() {
+        if (statsLogger.isDebugEnabled()) {
+            final long misses = this.misses.get();
+            final long queries = this.queries.get();
+            statsLogger.debug("Cache Stats " + beanName + ": queries=" + queries + ", hits=" + (queries - misses) + ", misses=" + misses);
         }
-
-        return queryResults;
     }
     
     public void removeUserAttributes(final String uid) {
@@ -373,9 +1345,37 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
     }
     
     public void removeUserAttributesMultivaluedSeed(final Map<String, List<Object>> seed) {
-        final MethodInvocation methodInvocation = new PersonAttributeDaoMethodInvocation(seed);
-        final Serializable cacheKey = this.cacheKeyGenerator.generateKey(methodInvocation);
+        final Serializable cacheKey = this.generateCacheKey(seed);
         this.userInfoCache.remove(cacheKey);
+        this.removeStoredResults(cacheKey);
+    }
+    
+    /**
+     * Removes the results for the key from the off-heap cache and the snapshot.
+     */
+    private void removeStoredResults(final Serializable cacheKey) {
+        if (this.offHeapCache != null) {
+            this.offHeapCache.remove(cacheKey);
+        }
+        
+        final PersonAttributesCacheSnapshot snapshot = this.getSnapshot();
+        if (snapshot != null) {
+            snapshot.remove(cacheKey);
+        }
+    }
+    
+    /**
+     * Generates the cache key for the seed. A {@link CanonicalCacheKeyGenerator} is passed the seed directly, any
+     * other {@link CacheKeyGenerator} is passed a {@link MethodInvocation} for
+     * {@link IPersonAttributeDao#getPeopleWithMultivaluedAttributes(Map)}.
+     */
+    private Serializable generateCacheKey(final Map<String, List<Object>> seed) {
+        if (this.cacheKeyGenerator instanceof CanonicalCacheKeyGenerator) {
+            return ((CanonicalCacheKeyGenerator) this.cacheKeyGenerator).generateKey(seed);
+        }
+        
+        final MethodInvocation methodInvocation = new PersonAttributeDaoMethodInvocation(seed);
+        return this.cacheKeyGenerator.generateKey(methodInvocation);
     }
 
     /* (non-Javadoc)
@@ -456,6 +1456,76 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         }
     }
 
+    /**
+     * Cached results along with the time they were loaded and the seed needed to refresh them. Stored in the cache in
+     * place of the plain results when refreshAfter or cacheTimeToLive is set, the Set view is of the wrapped results
+     * so the cache contents are unchanged for other users of the cache.
+     */
+    private static final class RefreshableResults extends AbstractSet<IPersonAttributes> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final Set<IPersonAttributes> results;
+        private final transient Map<String, List<Object>> seed;
+        private final long loadedAt;
+        
+        public RefreshableResults(final Set<IPersonAttributes> results, final Map<String, List<Object>> seed, final long loadedAt) {
+            this.results = results;
+            this.seed = seed;
+            this.loadedAt = loadedAt;
+        }
+        
+        public Set<IPersonAttributes> getResults() {
+            return this.results;
+        }
+        
+        public Map<String, List<Object>> getSeed() {
+            return this.seed;
+        }
+        
+        public long getLoadedAt() {
+            return this.loadedAt;
+        }
+        
+        /**
+         * @return true if the seed needed to refresh the results is known.
+         */
+        public boolean isRefreshable() {
+            return this.seed != null;
+        }
+        
+        /**
+         * @return true if the results were loaded more than the specified number of milliseconds ago.
+         */
+        public boolean isOlderThan(final long age) {
+            return System.currentTimeMillis() - this.loadedAt >= age;
+        }
+
+        @Override
+        public Iterator<IPersonAttributes> iterator() {
+            return this.results.iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.results.size();
+        }
+    }
+
+    /**
+     * Weighs a cached result as one plus the number of attribute values of all people in the result.
+     */
+    private static final class PersonAttributesWeigher implements Weigher<Serializable, Set<IPersonAttributes>> {
+        public int weigh(final Serializable key, final Set<IPersonAttributes> value) {
+            int weight = 1;
+            for (final IPersonAttributes person : value) {
+                for (final List<Object> values : person.getAttributes().values()) {
+                    weight += (values == null ? 1 : values.size());
+                }
+            }
+            return weight;
+        }
+    }
+
     private static final class SingletonPersonImpl extends BasePersonImpl implements Serializable {
         private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,170 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Generates cache keys from the same seed attributes as {@link AttributeBasedCacheKeyGenerator} but instead of
+ * reducing them to a hash code the key holds the selected attribute names and values, sorted by name. Two keys
+ * are only equal if all of their attribute names and values are equal so distinct seeds whose hash codes collide
+ * never share a cache entry. The hash code is computed once when the key is created.
+ * <br>
+ * {@link #generateKey(Map)} builds the key directly from a seed {@link Map}, callers that already have the seed,
+ * like {@link CachingPersonAttributeDaoImpl}, should use it to avoid resolving the called method on each call.
+ * <br>
+ * Configuration is the same as {@link AttributeBasedCacheKeyGenerator}.
+ *
+ * @version $Revision$
+ */
+public class CanonicalCacheKeyGenerator extends AttributeBasedCacheKeyGenerator {
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.support.AttributeBasedCacheKeyGenerator#generateKey(org.aopalliance.intercept.MethodInvocation)
+     */
+    @Override
+    public Serializable generateKey(final MethodInvocation methodInvocation) {
+        final CachableMethod cachableMethod = this.resolveCacheableMethod(methodInvocation);
+        final Map<String, Object> seed = this.getSeed(methodInvocation.getArguments(), cachableMethod);
+        return this.generateKey(seed);
+    }
+
+    /**
+     * Generates the cache key for a query seed.
+     *
+     * @param seed The query seed
+     * @return The cache key, null if the seed contains none of the cache key attributes
+     */
+    public Serializable generateKey(final Map<String, ?> seed) {
+        final Set<String> cacheAttributes = this.getCacheAttributes(seed);
+
+        String[] names = new String[cacheAttributes.size()];
+        int size = 0;
+        for (final String attr : cacheAttributes) {
+            if (seed.containsKey(attr) && this.isCacheKeyValue(seed.get(attr))) {
+                names[size++] = attr;
+            }
+        }
+
+        //If no attributes matched return null
+        if (size == 0) {
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("No cache key generated for seed='" + seed + "'");
+            }
+            return null;
+        }
+
+        if (size < names.length) {
+            names = Arrays.copyOf(names, size);
+        }
+        if (size > 1) {
+            Arrays.sort(names);
+        }
+
+        final Object[] values = new Object[size];
+        for (int index = 0; index < size; index++) {
+            values[index] = toKeyValue(seed.get(names[index]));
+        }
+
+        final CanonicalCacheKey cacheKey = new CanonicalCacheKey(names, values);
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Generated cache key '" + cacheKey + "' for seed='" + seed + "'");
+        }
+        return cacheKey;
+    }
+
+    /**
+     * Copies List values so later changes to the seed do not change keys already stored in a cache.
+     */
+    private static Object toKeyValue(final Object value) {
+        if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            switch (list.size()) {
+                case 0: {
+                    return Collections.emptyList();
+                }
+                case 1: {
+                    return Collections.singletonList(list.get(0));
+                }
+                default: {
+                    return Collections.unmodifiableList(Arrays.asList(list.toArray()));
+                }
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Cache key holding the sorted names and values of the seed attributes it was generated from.
+     */
+    public static final class CanonicalCacheKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] names;
+        private final Object[] values;
+        private final int hashCode;
+
+        private CanonicalCacheKey(final String[] names, final Object[] values) {
+            this.names = names;
+            this.values = values;
+            this.hashCode = 31 * Arrays.hashCode(names) + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof CanonicalCacheKey)) {
+                return false;
+            }
+
+            final CanonicalCacheKey other = (CanonicalCacheKey) obj;
+            return this.hashCode == other.hashCode
+                    && Arrays.equals(this.names, other.names)
+                    && Arrays.equals(this.values, other.values);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("{");
+            for (int index = 0; index < this.names.length; index++) {
+                if (index > 0) {
+                    builder.append(", ");
+                }
+                builder.append(this.names[index]).append('=').append(this.values[index]);
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -18,12 +18,16 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.support.merger.ReplacingAttributeAdder;
@@ -103,32 +107,81 @@ public class CascadingPersonAttributeDao extends AbstractAggregatingDefaultQuery
         
         Set<IPersonAttributes> mergedPeopleResults = null;
         for (final IPersonAttributes person : resultPeople) {
-            final Map<String, List<Object>> queryAttributes = new LinkedHashMap<>();
-            
-            //Add the userName into the query map
-            final String userName = person.getName();
-            if (userName != null) {
-                final Map<String, List<Object>> userNameMap = this.toSeedMap(userName);
-                queryAttributes.putAll(userNameMap);
-            }
-            
-            //Add the rest of the attributes into the query map
-            final Map<String, List<Object>> personAttributes = person.getAttributes();
-            queryAttributes.putAll(personAttributes);
+            final Map<String, List<Object>> queryAttributes = this.getQueryAttributes(person);
             
             final Set<IPersonAttributes> newResults = currentlyConsidering.getPeopleWithMultivaluedAttributes(queryAttributes);
-            if (newResults != null) {
-                if (mergedPeopleResults == null) {
-                    //If this is the first valid result set just use it.
-                    mergedPeopleResults = new LinkedHashSet<>(newResults);
-                }
-                else {
-                    //Merge the Sets of IPersons
-                    mergedPeopleResults = this.attrMerger.mergeResults(mergedPeopleResults, newResults);
+            mergedPeopleResults = this.mergePeopleResults(mergedPeopleResults, newResults);
+        }
+        
+        return mergedPeopleResults;
+    }
+    
+    /**
+     * Asynchronous version of {@link #getAttributesFromDao(Map, boolean, IPersonAttributeDao, Set)}, the current DAO is
+     * queried for all people in resultPeople at once and their results are merged once all have completed.
+     * 
+     * @see org.jasig.services.persondir.support.AbstractAggregatingDefaultQueryPersonAttributeDao#getAttributesFromDaoAsync(java.util.Map, boolean, org.jasig.services.persondir.IPersonAttributeDao, java.util.Set)
+     */
+    @Override
+    protected ListenableFuture<Set<IPersonAttributes>> getAttributesFromDaoAsync(final Map<String, List<Object>> seed, final boolean isFirstQuery, final IPersonAttributeDao currentlyConsidering, final Set<IPersonAttributes> resultPeople) {
+        if (isFirstQuery || (!stopIfFirstDaoReturnsNull && (resultPeople == null || resultPeople.size() == 0))) {
+            return AsyncPersonAttributeDaoAdapter.getPeopleWithMultivaluedAttributesAsync(currentlyConsidering, seed, this.executorService);
+        } else if (stopIfFirstDaoReturnsNull && !isFirstQuery && (resultPeople == null || resultPeople.size() == 0)) {
+            return Futures.immediateFuture(null);
+        }
+        
+        final List<ListenableFuture<Set<IPersonAttributes>>> personResults = new ArrayList<>(resultPeople.size());
+        for (final IPersonAttributes person : resultPeople) {
+            final Map<String, List<Object>> queryAttributes = this.getQueryAttributes(person);
+            personResults.add(AsyncPersonAttributeDaoAdapter.getPeopleWithMultivaluedAttributesAsync(currentlyConsidering, queryAttributes, this.executorService));
+        }
+        
+        return Futures.transform(Futures.allAsList(personResults), new Function<List<Set<IPersonAttributes>>, Set<IPersonAttributes>>() {
+            public Set<IPersonAttributes> apply(final List<Set<IPersonAttributes>> allResults) {
+                Set<IPersonAttributes> mergedPeopleResults = null;
+                for (final Set<IPersonAttributes> newResults : allResults) {
+                    mergedPeopleResults = mergePeopleResults(mergedPeopleResults, newResults);
                 }
+                
+                return mergedPeopleResults;
             }
+        });
+    }
+    
+    /**
+     * Builds the query for the next DAO from the userName and attributes of a person found by the previous DAOs.
+     */
+    private Map<String, List<Object>> getQueryAttributes(final IPersonAttributes person) {
+        final Map<String, List<Object>> queryAttributes = new LinkedHashMap<>();
+        
+        //Add the userName into the query map
+        final String userName = person.getName();
+        if (userName != null) {
+            final Map<String, List<Object>> userNameMap = this.toSeedMap(userName);
+            queryAttributes.putAll(userNameMap);
         }
         
-        return mergedPeopleResults;
+        //Add the rest of the attributes into the query map
+        final Map<String, List<Object>> personAttributes = person.getAttributes();
+        queryAttributes.putAll(personAttributes);
+        
+        return queryAttributes;
+    }
+    
+    /**
+     * Merges the results of querying the current DAO for one person into the results for the previous people.
+     */
+    private Set<IPersonAttributes> mergePeopleResults(final Set<IPersonAttributes> mergedPeopleResults, final Set<IPersonAttributes> newResults) {
+        if (newResults == null) {
+            return mergedPeopleResults;
+        }
+        
+        if (mergedPeopleResults == null) {
+            //If this is the first valid result set just use it.
+            return new LinkedHashSet<>(newResults);
+        }
+        
+        //Merge the Sets of IPersons
+        return this.attrMerger.mergeResults(mergedPeopleResults, newResults);
     }
 }
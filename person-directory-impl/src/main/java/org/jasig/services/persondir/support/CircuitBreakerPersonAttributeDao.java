@@ -0,0 +1,440 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Wraps an {@link IPersonAttributeDao} with a circuit breaker so an attribute source that is down or
+ * responding slowly is not queried until it has had time to recover.
+ * <br>
+ * The outcome of the last <b>windowSize</b> calls to the target DAO is tracked. A call fails if it throws a
+ * {@link RuntimeException} or an {@link Error} or, if <b>slowCallThreshold</b> is set, takes longer than the threshold. Once at
+ * least <b>minimumCalls</b> calls are tracked and the failure rate reaches <b>failureRateThreshold</b> the
+ * circuit opens. While open the target DAO is not called, the query is delegated to the
+ * <b>fallbackPersonAttributeDao</b> or null is returned if there is none. After <b>openDuration</b> the circuit
+ * is half-open and a single query is let through as a probe, if it succeeds the circuit closes again, if it
+ * fails the circuit opens for another <b>openDuration</b>. A probe that has not completed after <b>openDuration</b>
+ * counts as failed so a hung probe cannot keep the circuit half-open. Calls that complete after the state of the circuit
+ * changed since they started, for example slow calls started while closed that complete while half-open, are
+ * not recorded.
+ * <br>
+ * Exceptions from the target DAO are always re-thrown, the circuit breaker only records them.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">targetPersonAttributeDao</td>
+ *         <td>The {@link IPersonAttributeDao} to protect.</td>
+ *         <td valign="top">Yes</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">fallbackPersonAttributeDao</td>
+ *         <td>The {@link IPersonAttributeDao} to query while the circuit is open, if null no results are returned.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">windowSize</td>
+ *         <td>The number of most recent calls the failure rate is calculated over.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">20</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">minimumCalls</td>
+ *         <td>The number of calls that must be tracked before the circuit can open.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">10</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">failureRateThreshold</td>
+ *         <td>The failure rate, between 0 and 1, at which the circuit opens.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0.5</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">slowCallThreshold</td>
+ *         <td>Calls taking longer than this many milliseconds count as failures, 0 disables the check.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">openDuration</td>
+ *         <td>
+ *             The number of milliseconds the circuit stays open before a probe query is let through, also the number
+ *             of milliseconds the probe may take before it counts as failed.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">30000</td>
+ *     </tr>
+ * </table>
+ */
+public class CircuitBreakerPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao {
+    /**
+     * The states of the circuit.
+     */
+    public enum State {
+        /** Queries are passed to the target DAO. */
+        CLOSED,
+        /** Queries are passed to the fallback DAO. */
+        OPEN,
+        /** A single probe query is passed to the target DAO, all other queries to the fallback DAO. */
+        HALF_OPEN;
+    }
+
+    private IPersonAttributeDao targetPersonAttributeDao = null;
+    private IPersonAttributeDao fallbackPersonAttributeDao = null;
+    private int windowSize = 20;
+    private int minimumCalls = 10;
+    private double failureRateThreshold = 0.5;
+    private long slowCallThreshold = 0;
+    private long openDuration = TimeUnit.SECONDS.toMillis(30);
+
+    /*
+     * Circuit state, all guarded by stateLock
+     */
+    private final Object stateLock = new Object();
+    private State state = State.CLOSED;
+    private long generation = 0;
+    private long openedAt = 0;
+    private long probeStartedAt = 0;
+    private boolean[] outcomes = new boolean[this.windowSize];
+    private int outcomeIndex = 0;
+    private int outcomeCount = 0;
+    private int failureCount = 0;
+
+    /**
+     * Default constructor, {@link #setTargetPersonAttributeDao(IPersonAttributeDao)} will need to be called if
+     * this is used.
+     */
+    public CircuitBreakerPersonAttributeDao() {
+    }
+
+    /**
+     * @param targetPersonAttributeDao The IPersonAttributeDao to protect.
+     */
+    public CircuitBreakerPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao) {
+        this.setTargetPersonAttributeDao(targetPersonAttributeDao);
+    }
+
+    /**
+     * @return the targetPersonAttributeDao
+     */
+    public IPersonAttributeDao getTargetPersonAttributeDao() {
+        return this.targetPersonAttributeDao;
+    }
+    /**
+     * @param targetPersonAttributeDao the targetPersonAttributeDao to set
+     */
+    public void setTargetPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao) {
+        Validate.notNull(targetPersonAttributeDao, "targetPersonAttributeDao may not be null");
+        this.targetPersonAttributeDao = targetPersonAttributeDao;
+    }
+
+    /**
+     * @return the fallbackPersonAttributeDao
+     */
+    public IPersonAttributeDao getFallbackPersonAttributeDao() {
+        return this.fallbackPersonAttributeDao;
+    }
+    /**
+     * @param fallbackPersonAttributeDao the fallbackPersonAttributeDao to query while the circuit is open, may be null
+     */
+    public void setFallbackPersonAttributeDao(final IPersonAttributeDao fallbackPersonAttributeDao) {
+        this.fallbackPersonAttributeDao = fallbackPersonAttributeDao;
+    }
+
+    /**
+     * @return the windowSize
+     */
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+    /**
+     * Setting the window size resets the tracked calls.
+     *
+     * @param windowSize the number of most recent calls to calculate the failure rate over
+     */
+    public void setWindowSize(final int windowSize) {
+        Validate.isTrue(windowSize > 0, "windowSize must be greater than 0");
+        synchronized (this.stateLock) {
+            this.windowSize = windowSize;
+            this.resetOutcomes();
+        }
+    }
+
+    /**
+     * @return the minimumCalls
+     */
+    public int getMinimumCalls() {
+        return this.minimumCalls;
+    }
+    /**
+     * @param minimumCalls the number of calls that must be tracked before the circuit can open
+     */
+    public void setMinimumCalls(final int minimumCalls) {
+        Validate.isTrue(minimumCalls > 0, "minimumCalls must be greater than 0");
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @return the failureRateThreshold
+     */
+    public double getFailureRateThreshold() {
+        return this.failureRateThreshold;
+    }
+    /**
+     * @param failureRateThreshold the failure rate, between 0 and 1, at which the circuit opens
+     */
+    public void setFailureRateThreshold(final double failureRateThreshold) {
+        Validate.isTrue(failureRateThreshold > 0 && failureRateThreshold <= 1, "failureRateThreshold must be greater than 0 and no more than 1");
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @return the slowCallThreshold
+     */
+    public long getSlowCallThreshold() {
+        return this.slowCallThreshold;
+    }
+    /**
+     * @param slowCallThreshold milliseconds after which a call counts as failed, 0 to disable
+     */
+    public void setSlowCallThreshold(final long slowCallThreshold) {
+        Validate.isTrue(slowCallThreshold >= 0, "slowCallThreshold may not be negative");
+        this.slowCallThreshold = slowCallThreshold;
+    }
+
+    /**
+     * @return the openDuration
+     */
+    public long getOpenDuration() {
+        return this.openDuration;
+    }
+    /**
+     * @param openDuration milliseconds the circuit stays open before a probe query is let through
+     */
+    public void setOpenDuration(final long openDuration) {
+        Validate.isTrue(openDuration >= 0, "openDuration may not be negative");
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    @JsonIgnore
+    public State getState() {
+        synchronized (this.stateLock) {
+            return this.state;
+        }
+    }
+
+    /**
+     * Closes the circuit and clears the tracked calls.
+     */
+    public void reset() {
+        synchronized (this.stateLock) {
+            this.changeState(State.CLOSED);
+            this.resetOutcomes();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
+     */
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> seed) {
+        Validate.notNull(seed, "Argument 'seed' cannot be null.");
+
+        if (this.targetPersonAttributeDao == null) {
+            throw new IllegalStateException("targetPersonAttributeDao may not be null");
+        }
+
+        final long permit = this.acquirePermission();
+        if (permit < 0) {
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("Circuit is open for '" + this.targetPersonAttributeDao + "', delegating to fallbackPersonAttributeDao='" + this.fallbackPersonAttributeDao + "'");
+            }
+
+            if (this.fallbackPersonAttributeDao == null) {
+                return null;
+            }
+
+            return this.fallbackPersonAttributeDao.getPeopleWithMultivaluedAttributes(seed);
+        }
+
+        final long start = System.nanoTime();
+        //Anything thrown by the target, including Errors, counts as a failure
+        boolean failed = true;
+        try {
+            final Set<IPersonAttributes> results = this.targetPersonAttributeDao.getPeopleWithMultivaluedAttributes(seed);
+
+            final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            failed = this.slowCallThreshold > 0 && duration > this.slowCallThreshold;
+
+            return results;
+        }
+        finally {
+            this.recordOutcome(permit, failed);
+        }
+    }
+
+    /**
+     * @return The generation of the circuit the call is permitted in, -1 if the target DAO may not be called
+     */
+    private long acquirePermission() {
+        synchronized (this.stateLock) {
+            switch (this.state) {
+                case CLOSED: {
+                    return this.generation;
+                }
+                case OPEN: {
+                    if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.openedAt) < this.openDuration) {
+                        return -1;
+                    }
+
+                    //Let this query through as the probe, it is the only call permitted in the half-open generation
+                    this.changeState(State.HALF_OPEN);
+                    this.probeStartedAt = System.nanoTime();
+                    this.logger.info("Circuit for '" + this.targetPersonAttributeDao + "' is half-open, probing");
+                    return this.generation;
+                }
+                default: {
+                    //Half-open and the probe query is in progress
+                    if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.probeStartedAt) >= this.openDuration) {
+                        //The probe is hung, count it as failed, its outcome is ignored if it ever completes
+                        this.logger.warn("Probe of '" + this.targetPersonAttributeDao + "' did not complete within " + this.openDuration + "ms");
+                        this.open();
+                    }
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a call to the target DAO and updates the state of the circuit.
+     *
+     * @param permit The generation returned by {@link #acquirePermission()} when the call started
+     * @param failed If the call failed
+     */
+    private void recordOutcome(final long permit, final boolean failed) {
+        synchronized (this.stateLock) {
+            if (permit != this.generation) {
+                //The state changed while the call was running, the outcome no longer applies
+                return;
+            }
+
+            switch (this.state) {
+                case HALF_OPEN: {
+                    if (failed) {
+                        this.open();
+                    }
+                    else {
+                        this.logger.info("Probe of '" + this.targetPersonAttributeDao + "' succeeded, closing circuit");
+                        this.changeState(State.CLOSED);
+                        this.resetOutcomes();
+                    }
+                    break;
+                }
+                case CLOSED: {
+                    if (this.outcomeCount == this.windowSize) {
+                        //Window is full, drop the oldest outcome
+                        if (this.outcomes[this.outcomeIndex]) {
+                            this.failureCount--;
+                        }
+                    }
+                    else {
+                        this.outcomeCount++;
+                    }
+
+                    this.outcomes[this.outcomeIndex] = failed;
+                    if (failed) {
+                        this.failureCount++;
+                    }
+                    this.outcomeIndex = (this.outcomeIndex + 1) % this.windowSize;
+
+                    if (this.outcomeCount >= this.minimumCalls
+                            && this.failureCount >= this.failureRateThreshold * this.outcomeCount) {
+                        this.open();
+                    }
+                    break;
+                }
+                default: {
+                    //Calls are not permitted while open
+                }
+            }
+        }
+    }
+
+    private void open() {
+        this.logger.warn("Opening circuit for '" + this.targetPersonAttributeDao + "' for " + this.openDuration + "ms");
+        this.changeState(State.OPEN);
+        this.openedAt = System.nanoTime();
+        this.resetOutcomes();
+    }
+
+    /**
+     * Changes the state and starts a new generation so outcomes of calls started before the change are ignored.
+     */
+    private void changeState(final State state) {
+        this.state = state;
+        this.generation++;
+    }
+
+    private void resetOutcomes() {
+        this.outcomes = new boolean[this.windowSize];
+        this.outcomeIndex = 0;
+        this.outcomeCount = 0;
+        this.failureCount = 0;
+    }
+
+    /*
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPossibleUserAttributeNames()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getPossibleUserAttributeNames() {
+        return this.targetPersonAttributeDao.getPossibleUserAttributeNames();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getAvailableQueryAttributes()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getAvailableQueryAttributes() {
+        return this.targetPersonAttributeDao.getAvailableQueryAttributes();
+    }
+}
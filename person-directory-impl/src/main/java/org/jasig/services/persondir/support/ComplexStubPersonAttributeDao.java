@@ -32,8 +32,10 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.jasig.services.persondir.IEnumerablePersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.util.PatternHelper;
 
 
@@ -67,7 +69,7 @@ import org.jasig.services.persondir.util.PatternHelper;
  * 
  * @version $Revision$ $Date$
  */
-public class ComplexStubPersonAttributeDao extends AbstractQueryPersonAttributeDao<String> {
+public class ComplexStubPersonAttributeDao extends AbstractQueryPersonAttributeDao<String> implements IEnumerablePersonAttributeDao {
     private Map<String, Map<String, List<Object>>> backingMap = Collections.emptyMap();
     private Set<String> possibleUserAttributeNames = Collections.emptySet();
     private String queryAttributeName = null;
@@ -220,6 +222,30 @@ public class ComplexStubPersonAttributeDao extends AbstractQueryPersonAttributeD
         return list;
     }
 
+    /**
+     * Enumerates the people in the backing map in its iteration order.
+     * 
+     * @see org.jasig.services.persondir.IEnumerablePersonAttributeDao#enumeratePeople(org.jasig.services.persondir.IPersonAttributesCallback)
+     */
+    public long enumeratePeople(final IPersonAttributesCallback callback) {
+        final EnumerationCallback enumerationCallback = new EnumerationCallback(callback);
+        
+        for (final Map.Entry<String, Map<String, List<Object>>> attributesEntry : this.backingMap.entrySet()) {
+            final Map<String, List<Object>> attributes = attributesEntry.getValue();
+            if (attributes != null) {
+                //Without a queryAttributeName the backing map is keyed by username
+                final String seedValue = attributesEntry.getKey();
+                final String userName = this.queryAttributeName == null ? seedValue : null;
+                final IPersonAttributes person = this.createPerson(seedValue, userName, attributes);
+                if (!enumerationCallback.processPerson(person)) {
+                    break;
+                }
+            }
+        }
+        
+        return enumerationCallback.getCount();
+    }
+
     private IPersonAttributes createPerson(final String seedValue, final String queryUserName, final Map<String, List<Object>> attributes) {
         final IPersonAttributes person;
         final String userNameAttribute = this.getConfiguredUserNameAttribute();
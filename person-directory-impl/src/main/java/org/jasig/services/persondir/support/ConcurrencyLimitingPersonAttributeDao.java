@@ -0,0 +1,216 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.springframework.dao.QueryTimeoutException;
+
+/**
+ * Wraps an {@link IPersonAttributeDao} with a {@link Semaphore} that limits the number of queries running against it
+ * at the same time. This bounds the load on each attribute source independently of the size of the thread pool the
+ * queries run on, so aggregating DAOs can use an unbounded executor such as one from
+ * {@link VirtualThreadExecutorFactoryBean} while each LDAP server or database still only sees as many concurrent
+ * queries as it has connections for.
+ * <br>
+ * Queries that can not get a permit wait for one, if <b>acquireTimeout</b> is set a query that waits longer fails
+ * with a {@link QueryTimeoutException}.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">targetPersonAttributeDao</td>
+ *         <td>The {@link IPersonAttributeDao} to limit concurrent queries to.</td>
+ *         <td valign="top">Yes</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">maxConcurrentQueries</td>
+ *         <td>The number of queries that may run against the target DAO at the same time.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">10</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">acquireTimeout</td>
+ *         <td>Milliseconds a query waits for a permit before failing, 0 to wait indefinitely.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ * </table>
+ */
+public class ConcurrencyLimitingPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao {
+    private IPersonAttributeDao targetPersonAttributeDao = null;
+    private int maxConcurrentQueries = 10;
+    private long acquireTimeout = 0;
+
+    /*
+     * Permits for running queries, replaced when maxConcurrentQueries changes
+     */
+    private volatile Semaphore permits = new Semaphore(this.maxConcurrentQueries, true);
+
+    /*
+     * Number of queries that failed because no permit was available within the acquireTimeout
+     */
+    private final AtomicLong rejectedQueries = new AtomicLong();
+
+    /**
+     * Default constructor, {@link #setTargetPersonAttributeDao(IPersonAttributeDao)} will need to be called if
+     * this is used.
+     */
+    public ConcurrencyLimitingPersonAttributeDao() {
+    }
+
+    /**
+     * @param targetPersonAttributeDao The IPersonAttributeDao to limit concurrent queries to.
+     * @param maxConcurrentQueries The number of queries that may run at the same time.
+     */
+    public ConcurrencyLimitingPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao, final int maxConcurrentQueries) {
+        this.setTargetPersonAttributeDao(targetPersonAttributeDao);
+        this.setMaxConcurrentQueries(maxConcurrentQueries);
+    }
+
+    /**
+     * @return the targetPersonAttributeDao
+     */
+    public IPersonAttributeDao getTargetPersonAttributeDao() {
+        return this.targetPersonAttributeDao;
+    }
+    /**
+     * @param targetPersonAttributeDao the targetPersonAttributeDao to set
+     */
+    public void setTargetPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao) {
+        Validate.notNull(targetPersonAttributeDao, "targetPersonAttributeDao may not be null");
+        this.targetPersonAttributeDao = targetPersonAttributeDao;
+    }
+
+    /**
+     * @return the maxConcurrentQueries
+     */
+    public int getMaxConcurrentQueries() {
+        return this.maxConcurrentQueries;
+    }
+    /**
+     * Queries already running when the limit is changed are not counted against the new limit.
+     *
+     * @param maxConcurrentQueries the number of queries that may run against the target DAO at the same time
+     */
+    public void setMaxConcurrentQueries(final int maxConcurrentQueries) {
+        Validate.isTrue(maxConcurrentQueries > 0, "maxConcurrentQueries must be greater than 0");
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.permits = new Semaphore(maxConcurrentQueries, true);
+    }
+
+    /**
+     * @return the acquireTimeout
+     */
+    public long getAcquireTimeout() {
+        return this.acquireTimeout;
+    }
+    /**
+     * @param acquireTimeout milliseconds a query waits for a permit before failing, 0 to wait indefinitely
+     */
+    public void setAcquireTimeout(final long acquireTimeout) {
+        Validate.isTrue(acquireTimeout >= 0, "acquireTimeout may not be negative");
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * @return The number of queries that may currently start without waiting
+     */
+    @JsonIgnore
+    public int getAvailablePermits() {
+        return this.permits.availablePermits();
+    }
+
+    /**
+     * @return The number of queries that failed because no permit was available within the acquireTimeout
+     */
+    @JsonIgnore
+    public long getRejectedQueries() {
+        return this.rejectedQueries.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
+     */
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> seed) {
+        Validate.notNull(seed, "Argument 'seed' cannot be null.");
+
+        if (this.targetPersonAttributeDao == null) {
+            throw new IllegalStateException("targetPersonAttributeDao may not be null");
+        }
+
+        final Semaphore permits = this.permits;
+        try {
+            if (this.acquireTimeout <= 0) {
+                permits.acquire();
+            }
+            else if (!permits.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS)) {
+                this.rejectedQueries.incrementAndGet();
+                throw new QueryTimeoutException("No permit to query '" + this.targetPersonAttributeDao + "' became available within "
+                        + this.acquireTimeout + "ms, " + this.maxConcurrentQueries + " queries are already running");
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to query '" + this.targetPersonAttributeDao + "'", e);
+        }
+
+        try {
+            return this.targetPersonAttributeDao.getPeopleWithMultivaluedAttributes(seed);
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /*
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPossibleUserAttributeNames()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getPossibleUserAttributeNames() {
+        return this.targetPersonAttributeDao.getPossibleUserAttributeNames();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getAvailableQueryAttributes()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getAvailableQueryAttributes() {
+        return this.targetPersonAttributeDao.getAvailableQueryAttributes();
+    }
+}
@@ -18,19 +18,41 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.lang3.Validate;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.support.merger.MultivaluedAttributeMerger;
+import org.jasig.services.persondir.util.LogSummary;
 
 /**
  * A {@link IPersonAttributeDao} implementation which iterates over children 
  * IPersonAttributeDaos queries each with the same data and merges their
  * reported attributes in a configurable way. The default merger is
  * {@link MultivaluedAttributeMerger}.
+ * <br>
+ * Since every child is queried with the same seed the children are independent of each other. If an
+ * <code>executorService</code> is configured all children are queried concurrently on it and the query
+ * takes as long as the slowest child instead of the sum of all children. The results are still handed
+ * to the {@link org.jasig.services.persondir.support.merger.IAttributeMerger} in the order of the
+ * <code>personAttributeDaos</code> list so the merged results are the same as for a sequential query.
+ * If no <code>executorService</code> is configured the children are queried one after another on the
+ * calling thread. Since all children start together the <code>childTimeout</code> and <code>queryTimeout</code>
+ * deadlines are both measured from the start of the query.
+ * <br>
+ * If <code>stopOnSuccess</code> is set the children are always queried one after another, as without an
+ * <code>executorService</code>, so the children after the first successful one are never queried.
+ * <br>
+ * {@link #getPeopleWithMultivaluedAttributesAsync(Map)} follows the same rules, with an <code>executorService</code>
+ * all children are started together and children that implement
+ * {@link org.jasig.services.persondir.IAsyncPersonAttributeDao} are queried without using one of its threads.
  * 
  * @author andrew.petro@yale.edu
  * @author Eric Dalquist
@@ -42,6 +64,134 @@ public class MergingPersonAttributeDaoImpl extends AbstractAggregatingDefaultQue
         this.attrMerger = new MultivaluedAttributeMerger();
     }
     
+    /**
+     * If an <code>executorService</code> is configured and <code>stopOnSuccess</code> is not set all child DAOs are
+     * queried concurrently and their results are merged in list order, otherwise the children are queried sequentially.
+     * 
+     * @see org.jasig.services.persondir.support.AbstractAggregatingDefaultQueryPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
+     */
+    @Override
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+        if (this.executorService == null || this.stopOnSuccess) {
+            return super.getPeopleWithMultivaluedAttributes(query);
+        }
+        
+        Validate.notNull(query, "query may not be null.");
+        
+        if (this.personAttributeDaos == null) {
+            throw new IllegalStateException("personAttributeDaos must be set");
+        }
+        
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(this.getTraceName(), query);
+        final Set<IPersonAttributes> resultPeople;
+        try {
+            resultPeople = this.queryChildDaosConcurrently(query);
+        }
+        catch (final RuntimeException | Error e) {
+            QueryLog.endSpan(traceSpan, e);
+            throw e;
+        }
+        
+        QueryLog.endSpan(traceSpan, resultPeople);
+        return resultPeople;
+    }
+    
+    /**
+     * Queries all of the child DAOs concurrently on the <code>executorService</code>, merging their results in list order.
+     */
+    private Set<IPersonAttributes> queryChildDaosConcurrently(final Map<String, List<Object>> query) {
+        final long queryStart = System.nanoTime();
+        
+        //Start all of the child queries, each one only depends on the original seed
+        final List<Future<Set<IPersonAttributes>>> childResults = new ArrayList<>(this.personAttributeDaos.size());
+        final List<QueryTraceSpan> childSpans = new ArrayList<>(this.personAttributeDaos.size());
+        final QueryTraceSpan traceSpan = QueryTrace.current();
+        for (final IPersonAttributeDao currentlyConsidering : this.personAttributeDaos) {
+            final QueryTraceSpan childSpan = QueryTrace.startSpan(traceSpan, this.getChildTraceName(currentlyConsidering), query);
+            final QueryTraceSpan previousSpan = QueryTrace.activate(childSpan);
+            try {
+                final Future<Set<IPersonAttributes>> childResult = this.executorService.submit(QueryTrace.wrap(new Callable<Set<IPersonAttributes>>() {
+                    public Set<IPersonAttributes> call() {
+                        return currentlyConsidering.getPeopleWithMultivaluedAttributes(query);
+                    }
+                }));
+                
+                childResults.add(childResult);
+                childSpans.add(childSpan);
+            }
+            finally {
+                QueryTrace.restore(previousSpan);
+            }
+        }
+        
+        Set<IPersonAttributes> resultPeople = null;
+        try {
+            //Merge the child results in list order so the merged results are deterministic
+            for (int daoIndex = 0; daoIndex < childResults.size(); daoIndex++) {
+                final IPersonAttributeDao currentlyConsidering = this.personAttributeDaos.get(daoIndex);
+                
+                final QueryTraceSpan childSpan = childSpans.get(daoIndex);
+                
+                Set<IPersonAttributes> currentPeople = null;
+                try {
+                    currentPeople = this.getChildResult(currentlyConsidering, childResults.get(daoIndex), queryStart, queryStart);
+                    QueryTrace.endSpan(childSpan, currentPeople);
+                    
+                    if (this.logger.isDebugEnabled()) {
+                        this.logger.debug("Retrieved attributes='{}' for query='{}', currentlyConsidering='{}'",
+                                LogSummary.of(currentPeople), query, currentlyConsidering);
+                    }
+                }
+                catch (final RuntimeException rte) {
+                    QueryTrace.endSpan(childSpan, rte);
+                    this.handleRuntimeException(currentlyConsidering, rte);
+                }
+                
+                resultPeople = this.mergeChildResults(resultPeople, currentPeople, childSpan);
+            }
+        }
+        finally {
+            //Stop child queries that are still running after a failure, this is a no-op for completed queries
+            for (final Future<Set<IPersonAttributes>> childResult : childResults) {
+                childResult.cancel(true);
+            }
+        }
+        
+        return this.completeResults(query, resultPeople);
+    }
+    
+    /**
+     * If an <code>executorService</code> is configured and <code>stopOnSuccess</code> is not set all child DAOs are
+     * started together and their results are merged in list order as they complete, otherwise the children are
+     * queried one after another.
+     * 
+     * @see org.jasig.services.persondir.support.AbstractAggregatingDefaultQueryPersonAttributeDao#getPeopleWithMultivaluedAttributesAsync(java.util.Map)
+     */
+    @Override
+    public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final Map<String, List<Object>> query) {
+        if (this.executorService == null || this.stopOnSuccess) {
+            return super.getPeopleWithMultivaluedAttributesAsync(query);
+        }
+        
+        Validate.notNull(query, "query may not be null.");
+        
+        if (this.personAttributeDaos == null) {
+            throw new IllegalStateException("personAttributeDaos must be set");
+        }
+        
+        final QueryTraceSpan traceSpan = this.startTraceSpanAsync(query, null);
+        
+        //Start all of the child queries, each one only depends on the original seed
+        final List<ListenableFuture<Set<IPersonAttributes>>> childResults = new ArrayList<>(this.personAttributeDaos.size());
+        final List<QueryTraceSpan> childSpans = new ArrayList<>(this.personAttributeDaos.size());
+        for (final IPersonAttributeDao currentlyConsidering : this.personAttributeDaos) {
+            final ChildQuery childQuery = this.startChildQueryAsync(currentlyConsidering, query, traceSpan);
+            childResults.add(childQuery.getResult());
+            childSpans.add(childQuery.getTraceSpan());
+        }
+        
+        return this.aggregateChildResultsAsync(query, childResults, traceSpan, childSpans);
+    }
     
     /**
      * Calls the current IPersonAttributeDao from using the seed.
@@ -52,4 +202,14 @@ public class MergingPersonAttributeDaoImpl extends AbstractAggregatingDefaultQue
     protected Set<IPersonAttributes> getAttributesFromDao(final Map<String, List<Object>> seed, final boolean isFirstQuery, final IPersonAttributeDao currentlyConsidering, final Set<IPersonAttributes> resultPeople) {
         return currentlyConsidering.getPeopleWithMultivaluedAttributes(seed);
     }
+    
+    /**
+     * Calls the current IPersonAttributeDao using the seed, through its asynchronous method if it has one.
+     * 
+     * @see org.jasig.services.persondir.support.AbstractAggregatingDefaultQueryPersonAttributeDao#getAttributesFromDaoAsync(java.util.Map, boolean, org.jasig.services.persondir.IPersonAttributeDao, java.util.Set)
+     */
+    @Override
+    protected ListenableFuture<Set<IPersonAttributes>> getAttributesFromDaoAsync(final Map<String, List<Object>> seed, final boolean isFirstQuery, final IPersonAttributeDao currentlyConsidering, final Set<IPersonAttributes> resultPeople) {
+        return AsyncPersonAttributeDaoAdapter.getPeopleWithMultivaluedAttributesAsync(currentlyConsidering, seed, this.executorService);
+    }
 }
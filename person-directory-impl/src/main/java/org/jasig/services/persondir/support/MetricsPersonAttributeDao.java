@@ -0,0 +1,222 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.springframework.beans.factory.BeanNameAware;
+
+/**
+ * Wraps an {@link IPersonAttributeDao} and records {@link PersonAttributeDaoMetrics} for every query made against it:
+ * latency, call count, null result count, exception count and result size.
+ * <br>
+ * The metrics are tagged with the <b>metricsName</b>, which defaults to the bean name of this DAO. If a
+ * <b>metricsRegistry</b> is set the metrics are kept in it, otherwise they are only available through
+ * {@link #getMetrics()}. The aggregating DAOs can also record metrics for their children without wrapping them,
+ * see {@link AbstractAggregatingDefaultQueryPersonAttributeDao#setMetricsRegistry(PersonAttributeDaoMetricsRegistry)}.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">targetPersonAttributeDao</td>
+ *         <td>The {@link IPersonAttributeDao} to record metrics for.</td>
+ *         <td valign="top">Yes</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">metricsRegistry</td>
+ *         <td>The {@link PersonAttributeDaoMetricsRegistry} to keep the metrics in.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">metricsName</td>
+ *         <td>The name the metrics are tagged with.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">The bean name, or the class name of the target DAO</td>
+ *     </tr>
+ * </table>
+ *
+ * @version $Revision$
+ */
+public class MetricsPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements BeanNameAware {
+    private IPersonAttributeDao targetPersonAttributeDao = null;
+    private PersonAttributeDaoMetricsRegistry metricsRegistry = null;
+    private String metricsName = null;
+    private String beanName = null;
+
+    /*
+     * Metrics resolved from the registry and name, cleared when either changes
+     */
+    private volatile PersonAttributeDaoMetrics metrics = null;
+
+    /**
+     * Default constructor, {@link #setTargetPersonAttributeDao(IPersonAttributeDao)} will need to be called if
+     * this is used.
+     */
+    public MetricsPersonAttributeDao() {
+    }
+
+    /**
+     * @param targetPersonAttributeDao The IPersonAttributeDao to record metrics for.
+     * @param metricsRegistry The registry to keep the metrics in, may be null.
+     * @param metricsName The name the metrics are tagged with, may be null.
+     */
+    public MetricsPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao, final PersonAttributeDaoMetricsRegistry metricsRegistry,
+                                     final String metricsName) {
+        this.setTargetPersonAttributeDao(targetPersonAttributeDao);
+        this.setMetricsRegistry(metricsRegistry);
+        this.setMetricsName(metricsName);
+    }
+
+    /**
+     * @return the targetPersonAttributeDao
+     */
+    public IPersonAttributeDao getTargetPersonAttributeDao() {
+        return this.targetPersonAttributeDao;
+    }
+    /**
+     * @param targetPersonAttributeDao the targetPersonAttributeDao to set
+     */
+    public void setTargetPersonAttributeDao(final IPersonAttributeDao targetPersonAttributeDao) {
+        Validate.notNull(targetPersonAttributeDao, "targetPersonAttributeDao may not be null");
+        this.targetPersonAttributeDao = targetPersonAttributeDao;
+        this.metrics = null;
+    }
+
+    /**
+     * @return the metricsRegistry
+     */
+    @JsonIgnore
+    public PersonAttributeDaoMetricsRegistry getMetricsRegistry() {
+        return this.metricsRegistry;
+    }
+    /**
+     * @param metricsRegistry the registry to keep the metrics in, may be null
+     */
+    @JsonIgnore
+    public void setMetricsRegistry(final PersonAttributeDaoMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        this.metrics = null;
+    }
+
+    /**
+     * @return the metricsName
+     */
+    public String getMetricsName() {
+        return this.metricsName;
+    }
+    /**
+     * @param metricsName the name the metrics are tagged with, null to use the bean name
+     */
+    public void setMetricsName(final String metricsName) {
+        this.metricsName = metricsName;
+        this.metrics = null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.BeanNameAware#setBeanName(java.lang.String)
+     */
+    public void setBeanName(final String name) {
+        this.beanName = name;
+        this.metrics = null;
+    }
+
+    /**
+     * @return The metrics recorded for the target DAO
+     */
+    @JsonIgnore
+    public PersonAttributeDaoMetrics getMetrics() {
+        PersonAttributeDaoMetrics metrics = this.metrics;
+        if (metrics == null) {
+            String name = this.metricsName;
+            if (name == null) {
+                name = this.beanName;
+            }
+            if (name == null) {
+                name = this.targetPersonAttributeDao != null ? this.targetPersonAttributeDao.getClass().getSimpleName() : "unknown";
+            }
+
+            if (this.metricsRegistry != null) {
+                metrics = this.metricsRegistry.getMetrics(name);
+            }
+            else {
+                metrics = new PersonAttributeDaoMetrics(name);
+            }
+            this.metrics = metrics;
+        }
+        return metrics;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
+     */
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> seed) {
+        Validate.notNull(seed, "Argument 'seed' cannot be null.");
+
+        if (this.targetPersonAttributeDao == null) {
+            throw new IllegalStateException("targetPersonAttributeDao may not be null");
+        }
+
+        final PersonAttributeDaoMetrics metrics = this.getMetrics();
+        final long start = System.nanoTime();
+        final Set<IPersonAttributes> results;
+        try {
+            results = this.targetPersonAttributeDao.getPeopleWithMultivaluedAttributes(seed);
+        }
+        catch (final RuntimeException | Error e) {
+            metrics.recordException(System.nanoTime() - start);
+            throw e;
+        }
+
+        metrics.recordResults(System.nanoTime() - start, results);
+        return results;
+    }
+
+    /*
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPossibleUserAttributeNames()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getPossibleUserAttributeNames() {
+        return this.targetPersonAttributeDao.getPossibleUserAttributeNames();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getAvailableQueryAttributes()
+     */
+    @JsonIgnore
+    @Override
+    public Set<String> getAvailableQueryAttributes() {
+        return this.targetPersonAttributeDao.getAvailableQueryAttributes();
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores serialized query results outside of the Java heap in direct {@link ByteBuffer}s so a large cache adds
+ * little garbage collection pressure. Used as a second tier by {@link CachingPersonAttributeDaoImpl}, results found
+ * here are copied back into its on-heap cache.
+ * <br>
+ * The capacity is split into fixed size segments that are allocated when first written to. Results are appended
+ * to the current segment, when it is full writing moves on to the next segment and once all segments have been
+ * used the oldest segment is reused, evicting all results stored in it. Only the cache keys and the location of
+ * each result are kept on the heap.
+ * <br>
+ * The time each result was loaded and last read is kept with its location. {@link #get(Serializable, long, long)}
+ * drops results that are older than a time to live or have not been stored or read for longer than a time to idle,
+ * reads served by the on-heap cache are not seen here so the idle time is measured conservatively.
+ * <br>
+ * Results must be {@link Serializable}, results that are not or that are larger than a segment are not stored.
+ * The JVM limits the total size of direct buffers, <code>-XX:MaxDirectMemorySize</code> must be at least the
+ * capacity of the cache.
+ *
+ * @version $Revision$
+ */
+public class OffHeapPersonAttributesCache {
+    public static final long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+
+    /*
+     * The keys written to each segment, used to find the results to evict when a segment is reused
+     */
+    private final List<List<Serializable>> segmentKeys;
+
+    /*
+     * Location of each stored result, guarded by the lock
+     */
+    private final Map<Serializable, Location> index = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int writeSegment = 0;
+    private int writeOffset = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default capacity and segment size.
+     */
+    public OffHeapPersonAttributesCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a cache with the default segment size.
+     *
+     * @param capacity The maximum number of bytes of direct memory to use
+     */
+    public OffHeapPersonAttributesCache(final long capacity) {
+        this(capacity, (int) Math.min(capacity, DEFAULT_SEGMENT_SIZE));
+    }
+
+    /**
+     * @param capacity The maximum number of bytes of direct memory to use, rounded up to a multiple of the segment size
+     * @param segmentSize The number of bytes in each segment, also the largest result that can be stored
+     */
+    public OffHeapPersonAttributesCache(final long capacity, final int segmentSize) {
+        Validate.isTrue(segmentSize > 0, "segmentSize must be greater than 0");
+        Validate.isTrue(capacity >= segmentSize, "capacity must be at least segmentSize");
+
+        final long segmentCount = (capacity + segmentSize - 1) / segmentSize;
+        Validate.isTrue(segmentCount <= Integer.MAX_VALUE, "capacity / segmentSize must be less than " + Integer.MAX_VALUE);
+
+        this.segmentSize = segmentSize;
+        this.segments = new ByteBuffer[(int) segmentCount];
+        this.segmentKeys = new ArrayList<>(this.segments.length);
+        for (int index = 0; index < this.segments.length; index++) {
+            this.segmentKeys.add(new ArrayList<Serializable>());
+        }
+    }
+
+    /**
+     * @param key The cache key
+     * @return A copy of the stored results, null if none are stored for the key
+     */
+    public Set<IPersonAttributes> get(final Serializable key) {
+        final StoredResults storedResults = this.get(key, 0, 0);
+        return storedResults != null ? storedResults.getResults() : null;
+    }
+
+    /**
+     * Gets the results stored for the key, results that have expired are removed and not returned.
+     *
+     * @param key The cache key
+     * @param timeToLive Milliseconds after they were loaded that results expire, 0 to never expire
+     * @param timeToIdle Milliseconds after they were last stored or read that results expire, 0 to never expire
+     * @return A copy of the stored results and the time they were loaded, null if no unexpired results are stored for the key
+     */
+    @SuppressWarnings("unchecked")
+    public StoredResults get(final Serializable key, final long timeToLive, final long timeToIdle) {
+        final long now = System.currentTimeMillis();
+        final Location location;
+        final byte[] data;
+        this.lock.readLock().lock();
+        try {
+            location = this.index.get(key);
+            if (location == null) {
+                this.misses.incrementAndGet();
+                return null;
+            }
+
+            if (location.isExpired(now, timeToLive, timeToIdle)) {
+                data = null;
+            }
+            else {
+                data = new byte[location.length];
+                final ByteBuffer segment = this.segments[location.segment].duplicate();
+                segment.position(location.offset);
+                segment.get(data);
+                location.accessedAt = now;
+            }
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+
+        if (data == null) {
+            this.removeExpired(key, location);
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+        return new StoredResults((Set<IPersonAttributes>) SerializationUtils.deserialize(data), location.loadedAt);
+    }
+
+    /**
+     * Stores the results for the key as loaded now, replacing any results already stored for it.
+     *
+     * @param key The cache key
+     * @param results The results to store
+     * @return true if the results were stored, false if they could not be serialized or are larger than a segment
+     */
+    public boolean put(final Serializable key, final Set<IPersonAttributes> results) {
+        return this.put(key, results, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores the results for the key, replacing any results already stored for it.
+     *
+     * @param key The cache key
+     * @param results The results to store
+     * @param loadedAt When the results were loaded, in milliseconds since the epoch
+     * @return true if the results were stored, false if they could not be serialized or are larger than a segment
+     */
+    public boolean put(final Serializable key, final Set<IPersonAttributes> results, final long loadedAt) {
+        Validate.notNull(key, "key may not be null");
+        Validate.notNull(results, "results may not be null");
+
+        final byte[] data;
+        try {
+            data = SerializationUtils.serialize((Serializable) results);
+        }
+        catch (final ClassCastException | SerializationException e) {
+            this.logger.debug("Results for key '{}' could not be serialized and will not be stored off-heap", key, e);
+            this.remove(key);
+            return false;
+        }
+
+        if (data.length > this.segmentSize) {
+            this.logger.debug("Results for key '{}' are {} bytes, larger than the segment size of {}, and will not be stored off-heap",
+                    key, data.length, this.segmentSize);
+            this.remove(key);
+            return false;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.writeOffset + data.length > this.segmentSize) {
+                this.writeSegment = (this.writeSegment + 1) % this.segments.length;
+                this.writeOffset = 0;
+                this.evictSegment(this.writeSegment);
+            }
+
+            ByteBuffer segment = this.segments[this.writeSegment];
+            if (segment == null) {
+                segment = ByteBuffer.allocateDirect(this.segmentSize);
+                this.segments[this.writeSegment] = segment;
+            }
+
+            final ByteBuffer writeBuffer = segment.duplicate();
+            writeBuffer.position(this.writeOffset);
+            writeBuffer.put(data);
+
+            this.index.put(key, new Location(this.writeSegment, this.writeOffset, data.length, loadedAt));
+            this.segmentKeys.get(this.writeSegment).add(key);
+            this.writeOffset += data.length;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * @param key The cache key to remove the stored results for
+     */
+    public void remove(final Serializable key) {
+        this.lock.writeLock().lock();
+        try {
+            this.index.remove(key);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all stored results and releases the direct memory.
+     */
+    public void clear() {
+        this.lock.writeLock().lock();
+        try {
+            this.index.clear();
+            for (int index = 0; index < this.segments.length; index++) {
+                this.segments[index] = null;
+                this.segmentKeys.get(index).clear();
+            }
+            this.writeSegment = 0;
+            this.writeOffset = 0;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of results stored
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The maximum number of bytes of direct memory used
+     */
+    public long getCapacity() {
+        return (long) this.segmentSize * this.segments.length;
+    }
+
+    /**
+     * @return The number of bytes in each segment
+     */
+    public int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /**
+     * @return The number of lookups that found stored results
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of lookups that found no stored results
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return The number of results evicted because the segment they were stored in was reused
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Removes expired results from the index unless they have been replaced since they were found to be expired.
+     */
+    private void removeExpired(final Serializable key, final Location location) {
+        this.lock.writeLock().lock();
+        try {
+            if (this.index.get(key) == location) {
+                this.index.remove(key);
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the results stored in the segment from the index, must be called with the write lock held.
+     */
+    private void evictSegment(final int segment) {
+        final List<Serializable> keys = this.segmentKeys.get(segment);
+        for (final Serializable key : keys) {
+            final Location location = this.index.get(key);
+            if (location != null && location.segment == segment) {
+                this.index.remove(key);
+                this.evictions.incrementAndGet();
+            }
+        }
+        keys.clear();
+    }
+
+    /**
+     * Position and age of a stored result.
+     */
+    private static final class Location {
+        private final int segment;
+        private final int offset;
+        private final int length;
+        private final long loadedAt;
+        private volatile long accessedAt;
+
+        public Location(final int segment, final int offset, final int length, final long loadedAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.loadedAt = loadedAt;
+            this.accessedAt = System.currentTimeMillis();
+        }
+
+        public boolean isExpired(final long now, final long timeToLive, final long timeToIdle) {
+            return (timeToLive > 0 && now - this.loadedAt >= timeToLive)
+                    || (timeToIdle > 0 && now - this.accessedAt >= timeToIdle);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Query metrics for a single {@link org.jasig.services.persondir.IPersonAttributeDao}: the number of calls, calls
+ * that returned null, calls that threw an exception, and histograms of the query latency and the number of people
+ * returned. Recorded by {@link MetricsPersonAttributeDao} and by the aggregating DAOs for their children when they are
+ * given a {@link PersonAttributeDaoMetricsRegistry}. All methods are thread safe.
+ *
+ * @version $Revision$
+ */
+public class PersonAttributeDaoMetrics {
+    /**
+     * Upper bounds of the latency histogram buckets, in microseconds
+     */
+    public static final long[] LATENCY_BUCKETS = {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+    /**
+     * Upper bounds of the result size histogram buckets, in people
+     */
+    public static final long[] RESULT_SIZE_BUCKETS = { 0, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000 };
+
+    private final String name;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong nullResults = new AtomicLong();
+    private final AtomicLong exceptions = new AtomicLong();
+    private final Histogram latency = new Histogram(LATENCY_BUCKETS);
+    private final Histogram resultSize = new Histogram(RESULT_SIZE_BUCKETS);
+
+    /**
+     * @param name The name the metrics are tagged with, usually the bean name of the DAO
+     */
+    public PersonAttributeDaoMetrics(final String name) {
+        Validate.notNull(name, "name may not be null");
+        this.name = name;
+    }
+
+    /**
+     * Records a call that returned.
+     *
+     * @param durationNanos How long the call took, in nanoseconds
+     * @param results The results of the call, may be null
+     */
+    public void recordResults(final long durationNanos, final Set<IPersonAttributes> results) {
+        this.calls.incrementAndGet();
+        this.latency.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+
+        if (results == null) {
+            this.nullResults.incrementAndGet();
+            this.resultSize.record(0);
+        }
+        else {
+            this.resultSize.record(results.size());
+        }
+    }
+
+    /**
+     * Records a call that threw an exception.
+     *
+     * @param durationNanos How long the call took, in nanoseconds
+     */
+    public void recordException(final long durationNanos) {
+        this.calls.incrementAndGet();
+        this.exceptions.incrementAndGet();
+        this.latency.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    }
+
+    /**
+     * @return The name the metrics are tagged with
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return The number of calls, including calls that threw an exception
+     */
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    /**
+     * @return The number of calls that returned null
+     */
+    public long getNullResults() {
+        return this.nullResults.get();
+    }
+
+    /**
+     * @return The number of calls that threw an exception
+     */
+    public long getExceptions() {
+        return this.exceptions.get();
+    }
+
+    /**
+     * @return Histogram of the latency of all calls, in microseconds
+     */
+    public Histogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return Histogram of the number of people returned by calls that did not throw an exception, null results count as 0
+     */
+    public Histogram getResultSize() {
+        return this.resultSize;
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        this.calls.set(0);
+        this.nullResults.set(0);
+        this.exceptions.set(0);
+        this.latency.reset();
+        this.resultSize.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "PersonAttributeDaoMetrics[name=" + this.name + ", calls=" + this.getCalls() + ", nullResults=" + this.getNullResults()
+                + ", exceptions=" + this.getExceptions() + ", meanLatency=" + this.latency.getMean() + "us, p99Latency<="
+                + this.latency.getPercentile(0.99) + "us, maxLatency=" + this.latency.getMax() + "us, meanResultSize="
+                + this.resultSize.getMean() + "]";
+    }
+
+    /**
+     * Histogram with fixed bucket bounds. Each bucket counts the values that are less than or equal to its bound and
+     * greater than the bound of the previous bucket, a final bucket counts the values greater than the last bound.
+     */
+    public static final class Histogram {
+        private final long[] bounds;
+        private final AtomicLongArray counts;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param bounds The upper bounds of the buckets, in increasing order
+         */
+        public Histogram(final long[] bounds) {
+            Validate.isTrue(bounds.length > 0, "bounds may not be empty");
+            for (int index = 1; index < bounds.length; index++) {
+                Validate.isTrue(bounds[index] > bounds[index - 1], "bounds must be in increasing order");
+            }
+
+            this.bounds = bounds.clone();
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        /**
+         * @param value The value to record
+         */
+        public void record(final long value) {
+            int bucket = Arrays.binarySearch(this.bounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            this.counts.incrementAndGet(bucket);
+
+            this.count.incrementAndGet();
+            this.total.addAndGet(value);
+
+            long currentMax = this.max.get();
+            while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+                currentMax = this.max.get();
+            }
+        }
+
+        /**
+         * @return A copy of the upper bounds of the buckets
+         */
+        public long[] getBounds() {
+            return this.bounds.clone();
+        }
+
+        /**
+         * @return The counts of each bucket, one longer than {@link #getBounds()} with the count of values greater
+         * than the last bound at the end
+         */
+        public long[] getCounts() {
+            final long[] counts = new long[this.counts.length()];
+            for (int index = 0; index < counts.length; index++) {
+                counts[index] = this.counts.get(index);
+            }
+            return counts;
+        }
+
+        /**
+         * @return The number of recorded values
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /**
+         * @return The sum of the recorded values
+         */
+        public long getTotal() {
+            return this.total.get();
+        }
+
+        /**
+         * @return The largest recorded value
+         */
+        public long getMax() {
+            return this.max.get();
+        }
+
+        /**
+         * @return The mean of the recorded values, 0 if no values have been recorded
+         */
+        public double getMean() {
+            final long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+            return (double) this.total.get() / count;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 1
+         * @return The upper bound of the bucket the percentile falls in, the largest recorded value if it falls in
+         * the last bucket, 0 if no values have been recorded
+         */
+        public long getPercentile(final double percentile) {
+            Validate.isTrue(percentile >= 0 && percentile <= 1, "percentile must be between 0 and 1");
+
+            final long[] counts = this.getCounts();
+            long count = 0;
+            for (final long bucketCount : counts) {
+                count += bucketCount;
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int index = 0; index < this.bounds.length; index++) {
+                seen += counts[index];
+                if (seen >= rank) {
+                    return this.bounds[index];
+                }
+            }
+            return this.max.get();
+        }
+
+        /**
+         * Clears all recorded values.
+         */
+        public void reset() {
+            for (int index = 0; index < this.counts.length(); index++) {
+                this.counts.set(index, 0);
+            }
+            this.count.set(0);
+            this.total.set(0);
+            this.max.set(0);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Holds the {@link PersonAttributeDaoMetrics} of a set of DAOs by name. Share a single registry between the
+ * {@link MetricsPersonAttributeDao}s and aggregating DAOs of an application to see the metrics of every attribute
+ * source in one place, for example to find which child of a {@link CascadingPersonAttributeDao} is the slowest.
+ *
+ * @version $Revision$
+ */
+public class PersonAttributeDaoMetricsRegistry {
+    private final ConcurrentMap<String, PersonAttributeDaoMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the metrics with the name, creating them if they don't exist. DAOs that use the same name share metrics.
+     *
+     * @param name The name of the metrics
+     * @return The metrics
+     */
+    public PersonAttributeDaoMetrics getMetrics(final String name) {
+        Validate.notNull(name, "name may not be null");
+
+        PersonAttributeDaoMetrics daoMetrics = this.metrics.get(name);
+        if (daoMetrics == null) {
+            daoMetrics = new PersonAttributeDaoMetrics(name);
+            final PersonAttributeDaoMetrics existingMetrics = this.metrics.putIfAbsent(name, daoMetrics);
+            if (existingMetrics != null) {
+                daoMetrics = existingMetrics;
+            }
+        }
+        return daoMetrics;
+    }
+
+    /**
+     * @return All of the metrics in the registry, sorted by name
+     */
+    public SortedMap<String, PersonAttributeDaoMetrics> getAllMetrics() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this.metrics));
+    }
+
+    /**
+     * Clears the recorded values of all metrics in the registry.
+     */
+    public void reset() {
+        for (final PersonAttributeDaoMetrics daoMetrics : this.metrics.values()) {
+            daoMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.commons.collections4.map.CaseInsensitiveMap;
+import org.apache.commons.collections4.map.ListOrderedMap;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * A read-only snapshot of cached query results stored in a file, used by {@link CachingPersonAttributeDaoImpl} to
+ * serve cache hits right after a restart. Snapshots are written with a {@link Writer} and opened by memory mapping
+ * the file. Opening a snapshot does not read the records, lookups find them through an index stored at the end of
+ * the file and only the results that are looked up are deserialized.
+ * <br>
+ * The file starts with a magic number and format version followed by one record per result: the time the result
+ * was loaded, the length and serialized bytes of the cache key and the length and serialized bytes of the result.
+ * The records are followed by the index, the hash of the serialized key and the position of the record for each
+ * record sorted by hash, and the position and size of the index. A key is found by searching the index for the hash
+ * of its serialized bytes and comparing the bytes with the key stored in the record, keys are never deserialized.
+ * <br>
+ * Results are deserialized with only the classes of the <code>java.lang</code>, <code>java.util</code>,
+ * <code>java.math</code>, <code>java.sql</code> and <code>com.google.common.collect</code> packages, the classes of
+ * Person Directory and the maps used by the case insensitive person implementations allowed. Results holding other
+ * classes are ignored. The snapshot file should still only be writable by the user running the application.
+ *
+ * @version $Revision$
+ */
+public class PersonAttributesCacheSnapshot {
+    private static final int MAGIC = 0x50444353;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final HashFunction KEY_HASH = Hashing.murmur3_32();
+
+    private static final Set<String> ALLOWED_PACKAGES = ImmutableSet.of(
+            "java.lang", "java.util", "java.math", "java.sql", "com.google.common.collect");
+    private static final String ALLOWED_PACKAGE_PREFIX = "org.jasig.services.persondir.";
+    private static final Set<String> ALLOWED_CLASSES = ImmutableSet.of(
+            CaseInsensitiveMap.class.getName(), ListOrderedMap.class.getName());
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int indexOffset;
+    private final int count;
+
+    /*
+     * Index entries of the results that have been looked up or removed, guarded by itself
+     */
+    private final BitSet taken;
+    private int takenCount = 0;
+
+    private PersonAttributesCacheSnapshot(final File file, final MappedByteBuffer buffer, final int indexOffset, final int count) {
+        this.file = file;
+        this.buffer = buffer;
+        this.indexOffset = indexOffset;
+        this.count = count;
+        this.taken = new BitSet(count);
+    }
+
+    /**
+     * Maps the snapshot file and checks that it is a complete snapshot.
+     *
+     * @param file The snapshot file
+     * @return The snapshot
+     * @throws IOException If the file cannot be read or is not a valid snapshot
+     */
+    public static PersonAttributesCacheSnapshot open(final File file) throws IOException {
+        Validate.notNull(file, "file may not be null");
+
+        final MappedByteBuffer buffer;
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+
+        if (buffer.limit() < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("Cache snapshot '" + file + "' is truncated");
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("'" + file + "' is not a cache snapshot");
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("'" + file + "' has unsupported cache snapshot version " + version);
+        }
+
+        final int trailerOffset = buffer.limit() - TRAILER_SIZE;
+        final int indexOffset = buffer.getInt(trailerOffset);
+        final int count = buffer.getInt(trailerOffset + 4);
+        if (indexOffset < HEADER_SIZE || count < 0 || (long) indexOffset + (long) count * INDEX_ENTRY_SIZE != trailerOffset) {
+            throw new IOException("Cache snapshot '" + file + "' is truncated");
+        }
+
+        return new PersonAttributesCacheSnapshot(file, buffer, indexOffset, count);
+    }
+
+    /**
+     * Gets the results for the key and removes them from the snapshot, the caller is expected to cache them.
+     *
+     * @param key The cache key
+     * @param maxAge Milliseconds after they were loaded that results are no longer returned, 0 for no limit
+     * @return The results and the time they were loaded, null if the snapshot contains no results for the key, they
+     * are too old or cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public StoredResults take(final Serializable key, final long maxAge) {
+        final int entry = this.takeEntry(key);
+        if (entry < 0) {
+            return null;
+        }
+
+        final ByteBuffer reader = this.buffer.duplicate();
+        try {
+            reader.position(this.getRecordOffset(entry));
+            final long loadedAt = reader.getLong();
+            if (maxAge > 0 && System.currentTimeMillis() - loadedAt >= maxAge) {
+                return null;
+            }
+
+            final int keyLength = reader.getInt();
+            reader.position(reader.position() + keyLength);
+            final byte[] data = new byte[reader.getInt()];
+            reader.get(data);
+
+            return new StoredResults((Set<IPersonAttributes>) deserialize(data), loadedAt);
+        }
+        catch (final BufferUnderflowException | IllegalArgumentException | ClassCastException | IOException | ClassNotFoundException e) {
+            //Corrupt record or results holding classes that are not allowed
+            return null;
+        }
+    }
+
+    /**
+     * @param key The cache key to remove the results for
+     */
+    public void remove(final Serializable key) {
+        this.takeEntry(key);
+    }
+
+    /**
+     * @return The number of results in the snapshot that have not been looked up or removed
+     */
+    public int size() {
+        synchronized (this.taken) {
+            return this.count - this.takenCount;
+        }
+    }
+
+    /**
+     * Finds the index entry of the key and marks it as taken.
+     *
+     * @return The index entry, -1 if the snapshot contains no results for the key or they were already taken
+     */
+    private int takeEntry(final Serializable key) {
+        final byte[] keyData;
+        try {
+            keyData = SerializationUtils.serialize(key);
+        }
+        catch (final SerializationException e) {
+            return -1;
+        }
+        final int hash = KEY_HASH.hashBytes(keyData).asInt();
+
+        //Find the first index entry with the hash, then check each entry with the hash for the key
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.getHash(mid) < hash) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        for (int entry = low; entry < this.count && this.getHash(entry) == hash; entry++) {
+            if (this.isKey(entry, keyData)) {
+                synchronized (this.taken) {
+                    if (this.taken.get(entry)) {
+                        return -1;
+                    }
+                    this.taken.set(entry);
+                    this.takenCount++;
+                    return entry;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private int getHash(final int entry) {
+        return this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE);
+    }
+
+    private int getRecordOffset(final int entry) {
+        return this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE + 4);
+    }
+
+    /**
+     * @return true if the record of the index entry is for the serialized key
+     */
+    private boolean isKey(final int entry, final byte[] keyData) {
+        final ByteBuffer reader = this.buffer.duplicate();
+        try {
+            reader.position(this.getRecordOffset(entry) + 8);
+            if (reader.getInt() != keyData.length) {
+                return false;
+            }
+            reader.limit(reader.position() + keyData.length);
+        }
+        catch (final BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+        return reader.equals(ByteBuffer.wrap(keyData));
+    }
+
+    private static Object deserialize(final byte[] data) throws IOException, ClassNotFoundException {
+        try (final ObjectInputStream input = new SnapshotObjectInputStream(new ByteArrayInputStream(data))) {
+            return input.readObject();
+        }
+    }
+
+    /**
+     * ObjectInputStream that only resolves the classes expected in cached results.
+     */
+    private static final class SnapshotObjectInputStream extends ObjectInputStream {
+        SnapshotObjectInputStream(final InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed in a cache snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException(Arrays.toString(interfaces), "Proxies are not allowed in a cache snapshot");
+        }
+
+        private static boolean isAllowed(final String name) {
+            //Check the component type of arrays, primitive arrays are allowed
+            String className = name;
+            while (className.startsWith("[")) {
+                className = className.substring(1);
+            }
+            if (className.length() == 1) {
+                return true;
+            }
+            if (className.startsWith("L") && className.endsWith(";")) {
+                className = className.substring(1, className.length() - 1);
+            }
+
+            final int packageEnd = className.lastIndexOf('.');
+            return packageEnd > 0 && ALLOWED_PACKAGES.contains(className.substring(0, packageEnd))
+                    || className.startsWith(ALLOWED_PACKAGE_PREFIX)
+                    || ALLOWED_CLASSES.contains(className);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file which replaces the snapshot file when it is committed, an open
+     * snapshot of the previous file stays readable.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final File tempFile;
+        private final DataOutputStream output;
+        private long position = HEADER_SIZE;
+        private long[] index = new long[1024];
+        private int count = 0;
+        private boolean committed = false;
+
+        /**
+         * @param file The snapshot file to write
+         * @throws IOException If the temporary file cannot be created
+         */
+        public Writer(final File file) throws IOException {
+            Validate.notNull(file, "file may not be null");
+
+            this.file = file;
+            this.tempFile = new File(file.getPath() + ".tmp");
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.tempFile)));
+            this.output.writeInt(MAGIC);
+            this.output.writeInt(VERSION);
+        }
+
+        /**
+         * Adds the results to the snapshot.
+         *
+         * @param key The cache key
+         * @param results The results
+         * @param loadedAt When the results were loaded
+         * @return true if the results were written, false if the key or results could not be serialized
+         * @throws IOException If writing the file fails or the snapshot would be larger than 2GB
+         */
+        public boolean write(final Serializable key, final Set<IPersonAttributes> results, final long loadedAt) throws IOException {
+            final byte[] keyData;
+            final byte[] resultsData;
+            try {
+                keyData = SerializationUtils.serialize(key);
+                resultsData = SerializationUtils.serialize((Serializable) results);
+            }
+            catch (final ClassCastException | SerializationException e) {
+                return false;
+            }
+
+            final long recordSize = 16L + keyData.length + resultsData.length;
+            if (this.position + recordSize + (long) (this.count + 1) * INDEX_ENTRY_SIZE + TRAILER_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Cache snapshot '" + this.file + "' would be larger than 2GB");
+            }
+
+            if (this.count == this.index.length) {
+                this.index = Arrays.copyOf(this.index, this.count * 2);
+            }
+            //Hash in the high bits so sorting orders the entries by hash
+            this.index[this.count] = ((long) KEY_HASH.hashBytes(keyData).asInt() << 32) | this.position;
+
+            this.output.writeLong(loadedAt);
+            this.output.writeInt(keyData.length);
+            this.output.write(keyData);
+            this.output.writeInt(resultsData.length);
+            this.output.write(resultsData);
+            this.position += recordSize;
+            this.count++;
+            return true;
+        }
+
+        /**
+         * @return The number of results written
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * Writes the index and completes the snapshot, replacing the snapshot file. If not called before
+         * {@link #close()} the temporary file is deleted and the snapshot file is left unchanged.
+         *
+         * @throws IOException If the snapshot file cannot be replaced
+         */
+        public void commit() throws IOException {
+            Arrays.sort(this.index, 0, this.count);
+            for (int entry = 0; entry < this.count; entry++) {
+                this.output.writeLong(this.index[entry]);
+            }
+            this.output.writeInt((int) this.position);
+            this.output.writeInt(this.count);
+
+            this.output.close();
+            Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.committed) {
+                this.output.close();
+                Files.deleteIfExists(this.tempFile.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structured per-query log event, one line of <code>key=value</code> pairs logged at DEBUG by the
+ * <code>org.jasig.services.persondir.support.QueryLog</code> category for every query answered by an aggregating DAO,
+ * {@link CachingPersonAttributeDaoImpl} and {@link RegexGatewayPersonAttributeDao}:
+ * <pre>
+ * dao=mergedAttributes query=[username] durationMicros=1532 people=1 attributes=14 cache=- outcome=ok
+ * </pre>
+ * Only the names of the query attributes and counts are logged, never attribute values. The event is off unless the
+ * category is enabled for DEBUG, for example with log4j:
+ * <pre>
+ * log4j.logger.org.jasig.services.persondir.support.QueryLog=DEBUG
+ * </pre>
+ * Every DAO in the tree logs a line for each query and counts the attributes of its results, so enabling it has a
+ * cost per query. When the category is not enabled for DEBUG the cost is a single level check per query.
+ *
+ * @version $Revision$
+ */
+public final class QueryLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLog.class);
+
+    private QueryLog() {
+    }
+
+    /**
+     * @return true if query events are logged
+     */
+    public static boolean isEnabled() {
+        return LOGGER.isDebugEnabled();
+    }
+
+    /**
+     * Logs a query that completed.
+     *
+     * @param dao The name of the DAO
+     * @param query The query
+     * @param durationMicros The duration of the query in microseconds
+     * @param results The results of the query, may be null
+     * @param cacheHit If the query was answered from a cache, null if the DAO has no cache
+     */
+    public static void logQuery(final String dao, final Map<String, List<Object>> query, final long durationMicros,
+                                final Set<IPersonAttributes> results, final Boolean cacheHit) {
+        if (!LOGGER.isDebugEnabled()) {
+            return;
+        }
+
+        LOGGER.debug("dao={} query={} durationMicros={} people={} attributes={} cache={} outcome={}", new Object[] {
+                dao, query != null ? query.keySet() : null, durationMicros,
+                results != null ? results.size() : 0, QueryTraceSpan.countAttributes(results),
+                cacheHit == null ? "-" : (cacheHit ? "hit" : "miss"), results != null ? "ok" : "null" });
+    }
+
+    /**
+     * Logs a query that failed.
+     *
+     * @param dao The name of the DAO
+     * @param query The query
+     * @param durationMicros The duration of the query in microseconds
+     * @param t The exception the query failed with
+     */
+    public static void logFailure(final String dao, final Map<String, List<Object>> query, final long durationMicros, final Throwable t) {
+        if (!LOGGER.isDebugEnabled()) {
+            return;
+        }
+
+        LOGGER.debug("dao={} query={} durationMicros={} people=0 attributes=0 cache=- outcome=error exception={}", new Object[] {
+                dao, query != null ? query.keySet() : null, durationMicros, t.getClass().getName() });
+    }
+
+    /**
+     * Starts the span of a DAO's query as a child of the span of the current thread and makes it the current span,
+     * if no trace is started but query events are logged a detached span is returned that only records the query.
+     *
+     * @param name The name of the DAO
+     * @param seed The seed the DAO was queried with
+     * @return The span, null if no trace is started and query events are not logged
+     */
+    static QueryTraceSpan startSpan(final String name, final Map<String, List<Object>> seed) {
+        final QueryTraceSpan span = QueryTrace.startSpan(name, seed);
+        if (span == null && LOGGER.isDebugEnabled()) {
+            return QueryTraceSpan.detached(name, seed);
+        }
+        return span;
+    }
+
+    /**
+     * Starts the span of a DAO's asynchronous query as a child of the parent span, if there is no parent span but
+     * query events are logged a detached span is returned that only records the query.
+     *
+     * @param parent The parent span, may be null
+     * @param name The name of the DAO
+     * @param seed The seed the DAO was queried with
+     * @return The span, null if there is no parent span and query events are not logged
+     */
+    static QueryTraceSpan startSpan(final QueryTraceSpan parent, final String name, final Map<String, List<Object>> seed) {
+        final QueryTraceSpan span = QueryTrace.startSpan(parent, name, seed);
+        if (span == null && LOGGER.isDebugEnabled()) {
+            return QueryTraceSpan.detached(name, seed);
+        }
+        return span;
+    }
+
+    /**
+     * Ends a span started by {@link #startSpan(String, Map)} with the results of the query and logs the query.
+     *
+     * @param span The span, may be null
+     * @param results The results of the query, may be null
+     */
+    static void endSpan(final QueryTraceSpan span, final Set<IPersonAttributes> results) {
+        QueryTrace.endSpan(span, results);
+        logSpan(span, results, null);
+    }
+
+    /**
+     * Ends a span started by {@link #startSpan(String, Map)} with the exception the query failed with and logs the query.
+     *
+     * @param span The span, may be null
+     * @param t The exception
+     */
+    static void endSpan(final QueryTraceSpan span, final Throwable t) {
+        QueryTrace.endSpan(span, t);
+        logSpan(span, null, t);
+    }
+
+    /**
+     * Logs the query recorded by a span once the span has ended.
+     *
+     * @param span The span of the DAO, may be null
+     * @param results The results of the query, may be null
+     * @param t The exception the query failed with, null if it completed
+     */
+    private static void logSpan(final QueryTraceSpan span, final Set<IPersonAttributes> results, final Throwable t) {
+        if (span == null || !LOGGER.isDebugEnabled()) {
+            return;
+        }
+
+        if (t != null) {
+            logFailure(span.getName(), span.getSeed(), span.getDuration(), t);
+        }
+        else {
+            logQuery(span.getName(), span.getSeed(), span.getDuration(), results, span.getCacheHit());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Opt-in tracing of the path a query takes through a graph of DAOs. While a trace is started on a thread the
+ * aggregating DAOs, {@link CachingPersonAttributeDaoImpl} and {@link RegexGatewayPersonAttributeDao} record a
+ * {@link QueryTraceSpan} for themselves and for each child DAO they query, building a span tree that shows which
+ * source a query spent its time in. When no trace is started recording a span is a single thread local lookup.
+ * <pre>
+ * final QueryTraceSpan trace = QueryTrace.start("login");
+ * try {
+ *     personAttributeDao.getPerson(username);
+ * }
+ * finally {
+ *     QueryTrace.stop(trace);
+ * }
+ * logger.info("Attribute query trace:\n" + trace);
+ * </pre>
+ * The current span is passed on to the threads of executors that DAOs run child queries on.
+ *
+ * @version $Revision$
+ */
+public final class QueryTrace {
+    private static final ThreadLocal<QueryTraceSpan> CURRENT_SPAN = new ThreadLocal<>();
+
+    private QueryTrace() {
+    }
+
+    /**
+     * Starts tracing the queries made by the current thread.
+     *
+     * @param name The name of the root span
+     * @return The root span of the trace
+     */
+    public static QueryTraceSpan start(final String name) {
+        final QueryTraceSpan root = new QueryTraceSpan(null, name, null);
+        CURRENT_SPAN.set(root);
+        return root;
+    }
+
+    /**
+     * Stops tracing the queries made by the current thread and ends the root span.
+     *
+     * @param root The root span returned by {@link #start(String)}
+     */
+    public static void stop(final QueryTraceSpan root) {
+        if (root.getDuration() < 0) {
+            root.end(null);
+        }
+        CURRENT_SPAN.remove();
+    }
+
+    /**
+     * @return The span of the current thread, null if no trace is started
+     */
+    public static QueryTraceSpan current() {
+        return CURRENT_SPAN.get();
+    }
+
+    /**
+     * Starts a span as a child of the span of the current thread and makes it the current span.
+     *
+     * @param name The name of the DAO
+     * @param seed The seed the DAO was queried with
+     * @return The span, null if no trace is started
+     */
+    public static QueryTraceSpan startSpan(final String name, final Map<String, List<Object>> seed) {
+        final QueryTraceSpan parent = CURRENT_SPAN.get();
+        if (parent == null || parent.isDetached()) {
+            return null;
+        }
+
+        final QueryTraceSpan span = new QueryTraceSpan(parent, name, seed);
+        CURRENT_SPAN.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a span as a child of the parent span without changing the span of the current thread, used by
+     * asynchronous queries that end on another thread.
+     *
+     * @param parent The parent span, may be null
+     * @param name The name of the DAO
+     * @param seed The seed the DAO was queried with
+     * @return The span, null if parent is null or not part of a trace
+     */
+    public static QueryTraceSpan startSpan(final QueryTraceSpan parent, final String name, final Map<String, List<Object>> seed) {
+        if (parent == null || parent.isDetached()) {
+            return null;
+        }
+
+        return new QueryTraceSpan(parent, name, seed);
+    }
+
+    /**
+     * Ends the span with the results of the query, if it is the span of the current thread, or one of its
+     * descendants is, its parent becomes the current span.
+     *
+     * @param span The span, may be null
+     * @param results The results of the query, may be null
+     */
+    public static void endSpan(final QueryTraceSpan span, final Set<IPersonAttributes> results) {
+        if (span == null) {
+            return;
+        }
+
+        span.end(results);
+        restoreParent(span);
+    }
+
+    /**
+     * Ends the span with the exception the query failed with, if it is the span of the current thread, or one of
+     * its descendants is, its parent becomes the current span.
+     *
+     * @param span The span, may be null
+     * @param t The exception
+     */
+    public static void endSpan(final QueryTraceSpan span, final Throwable t) {
+        if (span == null) {
+            return;
+        }
+
+        span.fail(t);
+        restoreParent(span);
+    }
+
+    private static void restoreParent(final QueryTraceSpan span) {
+        //Also covers child spans that were not ended because their query failed with an Error
+        for (QueryTraceSpan current = CURRENT_SPAN.get(); current != null; current = current.getParent()) {
+            if (current == span) {
+                restore(span.getParent());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes the span the span of the current thread.
+     *
+     * @param span The span, may be null
+     * @return The previous span of the current thread, to pass to {@link #restore(QueryTraceSpan)}
+     */
+    public static QueryTraceSpan activate(final QueryTraceSpan span) {
+        final QueryTraceSpan previous = CURRENT_SPAN.get();
+        restore(span);
+        return previous;
+    }
+
+    /**
+     * @param previous The span returned by {@link #activate(QueryTraceSpan)}
+     */
+    public static void restore(final QueryTraceSpan previous) {
+        if (previous == null) {
+            CURRENT_SPAN.remove();
+        }
+        else {
+            CURRENT_SPAN.set(previous);
+        }
+    }
+
+    /**
+     * Wraps the callable so it runs with the span of the current thread, for callables passed to an executor.
+     *
+     * @param callable The callable
+     * @return The wrapped callable, the callable itself if no trace is started
+     */
+    public static <V> Callable<V> wrap(final Callable<V> callable) {
+        final QueryTraceSpan span = CURRENT_SPAN.get();
+        if (span == null) {
+            return callable;
+        }
+
+        return new Callable<V>() {
+            public V call() throws Exception {
+                final QueryTraceSpan previous = activate(span);
+                try {
+                    return callable.call();
+                }
+                finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records whether the query of the span was answered from a cache.
+     *
+     * @param span The span, may be null
+     * @param cacheHit true for a cache hit
+     */
+    public static void setCacheHit(final QueryTraceSpan span, final boolean cacheHit) {
+        if (span != null) {
+            span.setCacheHit(cacheHit);
+        }
+    }
+
+    /**
+     * Records a tag on the span, such as the routing decision of a DAO.
+     *
+     * @param span The span, may be null
+     * @param name The name of the tag
+     * @param value The value of the tag
+     */
+    public static void setTag(final QueryTraceSpan span, final String name, final Object value) {
+        if (span != null) {
+            span.setTag(name, value);
+        }
+    }
+
+    /**
+     * Records the number of attributes a child DAO's results added to the aggregated results.
+     *
+     * @param span The span of the child DAO, may be null
+     * @param attributesBefore The number of attributes in the aggregated results before the child's results were merged
+     * @param resultPeople The aggregated results after the child's results were merged
+     */
+    static void setAttributesAdded(final QueryTraceSpan span, final int attributesBefore, final Set<IPersonAttributes> resultPeople) {
+        if (span != null) {
+            span.setAttributesAdded(QueryTraceSpan.countAttributes(resultPeople) - attributesBefore);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * A node in a {@link QueryTrace}: one DAO's part in answering a query. Records the seed the DAO was queried with,
+ * how long it took, the number of people and attributes it returned, the number of attributes it added to the
+ * aggregated results, whether it was answered from a cache and the spans of the DAOs it queried in turn.
+ * <br>
+ * The span tree can be serialized with Jackson or written as indented text with {@link #toString()}. The seed is
+ * referenced, not copied, so the trace is cheap to record.
+ *
+ * @version $Revision$
+ */
+public class QueryTraceSpan {
+    private final QueryTraceSpan parent;
+    private final QueryTraceSpan root;
+    private final boolean detached;
+    private final String name;
+    private final Map<String, List<Object>> seed;
+    private final long startNanos = System.nanoTime();
+    private final List<QueryTraceSpan> children = new CopyOnWriteArrayList<>();
+    private final Map<String, Object> tags = Collections.synchronizedMap(new LinkedHashMap<String, Object>());
+
+    private volatile long durationNanos = -1;
+    private volatile Boolean cacheHit = null;
+    private volatile int people = 0;
+    private volatile int attributes = 0;
+    private volatile Integer attributesAdded = null;
+    private volatile String exception = null;
+
+    QueryTraceSpan(final QueryTraceSpan parent, final String name, final Map<String, List<Object>> seed) {
+        this(parent, name, seed, false);
+    }
+
+    private QueryTraceSpan(final QueryTraceSpan parent, final String name, final Map<String, List<Object>> seed, final boolean detached) {
+        this.parent = parent;
+        this.root = parent != null ? parent.root : this;
+        this.name = name;
+        this.seed = seed;
+        this.detached = detached;
+
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    /**
+     * Creates a span that is not part of a trace, used to record a single DAO's query for the {@link QueryLog}.
+     * No spans are recorded as children of a detached span.
+     *
+     * @param name The name of the DAO
+     * @param seed The seed the DAO was queried with
+     * @return The detached span
+     */
+    static QueryTraceSpan detached(final String name, final Map<String, List<Object>> seed) {
+        return new QueryTraceSpan(null, name, seed, true);
+    }
+
+    /**
+     * @return true if the span is not part of a trace
+     */
+    boolean isDetached() {
+        return this.detached;
+    }
+
+    /**
+     * Ends the span with the results of the query.
+     *
+     * @param results The results, may be null
+     */
+    void end(final Set<IPersonAttributes> results) {
+        if (results != null) {
+            this.people = results.size();
+            this.attributes = countAttributes(results);
+        }
+        this.durationNanos = System.nanoTime() - this.startNanos;
+    }
+
+    /**
+     * Ends the span with the exception the query failed with.
+     *
+     * @param t The exception
+     */
+    void fail(final Throwable t) {
+        this.exception = t.toString();
+        this.durationNanos = System.nanoTime() - this.startNanos;
+    }
+
+    /**
+     * @param results Query results, may be null
+     * @return The number of attributes of all the people in the results
+     */
+    static int countAttributes(final Set<IPersonAttributes> results) {
+        if (results == null) {
+            return 0;
+        }
+
+        int attributes = 0;
+        for (final IPersonAttributes person : results) {
+            final Map<String, List<Object>> personAttributes = person.getAttributes();
+            if (personAttributes != null) {
+                attributes += personAttributes.size();
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @return The name of the DAO the span is for
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return The seed the DAO was queried with, null for the root span
+     */
+    public Map<String, List<Object>> getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * @return The span of the DAO that queried this one, null for the root span
+     */
+    @JsonIgnore
+    public QueryTraceSpan getParent() {
+        return this.parent;
+    }
+
+    /**
+     * @return The spans of the DAOs queried by this one, in the order they were started
+     */
+    public List<QueryTraceSpan> getChildren() {
+        return Collections.unmodifiableList(this.children);
+    }
+
+    /**
+     * @return Microseconds from the start of the trace to the start of this span
+     */
+    public long getStartOffset() {
+        return TimeUnit.NANOSECONDS.toMicros(this.startNanos - this.root.startNanos);
+    }
+
+    /**
+     * @return Microseconds the span took, -1 if it has not ended
+     */
+    public long getDuration() {
+        final long durationNanos = this.durationNanos;
+        if (durationNanos < 0) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(durationNanos);
+    }
+
+    /**
+     * @return Microseconds the span took that were not spent in a child span, -1 if it has not ended. Children that
+     * ran concurrently are all subtracted so this may be negative for DAOs that query their children in parallel.
+     */
+    public long getSelfDuration() {
+        final long duration = this.getDuration();
+        if (duration < 0) {
+            return -1;
+        }
+
+        long selfDuration = duration;
+        for (final QueryTraceSpan child : this.children) {
+            selfDuration -= Math.max(child.getDuration(), 0);
+        }
+        return selfDuration;
+    }
+
+    /**
+     * @return true if the query was answered from a cache, false if it missed the cache, null if no cache was involved
+     */
+    public Boolean getCacheHit() {
+        return this.cacheHit;
+    }
+    /**
+     * @param cacheHit true if the query was answered from a cache
+     */
+    public void setCacheHit(final Boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    /**
+     * @return The number of people returned
+     */
+    public int getPeople() {
+        return this.people;
+    }
+
+    /**
+     * @return The number of attributes of all the people returned
+     */
+    public int getAttributes() {
+        return this.attributes;
+    }
+
+    /**
+     * @return The number of attributes the results added to the results of the aggregating DAO that queried this
+     * one, null if the results were not aggregated
+     */
+    public Integer getAttributesAdded() {
+        return this.attributesAdded;
+    }
+    /**
+     * @param attributesAdded The number of attributes the results added to the aggregated results
+     */
+    public void setAttributesAdded(final Integer attributesAdded) {
+        this.attributesAdded = attributesAdded;
+    }
+
+    /**
+     * @return The exception the query failed with, null if it did not fail
+     */
+    public String getException() {
+        return this.exception;
+    }
+
+    /**
+     * @return Additional DAO specific details about the query
+     */
+    public Map<String, Object> getTags() {
+        synchronized (this.tags) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(this.tags));
+        }
+    }
+    /**
+     * @param name The name of the detail
+     * @param value The value of the detail
+     */
+    public void setTag(final String name, final Object value) {
+        this.tags.put(name, value);
+    }
+
+    /**
+     * Writes the span and its children as an indented tree, one span per line.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        this.appendTo(builder, 0);
+        return builder.toString();
+    }
+
+    private void appendTo(final StringBuilder builder, final int depth) {
+        builder.append(StringUtils.repeat("  ", depth)).append(this.name);
+
+        final long duration = this.getDuration();
+        if (duration < 0) {
+            builder.append(" running");
+        }
+        else {
+            builder.append(" ").append(duration).append("us");
+        }
+        builder.append(" people=").append(this.people).append(" attributes=").append(this.attributes);
+        if (this.attributesAdded != null) {
+            builder.append(" added=").append(this.attributesAdded);
+        }
+        if (this.cacheHit != null) {
+            builder.append(this.cacheHit ? " cache=hit" : " cache=miss");
+        }
+        for (final Map.Entry<String, Object> tag : this.getTags().entrySet()) {
+            builder.append(" ").append(tag.getKey()).append("=").append(tag.getValue());
+        }
+        if (this.exception != null) {
+            builder.append(" exception=").append(this.exception);
+        }
+        if (this.seed != null) {
+            builder.append(" seed=").append(this.seed);
+        }
+
+        for (final QueryTraceSpan child : this.children) {
+            builder.append("\n");
+            child.appendTo(builder, depth + 1);
+        }
+    }
+}
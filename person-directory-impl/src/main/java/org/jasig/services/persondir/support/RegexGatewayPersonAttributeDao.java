@@ -217,6 +217,25 @@ public final class RegexGatewayPersonAttributeDao extends AbstractDefaultAttribu
             throw new IllegalStateException("targetPersonAttributeDao may not be null");
         }
 
+        final QueryTraceSpan traceSpan = QueryLog.startSpan(this.getClass().getSimpleName(), seed);
+        final Set<IPersonAttributes> people;
+        try {
+            people = this.getPeopleIfMatched(seed, traceSpan);
+        }
+        catch (final RuntimeException | Error e) {
+            QueryLog.endSpan(traceSpan, e);
+            throw e;
+        }
+        
+        QueryLog.endSpan(traceSpan, people);
+        return people;
+    }
+    
+    /**
+     * Delegates the query to the targetPersonAttributeDao if the seed matches the patterns, recording whether it
+     * matched in the trace span.
+     */
+    private Set<IPersonAttributes> getPeopleIfMatched(final Map<String, List<Object>> seed, final QueryTraceSpan traceSpan) {
         //Flag for patterns that match
         boolean matchedPatterns = false;
         
@@ -233,6 +252,7 @@ public final class RegexGatewayPersonAttributeDao extends AbstractDefaultAttribu
                         this.logger.info("All patterns must match and attribute='" + attributeName + "' does not exist in the seed, returning null.");
                     }
 
+                    QueryTrace.setTag(traceSpan, "matched", false);
                     return null;
                 }
 
@@ -321,6 +341,8 @@ public final class RegexGatewayPersonAttributeDao extends AbstractDefaultAttribu
             }
         }
         
+        QueryTrace.setTag(traceSpan, "matched", matchedPatterns);
+        
         //Execute the wrapped DAO if the match criteria was met
         if (matchedPatterns) {
             if (this.logger.isInfoEnabled()) {
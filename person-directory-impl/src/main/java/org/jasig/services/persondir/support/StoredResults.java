@@ -0,0 +1,56 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Set;
+
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Query results read from the {@link OffHeapPersonAttributesCache} or a {@link PersonAttributesCacheSnapshot} along
+ * with the time they were loaded from the wrapped IPersonAttributeDao, so they expire as if they had never left the
+ * userInfoCache of {@link CachingPersonAttributeDaoImpl}.
+ */
+public final class StoredResults {
+    private final Set<IPersonAttributes> results;
+    private final long loadedAt;
+
+    /**
+     * @param results The stored results
+     * @param loadedAt When the results were loaded, in milliseconds since the epoch
+     */
+    public StoredResults(final Set<IPersonAttributes> results, final long loadedAt) {
+        this.results = results;
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * @return The stored results
+     */
+    public Set<IPersonAttributes> getResults() {
+        return this.results;
+    }
+
+    /**
+     * @return When the results were loaded, in milliseconds since the epoch
+     */
+    public long getLoadedAt() {
+        return this.loadedAt;
+    }
+}
@@ -19,6 +19,8 @@
 package org.jasig.services.persondir.support;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -27,7 +29,9 @@ import me.grison.jtoml.impl.Toml;
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.services.persondir.support.ldap.LdaptivePersonAttributeDao;
 import org.jasig.services.persondir.support.ldap.LdapPersonAttributeDao;
+import org.jasig.services.persondir.support.ldap.LoadBalancingContextSource;
 import org.springframework.core.io.Resource;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 
@@ -43,6 +47,10 @@ import org.springframework.ldap.core.support.LdapContextSource;
  * for the resolution of person attributes, but also is able to construct
  * the necessary {@link LdapContextSource} via the settings that is provided in the file.
  * 
+ * <p>If <code>loadBalancing</code> is set to <code>ROUND_ROBIN</code> or <code>LEAST_LATENCY</code> a
+ * {@link LdapContextSource} is created for each of the <code>urls</code> and queries are spread over them by a
+ * {@link LoadBalancingContextSource} instead of always going to the first URL that responds.
+ * 
  * <p>Sample TOML file: <pre><code>
  
 [ldap]
@@ -77,6 +85,10 @@ java.naming.security.authentication = "simple"
 #ignoreNameNotFoundException = false
 #ignorePartialResultException = true
 #requireAllQueryAttributes = true
+#loadBalancing = "LEAST_LATENCY"
+#slowServerThreshold = 500
+#serverEjectionTime = 30000
+#serverProbeInterval = 10000
 
  * </code></pre>
  * @author Misagh Moayyed
@@ -95,7 +107,7 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
         applyTomlConfigurationToDao(config);
     }
 
-    private void applyTomlConfigurationToDao(final TomlLdapConfiguration config) {
+    private void applyTomlConfigurationToDao(final TomlLdapConfiguration config) throws Exception {
         if (!StringUtils.isBlank(config.getBaseDN())) {
             this.setBaseDN(config.getBaseDN());
         }
@@ -128,6 +140,56 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
             this.setUseAllQueryAttributes(config.isUseAllQueryAttributes());
         }
 
+        final ContextSource ctxSource;
+        if (!StringUtils.isBlank(config.getLoadBalancing()) && config.getUrls() != null && config.getUrls().size() > 1) {
+            ctxSource = buildLoadBalancingContextSource(config);
+        }
+        else {
+            ctxSource = buildContextSource(config, config.getUrls());
+        }
+
+        final LdapTemplate template = new LdapTemplate(ctxSource);
+
+        if (config.isIgnoreNameNotFoundException() != null) {
+            template.setIgnoreNameNotFoundException(config.isIgnoreNameNotFoundException());
+        }
+
+        if (config.isIgnorePartialResultException() != null) {
+            template.setIgnorePartialResultException(config.isIgnorePartialResultException());
+        }
+
+        this.setLdapTemplate(template);
+    }
+
+    private LoadBalancingContextSource buildLoadBalancingContextSource(final TomlLdapConfiguration config) throws Exception {
+        final List<LdapContextSource> ctxSources = new ArrayList<>(config.getUrls().size());
+        for (final String url : config.getUrls()) {
+            final LdapContextSource ctxSource = buildContextSource(config, Collections.singletonList(url));
+            ctxSource.afterPropertiesSet();
+            ctxSources.add(ctxSource);
+        }
+
+        final LoadBalancingContextSource ctxSource = new LoadBalancingContextSource();
+        ctxSource.setContextSources(ctxSources);
+        ctxSource.setStrategy(LoadBalancingContextSource.Strategy.valueOf(config.getLoadBalancing()));
+
+        if (config.getSlowServerThreshold() != null) {
+            ctxSource.setSlowThreshold(config.getSlowServerThreshold());
+        }
+
+        if (config.getServerEjectionTime() != null) {
+            ctxSource.setEjectionTime(config.getServerEjectionTime());
+        }
+
+        if (config.getServerProbeInterval() != null) {
+            ctxSource.setProbeInterval(config.getServerProbeInterval());
+        }
+
+        ctxSource.afterPropertiesSet();
+        return ctxSource;
+    }
+
+    private LdapContextSource buildContextSource(final TomlLdapConfiguration config, final List<String> urls) {
         final LdapContextSource ctxSource = new LdapContextSource();
 
         if (config.isPooled() != null) {
@@ -142,8 +204,8 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
             ctxSource.setPassword(config.getPassword());
         }
 
-        if (config.getUrls() != null) {
-            ctxSource.setUrls(config.getUrls().toArray(new String[] {}));
+        if (urls != null) {
+            ctxSource.setUrls(urls.toArray(new String[] {}));
         }
 
         if (!StringUtils.isBlank(config.getUserDN())) {
@@ -158,17 +220,7 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
             ctxSource.setReferral(config.getReferral());
         }
 
-        final LdapTemplate template = new LdapTemplate(ctxSource);
-
-        if (config.isIgnoreNameNotFoundException() != null) {
-            template.setIgnoreNameNotFoundException(config.isIgnoreNameNotFoundException());
-        }
-
-        if (config.isIgnorePartialResultException() != null) {
-            template.setIgnorePartialResultException(config.isIgnorePartialResultException());
-        }
-
-        this.setLdapTemplate(template);
+        return ctxSource;
     }
 
     private TomlLdapConfiguration buildTomlLdapConfiguration() throws Exception {
@@ -221,6 +273,10 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
         private String referral;
         private Boolean ignoreNameNotFoundException;
         private Boolean ignorePartialResultException;
+        private String loadBalancing;
+        private Long slowServerThreshold;
+        private Long serverEjectionTime;
+        private Long serverProbeInterval;
 
         public String getBaseDN() {
             return this.baseDN;
@@ -358,5 +414,37 @@ public class TomlLdapPersonAttributeDao extends LdapPersonAttributeDao {
             this.ignorePartialResultException = ignorePartialResultException;
         }
 
+        public String getLoadBalancing() {
+            return this.loadBalancing;
+        }
+
+        public void setLoadBalancing(final String loadBalancing) {
+            this.loadBalancing = loadBalancing;
+        }
+
+        public Long getSlowServerThreshold() {
+            return this.slowServerThreshold;
+        }
+
+        public void setSlowServerThreshold(final Long slowServerThreshold) {
+            this.slowServerThreshold = slowServerThreshold;
+        }
+
+        public Long getServerEjectionTime() {
+            return this.serverEjectionTime;
+        }
+
+        public void setServerEjectionTime(final Long serverEjectionTime) {
+            this.serverEjectionTime = serverEjectionTime;
+        }
+
+        public Long getServerProbeInterval() {
+            return this.serverProbeInterval;
+        }
+
+        public void setServerProbeInterval(final Long serverProbeInterval) {
+            this.serverProbeInterval = serverProbeInterval;
+        }
+
     }
 }
@@ -0,0 +1,211 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+
+/**
+ * Creates an {@link ExecutorService} that runs each task on a new virtual thread when the runtime supports them
+ * (Java 21 or later) and falls back to a cached pool of daemon platform threads otherwise. Intended as the
+ * <b>executorService</b> of the aggregating DAOs so child DAOs that block on LDAP or JDBC calls do not tie up a
+ * platform thread each. The executor is unbounded, wrap each attribute source in a
+ * {@link ConcurrencyLimitingPersonAttributeDao} to limit the concurrent queries it receives.
+ * <br>
+ * Virtual threads are looked up reflectively so this class still runs on the Java versions supported by the rest of
+ * the library. The executor is shut down when the bean is destroyed.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">threadNamePrefix</td>
+ *         <td>Prefix of the names of the threads tasks run on, followed by a sequence number.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">person-directory-</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">useVirtualThreads</td>
+ *         <td>If virtual threads should be used when the runtime supports them, false to always use platform threads.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">true</td>
+ *     </tr>
+ * </table>
+ *
+ * @version $Revision$
+ */
+public class VirtualThreadExecutorFactoryBean implements FactoryBean<ExecutorService>, DisposableBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private String threadNamePrefix = "person-directory-";
+    private boolean useVirtualThreads = true;
+
+    private ExecutorService executorService = null;
+    private boolean virtualThreads = false;
+
+    /**
+     * @return the threadNamePrefix
+     */
+    public String getThreadNamePrefix() {
+        return this.threadNamePrefix;
+    }
+    /**
+     * @param threadNamePrefix the threadNamePrefix to set
+     */
+    public void setThreadNamePrefix(final String threadNamePrefix) {
+        Validate.notNull(threadNamePrefix, "threadNamePrefix may not be null");
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * @return the useVirtualThreads
+     */
+    public boolean isUseVirtualThreads() {
+        return this.useVirtualThreads;
+    }
+    /**
+     * @param useVirtualThreads if virtual threads should be used when the runtime supports them
+     */
+    public void setUseVirtualThreads(final boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    /**
+     * @return true if the created executor runs tasks on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.FactoryBean#getObject()
+     */
+    @Override
+    public synchronized ExecutorService getObject() {
+        if (this.executorService == null) {
+            this.executorService = this.createExecutorService();
+        }
+
+        return this.executorService;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.FactoryBean#getObjectType()
+     */
+    @Override
+    public Class<?> getObjectType() {
+        return ExecutorService.class;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.FactoryBean#isSingleton()
+     */
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public synchronized void destroy() {
+        if (this.executorService != null) {
+            this.executorService.shutdown();
+            this.executorService = null;
+        }
+    }
+
+    private ExecutorService createExecutorService() {
+        if (this.useVirtualThreads && isVirtualThreadsSupported()) {
+            try {
+                final ExecutorService virtualThreadExecutor = this.createVirtualThreadExecutor();
+                this.virtualThreads = true;
+                this.logger.info("Running tasks on virtual threads named '" + this.threadNamePrefix + "N'");
+                return virtualThreadExecutor;
+            }
+            catch (final ReflectiveOperationException | RuntimeException e) {
+                this.logger.warn("Failed to create a virtual thread executor, falling back to platform threads", e);
+            }
+        }
+
+        this.virtualThreads = false;
+        this.logger.info("Running tasks on platform threads named '" + this.threadNamePrefix + "N'");
+
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(this.threadNamePrefix.replace("%", "%%") + "%d")
+                .setDaemon(true)
+                .build();
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * Calls <code>Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix, 0).factory())</code>
+     */
+    private ExecutorService createVirtualThreadExecutor() throws ReflectiveOperationException {
+        final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+        final Method name = builderClass.getMethod("name", String.class, long.class);
+        final Method factory = builderClass.getMethod("factory");
+        final Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = name.invoke(builder, this.threadNamePrefix, 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        }
+        catch (final InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -18,11 +18,20 @@
  */
 package org.jasig.services.persondir.support.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,17 +40,35 @@ import javax.sql.DataSource;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IEnumerablePersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao;
 import org.jasig.services.persondir.support.QueryType;
 import org.jasig.services.persondir.util.CaseCanonicalizationMode;
+import org.jasig.services.persondir.util.LogSummary;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
 
 /**
  * Provides common logic for executing a JDBC based query including building the WHERE clause SQL string.
  * <br>
+ * The complete SQL is cached by the generated WHERE clause, which identifies the shape of the query: the data
+ * attributes queried, whether each value is compared with = or LIKE and the number of values. Queries of the same
+ * shape run the identical SQL string so it only has to be built once and drivers or connection pools that cache
+ * prepared statements by SQL can reuse them. The column SQL of each data attribute, including any case
+ * canonicalization function, is cached as well.
+ * <br>
+ * {@link #enumeratePeople(IPersonAttributesCallback)} runs a single query for all people and passes each person to
+ * the callback as its rows are read from the ResultSet. Set <code>fetchSize</code> so the driver reads the rows in
+ * batches instead of loading the whole ResultSet into memory, some drivers only honor it within a transaction.
+ * <br>
+ * The queryTemplate may use {1} as the placeholder for the select list, e.g. "SELECT {1} FROM USER_DATA WHERE {0}".
+ * Queries through {@link #getPeopleWithMultivaluedAttributes(Map, java.util.Set)} then only select the columns of
+ * the requested attributes, all other queries select *.
+ * <br>
  * <br>
  * Configuration:
  * <table border="1" summary="">
@@ -59,12 +86,42 @@ import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
  *         <td valign="top">No</td>
  *         <td valign="top">AND</td>
  *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">batchSize</td>
+ *         <td>
+ *             The maximum number of values in one <code>IN (...)</code> clause when running many queries at once
+ *             through {@link #getPeopleForQueries(java.util.Collection)} or {@link #getPersons(java.util.Collection)}.
+ *             Only queries comparing a single column to a single value are combined and the column must be returned
+ *             by the query so the rows can be matched to their query, other queries are run one at a time.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">100</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">fetchSize</td>
+ *         <td>
+ *             The number of rows the JDBC driver fetches from the database at a time, see
+ *             {@link java.sql.Statement#setFetchSize(int)}. Larger values reduce the round trips needed for queries
+ *             returning many rows. 0 uses the driver's default.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">enumerationSql</td>
+ *         <td>
+ *             The SQL run by {@link #enumeratePeople(IPersonAttributesCallback)} to read all people. If not set the
+ *             queryTemplate is used with a WHERE clause that matches every row.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
  * </table>
  * 
  * @author Eric Dalquist 
  * @version $Revision$
  */
-public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPersonAttributeDao<PartialWhereClause> {
+public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPersonAttributeDao<PartialWhereClause> implements IEnumerablePersonAttributeDao {
     private static final Map<CaseCanonicalizationMode, MessageFormat>
             DEFAULT_DATA_ATTRIBUTE_CASE_CANONICALIZATION_FUNCTIONS;
 
@@ -78,16 +135,43 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
     }
 
     private static final Pattern WHERE_PLACEHOLDER = Pattern.compile("\\{0\\}");
-
+    private static final Pattern SELECT_PLACEHOLDER = Pattern.compile("\\{1\\}");
+    
+    /**
+     * Select list of queries that read all columns
+     */
+    protected static final String ALL_COLUMNS = "*";
+    
+    /*
+     * WHERE clause matching every row, used to enumerate all people when no enumerationSql is set
+     */
+    private static final String ENUMERATION_WHERE_CLAUSE = "1 = 1";
+    
+    /*
+     * Maximum number of query shapes whose SQL is cached, queries of additional shapes build their SQL every time
+     */
+    private static final int MAX_CACHED_QUERIES = 256;
 
     
     private final JdbcTemplate simpleJdbcTemplate;
     private final String queryTemplate;
     private QueryType queryType = QueryType.AND;
+    private int batchSize = 100;
+    private int fetchSize = 0;
+    private String enumerationSql = null;
     private Map<String,CaseCanonicalizationMode> caseInsensitiveDataAttributes;
 
     private Map<CaseCanonicalizationMode,MessageFormat> dataAttributeCaseCanonicalizationFunctions =
             DEFAULT_DATA_ATTRIBUTE_CASE_CANONICALIZATION_FUNCTIONS;
+    
+    /*
+     * Complete SQL keyed by the generated WHERE clause, prefixed by the select list if it is not ALL_COLUMNS
+     */
+    private final ConcurrentMap<String, String> querySqlCache = new ConcurrentHashMap<>();
+    /*
+     * Column SQL of each data attribute, cleared when the case canonicalization configuration changes
+     */
+    private final ConcurrentMap<String, String> columnSqlCache = new ConcurrentHashMap<>();
 
     public AbstractJdbcPersonAttributeDao() {
         super();
@@ -128,6 +212,56 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
     public void setQueryType(final QueryType queryType) {
         this.queryType = queryType;
     }
+    
+    /**
+     * @return the batchSize
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    /**
+     * Maximum number of values to combine into one <code>IN (...)</code> query when running many queries at once.
+     * 
+     * @param batchSize the batchSize to set
+     */
+    public void setBatchSize(final int batchSize) {
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than 0");
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @return the fetchSize
+     */
+    public int getFetchSize() {
+        return this.fetchSize;
+    }
+    /**
+     * Number of rows the JDBC driver fetches from the database at a time, 0 to use the driver's default.
+     * 
+     * @param fetchSize the fetchSize to set
+     */
+    public void setFetchSize(final int fetchSize) {
+        Validate.isTrue(fetchSize >= 0, "fetchSize must be greater than or equal to 0");
+        this.fetchSize = fetchSize;
+        if (this.simpleJdbcTemplate != null) {
+            this.simpleJdbcTemplate.setFetchSize(fetchSize);
+        }
+    }
+    
+    /**
+     * @return the enumerationSql
+     */
+    public String getEnumerationSql() {
+        return this.enumerationSql;
+    }
+    /**
+     * SQL to run to read all people, if null the queryTemplate is used with a WHERE clause that matches every row.
+     * 
+     * @param enumerationSql the enumerationSql to set
+     */
+    public void setEnumerationSql(final String enumerationSql) {
+        this.enumerationSql = enumerationSql;
+    }
 
 
     /**
@@ -149,7 +283,7 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
      * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#appendAttributeToQuery(java.lang.Object, java.lang.String, java.util.List)
      */
     @Override
-    protected PartialWhereClause appendAttributeToQuery(PartialWhereClause queryBuilder, String dataAttribute, final List<Object> queryValues) {
+    protected PartialWhereClause appendAttributeToQuery(PartialWhereClause queryBuilder, final String dataAttribute, final List<Object> queryValues) {
         for (final Object queryValue : queryValues) {
             final String queryString = queryValue != null ? queryValue.toString() : null;
             if (StringUtils.isNotBlank(queryString)) {
@@ -161,13 +295,19 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
                 }
 
                 //Convert to SQL wildcard
-                final Matcher queryValueMatcher = IPersonAttributeDao.WILDCARD_PATTERN.matcher(queryString);
-                final String formattedQueryValue = queryValueMatcher.replaceAll("%");
+                final String formattedQueryValue;
+                if (queryString.contains(IPersonAttributeDao.WILDCARD)) {
+                    final Matcher queryValueMatcher = IPersonAttributeDao.WILDCARD_PATTERN.matcher(queryString);
+                    formattedQueryValue = queryValueMatcher.replaceAll("%");
+                }
+                else {
+                    formattedQueryValue = queryString;
+                }
                 
                 queryBuilder.arguments.add(formattedQueryValue);
+                queryBuilder.dataAttributes.add(dataAttribute);
                 if (dataAttribute != null) {
-                    dataAttribute = canonicalizeDataAttributeForSql(dataAttribute);
-                    queryBuilder.sql.append(dataAttribute);
+                    queryBuilder.sql.append(this.getColumnSql(dataAttribute));
                     if (formattedQueryValue.equals(queryString)) {
                         queryBuilder.sql.append(" = ");
                     }
@@ -182,6 +322,53 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
         return queryBuilder;
     }
 
+    /**
+     * @return The column SQL for the data attribute from {@link #canonicalizeDataAttributeForSql(String)}, cached per data attribute
+     */
+    private String getColumnSql(final String dataAttribute) {
+        String columnSql = this.columnSqlCache.get(dataAttribute);
+        if (columnSql == null) {
+            columnSql = this.canonicalizeDataAttributeForSql(dataAttribute);
+            this.columnSqlCache.put(dataAttribute, columnSql);
+        }
+        return columnSql;
+    }
+    
+    /**
+     * @return The queryTemplate with the generated WHERE clause inserted, cached per WHERE clause
+     */
+    private String getQuerySql(final String partialSqlWhere) {
+        return this.getQuerySql(partialSqlWhere, ALL_COLUMNS);
+    }
+    
+    /**
+     * @return The queryTemplate with the generated WHERE clause and select list inserted, cached per WHERE clause and select list
+     */
+    private String getQuerySql(final String partialSqlWhere, final String selectColumns) {
+        final String cacheKey = ALL_COLUMNS.equals(selectColumns) ? partialSqlWhere : selectColumns + '\u0000' + partialSqlWhere;
+        String querySQL = this.querySqlCache.get(cacheKey);
+        if (querySQL == null) {
+            final Matcher queryMatcher = WHERE_PLACEHOLDER.matcher(this.queryTemplate);
+            querySQL = queryMatcher.replaceAll(partialSqlWhere);
+            
+            final Matcher selectMatcher = SELECT_PLACEHOLDER.matcher(querySQL);
+            querySQL = selectMatcher.replaceAll(Matcher.quoteReplacement(selectColumns));
+            
+            if (this.querySqlCache.size() < MAX_CACHED_QUERIES) {
+                this.querySqlCache.put(cacheKey, querySQL);
+            }
+        }
+        return querySQL;
+    }
+    
+    /**
+     * Clears the cached SQL, called when configuration that affects the generated SQL changes.
+     */
+    private void clearSqlCache() {
+        this.columnSqlCache.clear();
+        this.querySqlCache.clear();
+    }
+    
     /**
      * Canonicalize the data-layer attribute column with the given name via
      * SQL function. This is as opposed to canonicalizing query attributes
@@ -219,31 +406,282 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
      */
     @Override
     protected List<IPersonAttributes> getPeopleForQuery(final PartialWhereClause queryBuilder, final String queryUserName) {
-        //Execute the query
-        final ParameterizedRowMapper<R> rowMapper = this.getRowMapper();
-        
-        final List<R> results;
         if (queryBuilder != null) {
             //Merge the generated SQL with the base query template
-            final StringBuilder partialSqlWhere = queryBuilder.sql;
-            final Matcher queryMatcher = WHERE_PLACEHOLDER.matcher(this.queryTemplate);
-            final String querySQL = queryMatcher.replaceAll(partialSqlWhere.toString());
+            final String querySQL = this.getQuerySql(queryBuilder.sql.toString());
+            return this.runQuery(this.simpleJdbcTemplate, querySQL, queryBuilder.arguments.toArray(), queryUserName);
+        }
+
+        return this.runQuery(this.simpleJdbcTemplate, this.queryTemplate, new Object[0], queryUserName);
+    }
+    
+    /**
+     * Only selects the columns from {@link #generateSelectColumns(Set)} if the queryTemplate has a {1} placeholder.
+     * 
+     * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#getPeopleForQuery(java.lang.Object, java.lang.String, java.util.Set)
+     */
+    @Override
+    protected List<IPersonAttributes> getPeopleForQuery(final PartialWhereClause queryBuilder, final String queryUserName, final Set<String> dataAttributes) {
+        if (queryBuilder == null) {
+            return this.getPeopleForQuery(queryBuilder, queryUserName);
+        }
+        
+        final String querySQL = this.getQuerySql(queryBuilder.sql.toString(), this.generateSelectColumns(dataAttributes));
+        return this.runQuery(this.simpleJdbcTemplate, querySQL, queryBuilder.arguments.toArray(), queryUserName);
+    }
+    
+    /**
+     * Generates the select list inserted for the {1} placeholder of the queryTemplate when only some data attributes
+     * are needed. The default implementation selects the data attributes as columns.
+     * 
+     * @param dataAttributes The data attributes needed for the results, including the unmapped username attribute
+     * @return The select list
+     */
+    protected String generateSelectColumns(final Set<String> dataAttributes) {
+        return StringUtils.join(dataAttributes, ", ");
+    }
+    
+    /**
+     * Runs the query and parses the people from the results. The default implementation maps every row with
+     * {@link #getRowMapper()} and then parses the mapped rows with {@link #parseAttributeMapFromResults(List, String)},
+     * subclasses may override it to process the rows as they are read from the ResultSet.
+     * 
+     * @param jdbcTemplate The JdbcTemplate to run the query with
+     * @param querySQL The complete SQL of the query
+     * @param arguments The arguments of the query
+     * @param queryUserName The username passed in the query map, if no username attribute existed in the query Map null is provided.
+     * @return The results of the query
+     */
+    protected List<IPersonAttributes> runQuery(final JdbcTemplate jdbcTemplate, final String querySQL, final Object[] arguments, final String queryUserName) {
+        final List<R> results = jdbcTemplate.query(querySQL, this.getRowMapper(), arguments);
+        
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '{}' with arguments {} and got {} results {}", querySQL, LogSummary.of(Arrays.asList(arguments)), results.size(), LogSummary.of(results));
+        }
+
+        return this.parseAttributeMapFromResults(results, queryUserName);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IEnumerablePersonAttributeDao#enumeratePeople(org.jasig.services.persondir.IPersonAttributesCallback)
+     */
+    public long enumeratePeople(final IPersonAttributesCallback callback) {
+        final EnumerationCallback enumerationCallback = new EnumerationCallback(callback);
+        
+        final String querySQL = this.generateEnumerationSql();
+        this.simpleJdbcTemplate.query(querySQL, new ResultSetExtractor<Object>() {
+            public Object extractData(final ResultSet rs) throws SQLException {
+                enumerateResults(rs, enumerationCallback);
+                return null;
+            }
+        });
+        
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '{}' and enumerated {} people", querySQL, enumerationCallback.getCount());
+        }
+        
+        return enumerationCallback.getCount();
+    }
+    
+    /**
+     * @return The SQL to run to read all people, the enumerationSql if it is set
+     */
+    protected String generateEnumerationSql() {
+        if (this.enumerationSql != null) {
+            return this.enumerationSql;
+        }
+        
+        return this.getQuerySql(ENUMERATION_WHERE_CLAUSE);
+    }
+    
+    /**
+     * Reads the people from the ResultSet of the enumeration query and passes each one to the callback, stopping
+     * when the callback returns false. The default implementation maps each row with {@link #getRowMapper()} and
+     * parses it on its own with {@link #parseAttributeMapFromResults(List, String)}, which suits DAOs that return one
+     * row per person.
+     * 
+     * @param rs The ResultSet, positioned before the first row
+     * @param callback The callback to pass the unmapped people to
+     * @throws SQLException If reading the ResultSet fails
+     */
+    protected void enumerateResults(final ResultSet rs, final EnumerationCallback callback) throws SQLException {
+        final ParameterizedRowMapper<R> rowMapper = this.getRowMapper();
+        
+        int rowNum = 0;
+        while (rs.next()) {
+            final R row = rowMapper.mapRow(rs, rowNum++);
+            for (final IPersonAttributes person : this.parseAttributeMapFromResults(Collections.singletonList(row), null)) {
+                if (!callback.processPerson(person)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#getPeopleForQueries(java.util.List, java.util.List)
+     */
+    @Override
+    protected List<List<IPersonAttributes>> getPeopleForQueries(final List<PartialWhereClause> queryBuilders, final List<String> queryUserNames) {
+        final List<List<IPersonAttributes>> results = new ArrayList<>(Collections.<List<IPersonAttributes>>nCopies(queryBuilders.size(), null));
+        final boolean[] completed = new boolean[queryBuilders.size()];
+        
+        //Group the queries comparing a single column to a single value by column
+        final Map<String, List<Integer>> batches = new LinkedHashMap<>();
+        for (int index = 0; index < queryBuilders.size(); index++) {
+            final String dataAttribute = this.getBatchDataAttribute(queryBuilders.get(index));
+            if (dataAttribute != null) {
+                List<Integer> batch = batches.get(dataAttribute);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(dataAttribute, batch);
+                }
+                batch.add(index);
+            }
+        }
+        
+        for (final Map.Entry<String, List<Integer>> batch : batches.entrySet()) {
+            final List<Integer> indexes = batch.getValue();
+            if (indexes.size() < 2) {
+                continue;
+            }
             
-            results = this.simpleJdbcTemplate.query(querySQL, rowMapper, queryBuilder.arguments.toArray());
+            for (int start = 0; start < indexes.size(); start += this.batchSize) {
+                final List<Integer> chunk = indexes.subList(start, Math.min(start + this.batchSize, indexes.size()));
+                this.runBatchQuery(batch.getKey(), chunk, queryBuilders, queryUserNames, results, completed);
+            }
+        }
+        
+        //Run the queries that could not be combined one at a time
+        for (int index = 0; index < queryBuilders.size(); index++) {
+            if (!completed[index]) {
+                results.set(index, this.getPeopleForQuery(queryBuilders.get(index), queryUserNames.get(index)));
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * @return The data attribute if the query only compares it to a single value, null otherwise
+     */
+    private String getBatchDataAttribute(final PartialWhereClause queryBuilder) {
+        if (queryBuilder == null || queryBuilder.arguments.size() != 1) {
+            return null;
+        }
+        
+        final String dataAttribute = queryBuilder.dataAttributes.get(0);
+        if (dataAttribute == null || !(this.getColumnSql(dataAttribute) + " = ?").equals(queryBuilder.sql.toString())) {
+            return null;
+        }
+        
+        return dataAttribute;
+    }
+    
+    /**
+     * Runs the queries at the indexes as one <code>IN (...)</code> query and splits the rows by the value of the data
+     * attribute. If a row cannot be matched to a query none of the queries are marked as completed.
+     */
+    private void runBatchQuery(final String dataAttribute, final List<Integer> indexes, 
+            final List<PartialWhereClause> queryBuilders, final List<String> queryUserNames,
+            final List<List<IPersonAttributes>> results, final boolean[] completed) {
+        
+        //Distinct values to query for and the queries for each value
+        final Map<String, String> arguments = new LinkedHashMap<>();
+        final Map<String, List<Integer>> indexesByValue = new HashMap<>();
+        for (final Integer index : indexes) {
+            final String argument = queryBuilders.get(index).arguments.get(0);
+            final String value = this.getBatchValue(dataAttribute, argument);
             
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executed '" + this.queryTemplate + "' with arguments " + queryBuilder.arguments + " and got results " + results);
+            List<Integer> valueIndexes = indexesByValue.get(value);
+            if (valueIndexes == null) {
+                valueIndexes = new ArrayList<>();
+                indexesByValue.put(value, valueIndexes);
+                arguments.put(value, argument);
             }
+            valueIndexes.add(index);
+        }
+        
+        final StringBuilder partialSqlWhere = new StringBuilder(this.getColumnSql(dataAttribute)).append(" IN (");
+        for (int index = 0; index < arguments.size(); index++) {
+            if (index > 0) {
+                partialSqlWhere.append(", ");
+            }
+            partialSqlWhere.append("?");
+        }
+        partialSqlWhere.append(")");
+        
+        final String querySQL = this.getQuerySql(partialSqlWhere.toString());
+        final List<R> rows = this.simpleJdbcTemplate.query(querySQL, this.getRowMapper(), arguments.values().toArray());
+        
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '{}' with arguments {} and got {} results {}", querySQL, LogSummary.of(arguments.values()), rows.size(), LogSummary.of(rows));
         }
-        else {
-            results = this.simpleJdbcTemplate.query(this.queryTemplate, rowMapper);
+        
+        //Split the rows by the value of the data attribute
+        final Map<String, List<R>> rowsByValue = new HashMap<>();
+        for (final R row : rows) {
+            final Object columnValue = this.getColumnValue(row, dataAttribute);
+            final String value = columnValue != null ? this.getBatchValue(dataAttribute, columnValue.toString()) : null;
+            if (value == null || !indexesByValue.containsKey(value)) {
+                this.logger.debug("Row {} could not be matched to a query by column '{}', queries will be run one at a time", row, dataAttribute);
+                return;
+            }
+            
+            List<R> valueRows = rowsByValue.get(value);
+            if (valueRows == null) {
+                valueRows = new ArrayList<>();
+                rowsByValue.put(value, valueRows);
+            }
+            valueRows.add(row);
+        }
+        
+        for (final Map.Entry<String, List<Integer>> valueIndexes : indexesByValue.entrySet()) {
+            List<R> valueRows = rowsByValue.get(valueIndexes.getKey());
+            if (valueRows == null) {
+                valueRows = Collections.emptyList();
+            }
             
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executed '" + this.queryTemplate + "' and got results " + results);
+            for (final Integer index : valueIndexes.getValue()) {
+                results.set(index, this.parseAttributeMapFromResults(valueRows, queryUserNames.get(index)));
+                completed[index] = true;
             }
         }
+    }
+    
+    /**
+     * @return The value used to match rows to queries, lower cased if the data attribute is case insensitive
+     */
+    private String getBatchValue(final String dataAttribute, final String value) {
+        if (this.caseInsensitiveDataAttributes != null && this.caseInsensitiveDataAttributes.containsKey(dataAttribute)) {
+            return value.toLowerCase(this.getCaseCanonicalizationLocale());
+        }
+        return value;
+    }
+    
+    /**
+     * Gets the value of a column from a row returned by the row mapper, used to match the rows of a combined query
+     * to the queries it was combined from. The default implementation supports rows that are {@link Map}s keyed by
+     * column name.
+     * 
+     * @param row The row
+     * @param column The column name
+     * @return The value, null if the row has no value for the column
+     */
+    protected Object getColumnValue(final R row, final String column) {
+        if (row instanceof Map) {
+            return ((Map<?, ?>) row).get(column);
+        }
+        return null;
+    }
 
-        return this.parseAttributeMapFromResults(results, queryUserName);
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#setDefaultCaseCanonicalizationMode(org.jasig.services.persondir.util.CaseCanonicalizationMode)
+     */
+    @Override
+    public void setDefaultCaseCanonicalizationMode(final CaseCanonicalizationMode defaultCaseCanonicalizationMode) {
+        super.setDefaultCaseCanonicalizationMode(defaultCaseCanonicalizationMode);
+        this.clearSqlCache();
     }
 
     public Map<String, CaseCanonicalizationMode> getCaseInsensitiveDataAttributes() {
@@ -252,6 +690,7 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
 
     public void setCaseInsensitiveDataAttributes(final Map<String, CaseCanonicalizationMode> caseInsensitiveDataAttributes) {
         this.caseInsensitiveDataAttributes = caseInsensitiveDataAttributes;
+        this.clearSqlCache();
     }
 
     public void setCaseInsensitiveDataAttributesAsCollection(final Collection<String> caseInsensitiveDataAttributes) {
@@ -282,6 +721,7 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
     @JsonIgnore
     public void setDataAttributeCaseCanonicalizationFunctions(final Map<CaseCanonicalizationMode, MessageFormat> dataAttributeCaseCanonicalizationFunctions) {
         this.dataAttributeCaseCanonicalizationFunctions = dataAttributeCaseCanonicalizationFunctions;
+        this.clearSqlCache();
     }
 
     @JsonIgnore
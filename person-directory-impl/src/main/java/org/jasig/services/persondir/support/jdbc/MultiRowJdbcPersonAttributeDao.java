@@ -18,7 +18,11 @@
  */
 package org.jasig.services.persondir.support.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,13 +31,16 @@ import java.util.Set;
 
 import javax.sql.DataSource;
 
-import org.apache.commons.collections4.Factory;
-import org.apache.commons.collections4.map.LazyMap;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.support.MultivaluedPersonAttributeUtils;
 import org.jasig.services.persondir.support.NamedPersonImpl;
+import org.jasig.services.persondir.util.LogSummary;
 import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
 
 /**
  * An {@link org.jasig.services.persondir.IPersonAttributeDao}
@@ -75,6 +82,12 @@ import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
  * a single row result for a user query. <br>
  * 
  * <br>
+ * 
+ * When enumerating all people the rows of each person must be read one after another, a person is passed to the
+ * callback once a row for a different person is read. If no <code>enumerationSql</code> is set the queryTemplate is
+ * run ordered by the username column. <br>
+ * 
+ * <br>
  * <br>
  * Configuration:
  * <table border="1" summary="">
@@ -94,6 +107,18 @@ import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
  *         <td valign="top">Yes</td>
  *         <td valign="top">null</td>
  *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">streamResults</td>
+ *         <td>
+ *             If true the name and value columns of each row are added to the attributes of its person as the row
+ *             is read from the ResultSet, without first mapping every row to a {@link Map}. Only the username, name
+ *             and value columns are read. Set to false for subclasses that customize {@link #getRowMapper()} or
+ *             {@link #parseAttributeMapFromResults(List, String)}. Combine with <code>fetchSize</code> for queries
+ *             returning many rows per person.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">true</td>
+ *     </tr>
  * </table>
  * 
  * @author andrew.petro@yale.edu
@@ -109,6 +134,7 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
      * Keys are Strings, Values are Strings or List of Strings 
      */
     private Map<String, Set<String>> nameValueColumnMappings = null;
+    private boolean streamResults = true;
 
     public MultiRowJdbcPersonAttributeDao() {
         super();
@@ -154,6 +180,23 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
     }
 
 
+    /**
+     * @return the streamResults
+     */
+    public boolean isStreamResults() {
+        return this.streamResults;
+    }
+    /**
+     * If true rows are added to the attributes of their person as they are read from the ResultSet instead of
+     * first being mapped to a {@link Map} each.
+     * 
+     * @param streamResults the streamResults to set
+     */
+    public void setStreamResults(final boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#getRowMapper()
      */
@@ -164,49 +207,237 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
 
     
     
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#runQuery(org.springframework.jdbc.core.JdbcTemplate, java.lang.String, java.lang.Object[], java.lang.String)
+     */
+    @Override
+    protected List<IPersonAttributes> runQuery(final JdbcTemplate jdbcTemplate, final String querySQL, final Object[] arguments, final String queryUserName) {
+        if (!this.streamResults) {
+            return super.runQuery(jdbcTemplate, querySQL, arguments, queryUserName);
+        }
+        
+        final PeopleBuilder peopleBuilder = new PeopleBuilder(queryUserName);
+        jdbcTemplate.query(querySQL, arguments, new RowCallbackHandler() {
+            private ResultSetRow row;
+            
+            public void processRow(final ResultSet rs) throws SQLException {
+                if (this.row == null) {
+                    this.row = new ResultSetRow(rs);
+                }
+                peopleBuilder.addRow(this.row);
+            }
+        });
+        
+        final List<IPersonAttributes> people = peopleBuilder.build();
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '{}' with arguments {} and got {} people {}", querySQL, LogSummary.of(Arrays.asList(arguments)), people.size(), LogSummary.of(people));
+        }
+        
+        return people;
+    }
+    
+    /**
+     * The data attributes are values of the name columns, not columns, so all columns are selected.
+     * 
+     * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#generateSelectColumns(java.util.Set)
+     */
+    @Override
+    protected String generateSelectColumns(final Set<String> dataAttributes) {
+        return ALL_COLUMNS;
+    }
+    
+    /**
+     * Orders the rows by the username column so the rows of each person are read together.
+     * 
+     * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#generateEnumerationSql()
+     */
+    @Override
+    protected String generateEnumerationSql() {
+        final String querySQL = super.generateEnumerationSql();
+        if (this.getEnumerationSql() != null) {
+            return querySQL;
+        }
+        
+        return querySQL + " ORDER BY " + this.getConfiguredUserNameAttribute();
+    }
+    
+    /**
+     * Pivots the rows of each person into their attributes and passes the person to the callback once a row for
+     * a different person is read.
+     * 
+     * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#enumerateResults(java.sql.ResultSet, org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao.EnumerationCallback)
+     */
+    @Override
+    protected void enumerateResults(final ResultSet rs, final EnumerationCallback callback) throws SQLException {
+        final ParameterizedRowMapper<Map<String, Object>> rowMapper = this.streamResults ? null : this.getRowMapper();
+        final MapRow mapRow = new MapRow();
+        final Row row = this.streamResults ? new ResultSetRow(rs) : mapRow;
+        
+        PeopleBuilder peopleBuilder = new PeopleBuilder(null);
+        String currentUserName = null;
+        int rowNum = 0;
+        while (rs.next()) {
+            if (rowMapper != null) {
+                mapRow.columns = rowMapper.mapRow(rs, rowNum++);
+            }
+            
+            final String userName = this.getUserName(row, null);
+            if (currentUserName != null && !currentUserName.equals(userName)) {
+                //All rows of the current person have been read
+                for (final IPersonAttributes person : peopleBuilder.build()) {
+                    if (!callback.processPerson(person)) {
+                        return;
+                    }
+                }
+                peopleBuilder = new PeopleBuilder(null);
+            }
+            
+            currentUserName = userName;
+            peopleBuilder.addRow(userName, row);
+        }
+        
+        for (final IPersonAttributes person : peopleBuilder.build()) {
+            if (!callback.processPerson(person)) {
+                return;
+            }
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao#parseAttributeMapFromResults(java.util.List, java.lang.String)
      */
     @Override
-    @SuppressWarnings("unchecked")
     protected List<IPersonAttributes> parseAttributeMapFromResults(final List<Map<String, Object>> queryResults, final String queryUserName) {
-        final Map<String, Map<String, List<Object>>> peopleAttributesBuilder = LazyMap.lazyMap(new LinkedHashMap<String, Map<String, List<Object>>>(), new LinkedHashMapFactory<String, List<Object>>());
-
-        final String userNameAttribute = this.getConfiguredUserNameAttribute();
+        final PeopleBuilder peopleBuilder = new PeopleBuilder(queryUserName);
         
+        final MapRow row = new MapRow();
         for (final Map<String, Object> queryResult : queryResults) {
-            final String userName;  // Choose a username from the best available option
-            if (this.isUserNameAttributeConfigured() && queryResult.containsKey(userNameAttribute)) {
-                // Option #1:  An attribute is named explicitly in the config, 
-                // and that attribute is present in the results from LDAP;  use it
-                final Object userNameValue = queryResult.get(userNameAttribute);
-                userName = userNameValue.toString();
-            } else if (queryUserName != null) {
-                // Option #2:  Use the userName attribute provided in the query 
-                // parameters.  (NB:  I'm not entirely sure this choice is 
-                // preferable to Option #3.  Keeping it because it most closely 
-                // matches the legacy behavior there the new option -- Option #1 
-                // -- doesn't apply.  ~drewwills)
-                userName = queryUserName;
-            } else if (queryResult.containsKey(userNameAttribute)) {
-                // Option #3:  Create the IPersonAttributes useing the default 
-                // userName attribute, which we know to be present
-                final Object userNameValue = queryResult.get(userNameAttribute);
-                userName = userNameValue.toString();
-            } else {
-                throw new BadSqlGrammarException("No userName column named '" + userNameAttribute + "' exists in result set and no userName provided in query Map", this.getQueryTemplate(), null);
+            row.columns = queryResult;
+            try {
+                peopleBuilder.addRow(row);
+            }
+            catch (final SQLException e) {
+                //Never thrown when reading from a Map
+                throw new IllegalStateException(e);
             }
+        }
+        
+        return peopleBuilder.build();
+    }
+    
+    /**
+     * The columns of a single result row.
+     */
+    private interface Row {
+        boolean containsColumn(String column);
+        
+        Object getValue(String column) throws SQLException;
+    }
+    
+    /**
+     * A row mapped by the {@link ColumnMapParameterizedRowMapper}.
+     */
+    private static final class MapRow implements Row {
+        private Map<String, Object> columns;
+        
+        public boolean containsColumn(final String column) {
+            return this.columns.containsKey(column);
+        }
+        
+        public Object getValue(final String column) {
+            return this.columns.get(column);
+        }
+    }
+    
+    /**
+     * The current row of a ResultSet, columns are looked up by name case insensitively like the
+     * {@link ColumnMapParameterizedRowMapper} does, the column indexes are resolved once per ResultSet.
+     */
+    private static final class ResultSetRow implements Row {
+        private final ResultSet rs;
+        private final Map<String, Integer> columnIndexes;
+        
+        public ResultSetRow(final ResultSet rs) throws SQLException {
+            this.rs = rs;
             
-            final Map<String, List<Object>> attributes = peopleAttributesBuilder.get(userName);
+            final ResultSetMetaData rsmd = rs.getMetaData();
+            final int columnCount = rsmd.getColumnCount();
+            this.columnIndexes = new LinkedCaseInsensitiveMap<>(columnCount > 0 ? columnCount : 1);
+            for (int index = 1; index <= columnCount; index++) {
+                this.columnIndexes.put(JdbcUtils.lookupColumnName(rsmd, index), index);
+            }
+        }
+        
+        public boolean containsColumn(final String column) {
+            return this.columnIndexes.containsKey(column);
+        }
+        
+        public Object getValue(final String column) throws SQLException {
+            final Integer index = this.columnIndexes.get(column);
+            return index != null ? JdbcUtils.getResultSetValue(this.rs, index) : null;
+        }
+    }
+    
+    /**
+     * @return The username of the person the row is for
+     */
+    private String getUserName(final Row queryResult, final String queryUserName) throws SQLException {
+        final String userNameAttribute = this.getConfiguredUserNameAttribute();
+        final String userName;  // Choose a username from the best available option
+        if (this.isUserNameAttributeConfigured() && queryResult.containsColumn(userNameAttribute)) {
+            // Option #1:  An attribute is named explicitly in the config, 
+            // and that attribute is present in the results from LDAP;  use it
+            final Object userNameValue = queryResult.getValue(userNameAttribute);
+            userName = userNameValue.toString();
+        } else if (queryUserName != null) {
+            // Option #2:  Use the userName attribute provided in the query 
+            // parameters.  (NB:  I'm not entirely sure this choice is 
+            // preferable to Option #3.  Keeping it because it most closely 
+            // matches the legacy behavior there the new option -- Option #1 
+            // -- doesn't apply.  ~drewwills)
+            userName = queryUserName;
+        } else if (queryResult.containsColumn(userNameAttribute)) {
+            // Option #3:  Create the IPersonAttributes useing the default 
+            // userName attribute, which we know to be present
+            final Object userNameValue = queryResult.getValue(userNameAttribute);
+            userName = userNameValue.toString();
+        } else {
+            throw new BadSqlGrammarException("No userName column named '" + userNameAttribute + "' exists in result set and no userName provided in query Map", this.getQueryTemplate(), null);
+        }
+        
+        return userName;
+    }
+    
+    /**
+     * Pivots the name and value columns of result rows into the attributes of each person.
+     */
+    private final class PeopleBuilder {
+        private final Map<String, Map<String, List<Object>>> peopleAttributes = new LinkedHashMap<>();
+        private final String queryUserName;
+        
+        public PeopleBuilder(final String queryUserName) {
+            this.queryUserName = queryUserName;
+        }
+        
+        public void addRow(final Row queryResult) throws SQLException {
+            this.addRow(getUserName(queryResult, this.queryUserName), queryResult);
+        }
+        
+        public void addRow(final String userName, final Row queryResult) throws SQLException {
+            Map<String, List<Object>> attributes = this.peopleAttributes.get(userName);
+            if (attributes == null) {
+                attributes = new LinkedHashMap<>();
+                this.peopleAttributes.put(userName, attributes);
+            }
             
             //Iterate over each attribute column mapping to get the data from the row
-            for (final Map.Entry<String, Set<String>> columnMapping : this.nameValueColumnMappings.entrySet()) {
+            for (final Map.Entry<String, Set<String>> columnMapping : nameValueColumnMappings.entrySet()) {
                 final String keyColumn = columnMapping.getKey();
                 
                 //Get the attribute name for the specified column
-                final Object attrNameObj = queryResult.get(keyColumn);
-                if (attrNameObj == null && !queryResult.containsKey(keyColumn)) {
-                    throw new BadSqlGrammarException("No attribute key column named '" + keyColumn + "' exists in result set", this.getQueryTemplate(), null);
+                final Object attrNameObj = queryResult.getValue(keyColumn);
+                if (attrNameObj == null && !queryResult.containsColumn(keyColumn)) {
+                    throw new BadSqlGrammarException("No attribute key column named '" + keyColumn + "' exists in result set", getQueryTemplate(), null);
                 }
                 final String attrName = String.valueOf(attrNameObj);
                 
@@ -214,9 +445,9 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
                 final Set<String> valueColumns = columnMapping.getValue();
                 final List<Object> attrValues = new ArrayList<>(valueColumns.size());
                 for (final String valueColumn : valueColumns) {
-                    final Object attrValue = queryResult.get(valueColumn);
-                    if (attrValue == null && !queryResult.containsKey(valueColumn)) {
-                        throw new BadSqlGrammarException("No attribute value column named '" + valueColumn + "' exists in result set", this.getQueryTemplate(), null);
+                    final Object attrValue = queryResult.getValue(valueColumn);
+                    if (attrValue == null && !queryResult.containsColumn(valueColumn)) {
+                        throw new BadSqlGrammarException("No attribute value column named '" + valueColumn + "' exists in result set", getQueryTemplate(), null);
                     }
                     
                     attrValues.add(attrValue);
@@ -227,24 +458,19 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
             }
         }
         
-        
-        //Convert the builder structure into a List of IPersons
-        final List<IPersonAttributes> people = new ArrayList<>(peopleAttributesBuilder.size());
-        
-        for (final Map.Entry<String, Map<String, List<Object>>> mappedAttributesEntry : peopleAttributesBuilder.entrySet()) {
-            final String userName = mappedAttributesEntry.getKey();
-            final Map<String, List<Object>> attributes = mappedAttributesEntry.getValue();
-            // PERSONDIR-89, PERSONDIR-91 Should this be CaseInsensitiveNamedPersonImpl like SingleRowJdbcPersonAttribute?
-            final IPersonAttributes person = new NamedPersonImpl(userName, attributes);
-            people.add(person);
-        }
+        public List<IPersonAttributes> build() {
+            //Convert the builder structure into a List of IPersons
+            final List<IPersonAttributes> people = new ArrayList<>(this.peopleAttributes.size());
+            
+            for (final Map.Entry<String, Map<String, List<Object>>> mappedAttributesEntry : this.peopleAttributes.entrySet()) {
+                final String userName = mappedAttributesEntry.getKey();
+                final Map<String, List<Object>> attributes = mappedAttributesEntry.getValue();
+                // PERSONDIR-89, PERSONDIR-91 Should this be CaseInsensitiveNamedPersonImpl like SingleRowJdbcPersonAttribute?
+                final IPersonAttributes person = new NamedPersonImpl(userName, attributes);
+                people.add(person);
+            }
 
-        return people;
-    }
-    
-    private static final class LinkedHashMapFactory<K, V> implements Factory {
-        public Map<K, V> create() {
-            return new LinkedHashMap<>();
+            return people;
         }
     }
 }
@@ -24,6 +24,10 @@ import java.util.List;
 class PartialWhereClause {
     public final StringBuilder sql = new StringBuilder();
     public final List<String> arguments = new LinkedList<>();
+    /*
+     * The data attribute each argument is compared to, null entries for arguments without a data attribute
+     */
+    public final List<String> dataAttributes = new LinkedList<>();
     
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
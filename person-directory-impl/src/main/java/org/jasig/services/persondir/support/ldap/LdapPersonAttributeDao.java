@@ -19,28 +19,46 @@
 package org.jasig.services.persondir.support.ldap;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
 import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 
 import org.apache.commons.lang3.StringUtils;
+import org.jasig.services.persondir.IEnumerablePersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao;
 import org.jasig.services.persondir.support.CaseInsensitiveAttributeNamedPersonImpl;
 import org.jasig.services.persondir.support.CaseInsensitiveNamedPersonImpl;
 import org.jasig.services.persondir.support.QueryType;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapOperations;
 import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.core.support.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
 import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.ldap.filter.Filter;
 import org.springframework.ldap.filter.LikeFilter;
+import org.springframework.ldap.filter.OrFilter;
+import org.springframework.ldap.filter.PresentFilter;
 import org.springframework.util.Assert;
 
 /**
@@ -49,6 +67,14 @@ import org.springframework.util.Assert;
  * In the case of multi valued attributes a {@link java.util.List} is set as the value.
  *
  * <br>
+ * {@link #enumeratePeople(IPersonAttributesCallback)} runs the enumerationFilter as a paged search (RFC 2696) on a
+ * single connection, each page is passed to the callback before the next one is requested.
+ * {@link #enumeratePeople(Map, IPersonAttributesCallback)} does the same for the people matching a query, so large
+ * wildcard queries can be processed without holding all results in memory. Queries through the
+ * {@link org.jasig.services.persondir.IPersonAttributeDao} methods are paged if pagedQueries is true. Set pageSize to
+ * 0 for servers that do not support the paged results control.
+ *
+ * <br>
  * <br>
  * Configuration:
  * <table border="1" summary="">
@@ -109,6 +135,46 @@ import org.springframework.util.Assert;
  *         <td valign="top">No</td>
  *         <td valign="top">null</td>
  *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">batchSize</td>
+ *         <td>
+ *             The maximum number of values in one OR filter when running many queries at once through
+ *             {@link #getPeopleForQueries(java.util.Collection)} or {@link #getPersons(java.util.Collection)}.
+ *             Only queries comparing a single attribute to a single value are combined, other queries are run
+ *             one at a time.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">100</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">pageSize</td>
+ *         <td>
+ *             The number of entries requested per page when enumerating people, and for queries if pagedQueries
+ *             is true. 0 to search without the paged results control.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">1000</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">pagedQueries</td>
+ *         <td>
+ *             If queries should be run as paged searches, so queries matching more entries than the server
+ *             returns in one response, such as wildcard queries, do not fail with a size limit error. Each page is
+ *             converted to people as it is read.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">false</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">enumerationFilter</td>
+ *         <td>
+ *             The filter used to find all people when enumerating them. If not set the queryTemplate is applied to a
+ *             presence filter for the attributes the username attribute is mapped to by queryAttributeMapping, or for
+ *             objectClass if it is not mapped.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
  * </table>
  *
  * @author andrew.petro@yale.edu
@@ -116,21 +182,31 @@ import org.springframework.util.Assert;
  * @version $Revision$ $Date$
  * @since uPortal 2.5
  */
-public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<LogicalFilterWrapper> implements InitializingBean {
+public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<LogicalFilterWrapper> implements InitializingBean, IEnumerablePersonAttributeDao {
     private static final Pattern QUERY_PLACEHOLDER = Pattern.compile("\\{0\\}");
     private final static AttributesMapper MAPPER = new AttributeMapAttributesMapper();
 
     /**
      * The LdapTemplate to use to execute queries on the DirContext
      */
-    private LdapTemplate ldapTemplate = null;
+    private volatile LdapTemplate ldapTemplate = null;
 
     private String baseDN = "";
     private String queryTemplate = null;
-    private ContextSource contextSource = null;
+    private volatile ContextSource contextSource = null;
+
+    /*
+     * Guards replacing the ldapTemplate and contextSource together, a Lock instead of synchronized so a virtual
+     * thread waiting for it does not pin its carrier thread
+     */
+    private final Lock templateLock = new ReentrantLock();
     private SearchControls searchControls = new SearchControls();
     private final boolean setReturningAttributes = true;
     private QueryType queryType = QueryType.AND;
+    private int batchSize = 100;
+    private int pageSize = 1000;
+    private boolean pagedQueries = false;
+    private String enumerationFilter = null;
 
 
     public LdapPersonAttributeDao() {
@@ -168,13 +244,11 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
             if (StringUtils.isNotBlank(queryValueString)) {
                 final Filter filter;
                 if (!queryValueString.contains("*")) {
-                    filter = new EqualsFilter(dataAttribute, queryValueString);
+                    queryBuilder.appendEquals(dataAttribute, queryValueString);
                 }
                 else {
-                    filter = new LikeFilter(dataAttribute, queryValueString);
+                    queryBuilder.append(new LikeFilter(dataAttribute, queryValueString));
                 }
-
-                queryBuilder.append(filter);
             }
         }
 
@@ -186,6 +260,27 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
      */
     @Override
     protected List<IPersonAttributes> getPeopleForQuery(final LogicalFilterWrapper queryBuilder, final String queryUserName) {
+        return this.searchPeople(queryBuilder, queryUserName, this.searchControls);
+    }
+
+    /**
+     * Only requests the needed data attributes from the directory server.
+     *
+     * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#getPeopleForQuery(java.lang.Object, java.lang.String, java.util.Set)
+     */
+    @Override
+    protected List<IPersonAttributes> getPeopleForQuery(final LogicalFilterWrapper queryBuilder, final String queryUserName, final Set<String> dataAttributes) {
+        final SearchControls projectedSearchControls = new SearchControls(this.searchControls.getSearchScope(), this.searchControls.getCountLimit(),
+                this.searchControls.getTimeLimit(), dataAttributes.toArray(new String[dataAttributes.size()]),
+                this.searchControls.getReturningObjFlag(), this.searchControls.getDerefLinkFlag());
+
+        return this.searchPeople(queryBuilder, queryUserName, projectedSearchControls);
+    }
+
+    /**
+     * Runs the query with the search controls.
+     */
+    private List<IPersonAttributes> searchPeople(final LogicalFilterWrapper queryBuilder, final String queryUserName, final SearchControls searchControls) {
         final String generatedLdapQuery = queryBuilder.encode();
 
         //If no query is generated return null since the query cannot be run
@@ -193,23 +288,298 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
             return null;
         }
 
-        //Insert the generated query into the template if it is configured
-        final String ldapQuery;
-        if (this.queryTemplate == null) {
-            ldapQuery = generatedLdapQuery;
+        //Execute the query
+        final String ldapQuery = this.applyQueryTemplate(generatedLdapQuery);
+        if (this.pagedQueries && this.pageSize > 0) {
+            //Convert each page to people as it is read instead of holding the attributes of all pages
+            final List<IPersonAttributes> people = new ArrayList<>();
+            this.search(ldapQuery, searchControls, true, new PeopleCallbackHandler(queryUserName, new IPersonAttributesCallback() {
+                public boolean processPerson(final IPersonAttributes person) {
+                    people.add(person);
+                    return true;
+                }
+            }));
+            return people;
         }
-        else {
-            final Matcher queryMatcher = QUERY_PLACEHOLDER.matcher(this.queryTemplate);
-            ldapQuery = queryMatcher.replaceAll(generatedLdapQuery);
-            if (logger.isDebugEnabled()) {
-                logger.debug("Final ldapQuery after applying queryTemplate: '" + ldapQuery + "'");
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, List<Object>>> queryResults = this.ldapTemplate.search(this.baseDN, ldapQuery, searchControls, MAPPER);
+
+        return this.toPeople(queryResults, queryUserName);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao#getPeopleForQueries(java.util.List, java.util.List)
+     */
+    @Override
+    protected List<List<IPersonAttributes>> getPeopleForQueries(final List<LogicalFilterWrapper> queryBuilders, final List<String> queryUserNames) {
+        final List<List<IPersonAttributes>> results = new ArrayList<>(Collections.<List<IPersonAttributes>>nCopies(queryBuilders.size(), null));
+        final boolean[] completed = new boolean[queryBuilders.size()];
+
+        //Group the queries comparing a single attribute to a single value by attribute
+        final Map<String, List<Integer>> batches = new LinkedHashMap<>();
+        for (int index = 0; index < queryBuilders.size(); index++) {
+            final LogicalFilterWrapper queryBuilder = queryBuilders.get(index);
+            final String dataAttribute = queryBuilder != null ? queryBuilder.getEqualsAttribute() : null;
+            if (dataAttribute != null) {
+                final String batchKey = dataAttribute.toLowerCase(Locale.ENGLISH);
+                List<Integer> batch = batches.get(batchKey);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(batchKey, batch);
+                }
+                batch.add(index);
             }
         }
 
-        //Execute the query
+        for (final List<Integer> indexes : batches.values()) {
+            if (indexes.size() < 2) {
+                continue;
+            }
+
+            for (int start = 0; start < indexes.size(); start += this.batchSize) {
+                final List<Integer> chunk = indexes.subList(start, Math.min(start + this.batchSize, indexes.size()));
+                this.runBatchQuery(chunk, queryBuilders, queryUserNames, results, completed);
+            }
+        }
+
+        //Run the queries that could not be combined one at a time
+        for (int index = 0; index < queryBuilders.size(); index++) {
+            if (!completed[index]) {
+                results.set(index, this.getPeopleForQuery(queryBuilders.get(index), queryUserNames.get(index)));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs the queries at the indexes as one OR filter and splits the results by the value of the queried attribute.
+     * If a result cannot be matched to a query none of the queries are marked as completed.
+     */
+    private void runBatchQuery(final List<Integer> indexes, final List<LogicalFilterWrapper> queryBuilders,
+            final List<String> queryUserNames, final List<List<IPersonAttributes>> results, final boolean[] completed) {
+
+        final String dataAttribute = queryBuilders.get(indexes.get(0)).getEqualsAttribute();
+
+        //Distinct values to query for and the queries for each value, LDAP matching is assumed to be case insensitive
+        final OrFilter orFilter = new OrFilter();
+        final Map<String, List<Integer>> indexesByValue = new LinkedHashMap<>();
+        for (final Integer index : indexes) {
+            final String value = queryBuilders.get(index).getEqualsValue();
+            final String batchValue = value.toLowerCase(Locale.ENGLISH);
+
+            List<Integer> valueIndexes = indexesByValue.get(batchValue);
+            if (valueIndexes == null) {
+                valueIndexes = new ArrayList<>();
+                indexesByValue.put(batchValue, valueIndexes);
+                orFilter.or(new EqualsFilter(dataAttribute, value));
+            }
+            valueIndexes.add(index);
+        }
+
+        final String ldapQuery = this.applyQueryTemplate(orFilter.encode());
         @SuppressWarnings("unchecked")
-        final List<Map<String, List<Object>>> queryResults = this.ldapTemplate.search(this.baseDN, ldapQuery, this.searchControls, MAPPER);
+        final List<Map<String, List<Object>>> queryResults = this.ldapTemplate.search(this.baseDN, ldapQuery, this.getBatchSearchControls(dataAttribute), MAPPER);
+
+        //Split the results by the values of the queried attribute
+        final Map<String, List<Map<String, List<Object>>>> resultsByValue = new HashMap<>();
+        for (final Map<String, List<Object>> queryResult : queryResults) {
+            boolean matched = false;
+
+            final List<Object> values = queryResult.get(dataAttribute);
+            if (values != null) {
+                for (final Object value : values) {
+                    final String batchValue = value != null ? value.toString().toLowerCase(Locale.ENGLISH) : null;
+                    if (batchValue != null && indexesByValue.containsKey(batchValue)) {
+                        List<Map<String, List<Object>>> valueResults = resultsByValue.get(batchValue);
+                        if (valueResults == null) {
+                            valueResults = new ArrayList<>();
+                            resultsByValue.put(batchValue, valueResults);
+                        }
+                        valueResults.add(queryResult);
+                        matched = true;
+                    }
+                }
+            }
+
+            if (!matched) {
+                this.logger.debug("Result {} could not be matched to a query by attribute '{}', queries will be run one at a time", queryResult, dataAttribute);
+                return;
+            }
+        }
+
+        for (final Map.Entry<String, List<Integer>> valueIndexes : indexesByValue.entrySet()) {
+            List<Map<String, List<Object>>> valueResults = resultsByValue.get(valueIndexes.getKey());
+            if (valueResults == null) {
+                valueResults = Collections.emptyList();
+            }
+
+            for (final Integer index : valueIndexes.getValue()) {
+                results.set(index, this.toPeople(valueResults, queryUserNames.get(index)));
+                completed[index] = true;
+            }
+        }
+    }
+
+    /**
+     * @return The searchControls, copied with the queried attribute added if it is not returned
+     */
+    private SearchControls getBatchSearchControls(final String dataAttribute) {
+        final String[] returningAttributes = this.searchControls.getReturningAttributes();
+        if (returningAttributes == null) {
+            return this.searchControls;
+        }
+
+        for (final String returningAttribute : returningAttributes) {
+            if (dataAttribute.equalsIgnoreCase(returningAttribute)) {
+                return this.searchControls;
+            }
+        }
+
+        final String[] batchReturningAttributes = new String[returningAttributes.length + 1];
+        System.arraycopy(returningAttributes, 0, batchReturningAttributes, 0, returningAttributes.length);
+        batchReturningAttributes[returningAttributes.length] = dataAttribute;
+
+        return new SearchControls(this.searchControls.getSearchScope(), this.searchControls.getCountLimit(),
+                this.searchControls.getTimeLimit(), batchReturningAttributes, this.searchControls.getReturningObjFlag(),
+                this.searchControls.getDerefLinkFlag());
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IEnumerablePersonAttributeDao#enumeratePeople(org.jasig.services.persondir.IPersonAttributesCallback)
+     */
+    public long enumeratePeople(final IPersonAttributesCallback callback) {
+        final EnumerationCallback enumerationCallback = new EnumerationCallback(callback);
+        final String ldapQuery = this.generateEnumerationFilter();
+
+        this.search(ldapQuery, this.getUnlimitedSearchControls(), this.pageSize > 0, new PeopleCallbackHandler(null, enumerationCallback));
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Enumerated {} people with ldapQuery '{}'", enumerationCallback.getCount(), ldapQuery);
+        }
+
+        return enumerationCallback.getCount();
+    }
 
+    /**
+     * Runs the query like {@link #getPeopleWithMultivaluedAttributes(Map)} but passes each person found to the
+     * callback as its page is read instead of returning all of them at once, for wildcard queries that can match
+     * more people than fit in memory or than the server returns in one response. The query is run as a paged
+     * search unless pageSize is 0 and the countLimit of the searchControls is not applied, the callback stops the
+     * query by returning false.
+     *
+     * @param query The query to run
+     * @param callback The callback to pass each person to
+     * @return The number of people passed to the callback, 0 if no LDAP query could be generated for the query
+     */
+    public long enumeratePeople(final Map<String, List<Object>> query, final IPersonAttributesCallback callback) {
+        Assert.notNull(query, "query may not be null");
+        final EnumerationCallback enumerationCallback = new EnumerationCallback(callback);
+
+        final LogicalFilterWrapper queryBuilder = this.generateQuery(query);
+        final String generatedLdapQuery = queryBuilder != null ? queryBuilder.encode() : null;
+        if (StringUtils.isBlank(generatedLdapQuery)) {
+            logger.debug("No ldapQuery was generated for query {}, no people will be enumerated", query);
+            return 0;
+        }
+
+        final String ldapQuery = this.applyQueryTemplate(generatedLdapQuery);
+        final String queryUserName = this.getUsernameAttributeProvider().getUsernameFromQuery(query);
+        this.search(ldapQuery, this.getUnlimitedSearchControls(), this.pageSize > 0, new PeopleCallbackHandler(queryUserName, enumerationCallback));
+
+        return enumerationCallback.getCount();
+    }
+
+    /**
+     * Runs the search, one page at a time on a single connection if paged, until all entries are read or the
+     * handler stops the search
+     */
+    private void search(final String ldapQuery, final SearchControls searchControls, final boolean paged, final PeopleCallbackHandler handler) {
+        if (!paged) {
+            this.ldapTemplate.search(this.baseDN, ldapQuery, searchControls, handler);
+            return;
+        }
+
+        //The paging cookie is only valid on the connection the search was started on
+        SingleContextSource.doWithSingleContext(this.contextSource, new LdapOperationsCallback<Object>() {
+            public Object doWithLdapOperations(final LdapOperations operations) {
+                final PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(pageSize);
+                processor.setCritical(false);
+
+                int pages = 0;
+                do {
+                    operations.search(baseDN, ldapQuery, searchControls, handler, processor);
+                    pages++;
+                } while (processor.hasMore() && !handler.isStopped());
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Read {} pages of up to {} entries for ldapQuery '{}'", pages, pageSize, ldapQuery);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return The searchControls without a count limit, the callback limits the number of entries read
+     */
+    private SearchControls getUnlimitedSearchControls() {
+        return new SearchControls(this.searchControls.getSearchScope(), 0,
+                this.searchControls.getTimeLimit(), this.searchControls.getReturningAttributes(),
+                this.searchControls.getReturningObjFlag(), this.searchControls.getDerefLinkFlag());
+    }
+
+    /**
+     * @return The filter to find all people with, the enumerationFilter if it is set
+     */
+    private String generateEnumerationFilter() {
+        if (this.enumerationFilter != null) {
+            return this.enumerationFilter;
+        }
+
+        //Everyone who can be found by username has the attributes the username is mapped to
+        final String usernameAttribute = this.getUsernameAttributeProvider().getUsernameAttribute();
+        final Map<String, Set<String>> queryAttributeMapping = this.getQueryAttributeMapping();
+        final Set<String> dataAttributes;
+        if (queryAttributeMapping == null) {
+            dataAttributes = Collections.singleton(usernameAttribute);
+        }
+        else {
+            dataAttributes = queryAttributeMapping.get(usernameAttribute);
+        }
+
+        final LogicalFilterWrapper filter = new LogicalFilterWrapper(QueryType.OR);
+        if (dataAttributes == null || dataAttributes.isEmpty()) {
+            filter.append(new PresentFilter("objectClass"));
+        }
+        else {
+            for (final String dataAttribute : dataAttributes) {
+                filter.append(new PresentFilter(dataAttribute));
+            }
+        }
+
+        return this.applyQueryTemplate(filter.encode());
+    }
+
+    /**
+     * Inserts the generated query into the queryTemplate if it is configured
+     */
+    private String applyQueryTemplate(final String generatedLdapQuery) {
+        if (this.queryTemplate == null) {
+            return generatedLdapQuery;
+        }
+
+        final Matcher queryMatcher = QUERY_PLACEHOLDER.matcher(this.queryTemplate);
+        final String ldapQuery = queryMatcher.replaceAll(generatedLdapQuery);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Final ldapQuery after applying queryTemplate: '" + ldapQuery + "'");
+        }
+        return ldapQuery;
+    }
+
+    private List<IPersonAttributes> toPeople(final List<Map<String, List<Object>>> queryResults, final String queryUserName) {
         final List<IPersonAttributes> peopleAttributes = new ArrayList<>(queryResults.size());
         for (final Map<String, List<Object>> queryResult : queryResults) {
             final IPersonAttributes person;
@@ -239,6 +609,40 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
         return peopleAttributes;
     }
 
+    /**
+     * Maps each entry found by a search to a person and passes it to the callback, skipping the remaining entries
+     * once the callback returns false.
+     */
+    private final class PeopleCallbackHandler implements NameClassPairCallbackHandler {
+        private final String queryUserName;
+        private final IPersonAttributesCallback callback;
+        private boolean stopped = false;
+
+        public PeopleCallbackHandler(final String queryUserName, final IPersonAttributesCallback callback) {
+            this.queryUserName = queryUserName;
+            this.callback = callback;
+        }
+
+        public void handleNameClassPair(final NameClassPair nameClassPair) throws NamingException {
+            if (this.stopped) {
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            final Map<String, List<Object>> queryResult = (Map<String, List<Object>>) MAPPER.mapFromAttributes(((SearchResult) nameClassPair).getAttributes());
+            for (final IPersonAttributes person : toPeople(Collections.singletonList(queryResult), this.queryUserName)) {
+                if (!this.callback.processPerson(person)) {
+                    this.stopped = true;
+                    return;
+                }
+            }
+        }
+
+        public boolean isStopped() {
+            return this.stopped;
+        }
+    }
+
     /**
      * @see javax.naming.directory.SearchControls#getTimeLimit()
      * @return time limit
@@ -288,10 +692,16 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
     /**
      * @param contextSource The ContextSource to get DirContext objects for queries from.
      */
-    public synchronized void setContextSource(final ContextSource contextSource) {
+    public void setContextSource(final ContextSource contextSource) {
         Assert.notNull(contextSource, "contextSource can not be null");
-        this.contextSource = contextSource;
-        this.ldapTemplate = new LdapTemplate(this.contextSource);
+        this.templateLock.lock();
+        try {
+            this.contextSource = contextSource;
+            this.ldapTemplate = new LdapTemplate(this.contextSource);
+        }
+        finally {
+            this.templateLock.unlock();
+        }
     }
 
     /**
@@ -299,10 +709,16 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
      *
      * @param ldapTemplate the LdapTemplate to query the LDAP server from.  CANNOT be NULL.
      */
-    public synchronized void setLdapTemplate(final LdapTemplate ldapTemplate) {
+    public void setLdapTemplate(final LdapTemplate ldapTemplate) {
         Assert.notNull(ldapTemplate, "ldapTemplate cannot be null");
-        this.ldapTemplate = ldapTemplate;
-        this.contextSource = this.ldapTemplate.getContextSource();
+        this.templateLock.lock();
+        try {
+            this.ldapTemplate = ldapTemplate;
+            this.contextSource = this.ldapTemplate.getContextSource();
+        }
+        finally {
+            this.templateLock.unlock();
+        }
     }
 
     /**
@@ -334,6 +750,69 @@ public class LdapPersonAttributeDao extends AbstractQueryPersonAttributeDao<Logi
         this.queryType = queryType;
     }
 
+    /**
+     * @return the batchSize
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    /**
+     * Maximum number of values to combine into one OR filter when running many queries at once.
+     *
+     * @param batchSize the batchSize to set
+     */
+    public void setBatchSize(final int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the pageSize
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+    /**
+     * Number of entries to request per page of a paged search, 0 to search without the paged results control for
+     * servers that do not support it.
+     *
+     * @param pageSize the pageSize to set
+     */
+    public void setPageSize(final int pageSize) {
+        Assert.isTrue(pageSize >= 0, "pageSize must be greater than or equal to 0");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the pagedQueries
+     */
+    public boolean isPagedQueries() {
+        return this.pagedQueries;
+    }
+    /**
+     * If queries should be run as paged searches with pageSize entries per page.
+     *
+     * @param pagedQueries the pagedQueries to set
+     */
+    public void setPagedQueries(final boolean pagedQueries) {
+        this.pagedQueries = pagedQueries;
+    }
+
+    /**
+     * @return the enumerationFilter
+     */
+    public String getEnumerationFilter() {
+        return this.enumerationFilter;
+    }
+    /**
+     * Filter to find all people with when enumerating them, if null one is generated from the queryAttributeMapping.
+     *
+     * @param enumerationFilter the enumerationFilter to set
+     */
+    public void setEnumerationFilter(final String enumerationFilter) {
+        this.enumerationFilter = enumerationFilter;
+    }
+
     public String getQueryTemplate() {
         return this.queryTemplate;
     }
@@ -23,15 +23,24 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.naming.directory.SearchControls;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IEnumerablePersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractQueryPersonAttributeDao;
 import org.jasig.services.persondir.support.CaseInsensitiveAttributeNamedPersonImpl;
 import org.jasig.services.persondir.support.CaseInsensitiveNamedPersonImpl;
+import org.jasig.services.persondir.support.QueryType;
 import org.ldaptive.Connection;
 import org.ldaptive.ConnectionFactory;
+import org.ldaptive.DefaultConnectionFactory;
 import org.ldaptive.LdapAttribute;
 import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
@@ -41,17 +50,46 @@ import org.ldaptive.SearchOperation;
 import org.ldaptive.SearchRequest;
 import org.ldaptive.SearchResult;
 import org.ldaptive.SearchScope;
+import org.ldaptive.control.PagedResultsControl;
+import org.ldaptive.pool.BlockingConnectionPool;
+import org.ldaptive.pool.ConnectionPool;
+import org.ldaptive.pool.IdlePruneStrategy;
+import org.ldaptive.pool.PoolConfig;
+import org.ldaptive.pool.PooledConnectionFactory;
+import org.ldaptive.pool.SearchValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Person directory <code>IPersonAttribute</code> implementation that queries an LDAP directory
  * with ldaptive components to populate person attributes.
+ * <br>
+ * {@link #enumeratePeople(IPersonAttributesCallback)} searches for all people with the paged results control
+ * (RFC 2696), each page is passed to the callback before the next one is requested. Set pageSize to 0 for servers
+ * that do not support the control.
+ * <br>
+ * A query for a single value uses the <code>searchFilter</code> with the value as its <code>{0}</code> parameter.
+ * Queries for several attributes or values are combined into one search, each value gets a term built from the
+ * <code>searchFilter</code> with its <code>{0}</code> placeholder renumbered to the index of the value and the terms
+ * are joined with an AND or OR filter depending on the <code>queryType</code>. A searchFilter of
+ * "(&amp;(objectClass=person)(uid={0}))" queried for two usernames with an OR queryType searches for
+ * "(|(&amp;(objectClass=person)(uid={0}))(&amp;(objectClass=person)(uid={1})))", so every clause of the searchFilter
+ * applies to each value. All values are passed as filter parameters so they are escaped when the filter is formatted.
+ * <br>
+ * If <code>pooled</code> is set the DAO wraps its <code>DefaultConnectionFactory</code> in a connection pool when it
+ * is initialized so queries reuse open, bound connections instead of connecting for every query. Connections are
+ * validated with a root DSE search when they are borrowed and connections that have been idle for longer than
+ * <code>idleTime</code> are closed, down to <code>minPoolSize</code>. The pool is closed by {@link #destroy()}. A
+ * <code>PooledConnectionFactory</code> configured directly is used as is and remains owned by the caller, in both
+ * cases the pool can be monitored with {@link #getPoolActiveCount()} and {@link #getPoolAvailableCount()}.
  *
  * @author Marvin S. Addison
  * @since 4.0.0
  */
-public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<SearchFilter> {
+public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<SearchFilter> implements IEnumerablePersonAttributeDao {
+
+    /** Matches the parameter placeholders of the search filter. */
+    private static final Pattern FILTER_PARAMETER = Pattern.compile("\\{[0-9]+\\}");
 
     /** Logger instance. **/
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -74,6 +112,39 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
     /** LDAP attributes to fetch from search results. */
     private String[] attributes;
 
+    /** Number of entries per page when enumerating all people. */
+    private int pageSize = 1000;
+
+    /** LDAP search filter used to enumerate all people. */
+    private String enumerationFilter;
+
+    /** Logical operator joining the terms of queries for several attributes or values. */
+    private QueryType queryType = QueryType.AND;
+
+    /** Wrap the connection factory in a connection pool on initialization. */
+    private boolean pooled = false;
+
+    /** Number of connections the pool keeps open. */
+    private int minPoolSize = PoolConfig.DEFAULT_MIN_POOL_SIZE;
+
+    /** Maximum number of connections in the pool. */
+    private int maxPoolSize = PoolConfig.DEFAULT_MAX_POOL_SIZE;
+
+    /** Validate pooled connections before they are used. */
+    private boolean validateOnBorrow = true;
+
+    /** Seconds a pooled connection may be idle before it is pruned. */
+    private long idleTime = 600;
+
+    /** Seconds between checks for idle pooled connections. */
+    private long prunePeriod = 300;
+
+    /** Milliseconds to wait for a pooled connection when the pool is exhausted, 0 to wait indefinitely. */
+    private long blockWaitTime = 0;
+
+    /** The connection pool created by this DAO on initialization. */
+    private ConnectionPool connectionPool;
+
     public LdaptivePersonAttributeDao() {
         super();
     }
@@ -109,7 +180,8 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
 
     /**
      * Sets the connection factory that produces LDAP connections on which searches occur. It is strongly recommended
-     * that this be a <code>PooledConnecitonFactory</code> object.
+     * that this be a <code>PooledConnectionFactory</code> object or a <code>DefaultConnectionFactory</code> with
+     * <code>pooled</code> set.
      *
      * @param connectionFactory LDAP connection factory.
      */
@@ -117,6 +189,137 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
         this.connectionFactory = connectionFactory;
     }
 
+    /**
+     * Sets the number of entries to request per page when enumerating all people, 0 to search without the paged
+     * results control for servers that do not support it.
+     *
+     * @param pageSize Number of entries per page.
+     */
+    public void setPageSize(final int pageSize) {
+        Validate.isTrue(pageSize >= 0, "pageSize must be greater than or equal to 0");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets the LDAP search filter used to enumerate all people. Defaults to the search filter with every parameter
+     * placeholder replaced by <code>*</code>, e.g. "(uid=*)" for "(uid={0})".
+     *
+     * @param filter Search filter without parameters.
+     */
+    public void setEnumerationFilter(final String filter) {
+        this.enumerationFilter = filter;
+    }
+
+    /**
+     * Sets the logical operator that joins the terms of a query for several attributes or values. Defaults to
+     * {@link QueryType#AND}.
+     *
+     * @param queryType Query type.
+     */
+    public void setQueryType(final QueryType queryType) {
+        Validate.notNull(queryType, "queryType may not be null");
+        this.queryType = queryType;
+    }
+
+    /**
+     * Sets if the <code>DefaultConnectionFactory</code> is wrapped in a connection pool when the DAO is initialized.
+     * Defaults to false.
+     *
+     * @param pooled True to pool connections.
+     */
+    public void setPooled(final boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Sets the number of connections the pool opens on initialization and keeps open when pruning idle connections.
+     * Defaults to 3.
+     *
+     * @param minPoolSize Minimum number of pooled connections.
+     */
+    public void setMinPoolSize(final int minPoolSize) {
+        Validate.isTrue(minPoolSize >= 0, "minPoolSize must be greater than or equal to 0");
+        this.minPoolSize = minPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of connections in the pool, queries wait for a connection to be returned once all of
+     * them are in use. Defaults to 10.
+     *
+     * @param maxPoolSize Maximum number of pooled connections.
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        Validate.isTrue(maxPoolSize > 0, "maxPoolSize must be greater than 0");
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Sets if pooled connections are validated with a root DSE search before they are used, connections that fail
+     * validation are closed and removed from the pool. Defaults to true.
+     *
+     * @param validateOnBorrow True to validate connections when they are borrowed from the pool.
+     */
+    public void setValidateOnBorrow(final boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * Sets the number of seconds a pooled connection may be idle before it is closed. Defaults to 600.
+     *
+     * @param idleTime Idle time in seconds.
+     */
+    public void setIdleTime(final long idleTime) {
+        Validate.isTrue(idleTime > 0, "idleTime must be greater than 0");
+        this.idleTime = idleTime;
+    }
+
+    /**
+     * Sets the number of seconds between checks for idle pooled connections. Defaults to 300.
+     *
+     * @param prunePeriod Prune period in seconds.
+     */
+    public void setPrunePeriod(final long prunePeriod) {
+        Validate.isTrue(prunePeriod > 0, "prunePeriod must be greater than 0");
+        this.prunePeriod = prunePeriod;
+    }
+
+    /**
+     * Sets the number of milliseconds a query waits for a pooled connection when all of them are in use before it
+     * fails. Defaults to 0, wait indefinitely.
+     *
+     * @param blockWaitTime Wait time in milliseconds.
+     */
+    public void setBlockWaitTime(final long blockWaitTime) {
+        Validate.isTrue(blockWaitTime >= 0, "blockWaitTime must be greater than or equal to 0");
+        this.blockWaitTime = blockWaitTime;
+    }
+
+    /**
+     * @return The number of pooled connections currently in use by queries, -1 if connections are not pooled.
+     */
+    public int getPoolActiveCount() {
+        final ConnectionPool pool = this.getConnectionPool();
+        return pool != null ? pool.activeCount() : -1;
+    }
+
+    /**
+     * @return The number of open pooled connections waiting to be used, -1 if connections are not pooled.
+     */
+    public int getPoolAvailableCount() {
+        final ConnectionPool pool = this.getConnectionPool();
+        return pool != null ? pool.availableCount() : -1;
+    }
+
+    /**
+     * @return The pool of the connection factory, null if connections are not pooled.
+     */
+    private ConnectionPool getConnectionPool() {
+        if (this.connectionFactory instanceof PooledConnectionFactory) {
+            return ((PooledConnectionFactory) this.connectionFactory).getConnectionPool();
+        }
+        return null;
+    }
+
     /**
      * Initializes the object after properties are set.
      */
@@ -128,10 +331,83 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
             }
         }
         this.attributes = getResultAttributeMapping().keySet().toArray(new String[getResultAttributeMapping().size()]);
+
+        if (this.pooled && !(this.connectionFactory instanceof PooledConnectionFactory)) {
+            this.connectionFactory = new PooledConnectionFactory(this.createConnectionPool());
+        }
+    }
+
+    /**
+     * Closes the connection pool created by {@link #initialize()}, a <code>PooledConnectionFactory</code> set on the
+     * DAO is not closed.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (this.connectionPool != null) {
+            this.connectionPool.close();
+            this.connectionPool = null;
+        }
+    }
+
+    /**
+     * Creates and initializes a connection pool for the <code>DefaultConnectionFactory</code>.
+     *
+     * @return The initialized pool.
+     */
+    private ConnectionPool createConnectionPool() {
+        Validate.isInstanceOf(DefaultConnectionFactory.class, this.connectionFactory,
+                "connectionFactory must be a DefaultConnectionFactory to be pooled");
+        Validate.isTrue(this.minPoolSize <= this.maxPoolSize, "minPoolSize must be less than or equal to maxPoolSize");
+
+        final PoolConfig poolConfig = new PoolConfig();
+        poolConfig.setMinPoolSize(this.minPoolSize);
+        poolConfig.setMaxPoolSize(this.maxPoolSize);
+        poolConfig.setValidateOnCheckOut(this.validateOnBorrow);
+
+        final BlockingConnectionPool pool = new BlockingConnectionPool(poolConfig, (DefaultConnectionFactory) this.connectionFactory);
+        pool.setValidator(new SearchValidator());
+        pool.setPruneStrategy(new IdlePruneStrategy(this.prunePeriod, this.idleTime));
+        if (this.blockWaitTime > 0) {
+            pool.setBlockWaitTime(this.blockWaitTime);
+        }
+        pool.initialize();
+
+        logger.debug("Created LDAP connection pool {}", pool);
+        this.connectionPool = pool;
+        return pool;
+    }
+
+    @Override
+    protected List<IPersonAttributes> getPeopleForQuery(final SearchFilter terms, final String userName) {
+        return searchPeople(terms, userName, this.attributes);
     }
 
+    /**
+     * Only requests the needed data attributes from the directory server.
+     */
     @Override
-    protected List<IPersonAttributes> getPeopleForQuery(final SearchFilter filter, final String userName) {
+    protected List<IPersonAttributes> getPeopleForQuery(
+            final SearchFilter terms, final String userName, final Set<String> dataAttributes) {
+        return searchPeople(terms, userName, dataAttributes.toArray(new String[dataAttributes.size()]));
+    }
+
+    /**
+     * Runs the query for the terms.
+     *
+     * @param terms The terms appended by {@link #appendAttributeToQuery(SearchFilter, String, List)}.
+     * @param userName Username from the query, may be null.
+     * @param returnAttributes LDAP attributes to fetch.
+     *
+     * @return People found, null if the query has no terms.
+     */
+    private List<IPersonAttributes> searchPeople(final SearchFilter terms, final String userName, final String[] returnAttributes) {
+        final SearchFilter filter = createFilter(terms);
+
+        //If no query is generated return null since the query cannot be run
+        if (filter == null) {
+            return null;
+        }
+
         Connection connection = null;
         try {
             try {
@@ -142,22 +418,16 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
             }
             final Response<SearchResult> response;
             try {
-                response = new SearchOperation(connection).execute(createRequest(filter));
+                final SearchRequest request = createRequest(filter);
+                request.setReturnAttributes(returnAttributes);
+                response = new SearchOperation(connection).execute(request);
             } catch (final LdapException e) {
                 throw new RuntimeException("Failed executing LDAP query " + filter, e);
             }
             final SearchResult result = response.getResult();
             final List<IPersonAttributes> peopleAttributes = new ArrayList<>(result.size());
             for (final LdapEntry entry : result.getEntries()) {
-                final IPersonAttributes person;
-                final String userNameAttribute = this.getConfiguredUserNameAttribute();
-                final Map<String, List<Object>> attributes = convertLdapEntryToMap(entry);
-                if (attributes.containsKey(userNameAttribute)) {
-                    person = new CaseInsensitiveAttributeNamedPersonImpl(userNameAttribute, attributes);
-                } else {
-                    person = new CaseInsensitiveNamedPersonImpl(userName , attributes);
-                }
-                peopleAttributes.add(person);
+                peopleAttributes.add(createPerson(entry, userName));
             }
 
             return peopleAttributes;
@@ -166,17 +436,130 @@ public class LdaptivePersonAttributeDao extends AbstractQueryPersonAttributeDao<
         }
     }
 
+    @Override
+    public long enumeratePeople(final IPersonAttributesCallback callback) {
+        final EnumerationCallback enumerationCallback = new EnumerationCallback(callback);
+        final SearchFilter filter = new SearchFilter(createEnumerationFilter());
+
+        Connection connection = null;
+        try {
+            try {
+                connection = this.connectionFactory.getConnection();
+                connection.open();
+            } catch (final LdapException e) {
+                throw new RuntimeException("Failed getting LDAP connection", e);
+            }
+
+            // The count limit applies to each query, the enumeration is only limited by the data
+            final SearchRequest request = createRequest(filter);
+            request.setSizeLimit(0);
+
+            byte[] cookie = null;
+            do {
+                if (this.pageSize > 0) {
+                    request.setControls(new PagedResultsControl(this.pageSize, cookie, false));
+                }
+                final Response<SearchResult> response;
+                try {
+                    response = new SearchOperation(connection).execute(request);
+                } catch (final LdapException e) {
+                    throw new RuntimeException("Failed executing LDAP query " + filter, e);
+                }
+
+                for (final LdapEntry entry : response.getResult().getEntries()) {
+                    if (!enumerationCallback.processPerson(createPerson(entry, null))) {
+                        break;
+                    }
+                }
+
+                final PagedResultsControl responseControl = (PagedResultsControl) response.getControl(PagedResultsControl.OID);
+                cookie = responseControl != null ? responseControl.getCookie() : null;
+            } while (cookie != null && cookie.length > 0 && !enumerationCallback.isStopped());
+
+            logger.debug("Enumerated {} people with LDAP query [{}]", enumerationCallback.getCount(), filter.format());
+            return enumerationCallback.getCount();
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Creates the search filter used to enumerate all people.
+     *
+     * @return The enumerationFilter or the search filter with all parameters replaced by <code>*</code>.
+     */
+    private String createEnumerationFilter() {
+        if (this.enumerationFilter != null) {
+            return this.enumerationFilter;
+        }
+        return FILTER_PARAMETER.matcher(this.searchFilter).replaceAll("*");
+    }
+
+    /**
+     * Creates a person from an LDAP entry.
+     *
+     * @param entry Ldap entry.
+     * @param userName Username from the query, may be null.
+     *
+     * @return Person with the attributes of the entry.
+     */
+    private IPersonAttributes createPerson(final LdapEntry entry, final String userName) {
+        final String userNameAttribute = this.getConfiguredUserNameAttribute();
+        final Map<String, List<Object>> attributes = convertLdapEntryToMap(entry);
+        if (attributes.containsKey(userNameAttribute)) {
+            return new CaseInsensitiveAttributeNamedPersonImpl(userNameAttribute, attributes);
+        }
+        return new CaseInsensitiveNamedPersonImpl(userName, attributes);
+    }
+
+    /**
+     * Appends each value to the parameters of the query, a term is built from the searchFilter for every parameter
+     * by {@link #createFilter(SearchFilter)} once all attributes have been appended. The searchFilter defines which
+     * directory attributes the values are matched against.
+     */
     @Override
     protected SearchFilter appendAttributeToQuery(
             final SearchFilter filter, final String attribute, final List<Object> values) {
+        final SearchFilter query = filter != null ? filter : new SearchFilter();
+        for (final Object value : values) {
+            final String valueString = value == null ? null : value.toString();
+            if (StringUtils.isNotBlank(valueString)) {
+                query.setParameter(query.getParameters().size(), valueString);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Creates the search filter for the terms of a query.
+     *
+     * @param terms The terms appended by {@link #appendAttributeToQuery(SearchFilter, String, List)}.
+     *
+     * @return The searchFilter with the value of a single term, a searchFilter term for each value joined by the
+     * queryType or null if the query has no terms.
+     */
+    private SearchFilter createFilter(final SearchFilter terms) {
+        final Map<String, Object> parameters = terms.getParameters();
         final SearchFilter query;
-        if (filter == null && values.size() > 0) {
+        if (parameters.isEmpty()) {
+            return null;
+        }
+        else if (parameters.size() == 1) {
             query = new SearchFilter(this.searchFilter);
-            query.setParameter(0, values.get(0).toString());
-            logger.debug("Constructed LDAP search query [{}]", query.format());
-        } else {
-            throw new UnsupportedOperationException("Multiple attributes not supported.");
+            query.setParameter(0, parameters.values().iterator().next());
+        }
+        else {
+            final String term = this.searchFilter.startsWith("(") ? this.searchFilter : "(" + this.searchFilter + ")";
+            final StringBuilder filter = new StringBuilder(this.queryType == QueryType.AND ? "(&" : "(|");
+            for (int index = 0; index < parameters.size(); index++) {
+                filter.append(term.replace("{0}", "{" + index + "}"));
+            }
+            query = new SearchFilter(filter.append(')').toString());
+            for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
         }
+        logger.debug("Constructed LDAP search query [{}]", query.format());
         return query;
     }
 
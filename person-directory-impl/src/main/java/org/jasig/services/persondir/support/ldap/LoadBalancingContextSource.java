@@ -0,0 +1,583 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.directory.DirContext;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.ldap.AuthenticationException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.support.LdapUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * A {@link ContextSource} that spreads queries over several replicas of a directory, each configured as its own
+ * ContextSource, and routes around replicas that are down or slow.
+ * <br>
+ * Every server has a health score, the decaying average of the milliseconds its searches, lookups and liveness
+ * probes take. Contexts are taken from the available servers in round-robin order or, with the
+ * <code>LEAST_LATENCY</code> strategy, from the server with the lowest score. If a server cannot provide a context,
+ * fails a search with a communication error or its score exceeds <b>slowThreshold</b> it is ejected for
+ * <b>ejectionTime</b> and the next server is tried. Ejected servers are only used when no other server is available.
+ * <br>
+ * If <b>probeInterval</b> is set every server, including ejected ones, is probed in the background by reading the
+ * base entry of its context. Probes keep the scores of idle servers current, keep failing servers ejected and
+ * re-admit ejected servers as soon as they respond within the <b>slowThreshold</b> again. Without probes an
+ * ejected server is re-admitted when its ejection ends and its score is reset, so it is judged by the latency of the
+ * next queries it serves rather than by the average that got it ejected.
+ * <br>
+ * Authentication failures from {@link #getContext(String, String)} do not affect the health of a server.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1" summary="">
+ *     <tr>
+ *         <th align="left">Property</th>
+ *         <th align="left">Description</th>
+ *         <th align="left">Required</th>
+ *         <th align="left">Default</th>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">contextSources</td>
+ *         <td>One {@link ContextSource} per server, typically an {@link LdapContextSource} with a single URL.</td>
+ *         <td valign="top">Yes</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">strategy</td>
+ *         <td>How a server is selected from the available servers, ROUND_ROBIN or LEAST_LATENCY.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">ROUND_ROBIN</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">slowThreshold</td>
+ *         <td>Servers with a score above this many milliseconds are ejected, 0 disables the check.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">ejectionTime</td>
+ *         <td>The number of milliseconds a failed or slow server is ejected for.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">30000</td>
+ *     </tr>
+ *     <tr>
+ *         <td align="right" valign="top">probeInterval</td>
+ *         <td>The number of milliseconds between background liveness probes of all servers, 0 disables probes.</td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ * </table>
+ *
+ * @version $Revision$
+ */
+public class LoadBalancingContextSource implements ContextSource, InitializingBean, DisposableBean {
+    /**
+     * How a server is selected from the available servers.
+     */
+    public enum Strategy {
+        /** Servers are used in turn. */
+        ROUND_ROBIN,
+        /** The server with the lowest health score is used, servers without a score are tried first. */
+        LEAST_LATENCY;
+    }
+
+    /** Weight of a new latency sample in the health score. */
+    private static final double SCORE_DECAY = 0.2;
+
+    /** Methods of a DirContext that are timed for the health score of its server. */
+    private static final List<String> TIMED_METHODS = Arrays.asList("search", "lookup", "getAttributes", "list", "listBindings");
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private List<Server> servers = Collections.emptyList();
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+    private long slowThreshold = 0;
+    private long ejectionTime = TimeUnit.SECONDS.toMillis(30);
+    private long probeInterval = 0;
+
+    private final AtomicInteger nextServer = new AtomicInteger();
+    private ScheduledExecutorService probeScheduler = null;
+
+    /**
+     * @param contextSources One ContextSource per server
+     */
+    public void setContextSources(final List<? extends ContextSource> contextSources) {
+        Validate.notEmpty(contextSources, "contextSources may not be empty");
+        final List<Server> servers = new ArrayList<>(contextSources.size());
+        for (final ContextSource contextSource : contextSources) {
+            Validate.notNull(contextSource, "contextSources may not contain null");
+            servers.add(new Server(contextSource));
+        }
+        this.servers = Collections.unmodifiableList(servers);
+    }
+
+    /**
+     * @return the strategy
+     */
+    public Strategy getStrategy() {
+        return this.strategy;
+    }
+    /**
+     * @param strategy How a server is selected from the available servers
+     */
+    public void setStrategy(final Strategy strategy) {
+        Validate.notNull(strategy, "strategy may not be null");
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return the slowThreshold
+     */
+    public long getSlowThreshold() {
+        return this.slowThreshold;
+    }
+    /**
+     * @param slowThreshold Servers with a health score above this many milliseconds are ejected, 0 disables the check
+     */
+    public void setSlowThreshold(final long slowThreshold) {
+        Validate.isTrue(slowThreshold >= 0, "slowThreshold must be greater than or equal to 0");
+        this.slowThreshold = slowThreshold;
+    }
+
+    /**
+     * @return the ejectionTime
+     */
+    public long getEjectionTime() {
+        return this.ejectionTime;
+    }
+    /**
+     * @param ejectionTime The number of milliseconds a failed or slow server is ejected for
+     */
+    public void setEjectionTime(final long ejectionTime) {
+        Validate.isTrue(ejectionTime >= 0, "ejectionTime must be greater than or equal to 0");
+        this.ejectionTime = ejectionTime;
+    }
+
+    /**
+     * @return the probeInterval
+     */
+    public long getProbeInterval() {
+        return this.probeInterval;
+    }
+    /**
+     * @param probeInterval The number of milliseconds between background probes of all servers, 0 disables probes
+     */
+    public void setProbeInterval(final long probeInterval) {
+        Validate.isTrue(probeInterval >= 0, "probeInterval must be greater than or equal to 0");
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * @return The health of each server, in the order of the contextSources
+     */
+    public List<ServerHealth> getServerHealth() {
+        final long now = System.currentTimeMillis();
+        final List<ServerHealth> health = new ArrayList<>(this.servers.size());
+        for (final Server server : this.servers) {
+            health.add(server.getHealth(now));
+        }
+        return health;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Validate.notEmpty(this.servers, "contextSources must be set");
+
+        if (this.probeInterval > 0 && this.probeScheduler == null) {
+            this.probeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("LoadBalancingContextSource-probe-%d")
+                    .build());
+            this.probeScheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        probeServers();
+                    }
+                    catch (final RuntimeException e) {
+                        logger.warn("Failed to probe LDAP servers", e);
+                    }
+                }
+            }, this.probeInterval, this.probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.probeScheduler != null) {
+            this.probeScheduler.shutdownNow();
+            this.probeScheduler = null;
+        }
+    }
+
+    /**
+     * Probes every server by reading the base entry of a read-only context, updating its health score. Servers that
+     * fail the probe are ejected, ejected servers that pass it are re-admitted. Called by the background probe if
+     * a probeInterval is set.
+     */
+    public void probeServers() {
+        for (final Server server : this.servers) {
+            DirContext context = null;
+            final long start = System.nanoTime();
+            try {
+                context = server.contextSource.getReadOnlyContext();
+                context.getAttributes("");
+                this.recordLatency(server, start, true);
+            }
+            catch (final NamingException | javax.naming.NamingException e) {
+                this.recordFailure(server, e);
+            }
+            finally {
+                LdapUtils.closeContext(context);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.ldap.core.ContextSource#getReadOnlyContext()
+     */
+    @Override
+    public DirContext getReadOnlyContext() throws NamingException {
+        return this.getContext(new ContextFactory() {
+            public DirContext getContext(final ContextSource contextSource) {
+                return contextSource.getReadOnlyContext();
+            }
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.ldap.core.ContextSource#getReadWriteContext()
+     */
+    @Override
+    public DirContext getReadWriteContext() throws NamingException {
+        return this.getContext(new ContextFactory() {
+            public DirContext getContext(final ContextSource contextSource) {
+                return contextSource.getReadWriteContext();
+            }
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.ldap.core.ContextSource#getContext(java.lang.String, java.lang.String)
+     */
+    @Override
+    public DirContext getContext(final String principal, final String credentials) throws NamingException {
+        return this.getContext(new ContextFactory() {
+            public DirContext getContext(final ContextSource contextSource) {
+                return contextSource.getContext(principal, credentials);
+            }
+        });
+    }
+
+    /**
+     * Gets a context from the first server in the selection order that provides one.
+     */
+    private DirContext getContext(final ContextFactory contextFactory) {
+        NamingException lastException = null;
+        for (final Server server : this.selectServers()) {
+            final long start = System.nanoTime();
+            final DirContext context;
+            try {
+                context = contextFactory.getContext(server.contextSource);
+            }
+            catch (final AuthenticationException e) {
+                throw e;
+            }
+            catch (final NamingException e) {
+                this.recordFailure(server, e);
+                lastException = e;
+                continue;
+            }
+
+            this.recordLatency(server, start, false);
+            return this.timeContext(server, context);
+        }
+
+        if (lastException == null) {
+            throw new IllegalStateException("contextSources must be set");
+        }
+        throw lastException;
+    }
+
+    /**
+     * @return The servers in the order they should be tried, available servers ordered by the strategy followed by
+     * the ejected servers in the order their ejection ends.
+     */
+    private List<Server> selectServers() {
+        final long now = System.currentTimeMillis();
+        final List<Server> available = new ArrayList<>(this.servers.size());
+        final List<Server> ejected = new ArrayList<>(0);
+        for (final Server server : this.servers) {
+            if (server.isEjected(now)) {
+                ejected.add(server);
+            }
+            else {
+                available.add(server);
+            }
+        }
+
+        if (this.strategy == Strategy.LEAST_LATENCY) {
+            Collections.sort(available, new Comparator<Server>() {
+                public int compare(final Server s1, final Server s2) {
+                    return Double.compare(s1.getScore(), s2.getScore());
+                }
+            });
+        }
+        else if (available.size() > 1) {
+            final int first = (this.nextServer.getAndIncrement() & Integer.MAX_VALUE) % available.size();
+            Collections.rotate(available, -first);
+        }
+
+        if (!ejected.isEmpty()) {
+            Collections.sort(ejected, new Comparator<Server>() {
+                public int compare(final Server s1, final Server s2) {
+                    return Long.compare(s1.getEjectedUntil(), s2.getEjectedUntil());
+                }
+            });
+            available.addAll(ejected);
+        }
+
+        return available;
+    }
+
+    /**
+     * Wraps the context so the operations that go to the server are timed and communication failures recorded.
+     */
+    private DirContext timeContext(final Server server, final DirContext context) {
+        final Class<?>[] interfaces = ClassUtils.getAllInterfaces(context);
+        return (DirContext) Proxy.newProxyInstance(context.getClass().getClassLoader(), interfaces, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (!TIMED_METHODS.contains(method.getName())) {
+                    return invokeContext(context, method, args);
+                }
+
+                final long start = System.nanoTime();
+                try {
+                    final Object result = invokeContext(context, method, args);
+                    recordLatency(server, start, false);
+                    return result;
+                }
+                catch (final javax.naming.CommunicationException | javax.naming.ServiceUnavailableException e) {
+                    recordFailure(server, e);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private static Object invokeContext(final DirContext context, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(context, args);
+        }
+        catch (final InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private void recordLatency(final Server server, final long start, final boolean probe) {
+        final double latency = (System.nanoTime() - start) / 1000000d;
+        final long now = System.currentTimeMillis();
+        final double score = server.addLatency(latency, now);
+        if (this.slowThreshold > 0 && score > this.slowThreshold) {
+            if (server.eject(now + this.ejectionTime)) {
+                this.logger.warn("Ejecting slow LDAP server {} for {}ms, score {}ms exceeds {}ms",
+                        server.name, this.ejectionTime, score, this.slowThreshold);
+            }
+        }
+        else if (probe && server.readmit(now)) {
+            this.logger.info("Re-admitting LDAP server {}, score {}ms", server.name, score);
+        }
+    }
+
+    private void recordFailure(final Server server, final Exception e) {
+        server.addFailure();
+        if (server.eject(System.currentTimeMillis() + this.ejectionTime)) {
+            this.logger.warn("Ejecting failed LDAP server {} for {}ms: {}", server.name, this.ejectionTime, e.toString());
+        }
+        else {
+            this.logger.debug("LDAP server {} failed again: {}", server.name, e.toString());
+        }
+    }
+
+    /**
+     * Gets a context from a ContextSource.
+     */
+    private interface ContextFactory {
+        DirContext getContext(ContextSource contextSource);
+    }
+
+    /**
+     * The health state of a server, all guarded by the server's monitor.
+     */
+    private static final class Server {
+        private final ContextSource contextSource;
+        private final String name;
+        private double score = -1;
+        private long ejectedUntil = 0;
+        private long failures = 0;
+
+        public Server(final ContextSource contextSource) {
+            this.contextSource = contextSource;
+            if (contextSource instanceof LdapContextSource && ((LdapContextSource) contextSource).getUrls() != null) {
+                this.name = StringUtils.join(((LdapContextSource) contextSource).getUrls(), " ");
+            }
+            else {
+                this.name = contextSource.toString();
+            }
+        }
+
+        public synchronized double getScore() {
+            return this.score;
+        }
+
+        public synchronized long getEjectedUntil() {
+            return this.ejectedUntil;
+        }
+
+        public synchronized boolean isEjected(final long now) {
+            this.endEjection(now);
+            return now < this.ejectedUntil;
+        }
+
+        /**
+         * @return The new score
+         */
+        public synchronized double addLatency(final double latency, final long now) {
+            this.endEjection(now);
+            this.score = this.score < 0 ? latency : this.score + SCORE_DECAY * (latency - this.score);
+            return this.score;
+        }
+
+        public synchronized void addFailure() {
+            this.failures++;
+        }
+
+        /**
+         * @return true if the server was not already ejected
+         */
+        public synchronized boolean eject(final long until) {
+            final boolean wasEjected = this.isEjected(System.currentTimeMillis());
+            this.ejectedUntil = Math.max(this.ejectedUntil, until);
+            return !wasEjected;
+        }
+
+        /**
+         * @return true if the server was ejected
+         */
+        public synchronized boolean readmit(final long now) {
+            final boolean wasEjected = this.isEjected(now);
+            this.ejectedUntil = 0;
+            return wasEjected;
+        }
+
+        /**
+         * Clears an ejection that ran out without the server being re-admitted by a probe and resets its score,
+         * otherwise the score that got the server ejected would eject it again with its next sample.
+         */
+        private void endEjection(final long now) {
+            if (this.ejectedUntil != 0 && now >= this.ejectedUntil) {
+                this.ejectedUntil = 0;
+                this.score = -1;
+            }
+        }
+
+        public synchronized ServerHealth getHealth(final long now) {
+            final boolean ejected = this.isEjected(now);
+            return new ServerHealth(this.name, this.score, ejected, this.failures);
+        }
+    }
+
+    /**
+     * A snapshot of the health of a server.
+     */
+    public static final class ServerHealth {
+        private final String name;
+        private final double score;
+        private final boolean ejected;
+        private final long failures;
+
+        ServerHealth(final String name, final double score, final boolean ejected, final long failures) {
+            this.name = name;
+            this.score = score;
+            this.ejected = ejected;
+            this.failures = failures;
+        }
+
+        /**
+         * @return The URLs of the server or the description of its ContextSource
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return The decaying average latency of the server in milliseconds, -1 if it has not been measured
+         */
+        public double getScore() {
+            return this.score;
+        }
+
+        /**
+         * @return true if the server is currently ejected
+         */
+        public boolean isEjected() {
+            return this.ejected;
+        }
+
+        /**
+         * @return The number of times the server failed
+         */
+        public long getFailures() {
+            return this.failures;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + " score=" + this.score + "ms ejected=" + this.ejected + " failures=" + this.failures;
+        }
+    }
+}
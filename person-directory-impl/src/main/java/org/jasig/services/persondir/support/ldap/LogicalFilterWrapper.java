@@ -20,6 +20,7 @@ package org.jasig.services.persondir.support.ldap;
 
 import org.jasig.services.persondir.support.QueryType;
 import org.springframework.ldap.filter.AndFilter;
+import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.ldap.filter.Filter;
 import org.springframework.ldap.filter.OrFilter;
 
@@ -35,6 +36,13 @@ class LogicalFilterWrapper implements Filter {
     private final OrFilter orFilter;
     private final Filter delegateFilter;
     
+    /*
+     * Number of filters appended and the attribute and value of the first one if it is an equals filter
+     */
+    private int filterCount = 0;
+    private String equalsAttribute = null;
+    private String equalsValue = null;
+    
     public LogicalFilterWrapper(final QueryType queryType) {
         this.queryType = queryType;
 
@@ -70,6 +78,37 @@ class LogicalFilterWrapper implements Filter {
                 this.andFilter.and(query);
             } break;
         }
+        
+        this.filterCount++;
+    }
+    
+    /**
+     * Append an {@link EqualsFilter} for the attribute and value to the underlying logical Filter
+     * 
+     * @param attribute The attribute to compare
+     * @param value The value to compare to
+     */
+    public void appendEquals(final String attribute, final String value) {
+        this.append(new EqualsFilter(attribute, value));
+        
+        if (this.filterCount == 1) {
+            this.equalsAttribute = attribute;
+            this.equalsValue = value;
+        }
+    }
+    
+    /**
+     * @return The attribute if the only filter appended is an {@link EqualsFilter}, null otherwise
+     */
+    public String getEqualsAttribute() {
+        return this.filterCount == 1 ? this.equalsAttribute : null;
+    }
+    
+    /**
+     * @return The value if the only filter appended is an {@link EqualsFilter}, null otherwise
+     */
+    public String getEqualsValue() {
+        return this.filterCount == 1 ? this.equalsValue : null;
     }
 
     /* (non-Javadoc)
@@ -32,7 +32,10 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.jasig.services.persondir.IEnumerablePersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
 import org.jasig.services.persondir.support.IUsernameAttributeProvider;
 import org.jasig.services.persondir.support.NamedPersonImpl;
@@ -53,7 +56,7 @@ import org.springframework.core.io.Resource;
  * @author Eric Dalquist
  * @version $Revision$
  */
-public class XmlPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean {
+public class XmlPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean, IEnumerablePersonAttributeDao {
     private final AttributeLoader attributeLoader = new AttributeLoader();
     
     //Set of all attribute names across all available IPersonAttributes 
@@ -132,6 +135,26 @@ public class XmlPersonAttributeDao extends AbstractDefaultAttributePersonAttribu
         return this.personByNameCache.get(uid);
     }
 
+    /**
+     * Enumerates the people in the order they appear in the XML file.
+     * 
+     * @see org.jasig.services.persondir.IEnumerablePersonAttributeDao#enumeratePeople(org.jasig.services.persondir.IPersonAttributesCallback)
+     */
+    public long enumeratePeople(final IPersonAttributesCallback callback) {
+        Validate.notNull(callback, "callback may not be null.");
+        
+        this.jaxbLoader.getUnmarshalledObject(this.attributeLoader);
+        
+        long count = 0;
+        for (final IPersonAttributes person : this.personByNameCache.values()) {
+            count++;
+            if (!callback.processPerson(person)) {
+                break;
+            }
+        }
+        return count;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
      */
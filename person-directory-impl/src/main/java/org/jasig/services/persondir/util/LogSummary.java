@@ -0,0 +1,118 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.util;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.jasig.services.persondir.IPersonAttributes;
+
+/**
+ * Size capped description of a value for log messages. The description is only rendered when the logging framework
+ * calls {@link #toString()}, so passing a summary as a parameter of a disabled log statement costs a single
+ * allocation. Collections and maps list at most {@link #MAX_ELEMENTS} elements and the whole description is cut off
+ * after {@link #MAX_LENGTH} characters, results with thousands of people or values render in bounded time.
+ * <pre>
+ * logger.debug("Retrieved attributes='{}' for query='{}'", LogSummary.of(resultPeople), query);
+ * </pre>
+ *
+ * @version $Revision$
+ */
+public final class LogSummary {
+    /**
+     * Maximum number of elements of a collection or map that are described
+     */
+    public static final int MAX_ELEMENTS = 10;
+    /**
+     * Maximum length of the description
+     */
+    public static final int MAX_LENGTH = 1024;
+
+    private final Object value;
+
+    private LogSummary(final Object value) {
+        this.value = value;
+    }
+
+    /**
+     * @param value The value to describe, may be null
+     * @return A summary of the value that is rendered when it is logged
+     */
+    public static LogSummary of(final Object value) {
+        return new LogSummary(value);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        append(builder, this.value);
+
+        if (builder.length() > MAX_LENGTH) {
+            builder.setLength(MAX_LENGTH);
+            builder.append("...(truncated)");
+        }
+        return builder.toString();
+    }
+
+    private static void append(final StringBuilder builder, final Object value) {
+        if (value instanceof IPersonAttributes) {
+            final IPersonAttributes person = (IPersonAttributes) value;
+            builder.append(person.getName()).append('=');
+            append(builder, person.getAttributes());
+        }
+        else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            builder.append('{');
+            appendElements(builder, map.entrySet().iterator(), map.size());
+            builder.append('}');
+        }
+        else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            builder.append('[');
+            appendElements(builder, collection.iterator(), collection.size());
+            builder.append(']');
+        }
+        else {
+            builder.append(value);
+        }
+    }
+
+    private static void appendElements(final StringBuilder builder, final Iterator<?> elements, final int size) {
+        for (int index = 0; elements.hasNext(); index++) {
+            if (index == MAX_ELEMENTS || builder.length() > MAX_LENGTH) {
+                builder.append(", ...").append(size - index).append(" more");
+                return;
+            }
+            if (index > 0) {
+                builder.append(", ");
+            }
+
+            final Object element = elements.next();
+            if (element instanceof Map.Entry) {
+                final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                builder.append(entry.getKey()).append('=');
+                append(builder, entry.getValue());
+            }
+            else {
+                append(builder, element);
+            }
+        }
+    }
+}
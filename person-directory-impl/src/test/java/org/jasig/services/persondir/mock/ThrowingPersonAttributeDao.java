@@ -18,6 +18,7 @@
  */
 package org.jasig.services.persondir.mock;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -93,4 +94,18 @@ public class ThrowingPersonAttributeDao implements IPersonAttributeDao {
     public Map<String, Object> getUserAttributes(final String uid) {
         throw new RuntimeException("ThrowingPersonAttributeDao always throws");
     }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPersons(java.util.Collection)
+     */
+    public Map<String, IPersonAttributes> getPersons(final Collection<String> uids) {
+        throw new RuntimeException("ThrowingPersonAttributeDao always throws");
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleForQueries(java.util.Collection)
+     */
+    public Map<Map<String, List<Object>>, Set<IPersonAttributes>> getPeopleForQueries(final Collection<Map<String, List<Object>>> queries) {
+        throw new RuntimeException("ThrowingPersonAttributeDao always throws");
+    }
 }
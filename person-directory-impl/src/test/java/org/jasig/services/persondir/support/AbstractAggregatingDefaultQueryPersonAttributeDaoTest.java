@@ -25,12 +25,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
 import org.jasig.services.persondir.support.merger.MultivaluedAttributeMerger;
 import org.jasig.services.persondir.util.Util;
+import org.springframework.dao.QueryTimeoutException;
 
 /**
  * Provides base tests for classes that implement AbstractAggregatingDefaultQueryPersonAttributeDao.
@@ -139,6 +142,83 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDaoTest exte
         
     }
     
+    public void testChildTimeout() {
+        final AbstractAggregatingDefaultQueryPersonAttributeDao dao = this.getEmptyAbstractAggregatingDefaultQueryPersonAttributeDao();
+        
+        final Map<String, List<Object>> attrMap1 = new HashMap<>();
+        attrMap1.put("username", Util.list("test"));
+        attrMap1.put("key1.1", Util.list("val1.1"));
+        
+        final Map<String, List<Object>> attrMap2 = new HashMap<>();
+        attrMap2.put("username", Util.list("test"));
+        attrMap2.put("key2.1", Util.list("val2.1"));
+        
+        final Set<String> expectedNames = new HashSet<>();
+        expectedNames.addAll(attrMap1.keySet());
+        expectedNames.addAll(attrMap2.keySet());
+        
+        final List<IPersonAttributeDao> childDaos = new ArrayList<>(3);
+        childDaos.add(new StubPersonAttributeDao(attrMap1));
+        childDaos.add(new SlowPersonAttributeDao(5000));
+        childDaos.add(new StubPersonAttributeDao(attrMap2));
+        dao.setPersonAttributeDaos(childDaos);
+        
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            dao.setExecutorService(executorService);
+            dao.setChildTimeout(100);
+            
+            final long start = System.currentTimeMillis();
+            final IPersonAttributes person = dao.getPerson("test");
+            assertTrue("The slow child DAO should have been abandoned", System.currentTimeMillis() - start < 2500);
+            
+            assertEquals(expectedNames, person.getAttributes().keySet());
+            assertEquals(1, dao.getChildTimeouts());
+            
+            //Test fail on timeout
+            dao.setRecoverExceptions(false);
+            try {
+                dao.getPerson("test");
+                fail("Expected QueryTimeoutException with a child DAO that misses its deadline");
+            }
+            catch (final QueryTimeoutException qte) {
+                //expected
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    public void testQueryTimeout() {
+        final AbstractAggregatingDefaultQueryPersonAttributeDao dao = this.getEmptyAbstractAggregatingDefaultQueryPersonAttributeDao();
+        
+        final Map<String, List<Object>> attrMap1 = new HashMap<>();
+        attrMap1.put("username", Util.list("test"));
+        attrMap1.put("key1.1", Util.list("val1.1"));
+        
+        final List<IPersonAttributeDao> childDaos = new ArrayList<>(3);
+        childDaos.add(new StubPersonAttributeDao(attrMap1));
+        childDaos.add(new SlowPersonAttributeDao(5000));
+        childDaos.add(new SlowPersonAttributeDao(5000));
+        dao.setPersonAttributeDaos(childDaos);
+        
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            dao.setExecutorService(executorService);
+            dao.setQueryTimeout(200);
+            
+            final long start = System.currentTimeMillis();
+            final IPersonAttributes person = dao.getPerson("test");
+            assertTrue("The slow child DAOs should have been abandoned", System.currentTimeMillis() - start < 2500);
+            
+            assertEquals(attrMap1.keySet(), person.getAttributes().keySet());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
     public void testSetNullMerger() {
         final AbstractAggregatingDefaultQueryPersonAttributeDao dao = this.getEmptyAbstractAggregatingDefaultQueryPersonAttributeDao();
         
@@ -177,4 +257,26 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDaoTest exte
         dao.setRecoverExceptions(true);
         assertTrue(dao.isRecoverExceptions());
     }
+    
+    /**
+     * A child DAO that does not return any results until the specified delay has passed.
+     */
+    private static class SlowPersonAttributeDao extends StubPersonAttributeDao {
+        private final long delay;
+        
+        public SlowPersonAttributeDao(final long delay) {
+            this.delay = delay;
+        }
+        
+        @Override
+        public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+            try {
+                Thread.sleep(this.delay);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getPeopleWithMultivaluedAttributes(query);
+        }
+    }
 }
@@ -278,6 +278,40 @@ public class AbstractQueryPersonAttributeDaoTest extends AbstractPersonAttribute
         assertEquals(Util.genList("dalquist"), result.getAttributeValues("name.last"));
     }
 
+    public void testMapPersonAttributes_Reconfigured() {
+        final Map<String, List<Object>> storedAttrs = new HashMap<>();
+        storedAttrs.put("username", Util.list("edalquist"));
+        storedAttrs.put("name.first", Util.list("Eric"));
+
+        final InMemoryAbstractQueryPersonAttributeDao dao = new InMemoryAbstractQueryPersonAttributeDao(storedAttrs);
+
+        final Map<String, Object> resultAttributeMappings = new LinkedHashMap<>();
+        resultAttributeMappings.put("username", null);
+        resultAttributeMappings.put("name.first", Arrays.asList("fname", "givenName"));
+        dao.setResultAttributeMapping(resultAttributeMappings);
+        dao.setCaseInsensitiveResultAttributesAsCollection(Collections.singleton("givenName"));
+
+        final Map<String, List<Object>> seed = new HashMap<>();
+        seed.put("username", Collections.singletonList((Object)"edalquist"));
+
+        IPersonAttributes result = dao.getPeopleWithMultivaluedAttributes(seed).iterator().next();
+        assertEquals(new HashSet<>(Arrays.asList("username", "fname", "givenName")), result.getAttributes().keySet());
+        assertEquals(Util.genList("edalquist"), result.getAttributeValues("username"));
+        assertEquals(Util.genList("Eric"), result.getAttributeValues("fname"));
+        assertEquals(Util.genList("eric"), result.getAttributeValues("givenName"));
+
+        //Changing the configuration after a query is used by the next query
+        dao.setDefaultCaseCanonicalizationMode(CaseCanonicalizationMode.UPPER);
+        result = dao.getPeopleWithMultivaluedAttributes(seed).iterator().next();
+        assertEquals(Util.genList("Eric"), result.getAttributeValues("fname"));
+        assertEquals(Util.genList("ERIC"), result.getAttributeValues("givenName"));
+
+        resultAttributeMappings.remove("name.first");
+        dao.setResultAttributeMapping(resultAttributeMappings);
+        result = dao.getPeopleWithMultivaluedAttributes(seed).iterator().next();
+        assertEquals(Collections.singleton("username"), result.getAttributes().keySet());
+    }
+
     @Override
     protected IPersonAttributeDao getPersonAttributeDaoInstance() {
         return testQueryPersonAttributeDao;
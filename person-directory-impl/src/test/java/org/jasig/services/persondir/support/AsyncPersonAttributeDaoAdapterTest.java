@@ -0,0 +1,115 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * @version $Revision$
+ */
+public class AsyncPersonAttributeDaoAdapterTest extends TestCase {
+
+    public void testCallingThread() throws Exception {
+        final StubPersonAttributeDao stubDao = new StubPersonAttributeDao(Collections.singletonMap("phone", Util.list("777-7777")));
+        final AsyncPersonAttributeDaoAdapter adapter = new AsyncPersonAttributeDaoAdapter(stubDao, null);
+        
+        final ListenableFuture<Set<IPersonAttributes>> results = adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist")));
+        assertTrue(results.isDone());
+        assertEquals(Util.list("777-7777"), results.get().iterator().next().getAttributeValues("phone"));
+    }
+    
+    public void testExecutorService() throws Exception {
+        final AtomicReference<Thread> queryThread = new AtomicReference<>();
+        final StubPersonAttributeDao stubDao = new StubPersonAttributeDao(Collections.singletonMap("phone", Util.list("777-7777"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                queryThread.set(Thread.currentThread());
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final AsyncPersonAttributeDaoAdapter adapter = new AsyncPersonAttributeDaoAdapter(stubDao, executorService);
+            
+            final Set<IPersonAttributes> results = adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist"))).get();
+            assertEquals(Util.list("777-7777"), results.iterator().next().getAttributeValues("phone"));
+            assertNotSame(Thread.currentThread(), queryThread.get());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    public void testAsyncDao() throws Exception {
+        final StubPersonAttributeDao stubDao = new StubPersonAttributeDao(Collections.singletonMap("phone", Util.list("777-7777")));
+        final CachingPersonAttributeDaoImpl cachingDao = new CachingPersonAttributeDaoImpl();
+        cachingDao.setCachedPersonAttributesDao(stubDao);
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+        cacheKeyGenerator.setCacheKeyAttributes(Collections.singleton("uid"));
+        cachingDao.setCacheKeyGenerator(cacheKeyGenerator);
+        cachingDao.afterPropertiesSet();
+        
+        final AsyncPersonAttributeDaoAdapter adapter = new AsyncPersonAttributeDaoAdapter(cachingDao, null);
+        adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist"))).get();
+        adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist"))).get();
+        
+        assertEquals(2, cachingDao.getQueries());
+        assertEquals(1, cachingDao.getMisses());
+    }
+    
+    public void testException() throws Exception {
+        final AsyncPersonAttributeDaoAdapter adapter = new AsyncPersonAttributeDaoAdapter(new ThrowingPersonAttributeDao(), null);
+        
+        final ListenableFuture<Set<IPersonAttributes>> results = adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist")));
+        try {
+            results.get();
+            fail("ExecutionException should have been thrown");
+        }
+        catch (final ExecutionException ee) {
+            assertEquals("ThrowingPersonAttributeDao always throws", ee.getCause().getMessage());
+        }
+    }
+    
+    public void testNoDao() {
+        final AsyncPersonAttributeDaoAdapter adapter = new AsyncPersonAttributeDaoAdapter();
+        
+        try {
+            adapter.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("uid", Util.list("edalquist")));
+            fail("IllegalStateException should have been thrown with no personAttributeDao");
+        }
+        catch (final IllegalStateException ise) {
+            //expected
+        }
+    }
+}
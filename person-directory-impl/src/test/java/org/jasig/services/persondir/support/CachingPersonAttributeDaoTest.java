@@ -18,14 +18,29 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.jasig.services.persondir.IAsyncPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.util.Util;
 
@@ -249,6 +264,556 @@ public class CachingPersonAttributeDaoTest extends AbstractDefaultQueryPersonAtt
         assertEquals("Incorrect number of items in cache", 1, cacheMap.size());
     }
     
+    public void testBuiltInCache() throws Exception {
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setMaximumCacheSize(1);
+        dao.afterPropertiesSet();
+        
+        final Map<Serializable, Set<IPersonAttributes>> cacheMap = dao.getUserInfoCache();
+        assertNotNull("Built-in cache should have been created", cacheMap);
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Query count incorrect", 2, dao.getQueries());
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+        assertEquals("Incorrect number of items in cache", 1, cacheMap.size());
+        
+        //Evicts edalquist
+        this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+        assertEquals("Incorrect number of items in cache", 1, cacheMap.size());
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Query count incorrect", 4, dao.getQueries());
+        assertEquals("Miss count incorrect", 3, dao.getMisses());
+    }
+    
+    public void testOffHeapCache() throws Exception {
+        final OffHeapPersonAttributesCache offHeapCache = new OffHeapPersonAttributesCache(1024 * 1024);
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setMaximumCacheSize(1);
+        dao.setOffHeapCache(offHeapCache);
+        dao.afterPropertiesSet();
+        
+        final Map<Serializable, Set<IPersonAttributes>> cacheMap = dao.getUserInfoCache();
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        //Evicts edalquist from the on-heap cache
+        this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+        assertEquals("Incorrect number of items in cache", 1, cacheMap.size());
+        assertEquals("Incorrect number of items in off-heap cache", 2, offHeapCache.size());
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+        
+        //Served from the off-heap cache and promoted back on-heap
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Query count incorrect", 3, dao.getQueries());
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+        assertEquals("Off-heap hit count incorrect", 1, offHeapCache.getHits());
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+        assertEquals("Off-heap hit count incorrect", 1, offHeapCache.getHits());
+        
+        dao.removeUserAttributes("awp9");
+        assertEquals("Incorrect number of items in off-heap cache", 1, offHeapCache.size());
+        this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+        assertEquals("Miss count incorrect", 3, dao.getMisses());
+    }
+    
+    public void testOffHeapCacheTimeToLive() throws Exception {
+        final OffHeapPersonAttributesCache offHeapCache = new OffHeapPersonAttributesCache(1024 * 1024);
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setMaximumCacheSize(1);
+        dao.setCacheTimeToLive(200);
+        dao.setOffHeapCache(offHeapCache);
+        dao.afterPropertiesSet();
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        //Evicts edalquist from the on-heap cache
+        this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+        
+        //Promoted from the off-heap cache with the time it was loaded
+        Thread.sleep(120);
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+        
+        //Expires by the time it was loaded, not the time it was promoted
+        Thread.sleep(120);
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 3, dao.getMisses());
+        
+        //Expired results are not returned from the off-heap cache
+        this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+        assertEquals("Miss count incorrect", 4, dao.getMisses());
+        assertEquals("Off-heap hit count incorrect", 1, offHeapCache.getHits());
+    }
+    
+    public void testSnapshot() throws Exception {
+        final File snapshotFile = File.createTempFile("CachingPersonAttributeDaoTest", ".snapshot");
+        assertTrue(snapshotFile.delete());
+        try {
+            final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+            dao.setCachedPersonAttributesDao(this.stubDao);
+            dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            dao.setSnapshotFile(snapshotFile);
+            dao.afterPropertiesSet();
+            
+            this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            this.validateUser2(dao.getMultivaluedUserAttributes("awp9"));
+            dao.destroy();
+            assertTrue("Snapshot should have been written", snapshotFile.isFile());
+            
+            //Restarted DAO serves hits from the snapshot
+            final CachingPersonAttributeDaoImpl restartedDao = new CachingPersonAttributeDaoImpl();
+            restartedDao.setCachedPersonAttributesDao(this.stubDao);
+            restartedDao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            restartedDao.setSnapshotFile(snapshotFile);
+            restartedDao.afterPropertiesSet();
+            
+            this.validateUser1(restartedDao.getMultivaluedUserAttributes("edalquist"));
+            this.validateUser1(restartedDao.getMultivaluedUserAttributes("edalquist"));
+            assertEquals("Query count incorrect", 2, restartedDao.getQueries());
+            assertEquals("Miss count incorrect", 0, restartedDao.getMisses());
+            assertEquals("Incorrect number of items in cache", 1, restartedDao.getUserInfoCache().size());
+            
+            restartedDao.removeUserAttributes("awp9");
+            this.validateUser2(restartedDao.getMultivaluedUserAttributes("awp9"));
+            assertEquals("Miss count incorrect", 1, restartedDao.getMisses());
+            
+            //Snapshot results older than the time to live are not used
+            Thread.sleep(100);
+            final CachingPersonAttributeDaoImpl expiredDao = new CachingPersonAttributeDaoImpl();
+            expiredDao.setCachedPersonAttributesDao(this.stubDao);
+            expiredDao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            expiredDao.setSnapshotFile(snapshotFile);
+            expiredDao.setCacheTimeToLive(50);
+            expiredDao.afterPropertiesSet();
+            
+            this.validateUser1(expiredDao.getMultivaluedUserAttributes("edalquist"));
+            assertEquals("Miss count incorrect", 1, expiredDao.getMisses());
+        }
+        finally {
+            snapshotFile.delete();
+        }
+    }
+    
+    public void testSnapshotTimeToLive() throws Exception {
+        final File snapshotFile = File.createTempFile("CachingPersonAttributeDaoTest", ".snapshot");
+        assertTrue(snapshotFile.delete());
+        try {
+            final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+            dao.setCachedPersonAttributesDao(this.stubDao);
+            dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            dao.setSnapshotFile(snapshotFile);
+            dao.setCacheTimeToLive(200);
+            dao.afterPropertiesSet();
+            
+            this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            dao.destroy();
+            
+            Thread.sleep(120);
+            final CachingPersonAttributeDaoImpl restartedDao = new CachingPersonAttributeDaoImpl();
+            restartedDao.setCachedPersonAttributesDao(this.stubDao);
+            restartedDao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            restartedDao.setSnapshotFile(snapshotFile);
+            restartedDao.setCacheTimeToLive(200);
+            restartedDao.afterPropertiesSet();
+            
+            this.validateUser1(restartedDao.getMultivaluedUserAttributes("edalquist"));
+            assertEquals("Miss count incorrect", 0, restartedDao.getMisses());
+            
+            //Results loaded from the snapshot only live for the rest of their time to live
+            Thread.sleep(120);
+            this.validateUser1(restartedDao.getMultivaluedUserAttributes("edalquist"));
+            assertEquals("Miss count incorrect", 1, restartedDao.getMisses());
+        }
+        finally {
+            snapshotFile.delete();
+        }
+    }
+    
+    public void testSnapshotInterval() throws Exception {
+        final File snapshotFile = File.createTempFile("CachingPersonAttributeDaoTest", ".snapshot");
+        assertTrue(snapshotFile.delete());
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setSnapshotInterval(10);
+        try {
+            dao.afterPropertiesSet();
+            fail("afterPropertiesSet should have failed with IllegalStateException");
+        }
+        catch (final IllegalStateException ise) {
+            //expected
+        }
+        
+        dao.setSnapshotFile(snapshotFile);
+        dao.afterPropertiesSet();
+        try {
+            this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            
+            for (int wait = 0; wait < 100 && !snapshotFile.isFile(); wait++) {
+                Thread.sleep(10);
+            }
+            assertTrue("Snapshot should have been written", snapshotFile.isFile());
+        }
+        finally {
+            dao.destroy();
+            snapshotFile.delete();
+        }
+    }
+    
+    public void testBuiltInCacheTimeToLive() throws Exception {
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setMaximumCacheWeight(100);
+        dao.setCacheTimeToLive(50);
+        dao.afterPropertiesSet();
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+        
+        Thread.sleep(100);
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 2, dao.getMisses());
+    }
+    
+    public void testCoalesceMisses() throws Exception {
+        final AtomicInteger backendQueries = new AtomicInteger();
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        final StubPersonAttributeDao slowDao = new StubPersonAttributeDao(this.stubDao.getBackingMap().get("edalquist")) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                backendQueries.incrementAndGet();
+                queryStarted.countDown();
+                try {
+                    releaseQuery.await();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(slowDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(5);
+        try {
+            final List<Future<Map<String, List<Object>>>> results = new ArrayList<>();
+            for (int index = 0; index < 5; index++) {
+                results.add(executorService.submit(new Callable<Map<String, List<Object>>>() {
+                    public Map<String, List<Object>> call() {
+                        return dao.getMultivaluedUserAttributes("edalquist");
+                    }
+                }));
+            }
+            
+            //Let the other threads pile up behind the first query before releasing it
+            queryStarted.await();
+            Thread.sleep(100);
+            releaseQuery.countDown();
+            
+            for (final Future<Map<String, List<Object>>> result : results) {
+                this.validateUser1(result.get());
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        
+        assertEquals("Concurrent misses should share a single query", 1, backendQueries.get());
+        assertEquals("Query count incorrect", 5, dao.getQueries());
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+    }
+    
+    public void testCoalescedWaiterInterrupted() throws Exception {
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        final StubPersonAttributeDao slowDao = new StubPersonAttributeDao(this.stubDao.getBackingMap().get("edalquist")) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                queryStarted.countDown();
+                try {
+                    releaseQuery.await();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(slowDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Callable<Map<String, List<Object>>> query = new Callable<Map<String, List<Object>>>() {
+                public Map<String, List<Object>> call() {
+                    return dao.getMultivaluedUserAttributes("edalquist");
+                }
+            };
+            final Future<Map<String, List<Object>>> loader = executorService.submit(query);
+            queryStarted.await();
+            
+            final CountDownLatch waiterDone = new CountDownLatch(1);
+            final AtomicBoolean waiterInterrupted = new AtomicBoolean();
+            final Future<?> waiter = executorService.submit(new Runnable() {
+                public void run() {
+                    try {
+                        dao.getMultivaluedUserAttributes("edalquist");
+                    }
+                    catch (final IllegalStateException e) {
+                        waiterInterrupted.set(e.getCause() instanceof InterruptedException && Thread.currentThread().isInterrupted());
+                    }
+                    finally {
+                        waiterDone.countDown();
+                    }
+                }
+            });
+            
+            //Interrupting the waiter stops it waiting for the pending query
+            Thread.sleep(100);
+            waiter.cancel(true);
+            assertTrue("Waiter should stop waiting when interrupted", waiterDone.await(5, TimeUnit.SECONDS));
+            assertTrue(waiterInterrupted.get());
+            assertFalse(loader.isDone());
+            
+            //The pending query is not affected
+            releaseQuery.countDown();
+            this.validateUser1(loader.get());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    public void testAsyncCaching() throws Exception {
+        final AtomicInteger backendQueries = new AtomicInteger();
+        final List<SettableFuture<Set<IPersonAttributes>>> pendingResults = new ArrayList<>();
+        final AsyncStubPersonAttributeDao asyncDao = new AsyncStubPersonAttributeDao(backendQueries, pendingResults);
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(asyncDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+        
+        //Concurrent misses share the pending query of the wrapped DAO
+        final ListenableFuture<Set<IPersonAttributes>> result1 = dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("edalquist"));
+        final ListenableFuture<Set<IPersonAttributes>> result2 = dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("edalquist"));
+        assertFalse(result1.isDone());
+        assertFalse(result2.isDone());
+        assertEquals(1, backendQueries.get());
+        
+        final Set<IPersonAttributes> edalquist = this.stubDao.getPeopleWithMultivaluedAttributes(dao.toSeedMap("edalquist"));
+        pendingResults.get(0).set(edalquist);
+        assertEquals(edalquist, result1.get());
+        assertEquals(edalquist, result2.get());
+        
+        //Cache hits complete immediately
+        final ListenableFuture<Set<IPersonAttributes>> result3 = dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("edalquist"));
+        assertTrue(result3.isDone());
+        assertEquals(edalquist, result3.get());
+        assertEquals(edalquist, dao.getPeopleWithMultivaluedAttributes(dao.toSeedMap("edalquist")));
+        
+        assertEquals(1, backendQueries.get());
+        assertEquals("Query count incorrect", 4, dao.getQueries());
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+        
+        //Failed queries are not cached
+        final ListenableFuture<Set<IPersonAttributes>> result4 = dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("awp9"));
+        pendingResults.get(1).setException(new IllegalStateException("Query failed"));
+        try {
+            result4.get();
+            fail("The query should have failed");
+        }
+        catch (final ExecutionException ee) {
+            assertEquals("Query failed", ee.getCause().getMessage());
+        }
+        
+        dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("awp9"));
+        assertEquals(3, backendQueries.get());
+    }
+    
+    public void testAsyncSynchronousTarget() throws Exception {
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(this.stubDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+        
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            dao.setExecutorService(executorService);
+            
+            final Set<IPersonAttributes> results = dao.getPeopleWithMultivaluedAttributesAsync(dao.toSeedMap("edalquist")).get();
+            assertEquals(1, results.size());
+            this.validateUser1(results.iterator().next().getAttributes());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+    }
+    
+    public void testRefreshAhead() throws Exception {
+        final Map<String, List<Object>> backingMap = new HashMap<>(this.stubDao.getBackingMap().get("edalquist"));
+        final StubPersonAttributeDao backingDao = new StubPersonAttributeDao(backingMap);
+        
+        final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(backingDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setRefreshAfter(50);
+        dao.setRefreshExecutor(refreshExecutor);
+        dao.afterPropertiesSet();
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        
+        final Map<String, List<Object>> updatedMap = new HashMap<>(backingMap);
+        updatedMap.put("phone", Util.list("555-5555"));
+        backingDao.setBackingMap(updatedMap);
+        Thread.sleep(100);
+        
+        //Stale result is returned while the refresh runs
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        
+        refreshExecutor.shutdown();
+        assertTrue(refreshExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        
+        assertEquals(Util.list("555-5555"), dao.getMultivaluedUserAttributes("edalquist").get("phone"));
+        assertEquals("Miss count incorrect", 1, dao.getMisses());
+    }
+    
+    public void testRefreshAheadFailure() throws Exception {
+        final AtomicInteger backendQueries = new AtomicInteger();
+        final StubPersonAttributeDao backingDao = new StubPersonAttributeDao(this.stubDao.getBackingMap().get("edalquist")) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                if (backendQueries.incrementAndGet() > 1) {
+                    throw new RuntimeException("Backend is down");
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        
+        for (final boolean serveStaleOnError : new boolean[] { true, false }) {
+            backendQueries.set(0);
+            
+            final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+            final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+            dao.setCachedPersonAttributesDao(backingDao);
+            dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+            dao.setRefreshAfter(50);
+            dao.setRefreshExecutor(refreshExecutor);
+            dao.setServeStaleOnError(serveStaleOnError);
+            dao.afterPropertiesSet();
+            
+            this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            Thread.sleep(100);
+            this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            
+            refreshExecutor.shutdown();
+            assertTrue(refreshExecutor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(2, backendQueries.get());
+            
+            if (serveStaleOnError) {
+                this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+            }
+            else {
+                try {
+                    dao.getMultivaluedUserAttributes("edalquist");
+                    fail("Expected the failed refresh to remove the cached results");
+                }
+                catch (final RuntimeException rte) {
+                    //expected
+                }
+            }
+        }
+    }
+    
+    public void testRefreshAheadNullResults() throws Exception {
+        final AtomicInteger backendQueries = new AtomicInteger();
+        final StubPersonAttributeDao backingDao = new StubPersonAttributeDao(this.stubDao.getBackingMap().get("edalquist")) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                if (backendQueries.incrementAndGet() > 1) {
+                    //The person was removed from the backend
+                    return null;
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        
+        final AtomicInteger refreshes = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ExecutorService refreshExecutor = new AbstractExecutorService() {
+            public void execute(final Runnable command) {
+                refreshes.incrementAndGet();
+                executor.execute(command);
+            }
+            public void shutdown() {
+                executor.shutdown();
+            }
+            public List<Runnable> shutdownNow() {
+                return executor.shutdownNow();
+            }
+            public boolean isShutdown() {
+                return executor.isShutdown();
+            }
+            public boolean isTerminated() {
+                return executor.isTerminated();
+            }
+            public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+                return executor.awaitTermination(timeout, unit);
+            }
+        };
+        
+        final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(backingDao);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setRefreshAfter(50);
+        dao.setRefreshExecutor(refreshExecutor);
+        dao.afterPropertiesSet();
+        
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        Thread.sleep(100);
+        
+        //Stale result is returned while the refresh runs
+        this.validateUser1(dao.getMultivaluedUserAttributes("edalquist"));
+        refreshExecutor.shutdown();
+        assertTrue(refreshExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, backendQueries.get());
+        
+        //The stale result was removed, later queries do not start more refreshes
+        for (int i = 0; i < 5; i++) {
+            assertNull(dao.getMultivaluedUserAttributes("edalquist"));
+        }
+        assertEquals(1, refreshes.get());
+        assertTrue(dao.getUserInfoCache().isEmpty());
+    }
+    
     public void testPropertyConstraints() {
         final CachingPersonAttributeDaoImpl dao = new CachingPersonAttributeDaoImpl();
         
@@ -407,4 +972,24 @@ public class CachingPersonAttributeDaoTest extends AbstractDefaultQueryPersonAtt
         
         return dao;
     }
+    
+    /**
+     * Returns a pending future for each query, completed by the test.
+     */
+    private static class AsyncStubPersonAttributeDao extends StubPersonAttributeDao implements IAsyncPersonAttributeDao {
+        private final AtomicInteger backendQueries;
+        private final List<SettableFuture<Set<IPersonAttributes>>> pendingResults;
+        
+        public AsyncStubPersonAttributeDao(final AtomicInteger backendQueries, final List<SettableFuture<Set<IPersonAttributes>>> pendingResults) {
+            this.backendQueries = backendQueries;
+            this.pendingResults = pendingResults;
+        }
+        
+        public ListenableFuture<Set<IPersonAttributes>> getPeopleWithMultivaluedAttributesAsync(final Map<String, List<Object>> query) {
+            this.backendQueries.incrementAndGet();
+            final SettableFuture<Set<IPersonAttributes>> result = SettableFuture.create();
+            this.pendingResults.add(result);
+            return result;
+        }
+    }
 }
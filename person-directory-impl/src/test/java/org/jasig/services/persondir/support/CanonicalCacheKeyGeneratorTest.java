@@ -0,0 +1,120 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * @version $Revision$
+ */
+public class CanonicalCacheKeyGeneratorTest extends TestCase {
+
+    public void testAttributeOrder() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+        cacheKeyGenerator.setUseAllAttributes(true);
+
+        final Map<String, Object> seed1 = new LinkedHashMap<>();
+        seed1.put("username", Collections.singletonList("edalquist"));
+        seed1.put("email", Collections.singletonList("edalquist@example.edu"));
+
+        final Map<String, Object> seed2 = new LinkedHashMap<>();
+        seed2.put("email", Collections.singletonList("edalquist@example.edu"));
+        seed2.put("username", Arrays.asList((Object)"edalquist"));
+
+        final Serializable key1 = cacheKeyGenerator.generateKey(seed1);
+        final Serializable key2 = cacheKeyGenerator.generateKey(seed2);
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertEquals("{email=[edalquist@example.edu], username=[edalquist]}", key1.toString());
+    }
+
+    public void testHashCollision() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+
+        //"Aa" and "BB" have the same String hash code
+        final Map<String, Object> seed1 = Collections.singletonMap("username", (Object)"Aa");
+        final Map<String, Object> seed2 = Collections.singletonMap("username", (Object)"BB");
+        assertEquals(seed1.hashCode(), seed2.hashCode());
+
+        final Serializable key1 = cacheKeyGenerator.generateKey(seed1);
+        final Serializable key2 = cacheKeyGenerator.generateKey(seed2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertFalse(key1.equals(key2));
+    }
+
+    public void testSingleAndMultiValued() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+
+        final Serializable singleKey = cacheKeyGenerator.generateKey(Collections.singletonMap("username", "edalquist"));
+        final Serializable multiKey = cacheKeyGenerator.generateKey(Collections.singletonMap("username", Collections.singletonList("edalquist")));
+        assertFalse(singleKey.equals(multiKey));
+    }
+
+    public void testCacheKeyAttributes() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+        cacheKeyGenerator.setCacheKeyAttributes(Collections.singleton("uid"));
+        cacheKeyGenerator.setIgnoreEmptyAttributes(true);
+
+        final Map<String, Object> seed = new HashMap<>();
+        seed.put("username", "edalquist");
+        assertNull(cacheKeyGenerator.generateKey(seed));
+
+        seed.put("uid", Collections.emptyList());
+        assertNull(cacheKeyGenerator.generateKey(seed));
+
+        seed.put("uid", Collections.singletonList("12345"));
+        final Serializable key = cacheKeyGenerator.generateKey(seed);
+        assertEquals(key, cacheKeyGenerator.generateKey(Collections.singletonMap("uid", Collections.singletonList("12345"))));
+    }
+
+    public void testSeedChange() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+
+        final List<Object> values = new ArrayList<>();
+        values.add("edalquist");
+        final Map<String, Object> seed = Collections.singletonMap("username", (Object)values);
+
+        final Serializable key = cacheKeyGenerator.generateKey(seed);
+        final int hashCode = key.hashCode();
+        values.add("awp9");
+
+        assertEquals(hashCode, key.hashCode());
+        assertEquals(key, cacheKeyGenerator.generateKey(Collections.singletonMap("username", Collections.singletonList("edalquist"))));
+    }
+
+    public void testSerializable() {
+        final CanonicalCacheKeyGenerator cacheKeyGenerator = new CanonicalCacheKeyGenerator();
+
+        final Serializable key = cacheKeyGenerator.generateKey(Collections.singletonMap("username", Arrays.asList("edalquist", "awp9")));
+        final Serializable copy = SerializationUtils.clone(key);
+        assertEquals(key, copy);
+        assertEquals(key.hashCode(), copy.hashCode());
+    }
+}
@@ -19,11 +19,15 @@
 package org.jasig.services.persondir.support;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
 import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
 import org.jasig.services.persondir.support.merger.MultivaluedAttributeMerger;
 import org.jasig.services.persondir.util.Util;
@@ -116,6 +120,28 @@ public class CascadingPersonAttributeDaoTest
         assertEquals(expected, results);
     }
 
+    public void testCascadingQueryAsync() throws Exception {
+        final List<IPersonAttributeDao> targets = new ArrayList<>();
+        targets.add(this.sourceOne);
+        targets.add(this.nullSource);
+        targets.add(this.sourceTwo);
+        
+        final CascadingPersonAttributeDao targetDao = new CascadingPersonAttributeDao();
+        targetDao.setPersonAttributeDaos(targets);
+        targetDao.setMerger(new MultivaluedAttributeMerger());
+        
+        final Set<IPersonAttributes> results = targetDao.getPeopleWithMultivaluedAttributesAsync(targetDao.toSeedMap("edalquist")).get();
+        assertEquals(1, results.size());
+        
+        final Map<String, List<Object>> expected = new HashMap<>();
+        expected.put("username", Util.list("edalquist"));
+        expected.put("studentId", Util.list("123456789"));
+        expected.put("major", Util.list("CS"));
+        expected.put("phone", Util.list("777-7777", "777-7777x777"));
+        
+        assertEquals(expected, results.iterator().next().getAttributes());
+    }
+
     public void testNoChildren() {
         final CascadingPersonAttributeDao targetDao = new CascadingPersonAttributeDao();
         
@@ -162,6 +188,72 @@ public class CascadingPersonAttributeDaoTest
         }
     }
 
+    public void testChildMetrics() throws Exception {
+        final List<IPersonAttributeDao> targets = new ArrayList<>();
+        targets.add(this.sourceOne);
+        targets.add(this.nullSource);
+        targets.add(new ThrowingPersonAttributeDao());
+        targets.add(new MetricsPersonAttributeDao(this.sourceTwo, null, "sourceTwo"));
+        
+        final PersonAttributeDaoMetricsRegistry metricsRegistry = new PersonAttributeDaoMetricsRegistry();
+        final CascadingPersonAttributeDao targetDao = new CascadingPersonAttributeDao();
+        targetDao.setPersonAttributeDaos(targets);
+        targetDao.setBeanName("cascadingDao");
+        targetDao.setMetricsRegistry(metricsRegistry);
+        
+        targetDao.getMultivaluedUserAttributes("edalquist");
+        targetDao.getPeopleWithMultivaluedAttributesAsync(targetDao.toSeedMap("edalquist")).get();
+        
+        //The MetricsPersonAttributeDao child records its own metrics
+        assertEquals(Util.genList("cascadingDao[0]", "cascadingDao[1]", "cascadingDao[2]"),
+                new ArrayList<>(metricsRegistry.getAllMetrics().keySet()));
+        
+        final PersonAttributeDaoMetrics sourceOneMetrics = metricsRegistry.getMetrics("cascadingDao[0]");
+        assertEquals(2, sourceOneMetrics.getCalls());
+        assertEquals(0, sourceOneMetrics.getNullResults());
+        assertEquals(0, sourceOneMetrics.getExceptions());
+        assertEquals(2, sourceOneMetrics.getResultSize().getTotal());
+        
+        final PersonAttributeDaoMetrics nullSourceMetrics = metricsRegistry.getMetrics("cascadingDao[1]");
+        assertEquals(2, nullSourceMetrics.getCalls());
+        assertEquals(2, nullSourceMetrics.getNullResults());
+        
+        final PersonAttributeDaoMetrics throwingMetrics = metricsRegistry.getMetrics("cascadingDao[2]");
+        assertEquals(2, throwingMetrics.getCalls());
+        assertEquals(2, throwingMetrics.getExceptions());
+        assertEquals(0, throwingMetrics.getResultSize().getCount());
+        assertEquals(2, throwingMetrics.getLatency().getCount());
+    }
+    
+    public void testChildMetricsBeanNames() throws Exception {
+        final CachingPersonAttributeDaoImpl cachingDao = new CachingPersonAttributeDaoImpl();
+        cachingDao.setCachedPersonAttributesDao(this.sourceOne);
+        cachingDao.setBeanName("sourceOneCache");
+        cachingDao.afterPropertiesSet();
+        
+        final MergingPersonAttributeDaoImpl mergingDao = new MergingPersonAttributeDaoImpl();
+        mergingDao.setPersonAttributeDaos(Collections.<IPersonAttributeDao>singletonList(this.sourceTwo));
+        mergingDao.setBeanName("mergedSources");
+        
+        final List<IPersonAttributeDao> targets = new ArrayList<>();
+        targets.add(this.nullSource);
+        targets.add(cachingDao);
+        targets.add(mergingDao);
+        
+        final PersonAttributeDaoMetricsRegistry metricsRegistry = new PersonAttributeDaoMetricsRegistry();
+        final CascadingPersonAttributeDao targetDao = new CascadingPersonAttributeDao();
+        targetDao.setPersonAttributeDaos(targets);
+        targetDao.setBeanName("cascadingDao");
+        targetDao.setMetricsRegistry(metricsRegistry);
+        
+        targetDao.getMultivaluedUserAttributes("edalquist");
+        
+        //Named children are tagged with their bean name, anonymous ones with their index
+        assertEquals(new HashSet<>(Util.genList("cascadingDao[0]", "cascadingDao[sourceOneCache]", "cascadingDao[mergedSources]")),
+                metricsRegistry.getAllMetrics().keySet());
+        assertEquals(1, metricsRegistry.getMetrics("cascadingDao[sourceOneCache]").getCalls());
+    }
+
     public void testNullFirstResultNoStop() {
         final List<IPersonAttributeDao> targets = new ArrayList<>();
         targets.add(this.nullSource);
@@ -0,0 +1,306 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.jasig.services.persondir.AbstractPersonAttributeDaoTest;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * CircuitBreakerPersonAttributeDao testcase.
+ */
+public class CircuitBreakerPersonAttributeDaoTest extends AbstractPersonAttributeDaoTest {
+    private Map<String, List<Object>> attributes;
+    private Map<String, List<Object>> fallbackAttributes;
+    private FailingPersonAttributeDao target;
+    private CircuitBreakerPersonAttributeDao dao;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.attributes = new HashMap<>();
+        this.attributes.put("phone", Util.list("(480) 555-1212"));
+        this.target = new FailingPersonAttributeDao(this.attributes);
+
+        this.fallbackAttributes = new HashMap<>();
+        this.fallbackAttributes.put("phone", Util.list("unknown"));
+
+        this.dao = new CircuitBreakerPersonAttributeDao(this.target);
+        this.dao.setWindowSize(4);
+        this.dao.setMinimumCalls(4);
+        this.dao.setFailureRateThreshold(0.5);
+        this.dao.setOpenDuration(100);
+    }
+
+    @Override
+    protected IPersonAttributeDao getPersonAttributeDaoInstance() {
+        return new CircuitBreakerPersonAttributeDao(new StubPersonAttributeDao(this.attributes));
+    }
+
+    public void testClosed() {
+        assertEquals(this.attributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+    }
+
+    public void testOpensOnFailureRate() {
+        this.target.failing = true;
+        for (int index = 0; index < 4; index++) {
+            try {
+                this.dao.getPerson("monkey");
+                fail("Expected RuntimeException from the target DAO");
+            }
+            catch (final RuntimeException rte) {
+                //expected
+            }
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+
+        //Target is not called while open
+        final int calls = this.target.calls;
+        assertNull(this.dao.getPerson("monkey"));
+        assertEquals(calls, this.target.calls);
+
+        //Fallback is used while open
+        this.dao.setFallbackPersonAttributeDao(new StubPersonAttributeDao(this.fallbackAttributes));
+        assertEquals(this.fallbackAttributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(calls, this.target.calls);
+    }
+
+    public void testHalfOpenProbe() throws Exception {
+        this.target.failing = true;
+        for (int index = 0; index < 4; index++) {
+            try {
+                this.dao.getPerson("monkey");
+            }
+            catch (final RuntimeException rte) {
+                //expected
+            }
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+
+        //Failed probe re-opens the circuit
+        Thread.sleep(150);
+        try {
+            this.dao.getPerson("monkey");
+            fail("Expected RuntimeException from the probe");
+        }
+        catch (final RuntimeException rte) {
+            //expected
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+
+        //Successful probe closes the circuit
+        this.target.failing = false;
+        Thread.sleep(150);
+        assertEquals(this.attributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+    }
+
+    public void testProbeError() throws Exception {
+        this.openCircuit();
+
+        //A probe that throws an Error re-opens the circuit instead of leaving it half-open
+        Thread.sleep(150);
+        this.target.error = true;
+        try {
+            this.dao.getPerson("monkey");
+            fail("Expected Error from the probe");
+        }
+        catch (final AssertionError e) {
+            //expected
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+
+        this.target.error = false;
+        this.target.failing = false;
+        Thread.sleep(150);
+        assertEquals(this.attributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+    }
+
+    public void testStaleOutcomeIgnored() throws Exception {
+        //A slow call started while the circuit is closed
+        final CountDownLatch slowCallLatch = new CountDownLatch(1);
+        this.target.block = slowCallLatch;
+        final Thread slowCall = this.query();
+        while (this.target.calls < 1) {
+            Thread.sleep(1);
+        }
+        this.target.block = null;
+
+        this.openCircuit();
+
+        //The probe is running when the slow call completes
+        Thread.sleep(150);
+        final CountDownLatch probeLatch = new CountDownLatch(1);
+        this.target.block = probeLatch;
+        final Thread probe = this.query();
+        while (this.target.calls < 6) {
+            Thread.sleep(1);
+        }
+        this.target.block = null;
+
+        //The success of the slow call does not close the circuit
+        this.target.failing = false;
+        slowCallLatch.countDown();
+        slowCall.join();
+        assertEquals(CircuitBreakerPersonAttributeDao.State.HALF_OPEN, this.dao.getState());
+
+        //The failure of the probe re-opens it
+        this.target.failing = true;
+        probeLatch.countDown();
+        probe.join();
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+    }
+
+    public void testHungProbe() throws Exception {
+        this.openCircuit();
+
+        //The probe hangs
+        Thread.sleep(150);
+        final CountDownLatch probeLatch = new CountDownLatch(1);
+        this.target.block = probeLatch;
+        final Thread probe = this.query();
+        while (this.target.calls < 5) {
+            Thread.sleep(1);
+        }
+        this.target.block = null;
+        assertEquals(CircuitBreakerPersonAttributeDao.State.HALF_OPEN, this.dao.getState());
+        assertNull(this.dao.getPerson("monkey"));
+
+        //Once openDuration has passed the hung probe counts as failed and the circuit opens again
+        Thread.sleep(150);
+        assertNull(this.dao.getPerson("monkey"));
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+
+        //A new probe is let through after the next openDuration
+        this.target.failing = false;
+        Thread.sleep(150);
+        assertEquals(this.attributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+
+        //The hung probe completing later does not change the state
+        this.target.failing = true;
+        probeLatch.countDown();
+        probe.join();
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+    }
+
+    public void testOpensOnSlowCalls() {
+        this.target.delay = 20;
+        this.dao.setSlowCallThreshold(5);
+        for (int index = 0; index < 4; index++) {
+            assertEquals(this.attributes, this.dao.getMultivaluedUserAttributes("monkey"));
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+        assertNull(this.dao.getPerson("monkey"));
+    }
+
+    public void testNotEnoughCalls() {
+        this.target.failing = true;
+        for (int index = 0; index < 3; index++) {
+            try {
+                this.dao.getPerson("monkey");
+            }
+            catch (final RuntimeException rte) {
+                //expected
+            }
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.CLOSED, this.dao.getState());
+    }
+
+    private void openCircuit() {
+        this.target.failing = true;
+        for (int index = 0; index < 4; index++) {
+            try {
+                this.dao.getPerson("monkey");
+            }
+            catch (final RuntimeException rte) {
+                //expected
+            }
+        }
+        assertEquals(CircuitBreakerPersonAttributeDao.State.OPEN, this.dao.getState());
+    }
+
+    private Thread query() {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    CircuitBreakerPersonAttributeDaoTest.this.dao.getPerson("monkey");
+                }
+                catch (final RuntimeException rte) {
+                    //expected for failing calls
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stub DAO that can be told to fail, throw an Error, respond slowly or block.
+     */
+    private static class FailingPersonAttributeDao extends StubPersonAttributeDao {
+        private volatile boolean failing = false;
+        private volatile boolean error = false;
+        private volatile CountDownLatch block = null;
+        private volatile long delay = 0;
+        private volatile int calls = 0;
+
+        public FailingPersonAttributeDao(final Map<String, List<Object>> backingMap) {
+            super(backingMap);
+        }
+
+        @Override
+        public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+            this.calls++;
+            final CountDownLatch block = this.block;
+            if (block != null) {
+                try {
+                    block.await();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.delay > 0) {
+                try {
+                    Thread.sleep(this.delay);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.error) {
+                throw new AssertionError("FailingPersonAttributeDao is throwing an Error");
+            }
+            if (this.failing) {
+                throw new RuntimeException("FailingPersonAttributeDao is failing");
+            }
+            return super.getPeopleWithMultivaluedAttributes(query);
+        }
+    }
+}
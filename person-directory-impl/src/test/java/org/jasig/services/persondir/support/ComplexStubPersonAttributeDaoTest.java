@@ -18,12 +18,16 @@
  */
 package org.jasig.services.persondir.support;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.util.Util;
 
 
@@ -113,6 +117,26 @@ public class ComplexStubPersonAttributeDaoTest
         assertNull(this.testInstance.getMultivaluedUserAttributes("unknownUser"));
     }
 
+    /**
+     * Test enumerating all people in the backing map.
+     */
+    public void testEnumeratePeople() {
+        this.testInstance.setResultAttributeMapping(Collections.<String, Object>singletonMap("phone", "telephoneNumber"));
+        
+        final Map<String, IPersonAttributes> people = new LinkedHashMap<>();
+        final long count = this.testInstance.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                people.put(person.getName(), person);
+                return true;
+            }
+        });
+        
+        assertEquals(2, count);
+        assertEquals(this.backingMap.keySet(), people.keySet());
+        assertEquals(Util.list("777-7777"), people.get("awp9").getAttributeValues("telephoneNumber"));
+        assertNull(people.get("awp9").getAttributeValues("shirtColor"));
+    }
+
     @Override
     protected AbstractDefaultAttributePersonAttributeDao getAbstractDefaultQueryPersonAttributeDao() {
         return this.testInstance;
@@ -0,0 +1,155 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.services.persondir.AbstractPersonAttributeDaoTest;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.util.Util;
+import org.springframework.dao.QueryTimeoutException;
+
+/**
+ * ConcurrencyLimitingPersonAttributeDao testcase.
+ */
+public class ConcurrencyLimitingPersonAttributeDaoTest extends AbstractPersonAttributeDaoTest {
+    private Map<String, List<Object>> attributes;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.attributes = new HashMap<>();
+        this.attributes.put("phone", Util.list("(480) 555-1212"));
+    }
+
+    @Override
+    protected IPersonAttributeDao getPersonAttributeDaoInstance() {
+        return new ConcurrencyLimitingPersonAttributeDao(new StubPersonAttributeDao(this.attributes), 2);
+    }
+
+    public void testQuery() {
+        final ConcurrencyLimitingPersonAttributeDao dao = new ConcurrencyLimitingPersonAttributeDao(new StubPersonAttributeDao(this.attributes), 2);
+        assertEquals(this.attributes, dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(2, dao.getAvailablePermits());
+    }
+
+    public void testLimit() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final StubPersonAttributeDao slowDao = new StubPersonAttributeDao(this.attributes) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                final int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                try {
+                    Thread.sleep(20);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    running.decrementAndGet();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+
+        final ConcurrencyLimitingPersonAttributeDao dao = new ConcurrencyLimitingPersonAttributeDao(slowDao, 2);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Map<String, List<Object>>>> results = new ArrayList<>();
+            for (int index = 0; index < 8; index++) {
+                results.add(executorService.submit(new Callable<Map<String, List<Object>>>() {
+                    public Map<String, List<Object>> call() {
+                        return dao.getMultivaluedUserAttributes("monkey");
+                    }
+                }));
+            }
+
+            for (final Future<Map<String, List<Object>>> result : results) {
+                assertEquals(this.attributes, result.get());
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        assertTrue("At most 2 queries should run at once, " + maxRunning.get() + " did", maxRunning.get() <= 2);
+        assertEquals(2, dao.getAvailablePermits());
+    }
+
+    public void testAcquireTimeout() throws Exception {
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        final StubPersonAttributeDao blockingDao = new StubPersonAttributeDao(this.attributes) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                queryStarted.countDown();
+                try {
+                    releaseQuery.await();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+
+        final ConcurrencyLimitingPersonAttributeDao dao = new ConcurrencyLimitingPersonAttributeDao(blockingDao, 1);
+        dao.setAcquireTimeout(50);
+
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Map<String, List<Object>>> blocked = executorService.submit(new Callable<Map<String, List<Object>>>() {
+                public Map<String, List<Object>> call() {
+                    return dao.getMultivaluedUserAttributes("monkey");
+                }
+            });
+            queryStarted.await();
+
+            try {
+                dao.getMultivaluedUserAttributes("monkey");
+                fail("QueryTimeoutException should have been thrown");
+            }
+            catch (final QueryTimeoutException qte) {
+                //expected
+            }
+            assertEquals(1, dao.getRejectedQueries());
+
+            releaseQuery.countDown();
+            assertEquals(this.attributes, blocked.get());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+}
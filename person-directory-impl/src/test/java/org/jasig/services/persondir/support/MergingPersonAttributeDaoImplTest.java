@@ -26,6 +26,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
@@ -243,6 +247,180 @@ public class MergingPersonAttributeDaoImplTest
         assertEquals(this.oneAndTwo, result);
     }
     
+    /**
+     * Test that concurrently queried child DAOs are merged in list order regardless
+     * of the order in which they complete.
+     */
+    public void testConcurrentMergeOrder() {
+        final StubPersonAttributeDao slowSourceOne = new StubPersonAttributeDao() {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                try {
+                    Thread.sleep(100);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        slowSourceOne.setBackingMap(this.sourceOne.getBackingMap());
+        
+        final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
+        attributeSources.add(slowSourceOne);
+        attributeSources.add(this.sourceTwo);
+        attributeSources.add(new ThrowingPersonAttributeDao());
+        attributeSources.add(this.collidesWithOne);
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
+            impl.setPersonAttributeDaos(attributeSources);
+            impl.setExecutorService(executorService);
+            
+            final Map<String, List<Object>> queryMap = new HashMap<>();
+            queryMap.put(queryAttr, Util.list("awp9"));
+            
+            final Map<String, List<Object>> result = impl.getMultivaluedUserAttributes(queryMap);
+            assertEquals(this.oneAndTwoAndThree, result);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    /**
+     * Test that with stopOnSuccess the child DAOs after the first successful one are not queried even if an
+     * executorService is configured
+     */
+    public void testConcurrentStopOnSuccess() throws Exception {
+        final AtomicInteger sourceTwoQueries = new AtomicInteger();
+        final StubPersonAttributeDao countingSourceTwo = new StubPersonAttributeDao() {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query) {
+                sourceTwoQueries.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query);
+            }
+        };
+        countingSourceTwo.setBackingMap(this.sourceTwo.getBackingMap());
+        
+        final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
+        attributeSources.add(new ThrowingPersonAttributeDao());
+        attributeSources.add(this.sourceOne);
+        attributeSources.add(countingSourceTwo);
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
+            impl.setPersonAttributeDaos(attributeSources);
+            impl.setExecutorService(executorService);
+            impl.setStopOnSuccess(true);
+            
+            final Map<String, List<Object>> queryMap = new HashMap<>();
+            queryMap.put(queryAttr, Util.list("awp9"));
+            
+            assertEquals(this.sourceOne.getBackingMap(), impl.getMultivaluedUserAttributes(queryMap));
+            final Set<IPersonAttributes> results = impl.getPeopleWithMultivaluedAttributesAsync(queryMap).get();
+            assertEquals(this.sourceOne.getBackingMap(), results.iterator().next().getAttributes());
+            assertEquals(0, sourceTwoQueries.get());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    /**
+     * Test that asynchronous queries merge the child results in list order
+     */
+    public void testAsyncMergeOrder() throws Exception {
+        final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
+        attributeSources.add(this.sourceOne);
+        attributeSources.add(this.sourceTwo);
+        attributeSources.add(new ThrowingPersonAttributeDao());
+        attributeSources.add(this.collidesWithOne);
+        
+        final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(attributeSources);
+        
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put(queryAttr, Util.list("awp9"));
+        
+        //Sequentially on the calling thread
+        Set<IPersonAttributes> results = impl.getPeopleWithMultivaluedAttributesAsync(queryMap).get();
+        assertEquals(1, results.size());
+        assertEquals(this.oneAndTwoAndThree, results.iterator().next().getAttributes());
+        
+        //Concurrently on the executorService
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            impl.setExecutorService(executorService);
+            
+            results = impl.getPeopleWithMultivaluedAttributesAsync(queryMap).get();
+            assertEquals(1, results.size());
+            assertEquals(this.oneAndTwoAndThree, results.iterator().next().getAttributes());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    /**
+     * Test that asynchronous queries report RuntimeExceptions from child DAOs through the future when
+     * configured to do so.
+     */
+    public void testAsyncExceptionThrowing() throws Exception {
+        final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
+        attributeSources.add(this.sourceOne);
+        attributeSources.add(new ThrowingPersonAttributeDao());
+        attributeSources.add(this.sourceTwo);
+        
+        final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(attributeSources);
+        impl.setRecoverExceptions(false);
+        
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put(queryAttr, Util.list("awp9"));
+        
+        try {
+            impl.getPeopleWithMultivaluedAttributesAsync(queryMap).get();
+            fail("MergingPersonAttributeDao should have propogated RTE");
+        }
+        catch (final ExecutionException ee) {
+            assertEquals("ThrowingPersonAttributeDao always throws", ee.getCause().getMessage());
+        }
+    }
+    
+    /**
+     * Test that concurrently queried child DAOs propogate RuntimeExceptions when
+     * configured to do so.
+     */
+    public void testConcurrentExceptionThrowing() {
+        final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
+        attributeSources.add(this.sourceOne);
+        attributeSources.add(new ThrowingPersonAttributeDao());
+        attributeSources.add(this.sourceTwo);
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
+            impl.setPersonAttributeDaos(attributeSources);
+            impl.setExecutorService(executorService);
+            impl.setRecoverExceptions(false);
+            
+            final Map<String, List<Object>> queryMap = new HashMap<>();
+            queryMap.put(queryAttr, Util.list("awp9"));
+            
+            impl.getMultivaluedUserAttributes(queryMap);
+            fail("MergingPersonAttributeDao should have propogated RTE");
+        }
+        catch (final RuntimeException rte) {
+            assertEquals("ThrowingPersonAttributeDao always throws", rte.getMessage());
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
     public void testNoChildDaos() {
         final MergingPersonAttributeDaoImpl impl = new MergingPersonAttributeDaoImpl();
         final Map<String, List<Object>> queryMap = new HashMap<>();
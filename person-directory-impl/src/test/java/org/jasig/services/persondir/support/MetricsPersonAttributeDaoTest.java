@@ -0,0 +1,124 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.services.persondir.AbstractPersonAttributeDaoTest;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * MetricsPersonAttributeDao testcase.
+ */
+public class MetricsPersonAttributeDaoTest extends AbstractPersonAttributeDaoTest {
+    private Map<String, List<Object>> attributes;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.attributes = new HashMap<>();
+        this.attributes.put("phone", Util.list("(480) 555-1212"));
+    }
+
+    @Override
+    protected IPersonAttributeDao getPersonAttributeDaoInstance() {
+        return new MetricsPersonAttributeDao(new StubPersonAttributeDao(this.attributes), null, null);
+    }
+
+    public void testMetrics() {
+        final PersonAttributeDaoMetricsRegistry metricsRegistry = new PersonAttributeDaoMetricsRegistry();
+        final MetricsPersonAttributeDao dao = new MetricsPersonAttributeDao();
+        dao.setTargetPersonAttributeDao(new StubPersonAttributeDao(this.attributes));
+        dao.setMetricsRegistry(metricsRegistry);
+        dao.setBeanName("stubDao");
+
+        assertEquals(this.attributes, dao.getMultivaluedUserAttributes("monkey"));
+        assertEquals(this.attributes, dao.getMultivaluedUserAttributes("monkey"));
+
+        final PersonAttributeDaoMetrics metrics = dao.getMetrics();
+        assertSame(metrics, metricsRegistry.getMetrics("stubDao"));
+        assertEquals("stubDao", metrics.getName());
+        assertEquals(2, metrics.getCalls());
+        assertEquals(0, metrics.getNullResults());
+        assertEquals(0, metrics.getExceptions());
+        assertEquals(2, metrics.getLatency().getCount());
+        assertEquals(2, metrics.getResultSize().getTotal());
+
+        //An explicit name takes precedence over the bean name
+        dao.setMetricsName("phoneDao");
+        dao.getMultivaluedUserAttributes("monkey");
+        assertEquals(1, metricsRegistry.getMetrics("phoneDao").getCalls());
+        assertEquals(2, metricsRegistry.getAllMetrics().size());
+
+        metricsRegistry.reset();
+        assertEquals(0, metrics.getCalls());
+        assertEquals(0, metrics.getLatency().getCount());
+    }
+
+    public void testNullAndExceptionMetrics() {
+        final MetricsPersonAttributeDao nullDao = new MetricsPersonAttributeDao(new StubPersonAttributeDao(), null, null);
+        assertNull(nullDao.getPeopleWithMultivaluedAttributes(Collections.singletonMap("username", Util.list("monkey"))));
+        assertEquals("StubPersonAttributeDao", nullDao.getMetrics().getName());
+        assertEquals(1, nullDao.getMetrics().getNullResults());
+        assertEquals(1, nullDao.getMetrics().getResultSize().getCounts()[0]);
+
+        final MetricsPersonAttributeDao throwingDao = new MetricsPersonAttributeDao(new ThrowingPersonAttributeDao(), null, "throwingDao");
+        try {
+            throwingDao.getPeopleWithMultivaluedAttributes(Collections.singletonMap("username", Util.list("monkey")));
+            fail("RuntimeException should have been thrown");
+        }
+        catch (final RuntimeException e) {
+            //expected
+        }
+        assertEquals(1, throwingDao.getMetrics().getCalls());
+        assertEquals(1, throwingDao.getMetrics().getExceptions());
+        assertEquals(0, throwingDao.getMetrics().getResultSize().getCount());
+    }
+
+    public void testHistogram() {
+        final PersonAttributeDaoMetrics.Histogram histogram = new PersonAttributeDaoMetrics.Histogram(new long[] { 10, 100, 1000 });
+        assertEquals(0, histogram.getPercentile(0.5));
+
+        for (int value = 1; value <= 90; value++) {
+            histogram.record(5);
+        }
+        for (int value = 1; value <= 9; value++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(450 + 900 + 5000, histogram.getTotal());
+        assertEquals(5000, histogram.getMax());
+        assertEquals(63.5, histogram.getMean(), 0.001);
+        assertEquals(4, histogram.getCounts().length);
+        assertEquals(90, histogram.getCounts()[0]);
+        assertEquals(9, histogram.getCounts()[1]);
+        assertEquals(0, histogram.getCounts()[2]);
+        assertEquals(1, histogram.getCounts()[3]);
+
+        assertEquals(10, histogram.getPercentile(0.5));
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(5000, histogram.getPercentile(1));
+    }
+}
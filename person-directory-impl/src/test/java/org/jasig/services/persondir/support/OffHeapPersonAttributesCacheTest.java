@@ -0,0 +1,131 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * @version $Revision$
+ */
+public class OffHeapPersonAttributesCacheTest extends TestCase {
+
+    private Set<IPersonAttributes> createResults(final String name, final Object value) {
+        final Map<String, List<Object>> attributes = Collections.singletonMap("value", Util.list(value));
+        return Collections.<IPersonAttributes>singleton(new NamedPersonImpl(name, attributes));
+    }
+
+    public void testPutGet() {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(1024 * 1024);
+        final Set<IPersonAttributes> results = this.createResults("edalquist", "777-7777");
+
+        assertNull(cache.get("edalquist"));
+        assertTrue(cache.put("edalquist", results));
+        assertEquals(results, cache.get("edalquist"));
+        assertNotSame(results, cache.get("edalquist"));
+        assertEquals(1, cache.size());
+
+        final Set<IPersonAttributes> replacement = this.createResults("edalquist", "888-8888");
+        assertTrue(cache.put("edalquist", replacement));
+        assertEquals(replacement, cache.get("edalquist"));
+        assertEquals(1, cache.size());
+
+        cache.remove("edalquist");
+        assertNull(cache.get("edalquist"));
+        assertEquals(0, cache.size());
+
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testExpiration() throws Exception {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(1024 * 1024);
+        final Set<IPersonAttributes> results = this.createResults("edalquist", "777-7777");
+        final long loadedAt = System.currentTimeMillis() - 1000;
+
+        assertTrue(cache.put("edalquist", results, loadedAt));
+        final StoredResults storedResults = cache.get("edalquist", 5000, 0);
+        assertEquals(results, storedResults.getResults());
+        assertEquals(loadedAt, storedResults.getLoadedAt());
+
+        //Results older than the time to live are removed
+        assertNull(cache.get("edalquist", 500, 0));
+        assertEquals(0, cache.size());
+
+        //Results not read for longer than the time to idle are removed
+        assertTrue(cache.put("awp9", this.createResults("awp9", "888-8888")));
+        assertNotNull(cache.get("awp9", 0, 5000));
+        Thread.sleep(100);
+        assertNull(cache.get("awp9", 0, 50));
+        assertEquals(0, cache.size());
+    }
+
+    public void testSegmentEviction() {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(8 * 1024, 2 * 1024);
+        assertEquals(8 * 1024, cache.getCapacity());
+
+        for (int index = 0; index < 100; index++) {
+            assertTrue(cache.put(index, this.createResults("user" + index, StringUtils.repeat('x', 100))));
+        }
+
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(100, cache.size() + cache.getEvictions());
+
+        //Oldest results are evicted first
+        assertNull(cache.get(0));
+        assertEquals(this.createResults("user99", StringUtils.repeat('x', 100)), cache.get(99));
+    }
+
+    public void testOversizedResults() {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(1024, 1024);
+
+        assertTrue(cache.put("edalquist", this.createResults("edalquist", "777-7777")));
+        assertFalse(cache.put("edalquist", this.createResults("edalquist", StringUtils.repeat('x', 2048))));
+        assertNull(cache.get("edalquist"));
+    }
+
+    public void testUnserializableResults() {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(1024 * 1024);
+
+        assertFalse(cache.put("edalquist", this.createResults("edalquist", new Object())));
+        assertNull(cache.get("edalquist"));
+    }
+
+    public void testClear() {
+        final OffHeapPersonAttributesCache cache = new OffHeapPersonAttributesCache(1024 * 1024);
+
+        cache.put("edalquist", this.createResults("edalquist", "777-7777"));
+        cache.put("awp9", this.createResults("awp9", "888-8888"));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("edalquist"));
+
+        cache.put("awp9", this.createResults("awp9", "888-8888"));
+        assertEquals(this.createResults("awp9", "888-8888"), cache.get("awp9"));
+    }
+}
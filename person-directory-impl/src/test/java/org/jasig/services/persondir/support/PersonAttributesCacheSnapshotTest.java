@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * @version $Revision$
+ */
+public class PersonAttributesCacheSnapshotTest extends TestCase {
+    private File snapshotFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.snapshotFile = File.createTempFile("PersonAttributesCacheSnapshotTest", ".snapshot");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.snapshotFile.delete();
+    }
+
+    private Set<IPersonAttributes> createResults(final String name, final Object value) {
+        final Map<String, List<Object>> attributes = Collections.singletonMap("value", Util.list(value));
+        return Collections.<IPersonAttributes>singleton(new NamedPersonImpl(name, attributes));
+    }
+
+    public void testWriteAndOpen() throws Exception {
+        final long now = System.currentTimeMillis();
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            assertTrue(writer.write("edalquist", this.createResults("edalquist", "777-7777"), now));
+            assertTrue(writer.write("awp9", this.createResults("awp9", "888-8888"), now - 1000));
+            assertFalse(writer.write("erider", this.createResults("erider", new Object()), now));
+            writer.commit();
+            assertEquals(2, writer.getCount());
+        }
+
+        final PersonAttributesCacheSnapshot snapshot = PersonAttributesCacheSnapshot.open(this.snapshotFile);
+        assertEquals(2, snapshot.size());
+
+        final StoredResults storedResults = snapshot.take("edalquist", 0);
+        assertEquals(this.createResults("edalquist", "777-7777"), storedResults.getResults());
+        assertEquals(now, storedResults.getLoadedAt());
+        assertNull("Results are only returned once", snapshot.take("edalquist", 0));
+        assertNull("Results older than the max age are not returned", snapshot.take("awp9", 500));
+        assertEquals(0, snapshot.size());
+    }
+
+    public void testManyResults() throws Exception {
+        final long now = System.currentTimeMillis();
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            for (int index = 0; index < 5000; index++) {
+                writer.write("user" + index, this.createResults("user" + index, index), now);
+            }
+            writer.commit();
+        }
+
+        final PersonAttributesCacheSnapshot snapshot = PersonAttributesCacheSnapshot.open(this.snapshotFile);
+        assertEquals(5000, snapshot.size());
+        assertNull(snapshot.take("user5000", 0));
+
+        for (int index = 4999; index >= 0; index -= 3) {
+            assertEquals(this.createResults("user" + index, index), snapshot.take("user" + index, 0).getResults());
+        }
+        snapshot.remove("user0");
+        assertNull(snapshot.take("user0", 0));
+        assertEquals(5000 - 1667 - 1, snapshot.size());
+    }
+
+    public void testDisallowedClass() throws Exception {
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            writer.write("edalquist", this.createResults("edalquist", URI.create("http://example.com")), System.currentTimeMillis());
+            writer.write("awp9", this.createResults("awp9", new byte[] { 1, 2, 3 }), System.currentTimeMillis());
+            writer.commit();
+        }
+
+        final PersonAttributesCacheSnapshot snapshot = PersonAttributesCacheSnapshot.open(this.snapshotFile);
+        assertNull("Results holding classes that are not allowed are ignored", snapshot.take("edalquist", 0));
+        final Set<IPersonAttributes> results = snapshot.take("awp9", 0).getResults();
+        assertTrue(results.iterator().next().getAttributeValue("value") instanceof byte[]);
+    }
+
+    public void testUncommittedWriter() throws Exception {
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            writer.write("edalquist", this.createResults("edalquist", "777-7777"), System.currentTimeMillis());
+            writer.commit();
+        }
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            writer.write("awp9", this.createResults("awp9", "888-8888"), System.currentTimeMillis());
+        }
+
+        final PersonAttributesCacheSnapshot snapshot = PersonAttributesCacheSnapshot.open(this.snapshotFile);
+        assertEquals(1, snapshot.size());
+        assertNotNull(snapshot.take("edalquist", 0));
+        assertFalse(new File(this.snapshotFile.getPath() + ".tmp").exists());
+    }
+
+    public void testTruncatedSnapshot() throws Exception {
+        try (final PersonAttributesCacheSnapshot.Writer writer = new PersonAttributesCacheSnapshot.Writer(this.snapshotFile)) {
+            writer.write("edalquist", this.createResults("edalquist", "777-7777"), System.currentTimeMillis());
+            writer.commit();
+        }
+        try (final RandomAccessFile file = new RandomAccessFile(this.snapshotFile, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        try {
+            PersonAttributesCacheSnapshot.open(this.snapshotFile);
+            fail("open should have failed with IOException");
+        }
+        catch (final IOException ioe) {
+            //expected
+        }
+    }
+}
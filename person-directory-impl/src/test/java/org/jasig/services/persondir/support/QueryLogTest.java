@@ -0,0 +1,133 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * QueryLog testcase.
+ */
+public class QueryLogTest extends TestCase {
+    private final List<String> messages = new ArrayList<>();
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+        @Override
+        protected void append(final LoggingEvent event) {
+            messages.add(event.getRenderedMessage());
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private Logger logger;
+    private Level level;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.logger = Logger.getLogger(QueryLog.class);
+        this.level = this.logger.getLevel();
+        this.logger.setLevel(Level.DEBUG);
+        this.logger.addAppender(this.appender);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.logger.removeAppender(this.appender);
+        this.logger.setLevel(this.level);
+    }
+
+    public void testQueryLog() throws Exception {
+        final Map<String, List<Object>> attributes = new HashMap<>();
+        attributes.put("phone", Util.list("777-7777"));
+
+        final CachingPersonAttributeDaoImpl cachingDao = new CachingPersonAttributeDaoImpl();
+        cachingDao.setCachedPersonAttributesDao(new StubPersonAttributeDao(attributes));
+        cachingDao.setUserInfoCache(new HashMap<Serializable, Set<IPersonAttributes>>());
+        cachingDao.setBeanName("phoneCache");
+        cachingDao.afterPropertiesSet();
+
+        final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(cachingDao, new ThrowingPersonAttributeDao()));
+        dao.setBeanName("merging");
+
+        assertTrue(QueryLog.isEnabled());
+        dao.getPerson("edalquist");
+        dao.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("username", Util.list("edalquist"))).get();
+
+        assertEquals(Arrays.asList(
+                "dao=phoneCache query=[username] durationMicros=" + this.duration(0) + " people=1 attributes=1 cache=miss outcome=ok",
+                "dao=merging query=[username] durationMicros=" + this.duration(1) + " people=1 attributes=1 cache=- outcome=ok",
+                "dao=phoneCache query=[username] durationMicros=" + this.duration(2) + " people=1 attributes=1 cache=hit outcome=ok",
+                "dao=merging query=[username] durationMicros=" + this.duration(3) + " people=1 attributes=1 cache=- outcome=ok"),
+                this.messages);
+        assertNull(QueryTrace.current());
+
+        dao.setRecoverExceptions(false);
+        try {
+            dao.getPerson("edalquist");
+            fail("Expected RuntimeException");
+        }
+        catch (final RuntimeException rte) {
+            //expected
+        }
+        assertEquals("dao=merging query=[username] durationMicros=" + this.duration(5) + " people=0 attributes=0 cache=- outcome=error exception=java.lang.RuntimeException",
+                this.messages.get(5));
+    }
+
+    public void testDisabledAtInfo() {
+        this.logger.setLevel(Level.INFO);
+        assertFalse(QueryLog.isEnabled());
+
+        final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(new StubPersonAttributeDao(Collections.singletonMap("phone", Util.list("777-7777")))));
+        assertNotNull(dao.getPerson("edalquist"));
+        assertTrue(this.messages.isEmpty());
+    }
+
+    private String duration(final int index) {
+        final String message = this.messages.get(index);
+        final int start = message.indexOf("durationMicros=") + "durationMicros=".length();
+        final String duration = message.substring(start, message.indexOf(' ', start));
+        assertTrue(Long.parseLong(duration) >= 0);
+        return duration;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.mock.ThrowingPersonAttributeDao;
+import org.jasig.services.persondir.util.Util;
+
+/**
+ * QueryTrace testcase.
+ */
+public class QueryTraceTest extends TestCase {
+    private CachingPersonAttributeDaoImpl cachingDao;
+    private RegexGatewayPersonAttributeDao regexDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Map<String, List<Object>> phoneAttributes = new HashMap<>();
+        phoneAttributes.put("phone", Util.list("777-7777"));
+
+        this.cachingDao = new CachingPersonAttributeDaoImpl();
+        this.cachingDao.setCachedPersonAttributesDao(new StubPersonAttributeDao(phoneAttributes));
+        this.cachingDao.setUserInfoCache(new HashMap<Serializable, Set<IPersonAttributes>>());
+        this.cachingDao.setBeanName("phoneCache");
+        this.cachingDao.afterPropertiesSet();
+
+        final Map<String, List<Object>> majorAttributes = new HashMap<>();
+        majorAttributes.put("major", Util.list("CS", "ME"));
+
+        this.regexDao = new RegexGatewayPersonAttributeDao("username", "^ed.*", new StubPersonAttributeDao(majorAttributes));
+    }
+
+    public void testNotTracing() {
+        assertNull(QueryTrace.current());
+        assertNull(QueryTrace.startSpan("dao", null));
+
+        final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(this.cachingDao, this.regexDao));
+        assertNotNull(dao.getPerson("edalquist"));
+
+        assertNull(QueryTrace.current());
+    }
+
+    public void testSpanTree() {
+        final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(this.cachingDao, this.regexDao));
+        dao.setBeanName("merging");
+
+        final QueryTraceSpan trace = this.trace(dao, "edalquist");
+        assertNull(QueryTrace.current());
+        this.assertSpanTree(trace, false, true);
+
+        //The second query is answered from the cache
+        this.assertSpanTree(this.trace(dao, "edalquist"), true, true);
+
+        //The regex gateway does not match, so its target is not queried
+        final QueryTraceSpan unmatched = this.trace(dao, "awp9");
+        final QueryTraceSpan regexSpan = unmatched.getChildren().get(0).getChildren().get(1).getChildren().get(0);
+        assertEquals(Boolean.FALSE, regexSpan.getTags().get("matched"));
+        assertEquals(0, regexSpan.getPeople());
+        assertEquals(Integer.valueOf(0), unmatched.getChildren().get(0).getChildren().get(1).getAttributesAdded());
+    }
+
+    public void testConcurrentSpanTree() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+            dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(this.cachingDao, this.regexDao));
+            dao.setExecutorService(executorService);
+            dao.setBeanName("merging");
+
+            this.assertSpanTree(this.trace(dao, "edalquist"), false, true);
+
+            final QueryTraceSpan trace = QueryTrace.start("async");
+            try {
+                dao.getPeopleWithMultivaluedAttributesAsync(Collections.singletonMap("username", Util.list("edalquist"))).get();
+            }
+            finally {
+                QueryTrace.stop(trace);
+            }
+            assertNull(QueryTrace.current());
+            this.assertSpanTree(trace, true, false);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    public void testNestedSpanTree() {
+        final CascadingPersonAttributeDao cascadingDao = new CascadingPersonAttributeDao();
+        cascadingDao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(this.cachingDao, new ThrowingPersonAttributeDao()));
+        cascadingDao.setBeanName("cascading");
+
+        final MergingPersonAttributeDaoImpl dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(Arrays.<IPersonAttributeDao>asList(cascadingDao, this.regexDao));
+
+        final QueryTraceSpan trace = this.trace(dao, "edalquist");
+        final QueryTraceSpan mergingSpan = trace.getChildren().get(0);
+        assertEquals("MergingPersonAttributeDaoImpl", mergingSpan.getName());
+
+        final QueryTraceSpan cascadingSpan = mergingSpan.getChildren().get(0).getChildren().get(0);
+        assertEquals("cascading", cascadingSpan.getName());
+        assertEquals(2, cascadingSpan.getChildren().size());
+        assertEquals("[1] ThrowingPersonAttributeDao", cascadingSpan.getChildren().get(1).getName());
+        assertNotNull(cascadingSpan.getChildren().get(1).getException());
+        assertTrue(cascadingSpan.getDuration() >= 0);
+        assertTrue(trace.toString().contains("phoneCache"));
+    }
+
+    private QueryTraceSpan trace(final IPersonAttributeDao dao, final String username) {
+        final QueryTraceSpan trace = QueryTrace.start("query");
+        try {
+            dao.getPerson(username);
+        }
+        finally {
+            QueryTrace.stop(trace);
+        }
+        return trace;
+    }
+
+    private void assertSpanTree(final QueryTraceSpan trace, final boolean cacheHit, final boolean regexSpan) {
+        assertTrue(trace.getDuration() >= 0);
+        assertEquals(1, trace.getChildren().size());
+
+        final QueryTraceSpan mergingSpan = trace.getChildren().get(0);
+        assertEquals("merging", mergingSpan.getName());
+        assertEquals(Collections.singletonMap("username", Util.list("edalquist")), mergingSpan.getSeed());
+        assertEquals(1, mergingSpan.getPeople());
+        assertEquals(2, mergingSpan.getChildren().size());
+
+        final QueryTraceSpan cachingChildSpan = mergingSpan.getChildren().get(0);
+        assertEquals("[0] CachingPersonAttributeDaoImpl", cachingChildSpan.getName());
+        assertEquals(Integer.valueOf(1), cachingChildSpan.getAttributesAdded());
+        assertTrue(cachingChildSpan.getDuration() >= 0);
+
+        final QueryTraceSpan cachingSpan = cachingChildSpan.getChildren().get(0);
+        assertEquals("phoneCache", cachingSpan.getName());
+        assertEquals(Boolean.valueOf(cacheHit), cachingSpan.getCacheHit());
+        assertEquals(1, cachingSpan.getAttributes());
+
+        final QueryTraceSpan regexChildSpan = mergingSpan.getChildren().get(1);
+        assertEquals("[1] RegexGatewayPersonAttributeDao", regexChildSpan.getName());
+        assertEquals(Integer.valueOf(1), regexChildSpan.getAttributesAdded());
+
+        if (regexSpan) {
+            final QueryTraceSpan gatewaySpan = regexChildSpan.getChildren().get(0);
+            assertEquals("RegexGatewayPersonAttributeDao", gatewaySpan.getName());
+            assertEquals(Boolean.TRUE, gatewaySpan.getTags().get("matched"));
+        }
+    }
+}
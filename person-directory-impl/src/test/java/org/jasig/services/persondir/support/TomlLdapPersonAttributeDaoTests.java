@@ -20,6 +20,7 @@ package org.jasig.services.persondir.support;
 
 import org.jasig.services.persondir.AbstractPersonAttributeDaoTest;
 import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.support.ldap.LoadBalancingContextSource;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -48,6 +49,17 @@ public class TomlLdapPersonAttributeDaoTests extends AbstractPersonAttributeDaoT
         assertNotNull(dao.getContextSource());
     }
 
+    @Test
+    public void testLoadBalancingContextSource() throws Exception {
+        final TomlLdapPersonAttributeDao loadBalancingDao = new TomlLdapPersonAttributeDao(new FileSystemResource("src/test/resources/ldapLoadBalancing.toml"));
+
+        final LoadBalancingContextSource ctxSource = (LoadBalancingContextSource) loadBalancingDao.getContextSource();
+        assertEquals(LoadBalancingContextSource.Strategy.LEAST_LATENCY, ctxSource.getStrategy());
+        assertEquals(500, ctxSource.getSlowThreshold());
+        assertEquals(2, ctxSource.getServerHealth().size());
+        assertEquals("ldap://ldap.server2.edu:389", ctxSource.getServerHealth().get(1).getName());
+    }
+
 
     @Override
     protected IPersonAttributeDao getPersonAttributeDaoInstance() {
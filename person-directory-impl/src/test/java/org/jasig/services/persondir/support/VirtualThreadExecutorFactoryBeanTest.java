@@ -0,0 +1,73 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class VirtualThreadExecutorFactoryBeanTest extends TestCase {
+
+    public void testExecutor() throws Exception {
+        final VirtualThreadExecutorFactoryBean factoryBean = new VirtualThreadExecutorFactoryBean();
+        factoryBean.setThreadNamePrefix("test-");
+        
+        final ExecutorService executorService = factoryBean.getObject();
+        try {
+            assertSame(executorService, factoryBean.getObject());
+            assertEquals(VirtualThreadExecutorFactoryBean.isVirtualThreadsSupported(), factoryBean.isVirtualThreads());
+            
+            final String threadName = executorService.submit(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            assertTrue(threadName, threadName.startsWith("test-"));
+        }
+        finally {
+            factoryBean.destroy();
+        }
+        
+        assertTrue(executorService.isShutdown());
+    }
+    
+    public void testPlatformThreads() throws Exception {
+        final VirtualThreadExecutorFactoryBean factoryBean = new VirtualThreadExecutorFactoryBean();
+        factoryBean.setUseVirtualThreads(false);
+        
+        final ExecutorService executorService = factoryBean.getObject();
+        try {
+            assertFalse(factoryBean.isVirtualThreads());
+            
+            final Boolean daemon = executorService.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return Thread.currentThread().isDaemon();
+                }
+            }).get();
+            assertTrue(daemon);
+        }
+        finally {
+            factoryBean.destroy();
+        }
+    }
+}
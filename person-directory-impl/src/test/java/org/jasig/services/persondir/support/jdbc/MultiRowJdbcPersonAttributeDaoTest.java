@@ -19,6 +19,8 @@
 package org.jasig.services.persondir.support.jdbc;
 
 import com.google.common.collect.ImmutableMap;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
 import org.jasig.services.persondir.support.SimpleUsernameAttributeProvider;
 import org.jasig.services.persondir.util.CaseCanonicalizationMode;
@@ -431,6 +433,63 @@ public class MultiRowJdbcPersonAttributeDaoTest
         assertNull(attribs);
     }
     
+    /**
+     * Streaming the rows and mapping every row before parsing it must find the same people
+     */
+    public void testStreamResults() {
+        final MultiRowJdbcPersonAttributeDao impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("ATTR_NAME", "Attr_Val"));
+        impl.setFetchSize(2);
+        assertEquals(2, impl.getFetchSize());
+        assertTrue(impl.isStreamResults());
+
+        final Map<String, List<Object>> queryMap = Collections.singletonMap("uid", Util.list("a*"));
+        final Set<IPersonAttributes> streamed = impl.getPeopleWithMultivaluedAttributes(queryMap);
+        assertFalse(streamed.isEmpty());
+
+        impl.setStreamResults(false);
+        assertEquals(streamed, impl.getPeopleWithMultivaluedAttributes(queryMap));
+    }
+    
+    public void testEnumeratePeople() {
+        final MultiRowJdbcPersonAttributeDao impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        impl.setFetchSize(2);
+
+        for (final boolean streamResults : new boolean[] { true, false }) {
+            impl.setStreamResults(streamResults);
+
+            final Map<String, IPersonAttributes> people = new LinkedHashMap<>();
+            final long count = impl.enumeratePeople(new IPersonAttributesCallback() {
+                public boolean processPerson(final IPersonAttributes person) {
+                    assertNull(people.put(person.getName(), person));
+                    return true;
+                }
+            });
+
+            //The rows are ordered by netid so each person is passed to the callback once with all of its attributes
+            assertEquals(4, count);
+            assertEquals(Arrays.asList("atest", "awp9", "edalquist", "susan"), new ArrayList<>(people.keySet()));
+            assertEquals(impl.getPerson("edalquist").getAttributes(), people.get("edalquist").getAttributes());
+        }
+
+        //Returning false stops the enumeration
+        final List<String> names = new ArrayList<>();
+        assertEquals(2, impl.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                names.add(person.getName());
+                return names.size() < 2;
+            }
+        }));
+        assertEquals(Arrays.asList("atest", "awp9"), names);
+    }
+
     public void testProperties() {
         final MultiRowJdbcPersonAttributeDao impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, name, email FROM user_table WHERE shirt_color = ?");
         impl.setQueryAttributeMapping(Collections.singletonMap("shirt", "netid"));
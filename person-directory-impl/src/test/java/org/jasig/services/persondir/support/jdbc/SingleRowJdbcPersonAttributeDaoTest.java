@@ -20,6 +20,8 @@ package org.jasig.services.persondir.support.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,7 +33,10 @@ import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
+import org.jasig.services.persondir.support.QueryType;
 import org.jasig.services.persondir.support.SimpleUsernameAttributeProvider;
 import org.jasig.services.persondir.util.Util;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
@@ -100,6 +105,83 @@ public class SingleRowJdbcPersonAttributeDaoTest
         // no-op
     }
     
+    public void testCaseInsensitiveMultiValueQuery() {
+        final AbstractJdbcPersonAttributeDao<Map<String, Object>> impl = newDao(testDataSource);
+        impl.setUseAllQueryAttributes(false);
+        impl.setQueryType(QueryType.OR);
+        impl.setResultAttributeMapping(Collections.<String, Object>singletonMap("netid", "username"));
+        impl.setQueryAttributeMapping(Collections.<String, Object>singletonMap("firstName", "name"));
+        impl.setCaseInsensitiveQueryAttributesAsCollection(Util.genList("firstName"));
+        impl.setCaseInsensitiveDataAttributesAsCollection(Util.genList("name"));
+
+        //Every value of the attribute is compared to lower(name), the SQL is reused by the second query
+        final Map<String, List<Object>> query = Collections.singletonMap("firstName", Util.list("ANDREW", "SUSAN"));
+        assertEquals(3, impl.getPeopleWithMultivaluedAttributes(query).size());
+        assertEquals(3, impl.getPeopleWithMultivaluedAttributes(query).size());
+
+        //Changing the data attribute canonicalization changes the SQL of the query
+        impl.setCaseInsensitiveDataAttributes(null);
+        assertEquals(0, impl.getPeopleWithMultivaluedAttributes(query).size());
+    }
+
+    public void testEnumeratePeople() {
+        final AbstractJdbcPersonAttributeDao<Map<String, Object>> impl = newDao(testDataSource);
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setResultAttributeMapping(Collections.<String, Object>singletonMap("email", "mail"));
+        impl.setFetchSize(2);
+
+        final List<IPersonAttributes> people = new ArrayList<>();
+        final IPersonAttributesCallback callback = new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                people.add(person);
+                return true;
+            }
+        };
+        assertEquals(4, impl.enumeratePeople(callback));
+        assertEquals(4, people.size());
+        assertTrue(people.contains(impl.getPerson("edalquist")));
+        assertEquals(Util.list("edalquist@unicon.net"), people.get(1).getAttributeValues("mail"));
+
+        //The enumeration can be limited with enumerationSql
+        people.clear();
+        impl.setEnumerationSql("SELECT netid, email FROM user_table WHERE shirt_color = 'blue'");
+        assertEquals(2, impl.enumeratePeople(callback));
+        assertEquals("awp9", people.get(0).getName());
+    }
+
+    public void testProjectedQuery() {
+        final SingleRowJdbcPersonAttributeDao impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT {1} FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+
+        final Map<String, Object> columnsToAttributes = new HashMap<>();
+        columnsToAttributes.put("name", "firstName");
+        columnsToAttributes.put("email", Util.genList("mail", "emailAddress"));
+        columnsToAttributes.put("shirt_color", "dressShirtColor");
+        impl.setResultAttributeMapping(columnsToAttributes);
+
+        final Map<String, List<Object>> query = Collections.singletonMap("uid", Util.list("edalquist"));
+
+        //Only the requested result attributes are returned, the person is still named
+        final Set<IPersonAttributes> people = impl.getPeopleWithMultivaluedAttributes(query, Collections.singleton("mail"));
+        assertEquals(1, people.size());
+        final IPersonAttributes person = people.iterator().next();
+        assertEquals("edalquist", person.getName());
+        assertEquals(Collections.singletonMap("mail", Util.list("edalquist@unicon.net")), person.getAttributes());
+
+        //Unknown attributes return the person without attributes
+        final IPersonAttributes unknown = impl.getPeopleWithMultivaluedAttributes(query, Collections.singleton("unknown")).iterator().next();
+        assertEquals("edalquist", unknown.getName());
+        assertTrue(unknown.getAttributes().isEmpty());
+
+        //Queries without a projection select all columns
+        assertEquals(impl.getPeopleWithMultivaluedAttributes(query), impl.getPeopleWithMultivaluedAttributes(query, null));
+        assertEquals(4, impl.getPeopleWithMultivaluedAttributes(query).iterator().next().getAttributes().size());
+    }
+
     public void testNoQueryAttributeMapping() {
         final SingleRowJdbcPersonAttributeDao impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT name, email, shirt_color FROM user_table WHERE netid = 'awp9'");
         impl.setUseAllQueryAttributes(false);
@@ -360,6 +442,46 @@ public class SingleRowJdbcPersonAttributeDaoTest
         fail("JdbcPersonAttributeDao should have thrown IncorrectResultSizeDataAccessException for multiple results");
     }
     
+    /**
+     * Test for looking up several people with one IN query
+     */
+    public void testGetPersons() {
+        final SingleRowJdbcPersonAttributeDao impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, name, email FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setBatchSize(2);
+
+        final Map<String, Object> columnsToAttributes = new HashMap<>();
+        columnsToAttributes.put("name", "firstName");
+        impl.setResultAttributeMapping(columnsToAttributes);
+
+        final Map<String, IPersonAttributes> people = impl.getPersons(Arrays.asList("awp9", "edalquist", "unknown", "susan"));
+        assertEquals(3, people.size());
+        assertEquals("awp9", people.get("awp9").getName());
+        assertEquals(Util.list("Andrew"), people.get("awp9").getAttributeValues("firstName"));
+        assertEquals(Util.list("Eric"), people.get("edalquist").getAttributeValues("firstName"));
+        assertEquals(Util.list("Susan"), people.get("susan").getAttributeValues("firstName"));
+        assertNull(people.get("unknown"));
+    }
+
+    /**
+     * Test that queries are run one at a time when the queried column is not in the results
+     */
+    public void testGetPersonsUnmatchedRows() {
+        final SingleRowJdbcPersonAttributeDao impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT name, email FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+
+        final Map<String, Object> columnsToAttributes = new HashMap<>();
+        columnsToAttributes.put("name", "firstName");
+        impl.setResultAttributeMapping(columnsToAttributes);
+
+        final Map<String, IPersonAttributes> people = impl.getPersons(Arrays.asList("awp9", "edalquist"));
+        assertEquals(2, people.size());
+        assertEquals(Util.list("Andrew"), people.get("awp9").getAttributeValues("firstName"));
+        assertEquals(Util.list("Eric"), people.get("edalquist").getAttributeValues("firstName"));
+    }
+
     public void testProperties() {
         final SingleRowJdbcPersonAttributeDao impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, name, email FROM user_table WHERE {0}");
         
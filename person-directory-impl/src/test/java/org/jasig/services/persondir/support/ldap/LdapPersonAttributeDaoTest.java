@@ -18,6 +18,8 @@
  */
 package org.jasig.services.persondir.support.ldap;
 
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.util.Util;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.core.io.ClassPathResource;
@@ -116,6 +118,94 @@ public class LdapPersonAttributeDaoTest extends AbstractDirContextTest {
         }
     }
 
+    /**
+     * Test for a query returning only some of the mapped attributes
+     */
+    public void testProjectedQuery() throws Exception {
+        final LdapPersonAttributeDao impl = new LdapPersonAttributeDao();
+        
+        final Map<String, Object> ldapAttribsToPortalAttribs = new HashMap<>();
+        ldapAttribsToPortalAttribs.put("mail", "email");
+        ldapAttribsToPortalAttribs.put("cn", "commonName");
+        ldapAttribsToPortalAttribs.put("uid", "username");
+        
+        impl.setResultAttributeMapping(ldapAttribsToPortalAttribs);
+        impl.setContextSource(this.getContextSource());
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "uid"));
+        impl.setUnmappedUsernameAttribute("uid");
+        impl.afterPropertiesSet();
+        
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put("uid", Util.list("edalquist"));
+
+        final Set<IPersonAttributes> people = impl.getPeopleWithMultivaluedAttributes(queryMap, Collections.singleton("email"));
+        assertEquals(1, people.size());
+        final IPersonAttributes person = people.iterator().next();
+        assertEquals("edalquist", person.getName());
+        assertEquals(Collections.singletonMap("email", Util.list("eric.dalquist@example.com")), person.getAttributes());
+
+        assertEquals(3, impl.getPeopleWithMultivaluedAttributes(queryMap, null).iterator().next().getAttributes().size());
+    }
+
+    /**
+     * Test for enumerating all people
+     */
+    public void testEnumeratePeople() throws Exception {
+        final LdapPersonAttributeDao impl = new LdapPersonAttributeDao();
+
+        final Map<String, Object> ldapAttribsToPortalAttribs = new HashMap<>();
+        ldapAttribsToPortalAttribs.put("mail", "email");
+        ldapAttribsToPortalAttribs.put("uid", "username");
+
+        impl.setResultAttributeMapping(ldapAttribsToPortalAttribs);
+        impl.setContextSource(this.getContextSource());
+        impl.setQueryAttributeMapping(Collections.singletonMap("username", "uid"));
+        impl.setUnmappedUsernameAttribute("uid");
+        impl.getSearchControls().setCountLimit(1);
+        //The embedded test server does not support the paged results control
+        impl.setPageSize(0);
+        impl.afterPropertiesSet();
+
+        //The ou=people entry has no uid so it is not enumerated
+        final Map<String, IPersonAttributes> people = new HashMap<>();
+        final long count = impl.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                people.put(person.getName(), person);
+                return true;
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(Util.list("eric.dalquist@example.com"), people.get("edalquist").getAttributeValues("email"));
+        assertEquals(Util.list("jim.johnson@example.com"), people.get("jjohnson").getAttributeValues("email"));
+
+        //Returning false stops the enumeration
+        assertEquals(1, impl.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                return false;
+            }
+        }));
+    }
+
+    /**
+     * Test for looking up several people with one OR filter
+     */
+    public void testGetPersons() throws Exception {
+        final LdapPersonAttributeDao impl = new LdapPersonAttributeDao();
+
+        final Map<String, Object> ldapAttribsToPortalAttribs = new HashMap<>();
+        ldapAttribsToPortalAttribs.put("mail", "email");
+
+        impl.setResultAttributeMapping(ldapAttribsToPortalAttribs);
+        impl.setContextSource(this.getContextSource());
+        impl.setQueryAttributeMapping(Collections.singletonMap("username", "uid"));
+        impl.afterPropertiesSet();
+
+        final Map<String, IPersonAttributes> people = impl.getPersons(Arrays.asList("edalquist", "JJOHNSON", "unknown"));
+        assertEquals(2, people.size());
+        assertEquals(Util.list("eric.dalquist@example.com"), people.get("edalquist").getAttributeValues("email"));
+        assertEquals(Util.list("jim.johnson@example.com"), people.get("JJOHNSON").getAttributeValues("email"));
+    }
+
     /**
      * Test for a query with a single attribute. 
      * 
@@ -19,6 +19,9 @@
 package org.jasig.services.persondir.support.ldap;
 
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
+import org.jasig.services.persondir.support.QueryType;
+import org.jasig.services.persondir.util.Util;
 import org.ldaptive.DefaultConnectionFactory;
 import org.ldaptive.pool.BlockingConnectionPool;
 import org.ldaptive.pool.ConnectionPool;
@@ -30,8 +33,12 @@ import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.ldap.test.AbstractDirContextTest;
 
 import javax.naming.directory.SearchControls;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -98,5 +105,151 @@ public class LdaptivePersonAttributeDaoTest extends AbstractDirContextTest {
         assertNotNull(person.getAttributeValue("commonName"));
         assertNotNull(person.getAttributeValue("displayName"));
     }
-}
 
+    public void testEnumeratePeople() throws Exception {
+        final String[] urls = ((LdapContextSource)this.getContextSource()).getUrls();
+
+        final Map<String, String> map = new HashMap<>();
+        map.put("uid", "username");
+        map.put("mail", "displayName");
+
+        final SearchControls ctrs = new SearchControls();
+        ctrs.setSearchScope(1);
+        ctrs.setCountLimit(1);
+
+        final LdaptivePersonAttributeDao dao = new LdaptivePersonAttributeDao();
+        dao.setConnectionFactory(new DefaultConnectionFactory(urls[0]));
+        dao.setBaseDN(getBaseDn());
+        dao.setSearchControls(ctrs);
+        dao.setSearchFilter("uid={0}");
+        dao.setResultAttributeMapping(map);
+        dao.setUnmappedUsernameAttribute("uid");
+        //The embedded test server does not support the paged results control
+        dao.setPageSize(0);
+        dao.initialize();
+
+        final List<IPersonAttributes> people = new ArrayList<>();
+        final long count = dao.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                people.add(person);
+                return true;
+            }
+        });
+        assertEquals(2, count);
+        for (final IPersonAttributes person : people) {
+            assertNotNull(person.getName());
+            assertNotNull(person.getAttributeValue("displayName"));
+        }
+    }
+
+    public void testPooledConnections() throws Exception {
+        final String[] urls = ((LdapContextSource)this.getContextSource()).getUrls();
+
+        final Map<String, String> map = new HashMap<>();
+        map.put("cn", "commonName");
+        map.put("mail", "displayName");
+
+        final SearchControls ctrs = new SearchControls();
+        ctrs.setSearchScope(1);
+        ctrs.setCountLimit(2);
+
+        final LdaptivePersonAttributeDao dao = new LdaptivePersonAttributeDao();
+        dao.setConnectionFactory(new DefaultConnectionFactory(urls[0]));
+        dao.setBaseDN(getBaseDn());
+        dao.setSearchControls(ctrs);
+        dao.setSearchFilter("uid={0}");
+        dao.setResultAttributeMapping(map);
+        dao.setPooled(true);
+        dao.setMinPoolSize(1);
+        dao.setMaxPoolSize(2);
+        assertEquals(-1, dao.getPoolAvailableCount());
+        dao.initialize();
+        try {
+            assertEquals(1, dao.getPoolAvailableCount());
+
+            for (int i = 0; i < 3; i++) {
+                final IPersonAttributes person = dao.getPerson("edalquist");
+                assertNotNull(person.getAttributeValue("commonName"));
+            }
+
+            //The connection is reused and returned to the pool after each query
+            assertEquals(0, dao.getPoolActiveCount());
+            assertEquals(1, dao.getPoolAvailableCount());
+        }
+        finally {
+            dao.destroy();
+        }
+        assertEquals(0, dao.getPoolAvailableCount());
+    }
+
+    public void testCompoundQuery() throws Exception {
+        final LdaptivePersonAttributeDao dao = this.createCompoundQueryDao("(|(uid={0})(mail={0}))");
+
+        final Map<String, List<Object>> query = new HashMap<>();
+        query.put("username", Util.list("edalquist"));
+        query.put("email", Util.list("jim.johnson@example.com"));
+
+        //AND requires both terms to match the same entry
+        assertEquals(0, dao.getPeopleWithMultivaluedAttributes(query).size());
+
+        query.put("email", Util.list("eric.dalquist@example.com"));
+        final Set<IPersonAttributes> people = dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(1, people.size());
+        assertEquals("edalquist", people.iterator().next().getName());
+
+        dao.setQueryType(QueryType.OR);
+        query.put("email", Util.list("jim.johnson@example.com"));
+        assertEquals(2, dao.getPeopleWithMultivaluedAttributes(query).size());
+
+        //Multiple values of one attribute are all matched
+        assertEquals(2, dao.getPeopleWithMultivaluedAttributes(
+                Collections.singletonMap("username", Util.list("edalquist", "jjohnson"))).size());
+
+        //Values are escaped so they cannot change the structure of the filter
+        query.clear();
+        query.put("username", Util.list("*"));
+        query.put("email", Util.list("nobody@example.com)(uid=*"));
+        assertEquals(0, dao.getPeopleWithMultivaluedAttributes(query).size());
+    }
+
+    public void testCompoundQueryKeepsSearchFilterClauses() throws Exception {
+        final Map<String, List<Object>> query =
+                Collections.singletonMap("username", Util.list("edalquist", "jjohnson"));
+
+        LdaptivePersonAttributeDao dao = this.createCompoundQueryDao("(&(objectClass=inetOrgPerson)(uid={0}))");
+        dao.setQueryType(QueryType.OR);
+        assertEquals(2, dao.getPeopleWithMultivaluedAttributes(query).size());
+
+        //The objectClass clause applies to the term of every value
+        dao = this.createCompoundQueryDao("(&(objectClass=groupOfNames)(uid={0}))");
+        dao.setQueryType(QueryType.OR);
+        assertEquals(0, dao.getPeopleWithMultivaluedAttributes(query).size());
+    }
+
+    private LdaptivePersonAttributeDao createCompoundQueryDao(final String searchFilter) throws Exception {
+        final String[] urls = ((LdapContextSource)this.getContextSource()).getUrls();
+
+        final Map<String, String> queryMap = new HashMap<>();
+        queryMap.put("username", "uid");
+        queryMap.put("email", "mail");
+
+        final Map<String, String> map = new HashMap<>();
+        map.put("uid", "username");
+        map.put("cn", "commonName");
+
+        final SearchControls ctrs = new SearchControls();
+        ctrs.setSearchScope(1);
+        ctrs.setCountLimit(5);
+
+        final LdaptivePersonAttributeDao dao = new LdaptivePersonAttributeDao();
+        dao.setConnectionFactory(new DefaultConnectionFactory(urls[0]));
+        dao.setBaseDN(getBaseDn());
+        dao.setSearchControls(ctrs);
+        dao.setSearchFilter(searchFilter);
+        dao.setQueryAttributeMapping(queryMap);
+        dao.setResultAttributeMapping(map);
+        dao.setUnmappedUsernameAttribute("uid");
+        dao.initialize();
+        return dao;
+    }
+}
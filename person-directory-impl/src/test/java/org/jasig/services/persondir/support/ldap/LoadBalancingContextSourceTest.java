@@ -0,0 +1,217 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+
+import junit.framework.TestCase;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.support.LdapUtils;
+
+/**
+ * LoadBalancingContextSource testcase.
+ *
+ * @version $Revision$
+ */
+public class LoadBalancingContextSourceTest extends TestCase {
+    private StubServer server1;
+    private StubServer server2;
+    private LoadBalancingContextSource contextSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.server1 = new StubServer("server1");
+        this.server2 = new StubServer("server2");
+
+        this.contextSource = new LoadBalancingContextSource();
+        this.contextSource.setContextSources(Arrays.asList(this.server1, this.server2));
+        this.contextSource.afterPropertiesSet();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.contextSource.destroy();
+    }
+
+    public void testRoundRobin() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            this.query();
+        }
+
+        assertEquals(2, this.server1.queries);
+        assertEquals(2, this.server2.queries);
+    }
+
+    public void testFailover() throws Exception {
+        this.server1.down = true;
+
+        for (int i = 0; i < 3; i++) {
+            this.query();
+        }
+        assertEquals(3, this.server2.queries);
+
+        //The failed server is ejected and not tried again
+        final List<LoadBalancingContextSource.ServerHealth> health = this.contextSource.getServerHealth();
+        assertEquals("server1", health.get(0).getName());
+        assertTrue(health.get(0).isEjected());
+        assertEquals(1, health.get(0).getFailures());
+        assertFalse(health.get(1).isEjected());
+
+        //Ejected servers are still used when no other server is available
+        this.server1.down = false;
+        this.server2.down = true;
+        this.query();
+        assertEquals(1, this.server1.queries);
+    }
+
+    public void testAllServersDown() throws Exception {
+        this.server1.down = true;
+        this.server2.down = true;
+
+        try {
+            this.contextSource.getReadOnlyContext();
+            fail("CommunicationException should have been thrown");
+        }
+        catch (final CommunicationException e) {
+            //expected
+        }
+    }
+
+    public void testLeastLatency() throws Exception {
+        this.contextSource.setStrategy(LoadBalancingContextSource.Strategy.LEAST_LATENCY);
+        this.server1.delay = 20;
+
+        this.contextSource.probeServers();
+        this.server1.queries = 0;
+        this.server2.queries = 0;
+
+        for (int i = 0; i < 5; i++) {
+            this.query();
+        }
+        assertEquals(0, this.server1.queries);
+        assertEquals(5, this.server2.queries);
+        assertTrue(this.contextSource.getServerHealth().get(0).getScore() >= 20);
+    }
+
+    public void testSlowServerEjection() throws Exception {
+        this.contextSource.setSlowThreshold(10);
+        this.server1.delay = 30;
+
+        this.contextSource.probeServers();
+        assertTrue(this.contextSource.getServerHealth().get(0).isEjected());
+        assertEquals(0, this.contextSource.getServerHealth().get(0).getFailures());
+
+        this.server1.queries = 0;
+        this.query();
+        this.query();
+        assertEquals(0, this.server1.queries);
+
+        //Probes re-admit the server once its score drops below the threshold
+        this.server1.delay = 0;
+        for (int i = 0; i < 20 && this.contextSource.getServerHealth().get(0).isEjected(); i++) {
+            this.contextSource.probeServers();
+        }
+        assertFalse(this.contextSource.getServerHealth().get(0).isEjected());
+    }
+
+    public void testSlowServerRecoveryWithoutProbes() throws Exception {
+        this.contextSource.setStrategy(LoadBalancingContextSource.Strategy.LEAST_LATENCY);
+        this.contextSource.setSlowThreshold(10);
+        this.contextSource.setEjectionTime(50);
+        this.server1.delay = 30;
+
+        this.contextSource.probeServers();
+        assertTrue(this.contextSource.getServerHealth().get(0).isEjected());
+
+        //Once the ejection ends the score is reset so the recovered server is tried and measured again
+        this.server1.delay = 0;
+        Thread.sleep(60);
+        final LoadBalancingContextSource.ServerHealth health = this.contextSource.getServerHealth().get(0);
+        assertFalse(health.isEjected());
+        assertEquals(-1d, health.getScore());
+
+        this.server1.queries = 0;
+        this.query();
+        assertEquals(1, this.server1.queries);
+        assertFalse(this.contextSource.getServerHealth().get(0).isEjected());
+        assertTrue(this.contextSource.getServerHealth().get(0).getScore() < 10);
+    }
+
+    private void query() throws Exception {
+        final DirContext context = this.contextSource.getReadOnlyContext();
+        try {
+            context.getAttributes("uid=edalquist");
+        }
+        finally {
+            LdapUtils.closeContext(context);
+        }
+    }
+
+    /**
+     * ContextSource for a server whose contexts take <code>delay</code> milliseconds to read an entry.
+     */
+    private static final class StubServer implements ContextSource {
+        private final String name;
+        private volatile boolean down = false;
+        private volatile long delay = 0;
+        private volatile int queries = 0;
+
+        public StubServer(final String name) {
+            this.name = name;
+        }
+
+        public DirContext getReadOnlyContext() {
+            if (this.down) {
+                throw new CommunicationException(new javax.naming.CommunicationException(this.name + " is down"));
+            }
+
+            return (DirContext) Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class<?>[] { DirContext.class }, new InvocationHandler() {
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    if ("getAttributes".equals(method.getName())) {
+                        queries++;
+                        Thread.sleep(delay);
+                        return new BasicAttributes();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        public DirContext getReadWriteContext() {
+            return this.getReadOnlyContext();
+        }
+
+        public DirContext getContext(final String principal, final String credentials) {
+            return this.getReadOnlyContext();
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.support.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import junit.framework.TestCase;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
+import org.jasig.services.persondir.util.Util;
+import org.springframework.ldap.core.ContextSource;
+
+/**
+ * Tests the paged searches of {@link LdapPersonAttributeDao} against a stub LdapContext that returns its entries in
+ * pages of two, the embedded test directory server does not support the paged results control.
+ *
+ * @version $Revision$
+ */
+public class PagedLdapPersonAttributeDaoTest extends TestCase {
+    private PagingContext pagingContext;
+    private LdapPersonAttributeDao dao;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.pagingContext = new PagingContext(Arrays.asList("awp9", "atest", "edalquist"));
+
+        final LdapContext ldapContext = (LdapContext) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+                new Class<?>[] { LdapContext.class }, this.pagingContext);
+
+        this.dao = new LdapPersonAttributeDao();
+        this.dao.setContextSource(new ContextSource() {
+            public DirContext getReadOnlyContext() {
+                return ldapContext;
+            }
+
+            public DirContext getReadWriteContext() {
+                return ldapContext;
+            }
+
+            public DirContext getContext(final String principal, final String credentials) {
+                return ldapContext;
+            }
+        });
+        this.dao.setQueryAttributeMapping(Collections.singletonMap("username", "uid"));
+        this.dao.setResultAttributeMapping(Collections.<String, Object>singletonMap("uid", "username"));
+        this.dao.setUnmappedUsernameAttribute("uid");
+        this.dao.setPageSize(2);
+        this.dao.afterPropertiesSet();
+    }
+
+    public void testPagedQuery() {
+        this.dao.setPagedQueries(true);
+
+        final Set<IPersonAttributes> people = this.dao.getPeopleWithMultivaluedAttributes(Collections.singletonMap("username", Util.list("a*")));
+        assertEquals(3, people.size());
+        assertEquals(2, this.pagingContext.searches);
+        assertEquals(Boolean.FALSE, this.pagingContext.critical);
+    }
+
+    public void testUnpagedQuery() {
+        final Set<IPersonAttributes> people = this.dao.getPeopleWithMultivaluedAttributes(Collections.singletonMap("username", Util.list("a*")));
+        assertEquals(3, people.size());
+        assertEquals(1, this.pagingContext.searches);
+        assertNull(this.pagingContext.critical);
+    }
+
+    public void testEnumerateQuery() {
+        final List<String> names = new ArrayList<>();
+        final IPersonAttributesCallback callback = new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                names.add(person.getName());
+                return !"atest".equals(person.getName());
+            }
+        };
+
+        //The second page is not requested once the callback stops the query
+        assertEquals(2, this.dao.enumeratePeople(Collections.singletonMap("username", Util.list("a*")), callback));
+        assertEquals(Arrays.asList("awp9", "atest"), names);
+        assertEquals(1, this.pagingContext.searches);
+
+        assertEquals(0, this.dao.enumeratePeople(Collections.singletonMap("unknown", Util.list("a*")), callback));
+    }
+
+    /**
+     * Returns the entries in pages of two, the cookie of the response is the index of the next entry.
+     */
+    private static final class PagingContext implements InvocationHandler {
+        private final List<String> uids;
+        private Control[] requestControls;
+        private Control[] responseControls;
+        private int searches = 0;
+        private Boolean critical = null;
+
+        public PagingContext(final List<String> uids) {
+            this.uids = uids;
+        }
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("getRequestControls".equals(name)) {
+                return this.requestControls;
+            }
+            if ("setRequestControls".equals(name)) {
+                this.requestControls = (Control[]) args[0];
+                return null;
+            }
+            if ("getResponseControls".equals(name)) {
+                return this.responseControls;
+            }
+            if ("search".equals(name)) {
+                return this.search();
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("toString".equals(name)) {
+                return "PagingContext";
+            }
+            return null;
+        }
+
+        private NamingEnumeration<SearchResult> search() throws Exception {
+            this.searches++;
+
+            int start = 0;
+            int end = this.uids.size();
+            this.responseControls = null;
+            if (this.requestControls != null) {
+                for (final Control control : this.requestControls) {
+                    if (PagedResultsControl.OID.equals(control.getID())) {
+                        this.critical = control.isCritical();
+
+                        //SEQUENCE { INTEGER pageSize, OCTET STRING cookie }, the one byte cookie is the next index
+                        final byte[] value = control.getEncodedValue();
+                        start = value[6] == 0 ? 0 : value[7];
+                        end = Math.min(start + 2, this.uids.size());
+
+                        final byte[] cookie = end < this.uids.size() ? new byte[] { (byte) end } : new byte[0];
+                        this.responseControls = new Control[] { newResponseControl(cookie) };
+                    }
+                }
+            }
+
+            final List<SearchResult> results = new ArrayList<>();
+            for (final String uid : this.uids.subList(start, end)) {
+                final BasicAttributes attributes = new BasicAttributes(true);
+                attributes.put("uid", uid);
+                results.add(new SearchResult("uid=" + uid, null, attributes));
+            }
+            return new IteratorNamingEnumeration(results.iterator());
+        }
+
+        private static PagedResultsResponseControl newResponseControl(final byte[] cookie) throws Exception {
+            //SEQUENCE { INTEGER 0, OCTET STRING cookie }
+            final byte[] value = new byte[7 + cookie.length];
+            value[0] = 0x30;
+            value[1] = (byte) (5 + cookie.length);
+            value[2] = 0x02;
+            value[3] = 0x01;
+            value[4] = 0x00;
+            value[5] = 0x04;
+            value[6] = (byte) cookie.length;
+            System.arraycopy(cookie, 0, value, 7, cookie.length);
+            return new PagedResultsResponseControl(PagedResultsControl.OID, false, value);
+        }
+    }
+
+    private static final class IteratorNamingEnumeration implements NamingEnumeration<SearchResult> {
+        private final Iterator<SearchResult> iterator;
+
+        public IteratorNamingEnumeration(final Iterator<SearchResult> iterator) {
+            this.iterator = iterator;
+        }
+
+        public SearchResult next() {
+            return this.iterator.next();
+        }
+
+        public boolean hasMore() {
+            return this.iterator.hasNext();
+        }
+
+        public void close() {
+        }
+
+        public boolean hasMoreElements() {
+            return this.iterator.hasNext();
+        }
+
+        public SearchResult nextElement() {
+            return this.iterator.next();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.jasig.services.persondir.support.xml;
 
 import junit.framework.TestCase;
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.IPersonAttributesCallback;
 import org.jasig.services.persondir.util.Util;
 import org.springframework.core.io.ClassPathResource;
 
@@ -121,5 +122,18 @@ public class XmlPersonAttributeDaoTest extends TestCase {
         final Set<IPersonAttributes> results = this.xmlPersonAttributeDao.getPeopleWithMultivaluedAttributes(query);
         assertEquals(3, results.size());
     }
+    
+    public void testEnumeratePeople() {
+        final List<String> names = new ArrayList<>();
+        final long count = this.xmlPersonAttributeDao.enumeratePeople(new IPersonAttributesCallback() {
+            public boolean processPerson(final IPersonAttributes person) {
+                names.add(person.getName());
+                return !"dfaculty".equals(person.getName());
+            }
+        });
+        
+        assertEquals(3, count);
+        assertEquals(Arrays.asList("jstudent", "mstaff", "dfaculty"), names);
+    }
 
 }
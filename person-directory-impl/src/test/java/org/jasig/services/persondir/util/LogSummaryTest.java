@@ -0,0 +1,59 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.services.persondir.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.jasig.services.persondir.support.NamedPersonImpl;
+
+/**
+ * @version $Revision$
+ */
+public class LogSummaryTest extends TestCase {
+    public void testSmallValues() {
+        assertEquals("null", LogSummary.of(null).toString());
+        assertEquals("[a, b]", LogSummary.of(Util.list("a", "b")).toString());
+
+        final Map<String, List<Object>> attributes = Collections.singletonMap("phone", Util.list("777-7777"));
+        assertEquals("{phone=[777-7777]}", LogSummary.of(attributes).toString());
+        assertEquals("[edalquist={phone=[777-7777]}]",
+                LogSummary.of(Collections.singleton(new NamedPersonImpl("edalquist", attributes))).toString());
+    }
+
+    public void testElementCap() {
+        final List<Object> values = new ArrayList<>();
+        for (int index = 0; index < 25; index++) {
+            values.add(index);
+        }
+
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, ...15 more]", LogSummary.of(values).toString());
+    }
+
+    public void testLengthCap() {
+        final String value = new String(new char[5000]).replace('\0', 'x');
+        final String summary = LogSummary.of(Util.list(value)).toString();
+
+        assertEquals(LogSummary.MAX_LENGTH + "...(truncated)".length(), summary.length());
+        assertTrue(summary.endsWith("...(truncated)"));
+    }
+}